@@ -0,0 +1,348 @@
+package com.example.chronocode;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.chronocode.battle.RoomSweeper;
+import com.example.chronocode.battle.ServerClock;
+import com.example.chronocode.bot.BotEngine;
+import com.example.chronocode.firebase.FirestoreBattleStore;
+import com.example.chronocode.judge.CachingJudge;
+import com.example.chronocode.judge.Judge;
+import com.example.chronocode.judge.Limits;
+import com.example.chronocode.judge.ProcessSandbox;
+import com.example.chronocode.judge.StoreTestCaseSource;
+import com.example.chronocode.judge.VerdictCache;
+import com.example.chronocode.matchmaking.BattleLauncher;
+import com.example.chronocode.matchmaking.RatingWindow;
+import com.example.chronocode.matchmaking.RoomClaimer;
+import com.example.chronocode.metrics.LatencyHistogram;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.metrics.MetricsFile;
+import com.example.chronocode.problem.ProblemIndex;
+import com.example.chronocode.problem.ProblemRepository;
+import com.example.chronocode.problem.RecentProblems;
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.profile.UserProfileRepository;
+import com.example.chronocode.rating.EloCalculator;
+import com.example.chronocode.rating.Leaderboard;
+import com.example.chronocode.rating.RatingSettler;
+import com.example.chronocode.rating.Settlement;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.RoundTripTrace;
+import com.example.chronocode.store.StoreException;
+import com.example.chronocode.store.TracingBattleStore;
+import com.example.chronocode.submission.SubmissionOutbox;
+import com.example.chronocode.submission.SubmissionStore;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// App-wide singletons shared by the activities, created on first use
+final class AppServices {
+
+    // Interpreter the local judge hands submissions to, packaged as a native library since that
+    // directory is the one place an app may execute its own binaries from
+    private static final String JUDGE_RUNTIME_LIBRARY = "libpython3.so";
+    private static final int JUDGE_MAX_IN_FLIGHT = 4;
+    private static final int VERDICT_CACHE_ENTRIES = 256;
+    private static final long VERDICT_CACHE_DISK_BYTES = 1024 * 1024;
+    private static final int PROBLEM_CACHE_ENTRIES = 32;
+    private static final long PROBLEM_MAX_AGE_MS = TimeUnit.HOURS.toMillis(12);
+    // Expired rooms each app start retires; every client sweeps a little so none does it all
+    private static final int SWEEP_ROOMS_PER_START = 100;
+    // Rooms are retired this much later than their TTL, on top of the clock's uncertainty, so a
+    // device whose estimate of server time is a little ahead does not end live rooms
+    private static final long SWEEP_GRACE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    // Disk reads and writes of the local caches; one thread keeps them off the main thread in order
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
+    // Store callbacks: snapshots are converted, decoded and turned into view states here, one at a
+    // time, and only the results are posted to the main thread
+    private static final ExecutorService DECODE = Executors.newSingleThreadExecutor();
+    private static final Executor MAIN = new Handler(Looper.getMainLooper())::post;
+    // Delayed work that has to happen even if the screen that asked for it is gone by then
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+    // Every store call the app makes, so the round trips of a flow can be logged
+    private static final RoundTripTrace TRACE = new RoundTripTrace();
+    // Latency histograms of the battle flow, appended to a per-release file by exportMetrics()
+    private static final Metrics METRICS = new Metrics();
+    // Problems this player was given lately, which picks avoid; kept for the life of the process
+    private static final RecentProblems RECENT_PROBLEMS = new RecentProblems();
+
+    private static BattleStore backend;
+    private static BattleStore store;
+    private static CachingJudge judge;
+    private static boolean judgeLooked;
+    private static ProblemRepository problems;
+    private static ProblemIndex problemIndex;
+    private static UserProfileRepository profiles;
+    private static StatCounters stats;
+    private static SubmissionStore submissions;
+    private static SubmissionOutbox outbox;
+    private static Leaderboard leaderboard;
+    private static RatingSettler ratings;
+    private static BattleLauncher launcher;
+    private static ServerClock clock;
+    private static BotEngine bots;
+    private static boolean swept;
+
+    private AppServices() {
+    }
+
+    static synchronized BattleStore store() {
+        if (store == null) {
+            store = new TracingBattleStore(backend(), TRACE, METRICS);
+        }
+        return store;
+    }
+
+    // Untraced, for background jobs that would otherwise show up in the traced flows
+    private static synchronized BattleStore backend() {
+        if (backend == null) {
+            backend = new FirestoreBattleStore(FirebaseFirestore.getInstance(), DECODE);
+        }
+        return backend;
+    }
+
+    static RoundTripTrace trace() {
+        return TRACE;
+    }
+
+    static Metrics metrics() {
+        return METRICS;
+    }
+
+    // Where store futures complete and listeners run; work that follows a store call belongs here
+    static Executor decoder() {
+        return DECODE;
+    }
+
+    static Executor mainThread() {
+        return MAIN;
+    }
+
+    // Null when this build ships no runtime to run the test cases with
+    static synchronized CachingJudge judge(Context context) {
+        if (!judgeLooked) {
+            judgeLooked = true;
+            File runtime = new File(context.getApplicationContext().getApplicationInfo().nativeLibraryDir,
+                    JUDGE_RUNTIME_LIBRARY);
+            if (!runtime.canExecute()) {
+                Log.w("AppServices", "No judge runtime at " + runtime + "; submissions are scored without tests");
+                return null;
+            }
+            File cacheDir = context.getApplicationContext().getCacheDir();
+            File scratch = new File(cacheDir, "judge");
+            scratch.mkdirs();
+            ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+            Judge local = new Judge(new StoreTestCaseSource(store()),
+                    new ProcessSandbox(Collections.singletonList(runtime.getAbsolutePath()), scratch, watchdog),
+                    Limits.DEFAULT, Judge.defaultWorkerCount(), JUDGE_MAX_IN_FLIGHT);
+            VerdictCache verdicts = new VerdictCache(VERDICT_CACHE_ENTRIES,
+                    new File(cacheDir, "verdicts"), VERDICT_CACHE_DISK_BYTES);
+            judge = new CachingJudge(local, verdicts, IO);
+        }
+        return judge;
+    }
+
+    static synchronized ProblemRepository problems(Context context) {
+        if (problems == null) {
+            File dir = new File(context.getApplicationContext().getFilesDir(), "problems");
+            problems = new ProblemRepository(store(), dir, IO, PROBLEM_CACHE_ENTRIES, PROBLEM_MAX_AGE_MS);
+        }
+        return problems;
+    }
+
+    // Every problem a battle can be played on, read untraced in the background
+    static synchronized ProblemIndex problemIndex() {
+        if (problemIndex == null) {
+            problemIndex = new ProblemIndex(backend());
+        }
+        return problemIndex;
+    }
+
+    static RecentProblems recentProblems() {
+        return RECENT_PROBLEMS;
+    }
+
+    // The first call loads the whole index, later ones only what changed since; cached problems
+    // older than what it reads are dropped
+    static void refreshProblemIndex(Context context) {
+        ProblemIndex index = problemIndex();
+        index.setListener(problems(context)::invalidateIfOlder);
+        index.refresh().whenComplete((read, e) -> {
+            if (e != null) Log.w("AppServices", "Problem index refresh failed", e);
+            else Log.d("AppServices", "Problem index: " + read + " updated, " + index.size() + " problems");
+        });
+    }
+
+    static synchronized UserProfileRepository profiles() {
+        if (profiles == null) {
+            profiles = new UserProfileRepository(store());
+        }
+        return profiles;
+    }
+
+    // Wins, losses and matches played, sharded away from the users documents ratings live in
+    static synchronized StatCounters stats() {
+        if (stats == null) {
+            stats = new StatCounters(store());
+        }
+        return stats;
+    }
+
+    static synchronized SubmissionStore submissions() {
+        if (submissions == null) {
+            submissions = new SubmissionStore(store());
+        }
+        return submissions;
+    }
+
+    // Room writes of submissions, kept on disk through disconnects and restarts until the room has them
+    static synchronized SubmissionOutbox outbox(Context context) {
+        if (outbox == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), "submission-outbox");
+            outbox = new SubmissionOutbox(file, store(), submissions(), Executors.newSingleThreadScheduledExecutor());
+        }
+        return outbox;
+    }
+
+    // Kept up to date by the settlements of this client's ratings, so it shares their settler
+    static synchronized Leaderboard leaderboard() {
+        if (leaderboard == null) {
+            leaderboard = new Leaderboard(store());
+        }
+        return leaderboard;
+    }
+
+    static synchronized RatingSettler ratings() {
+        if (ratings == null) {
+            ratings = new RatingSettler(store(), EloCalculator.DEFAULT, RatingSettler.DEFAULT_MAX_ROUNDS, stats(),
+                    leaderboard());
+        }
+        return ratings;
+    }
+
+    // Settles a room's ratings after delayMs on the app's scheduler rather than a screen's, so the
+    // fallback settlement still runs when the result screen is closed first; a no-op if settled
+    static CompletableFuture<Settlement> settleLater(String roomId, long delayMs) {
+        CompletableFuture<Settlement> settled = new CompletableFuture<>();
+        SCHEDULER.schedule(() -> METRICS.time("updateRatings", () -> ratings().settle(roomId))
+                .whenComplete((settlement, e) -> {
+                    if (e != null) {
+                        Log.w("AppServices", "Fallback settlement failed for room " + roomId, e);
+                        settled.completeExceptionally(e);
+                    } else {
+                        Log.d("AppServices", "Room " + roomId + " fallback settlement: " + settlement.getStatus());
+                        settled.complete(settlement);
+                    }
+                }), delayMs, TimeUnit.MILLISECONDS);
+        return settled;
+    }
+
+    static synchronized BattleLauncher launcher(Context context) {
+        if (launcher == null) {
+            // Battles start and end on the server's clock, whatever the devices' clocks say
+            RoomClaimer claimer = new RoomClaimer(store(), RoomClaimer.DEFAULT_TOP_K, RoomClaimer.DEFAULT_MAX_ROUNDS,
+                    new Random(), clock()::serverNow);
+            launcher = new BattleLauncher(store(), profiles(), problems(context), claimer,
+                    RatingWindow.DEFAULT, METRICS, bots());
+        }
+        return launcher;
+    }
+
+    // Bot battles in progress, played in memory; only their finished rooms are written
+    static synchronized BotEngine bots() {
+        if (bots == null) {
+            bots = new BotEngine(store(), clock()::serverNow, stats());
+        }
+        return bots;
+    }
+
+    // Synced against the server on first use, untraced; serverNow() is the device clock until then
+    static synchronized ServerClock clock() {
+        if (clock == null) {
+            FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+            String clientId = user != null ? user.getUid() : backend().newId(BattleStore.CLOCK);
+            clock = new ServerClock(backend(), clientId);
+            clock.sync().whenComplete((synced, e) -> {
+                if (e != null) Log.w("AppServices", "Clock sync failed; using the device clock", e);
+                else Log.d("AppServices", "Server clock offset " + synced.getOffsetMs() + " ms, +/- "
+                        + synced.getUncertaintyMs() + " ms");
+            });
+        }
+        return clock;
+    }
+
+    // Adds what was recorded since the last export to this release's metrics file, off the main thread
+    static void exportMetrics(Context context) {
+        Map<String, LatencyHistogram> recorded = METRICS.drain();
+        if (recorded.isEmpty()) return;
+        File file = new File(new File(context.getApplicationContext().getFilesDir(), "metrics"),
+                "latency-" + versionName(context) + ".tsv");
+        IO.execute(() -> {
+            try {
+                Map<String, LatencyHistogram> release = MetricsFile.append(file, recorded);
+                Log.d("AppServices", "Latency this release:\n" + MetricsFile.describe(release));
+            } catch (IOException e) {
+                Log.w("AppServices", "Could not write " + file, e);
+            }
+        });
+    }
+
+    private static String versionName(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    // Retires abandoned rooms once per process, on its own thread since the sweep blocks. Call once
+    // signed in: rooms are judged expired by server time, so nothing is swept until the clock has
+    // synced, and not at all if it cannot.
+    static synchronized void sweepExpiredRoomsOnce() {
+        if (swept) return;
+        swept = true;
+        ServerClock clock = clock();
+        CompletableFuture<ServerClock> synced = clock.isSynced()
+                ? CompletableFuture.completedFuture(clock) : clock.sync();
+        synced.whenComplete((ready, e) -> {
+            if (e != null) Log.w("AppServices", "Room sweep skipped: no server time", e);
+            else sweepExpiredRooms(ready.serverNow() - ready.getUncertaintyMs() - SWEEP_GRACE_MS);
+        });
+    }
+
+    private static void sweepExpiredRooms(long nowMs) {
+        RoomSweeper sweeper = new RoomSweeper(backend());
+        Thread thread = new Thread(() -> {
+            try {
+                RoomSweeper.Report report = sweeper.sweep(nowMs, SWEEP_ROOMS_PER_START);
+                Log.d("AppServices", "Room sweep: " + report.getCanceled() + " canceled, "
+                        + report.getAbandoned() + " abandoned, " + report.getSkipped() + " skipped in "
+                        + TimeUnit.NANOSECONDS.toMillis(report.getElapsedNanos()) + "ms");
+            } catch (StoreException e) {
+                Log.w("AppServices", "Room sweep failed", e);
+            }
+        }, "room-sweeper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.chronocode;
+
+import android.view.Choreographer;
+
+import com.example.chronocode.battle.BattleHud;
+
+// Drives a BattleHud's countdown from display frames: one frame callback, re-posted for the frame
+// on which the shown second next changes, instead of a CountDownTimer per battle
+final class HudTicker implements Choreographer.FrameCallback {
+
+    private final BattleHud hud;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private boolean running;
+
+    HudTicker(BattleHud hud) {
+        this.hud = hud;
+    }
+
+    void start() {
+        if (running) return;
+        running = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    void stop() {
+        running = false;
+        choreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) return;
+        long delayMs = hud.onFrame(frameTimeNanos);
+        if (delayMs < 0) {
+            running = false;
+        } else {
+            choreographer.postFrameCallbackDelayed(this, delayMs);
+        }
+    }
+}
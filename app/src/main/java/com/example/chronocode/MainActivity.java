@@ -7,30 +7,36 @@ import android.util.Log;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.profile.UserProfileRepository;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Registration;
+import com.example.chronocode.store.StoreException;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
+    // Drawn from until the problem index has loaded, e.g. when a battle is found right after a
+    // cold start: problem_1 to problem_5, which every deployment has
+    private static final int FALLBACK_PROBLEMS = 5;
+    private static boolean firstBattleLaunched;
 
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;
     private FirebaseUser currentUser;
 
     private Button findBattleButton;
     private TextView userRatingText;
+    private long rating = UserProfile.DEFAULT_RATING; // Problems are picked for it
 
-    private ListenerRegistration matchmakingListener; // To listen for opponent joining
+    private Registration matchmakingListener; // To listen for opponent joining
+    private Metrics.Span matchSpan; // From "find battle" to the battle screen
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,7 +44,6 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main); // Ensure you have activity_main.xml
 
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
 
         findBattleButton = findViewById(R.id.findBattleButton); // Add button in XML
         userRatingText = findViewById(R.id.userRatingText); // Add TextView in XML
@@ -49,6 +54,8 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public void onStart() {
         super.onStart();
+        AppServices.refreshProblemIndex(this); // Only problems changed since the last refresh are read
+        AppServices.outbox(this); // Sends what an earlier session could not
         currentUser = mAuth.getCurrentUser();
         if (currentUser == null) {
             signInAnonymously();
@@ -63,10 +70,12 @@ public class MainActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         // Remove listener when activity is not visible
-        if (matchmakingListener != null) {
-            matchmakingListener.remove();
-            matchmakingListener = null;
-        }
+        stopListeningForOpponent();
+        AppServices.exportMetrics(this);
+        UserProfileRepository profiles = AppServices.profiles();
+        Log.d(TAG, "Profile reads this session: " + profiles.getRemoteReads() + " remote, "
+                + profiles.getJoinedReads() + " joined, " + profiles.getCacheHits() + " cached, "
+                + profiles.getListenerUpdates() + " pushed");
     }
 
     private void signInAnonymously() {
@@ -75,7 +84,7 @@ public class MainActivity extends AppCompatActivity {
                     if (task.isSuccessful()) {
                         Log.d(TAG, "signInAnonymously:success");
                         currentUser = mAuth.getCurrentUser();
-                        createUserProfileIfNotExists(); // Create profile for new anonymous user
+                        // A new player's profile is written together with their first room
                         loadUserProfile();
                         findBattleButton.setEnabled(true);
                     } else {
@@ -87,56 +96,49 @@ public class MainActivity extends AppCompatActivity {
                 });
     }
 
-    private void createUserProfileIfNotExists() {
-        if (currentUser != null) {
-            DocumentReference userRef = db.collection("users").document(currentUser.getUid());
-            userRef.get().addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    DocumentSnapshot document = task.getResult();
-                    if (document != null && !document.exists()) {
-                        Map<String, Object> newUser = new HashMap<>();
-                        newUser.put("displayName", "User_" + currentUser.getUid().substring(0, 6));
-                        newUser.put("rating", 1000);
-                        newUser.put("createdAt", new Date());
-                        userRef.set(newUser)
-                                .addOnSuccessListener(aVoid -> Log.d(TAG, "User profile created for " + currentUser.getUid()))
-                                .addOnFailureListener(e -> Log.w(TAG, "Error creating user profile", e));
-                    } else if (document != null) {
-                        Log.d(TAG, "User profile already exists for " + currentUser.getUid());
-                    }
-                } else {
-                    Log.w(TAG, "Error checking user profile", task.getException());
-                }
-            });
-        }
-    }
-
     private void loadUserProfile() {
         if (currentUser != null) {
-            db.collection("users").document(currentUser.getUid())
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            Long rating = documentSnapshot.getLong("rating");
-                            if (rating != null) {
-                                userRatingText.setText("Rating: " + rating);
-                            } else {
-                                userRatingText.setText("Rating: N/A");
-                            }
-                            // You can load other profile info here
+            AppServices.clock(); // Signed in: start syncing so it is done before a battle starts
+            AppServices.sweepExpiredRoomsOnce(); // Keeps dead rooms out of the waiting query
+            AppServices.profiles().get(currentUser.getUid())
+                    .whenComplete((profile, error) -> runOnUiThread(() -> {
+                        if (error != null) {
+                            Log.w(TAG, "Error loading user profile", error);
+                            Toast.makeText(this, "Failed to load profile.", Toast.LENGTH_SHORT).show();
+                            userRatingText.setText("Rating: Error");
+                        } else if (profile == null) {
+                            Log.d(TAG, "No profile yet, it is created with the first battle");
+                            userRatingText.setText("Rating: " + UserProfile.DEFAULT_RATING);
+                        } else if (profile.getRating() != null) {
+                            rating = profile.getRating();
+                            userRatingText.setText("Rating: " + profile.getRating());
+                            showStats();
                         } else {
-                            Log.d(TAG,"User profile not found");
                             userRatingText.setText("Rating: N/A");
                         }
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.w(TAG, "Error loading user profile", e);
-                        Toast.makeText(this, "Failed to load profile.", Toast.LENGTH_SHORT).show();
-                        userRatingText.setText("Rating: Error");
-                    });
+                    }));
         }
     }
 
+    // Appended to the rating once the counters and the histogram are in; usually both cached
+    private void showStats() {
+        AppServices.stats().get(currentUser.getUid())
+                .thenCombine(AppServices.leaderboard().percentile(rating),
+                        (stats, percentile) -> stats.getMatchesPlayed() > 0
+                                ? " (" + stats + ", top " + topPercent(percentile) + "%)" : "")
+                .whenComplete((suffix, error) -> runOnUiThread(() -> {
+                    if (error != null) {
+                        Log.w(TAG, "Error loading stats", error);
+                    } else if (!suffix.isEmpty()) {
+                        userRatingText.setText("Rating: " + rating + suffix);
+                    }
+                }));
+    }
+
+    private static long topPercent(double percentile) {
+        return Math.max(1, (long) Math.ceil((1 - percentile) * 100));
+    }
+
     private void findBattle() {
         if (currentUser == null) {
             Toast.makeText(this, "You must be signed in.", Toast.LENGTH_SHORT).show();
@@ -144,234 +146,127 @@ public class MainActivity extends AppCompatActivity {
         }
 
         findBattleButton.setEnabled(false); // Prevent multiple clicks
+        if (firstBattleLaunched) AppServices.trace().reset();
+        matchSpan = AppServices.metrics().start(Metrics.TIME_TO_MATCH);
         Toast.makeText(this, "Searching for opponent...", Toast.LENGTH_SHORT).show();
 
-        // 1. Query for an existing "waiting" battle room (same as before)
-        db.collection("battle_rooms")
-                .whereEqualTo("status", "waiting")
-                .whereNotEqualTo("player1_uid", currentUser.getUid()) // Don't join your own room
-                .orderBy("createdAt", Query.Direction.ASCENDING) // Join oldest waiting room
-                .limit(1)
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && !task.getResult().isEmpty()) {
-                        // Found a waiting human player - Join it
-                        DocumentSnapshot roomSnapshot = task.getResult().getDocuments().get(0);
-                        String roomId = roomSnapshot.getId();
-                        joinBattleRoom(roomId, roomSnapshot.getString("player1_displayName"));
-                    } else if (task.isSuccessful()) {
-                        // No waiting human players found - Create a game with a bot
-                        startBotBattle();
-                    } else {
-                        Log.w(TAG, "Error finding battle room.", task.getException());
+        // Profile (usually cached since sign-in), then one waiting-room query, then one write:
+        // the claim transaction or the bot room batch, which also carries a new player's profile.
+        String uid = currentUser.getUid();
+        AppServices.metrics().time("findBattle",
+                () -> AppServices.launcher(this).launch(uid, "User_" + uid.substring(0, 6), pickProblemId()))
+                .whenComplete((launch, error) -> runOnUiThread(() -> {
+                    if (error != null) {
+                        Log.w(TAG, "Error finding battle room.", error);
                         Toast.makeText(this, "Error finding match. Try again.", Toast.LENGTH_SHORT).show();
                         findBattleButton.setEnabled(true);
+                        return;
                     }
-                });
+                    Log.d(TAG, (launch.isBotMatch() ? "Created battle room with bot: " : "Successfully joined room: ")
+                            + launch.getRoomId());
+                    startBattleActivity(launch.getRoomId(), launch.getOpponentDisplayName(), launch.getProblemId());
+                }));
     }
 
-    private void startBotBattle() {
-        Log.d(TAG, "Starting battle with bot");
-        DocumentReference userRef = db.collection("users").document(currentUser.getUid());
-
-        userRef.get().addOnCompleteListener(userTask -> {
-            if (userTask.isSuccessful()) {
-                DocumentSnapshot userDoc = userTask.getResult();
-                final String myDisplayName;
-
-                if (userDoc != null && userDoc.exists() && userDoc.getString("displayName") != null) {
-                    myDisplayName = userDoc.getString("displayName");
-                } else {
-                    myDisplayName = "Player 1"; // Default
-                    Log.w(TAG, "User document does not exist or missing display name");
-                    createUserProfileIfNotExists();
-                }
-
-                Map<String, Object> newRoom = new HashMap<>();
-                newRoom.put("player1_uid", currentUser.getUid());
-                newRoom.put("player1_displayName", myDisplayName);
-                newRoom.put("player2_uid", "bot_player"); // Use a specific UID for the bot
-                newRoom.put("player2_displayName", "ChronoBot"); // Bot's name
-                newRoom.put("status", "ongoing"); // Start the game immediately
-                newRoom.put("createdAt", new Date());
-                newRoom.put("startTime", new Date());
-                newRoom.put("problemId", getRandomProblemId()); // Get a problem for the bot
-                newRoom.put("player1_score", 0);
-                newRoom.put("player2_score", 0);
-                newRoom.put("isBotMatch", true); // Indicate this is a bot match
-
-                db.collection("battle_rooms")
-                        .add(newRoom)
-                        .addOnSuccessListener(documentReference -> {
-                            String roomId = documentReference.getId();
-                            Log.d(TAG, "Created battle room with bot: " + roomId);
-                            startBattleActivity(roomId, "ChronoBot");
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.w(TAG, "Error creating battle room with bot", e);
-                            Toast.makeText(MainActivity.this, "Error creating match with bot. Try again.", Toast.LENGTH_SHORT).show();
-                            findBattleButton.setEnabled(true);
-                        });
-
-            } else {
-                Log.e(TAG, "Failed to get user document for bot battle", userTask.getException());
-                Toast.makeText(MainActivity.this, "Error creating match with bot. Try again.", Toast.LENGTH_SHORT).show();
-                findBattleButton.setEnabled(true);
-            }
-        });
+    private void createBattleRoom() {
+        Log.d(TAG, "Creating new battle room for human player");
+        String uid = currentUser.getUid();
+        final String problemId = pickProblemId();
+        // One batch: the room, plus the player's profile if they don't have one yet
+        AppServices.launcher(this).createWaitingRoom(uid, "User_" + uid.substring(0, 6), problemId)
+                .whenComplete((roomId, e) -> runOnUiThread(() -> {
+                    if (e != null) {
+                        Log.w(TAG, "Error creating battle room", e);
+                        Toast.makeText(MainActivity.this, "Error creating match. Try again.", Toast.LENGTH_SHORT).show();
+                        findBattleButton.setEnabled(true);
+                        return;
+                    }
+                    Log.d(TAG, "Created battle room: " + roomId);
+                    Toast.makeText(MainActivity.this, "Waiting for opponent...", Toast.LENGTH_LONG).show();
+                    // Listen for player 2 joining this specific room
+                    listenForOpponent(roomId, problemId);
+                }));
     }
 
-    private void joinBattleRoom(String roomId, String opponentName) {
-        Log.d(TAG, "Joining room: " + roomId);
-        DocumentReference roomRef = db.collection("battle_rooms").document(roomId);
-        DocumentReference userRef = db.collection("users").document(currentUser.getUid());
-
-        // Get current user's display name
-        userRef.get().addOnSuccessListener(userDoc -> {
-            if (userDoc.exists()) {
-                final String myDisplayName = userDoc.getString("displayName");
-
-                // Update the battle room
-                Map<String, Object> updates = new HashMap<>();
-                updates.put("player2_uid", currentUser.getUid());
-                updates.put("player2_displayName", myDisplayName != null ? myDisplayName : "Player 2");
-                updates.put("status", "ongoing"); // Room is now full and ongoing
-                updates.put("startTime", new Date()); // Mark start time
+    // Near this player's rating and not one of their last few. A joined room brings its own
+    // problem, so the player's rating stands in for the opponent's too.
+    private String pickProblemId() {
+        String problemId = AppServices.problemIndex().pick(rating, rating, null, ThreadLocalRandom.current(),
+                AppServices.recentProblems());
+        if (problemId != null) return problemId;
+        return "problem_" + (ThreadLocalRandom.current().nextInt(FALLBACK_PROBLEMS) + 1);
+    }
 
-                roomRef.update(updates)
-                        .addOnSuccessListener(aVoid -> {
-                            Log.d(TAG, "Successfully joined room: " + roomId);
-                            // Room joined, opponent found - Start BattleActivity
-                            startBattleActivity(roomId, opponentName); // opponentName is player1's name
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.w(TAG, "Failed to join room: " + roomId, e);
-                            Toast.makeText(MainActivity.this, "Failed to join match. Try again.", Toast.LENGTH_SHORT).show();
-                            findBattleButton.setEnabled(true);
-                        });
-            } else {
-                Log.e(TAG, "User document does not exist");
-                Toast.makeText(MainActivity.this, "Failed to join match. Try again.", Toast.LENGTH_SHORT).show();
-                findBattleButton.setEnabled(true);
-            }
-        }).addOnFailureListener(e -> {
-            Log.e(TAG, "Failed to get user display name for joining room", e);
-            Toast.makeText(MainActivity.this, "Failed to join match. Try again.", Toast.LENGTH_SHORT).show();
-            findBattleButton.setEnabled(true);
+    private void listenForOpponent(String roomId, final String problemId) {
+        // Snapshots arrive on the store's callback thread; decode there and hand the result over
+        matchmakingListener = AppServices.store().listen(BattleStore.BATTLE_ROOMS, roomId, (snapshot, e) -> {
+            BattleRoom room = e == null ? BattleRoomCodec.decode(snapshot) : null;
+            runOnUiThread(() -> onWaitingRoomUpdate(roomId, problemId, room, e));
         });
     }
 
-    private void createBattleRoom() {
-        Log.d(TAG, "Creating new battle room for human player");
-        DocumentReference userRef = db.collection("users").document(currentUser.getUid());
-
-        userRef.get().addOnCompleteListener(userTask -> {
-            if (userTask.isSuccessful()) {
-                DocumentSnapshot userDoc = userTask.getResult();
-                final String myDisplayName;
-
-                if (userDoc != null && userDoc.exists() && userDoc.getString("displayName") != null) {
-                    myDisplayName = userDoc.getString("displayName");
-                } else {
-                    myDisplayName = "Player 1"; // Default
-                    Log.w(TAG, "User document does not exist or missing display name");
-                    createUserProfileIfNotExists();
-                }
-
-                Map<String, Object> newRoom = new HashMap<>();
-                newRoom.put("player1_uid", currentUser.getUid());
-                newRoom.put("player1_displayName", myDisplayName);
-                newRoom.put("player2_uid", null); // Waiting for player 2
-                newRoom.put("player2_displayName", null);
-                newRoom.put("status", "waiting"); // Initial status
-                newRoom.put("createdAt", new Date());
-                newRoom.put("problemId", getRandomProblemId()); // Use a helper method
-                newRoom.put("player1_score", 0);
-                newRoom.put("player2_score", 0);
-                newRoom.put("isBotMatch", false); // Indicate this is not a bot match
+    private void onWaitingRoomUpdate(String roomId, String problemId, BattleRoom room, StoreException e) {
+        if (matchmakingListener == null) return; // Stopped listening while this was on its way
+        if (e != null) {
+            Log.w(TAG, "Listen failed.", e);
+            // Consider canceling the room if listen fails badly? Or just inform user.
+            Toast.makeText(this, "Connection error. Try again.", Toast.LENGTH_SHORT).show();
+            findBattleButton.setEnabled(true); // Allow retry
+            stopListeningForOpponent();
+            // Maybe cancel the waiting room if listen fails? The sweeper retires it eventually.
+            return;
+        }
 
-                db.collection("battle_rooms")
-                        .add(newRoom) // Firestore generates a unique ID
-                        .addOnSuccessListener(documentReference -> {
-                            String roomId = documentReference.getId();
-                            Log.d(TAG, "Created battle room: " + roomId);
-                            Toast.makeText(MainActivity.this, "Waiting for opponent...", Toast.LENGTH_LONG).show();
-                            // Listen for player 2 joining this specific room
-                            listenForOpponent(roomId, myDisplayName);
-                        })
-                        .addOnFailureListener(e -> {
-                            Log.w(TAG, "Error creating battle room", e);
-                            Toast.makeText(MainActivity.this, "Error creating match. Try again.", Toast.LENGTH_SHORT).show();
-                            findBattleButton.setEnabled(true);
-                        });
-            } else {
-                Log.e(TAG, "Failed to get user document", userTask.getException());
-                Toast.makeText(MainActivity.this, "Error creating match. Try again.", Toast.LENGTH_SHORT).show();
+        if (room.exists()) {
+            String status = room.getStatus();
+            String player2Uid = room.getUid(BattleRoom.Seat.PLAYER2);
+            String player2Name = room.getDisplayName(BattleRoom.Seat.PLAYER2);
+
+            if ("ongoing".equals(status) && player2Uid != null) {
+                // Opponent found and joined! Stop listening and start battle.
+                Log.d(TAG, "Opponent joined room: " + roomId);
+                Toast.makeText(this, "Opponent found!", Toast.LENGTH_SHORT).show();
+                stopListeningForOpponent(); // Stop listening now
+                startBattleActivity(roomId, player2Name != null ? player2Name : "Player 2", problemId);
+            } else if ("waiting".equals(status)) {
+                // Still waiting, do nothing here, Toast was shown before.
+                Log.d(TAG,"Still waiting in room " + roomId);
+            } else if ("canceled".equals(status) || "finished".equals(status) || "abandoned".equals(status)) {
+                // Room was canceled or somehow finished before opponent joined?
+                Log.w(TAG, "Room " + roomId + " is no longer waiting. Status: " + status);
+                Toast.makeText(this, "Matchmaking canceled or expired.", Toast.LENGTH_SHORT).show();
                 findBattleButton.setEnabled(true);
+                stopListeningForOpponent();
             }
-        });
-    }
-
-    private String getRandomProblemId() {
-        // In a real app, you'd likely fetch a list of problem IDs from Firestore
-        // and select one randomly. For this example, we'll keep it simple.
-        int problemCount = 5; // Replace with the actual number of problems
-        int randomProblemNumber = (int) (Math.random() * problemCount) + 1;
-        return "problem_" + randomProblemNumber;
+        } else {
+            // Room was deleted?
+            Log.w(TAG, "Room " + roomId + " doesn't exist.");
+            Toast.makeText(this, "Matchmaking canceled.", Toast.LENGTH_SHORT).show();
+            findBattleButton.setEnabled(true);
+            stopListeningForOpponent();
+        }
     }
 
-    private void listenForOpponent(String roomId, final String myName) {
-        DocumentReference roomRef = db.collection("battle_rooms").document(roomId);
-        matchmakingListener = roomRef.addSnapshotListener((snapshot, e) -> {
-            if (e != null) {
-                Log.w(TAG, "Listen failed.", e);
-                // Consider canceling the room if listen fails badly? Or just inform user.
-                Toast.makeText(this, "Connection error. Try again.", Toast.LENGTH_SHORT).show();
-                findBattleButton.setEnabled(true); // Allow retry
-                if (matchmakingListener != null) matchmakingListener.remove();
-                // Maybe delete the waiting room if listen fails?
-                // roomRef.delete();
-                return;
-            }
-
-            if (snapshot != null && snapshot.exists()) {
-                String status = snapshot.getString("status");
-                String player2Uid = snapshot.getString("player2_uid");
-                String player2Name = snapshot.getString("player2_displayName");
-
-                if ("ongoing".equals(status) && player2Uid != null) {
-                    // Opponent found and joined! Stop listening and start battle.
-                    Log.d(TAG, "Opponent joined room: " + roomId);
-                    Toast.makeText(this, "Opponent found!", Toast.LENGTH_SHORT).show();
-                    if (matchmakingListener != null) {
-                        matchmakingListener.remove(); // Stop listening now
-                        matchmakingListener = null;
-                    }
-                    startBattleActivity(roomId, player2Name != null ? player2Name : "Player 2");
-                } else if ("waiting".equals(status)) {
-                    // Still waiting, do nothing here, Toast was shown before.
-                    Log.d(TAG,"Still waiting in room " + roomId);
-                } else if("canceled".equals(status) || "finished".equals(status)) {
-                    // Room was canceled or somehow finished before opponent joined?
-                    Log.w(TAG, "Room " + roomId + " is no longer waiting. Status: " + status);
-                    Toast.makeText(this, "Matchmaking canceled or expired.", Toast.LENGTH_SHORT).show();
-                    findBattleButton.setEnabled(true);
-                    if (matchmakingListener != null) matchmakingListener.remove();
-                }
-            } else {
-                // Room was deleted?
-                Log.w(TAG, "Room " + roomId + " snapshot is null or doesn't exist.");
-                Toast.makeText(this, "Matchmaking canceled.", Toast.LENGTH_SHORT).show();
-                findBattleButton.setEnabled(true);
-                if (matchmakingListener != null) matchmakingListener.remove();
-            }
-        });
+    private void stopListeningForOpponent() {
+        if (matchmakingListener != null) {
+            matchmakingListener.remove();
+            matchmakingListener = null;
+        }
     }
 
-    private void startBattleActivity(String roomId, String opponentDisplayName) {
+    private void startBattleActivity(String roomId, String opponentDisplayName, String problemId) {
+        // The first trace since launch covers cold start; later ones start at the button press
+        Log.d(TAG, "Store round trips to battle: " + AppServices.trace().describe());
+        firstBattleLaunched = true;
+        AppServices.recentProblems().add(problemId);
+        if (matchSpan != null) {
+            matchSpan.end();
+            matchSpan = null;
+        }
         Intent intent = new Intent(MainActivity.this, BattleActivity.class);
         intent.putExtra("ROOM_ID", roomId);
         intent.putExtra("OPPONENT_NAME", opponentDisplayName);
+        intent.putExtra("PROBLEM_ID", problemId);
         startActivity(intent);
     }
 }
\ No newline at end of file
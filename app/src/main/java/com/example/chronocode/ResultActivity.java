@@ -8,25 +8,30 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.battle.ResultViewState;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.rating.Settlement;
+import com.example.chronocode.store.BattleStore;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.WriteBatch;
+
+import java.util.concurrent.CompletableFuture;
 
 public class ResultActivity extends AppCompatActivity {
 
     private static final String TAG = "ResultActivity";
+    // How long the non-designated player waits for the designated one to settle ratings
+    private static final long SETTLEMENT_FALLBACK_DELAY_MS = 10_000;
 
-    private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private FirebaseUser currentUser;
 
     private String roomId;
     private String resultInfo; // Simple result info passed from BattleActivity
 
+    private Metrics.Span ratingSpan; // From the result screen to ratings known to be updated
+
     private TextView resultText, scoreDetailsText;
     private Button backToMainButton;
 
@@ -35,10 +40,10 @@ public class ResultActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_result); // Ensure you have activity_result.xml
 
-        db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
         currentUser = mAuth.getCurrentUser();
 
+        ratingSpan = AppServices.metrics().start(Metrics.RESULT_TO_RATING_UPDATED);
         roomId = getIntent().getStringExtra("ROOM_ID");
         resultInfo = getIntent().getStringExtra("RESULT_INFO");
 
@@ -63,139 +68,64 @@ public class ResultActivity extends AppCompatActivity {
     }
 
     private void loadResults() {
-        DocumentReference roomRef = db.collection("battle_rooms").document(roomId);
-        roomRef.get().addOnCompleteListener(task -> {
-            if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
-                DocumentSnapshot roomData = task.getResult();
-                displayResults(roomData);
-                // Update player ratings after displaying results
-                updateRatings(roomData);
-            } else {
-                Log.w(TAG, "Error loading results for room: " + roomId, task.getException());
-                resultText.setText("Could not load results.");
-                scoreDetailsText.setText("Error: " + (task.getException() != null ? task.getException().getMessage() : "Unknown"));
-            }
-        });
+        String myUid = currentUser.getUid();
+        // Decoding and formatting happen on the store's callback thread; the main thread only sets text
+        AppServices.store().get(BattleStore.BATTLE_ROOMS, roomId)
+                .thenApplyAsync(room -> room.exists()
+                        ? ResultViewState.of(BattleRoomCodec.decode(room), myUid, resultInfo) : null, AppServices.decoder())
+                .whenComplete((state, e) -> runOnUiThread(() -> {
+                    if (e == null && state != null) {
+                        resultText.setText(state.getResultText());
+                        scoreDetailsText.setText(state.getScoreDetailsText());
+                        // Update player ratings after displaying results
+                        updateRatings(state.getRatingAction());
+                    } else {
+                        Log.w(TAG, "Error loading results for room: " + roomId, e);
+                        resultText.setText("Could not load results.");
+                        scoreDetailsText.setText("Error: " + (e != null ? e.getMessage() : "Unknown"));
+                    }
+                }));
     }
 
-    private void displayResults(DocumentSnapshot roomData) {
-        String player1Uid = roomData.getString("player1_uid");
-        String player2Uid = roomData.getString("player2_uid");
-        Long player1Score = roomData.getLong("player1_score");
-        Long player2Score = roomData.getLong("player2_score");
-        String p1Name = roomData.getString("player1_displayName");
-        String p2Name = roomData.getString("player2_displayName");
-
-        player1Score = (player1Score == null) ? 0 : player1Score;
-        player2Score = (player2Score == null) ? 0 : player2Score;
-        p1Name = (p1Name == null) ? "Player 1" : p1Name;
-        p2Name = (p2Name == null) ? "Player 2" : p2Name;
-
-
-        String winnerUid = determineWinner(roomData); // Use helper
-        String resultString;
-
-        if (winnerUid == null) {
-            resultString = "It's a Draw!";
-        } else if (winnerUid.equals(currentUser.getUid())) {
-            resultString = "You Won!";
-        } else {
-            resultString = "You Lost!";
-        }
-
-        // Add reason if timeout or error occurred (using resultInfo)
-        if("Timeout".equals(resultInfo)) {
-            resultString += " (Timeout)";
-        } else if("Error".equals(resultInfo)) {
-            resultString = "Battle ended due to error.";
+    private void updateRatings(ResultViewState.RatingAction action) {
+        switch (action) {
+            case ALREADY_SETTLED:
+                Log.d(TAG, "Ratings already settled for room " + roomId);
+                AppServices.stats().invalidate(currentUser.getUid()); // Counted by whoever settled it
+                ratingSpan.end();
+                break;
+            case MISSING_PLAYERS:
+                Log.w(TAG, "Cannot update ratings, player UIDs missing in room " + roomId);
+                break;
+            case SETTLE_NOW:
+                showSettlement(AppServices.metrics().time("updateRatings", () -> AppServices.ratings().settle(roomId)));
+                break;
+            case SETTLE_LATER:
+                // Both clients land here for every room. Player 2 settles only if player 1 hasn't
+                // after a grace period (the settlement marker makes a late second call a no-op).
+                // Scheduled app-wide: leaving this screen must not leave the room unsettled.
+                showSettlement(AppServices.settleLater(roomId, SETTLEMENT_FALLBACK_DELAY_MS));
+                break;
         }
-
-
-        resultText.setText(resultString);
-        scoreDetailsText.setText(String.format("%s Score: %d\n%s Score: %d",
-                p1Name, player1Score, p2Name, player2Score));
     }
 
-
-    // Helper to determine winner based on scores
-    private String determineWinner(DocumentSnapshot roomData) {
-        Long player1Score = roomData.getLong("player1_score");
-        Long player2Score = roomData.getLong("player2_score");
-        player1Score = (player1Score == null) ? 0 : player1Score;
-        player2Score = (player2Score == null) ? 0 : player2Score;
-
-        if (player1Score > player2Score) {
-            return roomData.getString("player1_uid");
-        } else if (player2Score > player1Score) {
-            return roomData.getString("player2_uid");
-        } else {
-            return null; // Draw
-        }
-    }
-
-
-    private void updateRatings(DocumentSnapshot roomData) {
-        String player1Uid = roomData.getString("player1_uid");
-        String player2Uid = roomData.getString("player2_uid");
-        String winnerUid = determineWinner(roomData);
-
-        if (player1Uid == null || player2Uid == null) {
-            Log.w(TAG, "Cannot update ratings, player UIDs missing in room " + roomId);
-            return;
-        }
-
-        DocumentReference p1Ref = db.collection("users").document(player1Uid);
-        DocumentReference p2Ref = db.collection("users").document(player2Uid);
-
-        db.runTransaction(transaction -> {
-            DocumentSnapshot p1Snap = transaction.get(p1Ref);
-            DocumentSnapshot p2Snap = transaction.get(p2Ref);
-
-            if (!p1Snap.exists() || !p2Snap.exists()) {
-                throw new FirebaseFirestoreException("Player profile not found",
-                        FirebaseFirestoreException.Code.ABORTED);
+    private void showSettlement(CompletableFuture<Settlement> settling) {
+        settling.whenComplete((settlement, e) -> runOnUiThread(() -> {
+            if (e == null && settlement.getStatus() == Settlement.Status.ALREADY_SETTLED) {
+                AppServices.stats().invalidate(currentUser.getUid()); // Counted by whoever settled it
             }
-
-            long p1Rating = p1Snap.getLong("rating") != null ? p1Snap.getLong("rating") : 1000;
-            long p2Rating = p2Snap.getLong("rating") != null ? p2Snap.getLong("rating") : 1000;
-
-            // --- Simple Rating Update Logic (Placeholder) ---
-            // Replace with a proper Elo or similar rating system calculation
-            final int RATING_CHANGE = 15;
-            long newP1Rating = p1Rating;
-            long newP2Rating = p2Rating;
-
-            if (winnerUid == null) { // Draw
-                // No change, or maybe +/- 0 or small change
-            } else if (winnerUid.equals(player1Uid)) { // Player 1 won
-                newP1Rating += RATING_CHANGE;
-                newP2Rating -= RATING_CHANGE;
-            } else { // Player 2 won
-                newP1Rating -= RATING_CHANGE;
-                newP2Rating += RATING_CHANGE;
+            if (isDestroyed()) return; // Settled after the screen was closed; nothing to show
+            if (e != null) {
+                Log.w(TAG, "Rating settlement failed for room " + roomId, e);
+                Toast.makeText(this, "Failed to update ratings.", Toast.LENGTH_SHORT).show();
+            } else if (settlement.getStatus() == Settlement.Status.APPLIED) {
+                ratingSpan.end();
+                Log.d(TAG, "Ratings updated successfully for room " + roomId);
+                Toast.makeText(this, "Ratings updated!", Toast.LENGTH_SHORT).show();
+            } else {
+                ratingSpan.end();
+                Log.d(TAG, "Room " + roomId + " settlement: " + settlement.getStatus());
             }
-            // Ensure ratings don't go below a minimum (e.g., 0 or 100)
-            newP1Rating = Math.max(100, newP1Rating);
-            newP2Rating = Math.max(100, newP2Rating);
-            // --- End Placeholder Logic ---
-
-
-            transaction.update(p1Ref, "rating", newP1Rating);
-            transaction.update(p2Ref, "rating", newP2Rating);
-
-            // Optionally update matches played, wins/losses
-            // transaction.update(p1Ref, "matchesPlayed", FieldValue.increment(1));
-            // transaction.update(p2Ref, "matchesPlayed", FieldValue.increment(1));
-            // if(winnerUid != null) transaction.update(db.collection("users").document(winnerUid), "wins", FieldValue.increment(1));
-
-
-            return null; // Transaction success
-        }).addOnSuccessListener(aVoid -> {
-            Log.d(TAG, "Ratings updated successfully for room " + roomId);
-            Toast.makeText(this, "Ratings updated!", Toast.LENGTH_SHORT).show();
-        }).addOnFailureListener(e -> {
-            Log.w(TAG, "Rating update transaction failed for room " + roomId, e);
-            Toast.makeText(this, "Failed to update ratings.", Toast.LENGTH_SHORT).show();
-        });
+        }));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.example.chronocode.battle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The battle screen's countdown and scores, rendered through {@link HudText}s so that neither a
+ * timer tick nor a score update allocates or touches a view whose text did not change.
+ *
+ * <p>The countdown runs against a deadline on the {@link System#nanoTime} clock that display
+ * frames are timed on. A frame ticker calls {@link #onFrame} and waits as long as it returns,
+ * which is until the shown second next changes, so the HUD wakes once a second, on a frame.
+ * Main thread only.
+ */
+public final class BattleHud {
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final HudText timer;
+    private final HudText myScore;
+    private final HudText opponentScore;
+    private final Runnable onTimeUp;
+
+    private long deadlineNanos = NOT_STARTED;
+    private boolean timeUp;
+
+    /** {@code onTimeUp} runs once, from the first frame at or after the deadline. */
+    public BattleHud(HudText timer, HudText myScore, HudText opponentScore, Runnable onTimeUp) {
+        this.timer = timer;
+        this.myScore = myScore;
+        this.opponentScore = opponentScore;
+        this.onTimeUp = onTimeUp;
+    }
+
+    /** Counts down {@code millisLeft} from {@code nowNanos} and shows the starting value. */
+    public void startCountdown(long nowNanos, long millisLeft) {
+        deadlineNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millisLeft));
+        timeUp = false;
+        timer.showCountdown(millisLeft);
+    }
+
+    public boolean isCountingDown() {
+        return deadlineNanos != NOT_STARTED && !timeUp;
+    }
+
+    /** Stops the countdown without calling {@code onTimeUp}. */
+    public void stopCountdown() {
+        timeUp = true;
+    }
+
+    public void showScores(long mine, long opponents) {
+        myScore.showNumber(mine);
+        opponentScore.showNumber(opponents);
+    }
+
+    /**
+     * Renders the countdown as of a frame at {@code frameTimeNanos}. Returns the milliseconds
+     * until the shown value next changes, or -1 if the countdown is not running (after time ran
+     * out on this frame, {@code onTimeUp} has been called).
+     */
+    public long onFrame(long frameTimeNanos) {
+        if (!isCountingDown()) return -1;
+        long leftNanos = deadlineNanos - frameTimeNanos;
+        if (leftNanos <= 0) {
+            timer.showCountdown(0);
+            timeUp = true;
+            onTimeUp.run();
+            return -1;
+        }
+        timer.showCountdown(TimeUnit.NANOSECONDS.toMillis(leftNanos));
+        // The shown second drops once less than a whole number of seconds is left
+        long untilChangeNanos = leftNanos % NANOS_PER_SECOND + 1;
+        return (untilChangeNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.chronocode.battle;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Typed view of one {@code battle_rooms} document, filled in by {@link BattleRoomCodec}.
+ *
+ * <p>Per-player fields are indexed by {@link Seat}. Missing times and numbers read as
+ * {@link #NONE}, except scores, which read as 0 like everywhere else in the app. Only the codec
+ * writes the fields, so a room can be decoded into again and again (one instance per listener)
+ * without allocating; callers that keep a room around must not share such an instance.
+ */
+public final class BattleRoom {
+
+    /** Value of a time or number field the document does not have. */
+    public static final long NONE = Long.MIN_VALUE;
+
+    /** The two places in a room. */
+    public enum Seat {
+        PLAYER1("player1"),
+        PLAYER2("player2");
+
+        private final String key;
+
+        Seat(String key) {
+            this.key = key;
+        }
+
+        /** "player1" or "player2", the prefix of this seat's fields. */
+        public String key() {
+            return key;
+        }
+
+        public Seat other() {
+            return this == PLAYER1 ? PLAYER2 : PLAYER1;
+        }
+    }
+
+    String id;
+    boolean exists;
+    String status;
+    String problemId;
+    String winnerUid;
+    boolean botMatch;
+    boolean ratingSettled;
+    long createdAtMs = NONE;
+    long startTimeMs = NONE;
+    long endTimeMs = NONE;
+    long deadlineMs = NONE;
+    long ratingBucket = NONE;
+    final String[] uids = new String[2];
+    final String[] displayNames = new String[2];
+    final long[] scores = new long[2];
+    final long[] ratings = {NONE, NONE};
+    final long[] ratingDeltas = {NONE, NONE};
+    final String[] submissionHashes = new String[2];
+    // Created once per room so decoding into it again does not allocate
+    final BiConsumer<String, Object> fieldDecoder = (name, value) -> BattleRoomCodec.decodeField(this, name, value);
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getProblemId() {
+        return problemId;
+    }
+
+    /** The {@code winner_uid} field, if some client set one. See {@link #leaderUid} for scores. */
+    public String getWinnerUid() {
+        return winnerUid;
+    }
+
+    public boolean isBotMatch() {
+        return botMatch;
+    }
+
+    public boolean isRatingSettled() {
+        return ratingSettled;
+    }
+
+    public long getCreatedAtMs() {
+        return createdAtMs;
+    }
+
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    /**
+     * When the battle ends on the server's clock. Rooms started before the field existed end
+     * {@link BattleRooms#BATTLE_DURATION_MS} after their startTime.
+     */
+    public long getDeadlineMs() {
+        if (deadlineMs != NONE) return deadlineMs;
+        return startTimeMs != NONE ? startTimeMs + BattleRooms.BATTLE_DURATION_MS : NONE;
+    }
+
+    public long getEndTimeMs() {
+        return endTimeMs;
+    }
+
+    public long getRatingBucket() {
+        return ratingBucket;
+    }
+
+    public String getUid(Seat seat) {
+        return uids[seat.ordinal()];
+    }
+
+    public String getDisplayName(Seat seat) {
+        return displayNames[seat.ordinal()];
+    }
+
+    public long getScore(Seat seat) {
+        return scores[seat.ordinal()];
+    }
+
+    /** The rating the player had when the room was created, if it was recorded. */
+    public long getRating(Seat seat) {
+        return ratings[seat.ordinal()];
+    }
+
+    /** The rating change the room's settlement applied, if it is settled. */
+    public long getRatingDelta(Seat seat) {
+        return ratingDeltas[seat.ordinal()];
+    }
+
+    public String getSubmissionHash(Seat seat) {
+        return submissionHashes[seat.ordinal()];
+    }
+
+    /** The seat {@code uid} plays in, or null if they are not in this room. */
+    public Seat seatOf(String uid) {
+        if (uid == null) return null;
+        if (uid.equals(uids[0])) return Seat.PLAYER1;
+        if (uid.equals(uids[1])) return Seat.PLAYER2;
+        return null;
+    }
+
+    /** Uid of the higher score, or null for a draw. */
+    public String leaderUid() {
+        if (scores[0] > scores[1]) return uids[0];
+        if (scores[1] > scores[0]) return uids[1];
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "BattleRoom{" + id + (exists ? ", " + status + ", " + uids[0] + " " + scores[0] + " vs "
+                + uids[1] + " " + scores[1] : ", missing") + "}";
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts between {@code battle_rooms} documents and {@link BattleRoom}s.
+ *
+ * <p>Every field name, including the per-seat ones, is a constant here, so no key string is
+ * built at runtime. {@link #decodeInto} walks the document's fields once and switches on the
+ * name; numbers are read as primitives, so decoding into a reused room allocates nothing.
+ */
+public final class BattleRoomCodec {
+
+    public static final String STATUS = "status";
+    public static final String PROBLEM_ID = "problemId";
+    public static final String CREATED_AT = "createdAt";
+    public static final String START_TIME = "startTime";
+    public static final String END_TIME = "endTime";
+    /** Written with startTime, so both clients count down to the same server time. */
+    public static final String DEADLINE = "deadline";
+    public static final String RATING_BUCKET = "ratingBucket";
+    public static final String BOT_MATCH = "isBotMatch";
+    public static final String WINNER_UID = "winner_uid";
+    public static final String RATING_SETTLED = "ratingSettled";
+
+    private static final String[] UID = {"player1_uid", "player2_uid"};
+    private static final String[] DISPLAY_NAME = {"player1_displayName", "player2_displayName"};
+    private static final String[] SCORE = {"player1_score", "player2_score"};
+    private static final String[] RATING = {"player1_rating", "player2_rating"};
+    private static final String[] RATING_DELTA = {"player1_ratingDelta", "player2_ratingDelta"};
+    // SubmissionStore.ROOM_FIELD_SUFFIX on each seat's key
+    private static final String[] SUBMISSION_HASH = {"player1_submissionHash", "player2_submissionHash"};
+
+    private BattleRoomCodec() {
+    }
+
+    public static String uidField(BattleRoom.Seat seat) {
+        return UID[seat.ordinal()];
+    }
+
+    public static String displayNameField(BattleRoom.Seat seat) {
+        return DISPLAY_NAME[seat.ordinal()];
+    }
+
+    public static String scoreField(BattleRoom.Seat seat) {
+        return SCORE[seat.ordinal()];
+    }
+
+    public static String ratingDeltaField(BattleRoom.Seat seat) {
+        return RATING_DELTA[seat.ordinal()];
+    }
+
+    public static String submissionHashField(BattleRoom.Seat seat) {
+        return SUBMISSION_HASH[seat.ordinal()];
+    }
+
+    public static BattleRoom decode(Doc doc) {
+        BattleRoom room = new BattleRoom();
+        decodeInto(doc, room);
+        return room;
+    }
+
+    /** Overwrites every field of {@code room} with what {@code doc} holds. */
+    public static void decodeInto(Doc doc, BattleRoom room) {
+        clear(room);
+        room.id = doc.getId();
+        Map<String, Object> data = doc.getData();
+        room.exists = data != null;
+        if (data == null) return;
+        // forEach goes straight to the backing map: no iterator and no entry wrappers
+        data.forEach(room.fieldDecoder);
+    }
+
+    static void decodeField(BattleRoom room, String name, Object value) {
+        switch (name) {
+            case STATUS: room.status = string(value); break;
+            case PROBLEM_ID: room.problemId = string(value); break;
+            case WINNER_UID: room.winnerUid = string(value); break;
+            case BOT_MATCH: room.botMatch = Boolean.TRUE.equals(value); break;
+            case RATING_SETTLED: room.ratingSettled = Boolean.TRUE.equals(value); break;
+            case CREATED_AT: room.createdAtMs = time(value); break;
+            case START_TIME: room.startTimeMs = time(value); break;
+            case END_TIME: room.endTimeMs = time(value); break;
+            case DEADLINE: room.deadlineMs = time(value); break;
+            case RATING_BUCKET: room.ratingBucket = number(value, BattleRoom.NONE); break;
+            case "player1_uid": room.uids[0] = string(value); break;
+            case "player2_uid": room.uids[1] = string(value); break;
+            case "player1_displayName": room.displayNames[0] = string(value); break;
+            case "player2_displayName": room.displayNames[1] = string(value); break;
+            case "player1_score": room.scores[0] = number(value, 0); break;
+            case "player2_score": room.scores[1] = number(value, 0); break;
+            case "player1_rating": room.ratings[0] = number(value, BattleRoom.NONE); break;
+            case "player2_rating": room.ratings[1] = number(value, BattleRoom.NONE); break;
+            case "player1_ratingDelta": room.ratingDeltas[0] = number(value, BattleRoom.NONE); break;
+            case "player2_ratingDelta": room.ratingDeltas[1] = number(value, BattleRoom.NONE); break;
+            case "player1_submissionHash": room.submissionHashes[0] = string(value); break;
+            case "player2_submissionHash": room.submissionHashes[1] = string(value); break;
+            default: break; // Not part of the model
+        }
+    }
+
+    /**
+     * The document for a new room: both seats (null for an empty one), status, problem, scores
+     * and the bot flag always, the rest only if set.
+     */
+    public static Map<String, Object> encode(BattleRoom room) {
+        Map<String, Object> data = new HashMap<>();
+        for (BattleRoom.Seat seat : BattleRoom.Seat.values()) {
+            int i = seat.ordinal();
+            data.put(UID[i], room.uids[i]);
+            data.put(DISPLAY_NAME[i], room.displayNames[i]);
+            data.put(SCORE[i], room.scores[i]);
+            if (room.ratings[i] != BattleRoom.NONE) data.put(RATING[i], room.ratings[i]);
+            if (room.ratingDeltas[i] != BattleRoom.NONE) data.put(RATING_DELTA[i], room.ratingDeltas[i]);
+            if (room.submissionHashes[i] != null) data.put(SUBMISSION_HASH[i], room.submissionHashes[i]);
+        }
+        data.put(STATUS, room.status);
+        data.put(PROBLEM_ID, room.problemId);
+        data.put(BOT_MATCH, room.botMatch);
+        if (room.winnerUid != null) data.put(WINNER_UID, room.winnerUid);
+        if (room.ratingSettled) data.put(RATING_SETTLED, true);
+        if (room.createdAtMs != BattleRoom.NONE) data.put(CREATED_AT, new Date(room.createdAtMs));
+        if (room.startTimeMs != BattleRoom.NONE) data.put(START_TIME, new Date(room.startTimeMs));
+        if (room.endTimeMs != BattleRoom.NONE) data.put(END_TIME, new Date(room.endTimeMs));
+        if (room.deadlineMs != BattleRoom.NONE) data.put(DEADLINE, new Date(room.deadlineMs));
+        if (room.ratingBucket != BattleRoom.NONE) data.put(RATING_BUCKET, room.ratingBucket);
+        return data;
+    }
+
+    /** A "waiting" room created by {@code uid} for an opponent to join. */
+    public static BattleRoom newWaitingRoom(String uid, String displayName, long rating, long ratingBucket,
+                                            String problemId, long nowMs) {
+        BattleRoom room = new BattleRoom();
+        room.exists = true;
+        room.status = "waiting";
+        room.uids[0] = uid;
+        room.displayNames[0] = displayName;
+        room.ratings[0] = rating;
+        room.ratingBucket = ratingBucket; // Lets searchers filter by rating
+        room.problemId = problemId;
+        room.createdAtMs = nowMs;
+        return room;
+    }
+
+    /**
+     * The fields that start a battle at {@code nowMs}, server time: its startTime and the
+     * deadline both clients count down to.
+     */
+    public static Map<String, Object> startFields(long nowMs) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(START_TIME, new Date(nowMs));
+        fields.put(DEADLINE, new Date(nowMs + BattleRooms.BATTLE_DURATION_MS));
+        return fields;
+    }
+
+    /** An "ongoing" room against a bot, started at {@code nowMs}. */
+    public static BattleRoom newBotBattle(String uid, String displayName, String botUid, String botDisplayName,
+                                          String problemId, long nowMs) {
+        BattleRoom room = new BattleRoom();
+        room.exists = true;
+        room.status = "ongoing"; // Start the game immediately
+        room.uids[0] = uid;
+        room.displayNames[0] = displayName;
+        room.uids[1] = botUid;
+        room.displayNames[1] = botDisplayName;
+        room.problemId = problemId;
+        room.createdAtMs = nowMs;
+        room.startTimeMs = nowMs;
+        room.deadlineMs = nowMs + BattleRooms.BATTLE_DURATION_MS;
+        room.botMatch = true;
+        return room;
+    }
+
+    private static void clear(BattleRoom room) {
+        room.status = null;
+        room.problemId = null;
+        room.winnerUid = null;
+        room.botMatch = false;
+        room.ratingSettled = false;
+        room.createdAtMs = BattleRoom.NONE;
+        room.startTimeMs = BattleRoom.NONE;
+        room.endTimeMs = BattleRoom.NONE;
+        room.deadlineMs = BattleRoom.NONE;
+        room.ratingBucket = BattleRoom.NONE;
+        for (int i = 0; i < 2; i++) {
+            room.uids[i] = null;
+            room.displayNames[i] = null;
+            room.scores[i] = 0;
+            room.ratings[i] = BattleRoom.NONE;
+            room.ratingDeltas[i] = BattleRoom.NONE;
+            room.submissionHashes[i] = null;
+        }
+    }
+
+    private static String string(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static long number(Object value, long missing) {
+        return value instanceof Number ? ((Number) value).longValue() : missing;
+    }
+
+    private static long time(Object value) {
+        return value instanceof Date ? ((Date) value).getTime() : BattleRoom.NONE;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Battle room state changes that both clients of a room may attempt at the same time. Each one is
+ * a transaction that only writes if the room is still in the state it expects, and completes
+ * with whether this call made the change.
+ */
+public final class BattleRooms {
+
+    /** How long a battle runs from its startTime. */
+    public static final long BATTLE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private BattleRooms() {
+    }
+
+    /** Marks the room "finished" with an endTime, unless it is already finished or missing. */
+    public static CompletableFuture<Boolean> finish(BattleStore store, String roomId) {
+        return finish(store, roomId, System.currentTimeMillis());
+    }
+
+    /** Like {@link #finish(BattleStore, String)}, with the endTime given, e.g. the room's deadline. */
+    public static CompletableFuture<Boolean> finish(BattleStore store, String roomId, long endTimeMs) {
+        return store.runTransaction(transaction -> {
+            Doc room = transaction.get(BattleStore.BATTLE_ROOMS, roomId);
+            if (!room.exists() || "finished".equals(room.getString("status"))) return false;
+            Map<String, Object> finalUpdates = new HashMap<>();
+            finalUpdates.put("status", "finished");
+            finalUpdates.put("endTime", new Date(endTimeMs));
+            transaction.update(BattleStore.BATTLE_ROOMS, roomId, finalUpdates);
+            return true;
+        });
+    }
+
+    /**
+     * Whether the player in {@code seat} marks the room finished when time runs out. Both clients
+     * reach the deadline at the same moment, so only player 1 writes; player 2's client leaves
+     * it to them, and rating settlement finishes the room if player 1 never does. A client that
+     * does not know its seat yet writes, as before.
+     */
+    public static boolean finishesOnTimeout(BattleRoom.Seat seat) {
+        return seat != BattleRoom.Seat.PLAYER2;
+    }
+
+    /**
+     * Marks a waiting room "canceled" if nobody has joined it yet. False means it was no longer
+     * waiting, usually because an opponent joined and the battle is on.
+     */
+    public static CompletableFuture<Boolean> cancelWaiting(BattleStore store, String roomId) {
+        return store.runTransaction(transaction -> {
+            Doc room = transaction.get(BattleStore.BATTLE_ROOMS, roomId);
+            if (!"waiting".equals(room.getString("status")) || room.getString("player2_uid") != null) return false;
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("status", "canceled");
+            updates.put("endTime", new Date());
+            transaction.update(BattleStore.BATTLE_ROOMS, roomId, updates);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.DocListener;
+import com.example.chronocode.store.StoreException;
+
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Follows one battle room for the battle screen without doing the work on the main thread.
+ *
+ * <p>Register it as the room's {@link DocListener}. Each snapshot is handed to the
+ * {@code background} executor, which diffs it with a {@link RoomDiffer} and folds what changed
+ * into a new immutable {@link BattleViewState}. Only that state crosses to the
+ * {@code main} executor, and states coalesce: if several snapshots arrive before the main thread
+ * gets to the last one posted, it applies just the newest. A burst of score updates therefore
+ * costs the main thread one state per turn of its loop rather than one decode per snapshot.
+ *
+ * <p>{@code background} must run tasks one at a time in submission order, e.g. a single-thread
+ * executor; it may be shared with other pipelines.
+ */
+public class BattleStatePipeline implements DocListener {
+
+    private final Executor background;
+    private final Executor main;
+    private final Consumer<BattleViewState> onState;
+    private final RoomDiffer differ;
+
+    private final AtomicReference<BattleViewState> pending = new AtomicReference<>();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile boolean closed;
+
+    // Only touched by background tasks, which run one at a time
+    private BattleViewState state = BattleViewState.INITIAL;
+    private Doc current;
+
+    public BattleStatePipeline(String myUid, Executor background, Executor main,
+                               Consumer<BattleViewState> onState) {
+        this.background = background;
+        this.main = main;
+        this.onState = onState;
+        this.differ = new RoomDiffer(myUid, new RoomDiffer.Handler() {
+            @Override
+            public void onNotInRoom() {
+                state = state.withEnd("User " + myUid + " not found in room");
+            }
+
+            @Override
+            public void onProblemId(String problemId) {
+                state = state.withProblemId(problemId);
+            }
+
+            @Override
+            public void onStartTime(long startTimeMs) {
+                // The deadline is written together with startTime
+                Date deadline = current.getDate(BattleRoomCodec.DEADLINE);
+                state = state.withStartTime(startTimeMs,
+                        deadline != null ? deadline.getTime() : startTimeMs + BattleRooms.BATTLE_DURATION_MS);
+            }
+
+            @Override
+            public void onScores(long myScore, long opponentScore) {
+                state = state.withScores(myScore, opponentScore);
+            }
+
+            @Override
+            public void onStatus(String status, String winnerUid) {
+                state = state.withStatus(status, winnerUid);
+            }
+        });
+    }
+
+    @Override
+    public void onEvent(Doc doc, StoreException error) {
+        if (closed) return;
+        background.execute(() -> reduce(doc, error));
+    }
+
+    /** Stops delivering states, including any already posted to the main thread. */
+    public void close() {
+        closed = true;
+    }
+
+    /** Snapshots and errors received. */
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    /** States that changed something and were posted towards the main thread. */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /** States the main thread actually applied; the rest were superseded while queued. */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    private void reduce(Doc doc, StoreException error) {
+        snapshots.incrementAndGet();
+        if (closed || state.isEnded()) return;
+        BattleViewState before = state;
+        if (error != null) {
+            state = state.withEnd("Battle listener failed: " + error.getMessage());
+        } else if (!doc.exists()) {
+            state = state.withEnd("Battle room " + doc.getId() + " deleted or does not exist");
+        } else {
+            current = doc;
+            differ.apply(doc);
+            current = null;
+            if (state.getMySeat() == null && differ.getMySeat() != null) state = state.withSeat(differ.getMySeat());
+        }
+        if (state != before) publish(state);
+    }
+
+    private void publish(BattleViewState next) {
+        published.incrementAndGet();
+        // Only the first state since the main thread last looked needs a post; later ones replace it
+        if (pending.getAndSet(next) == null) main.execute(this::deliver);
+    }
+
+    private void deliver() {
+        BattleViewState next = pending.getAndSet(null);
+        if (next == null || closed) return;
+        delivered.incrementAndGet();
+        onState.accept(next);
+    }
+}
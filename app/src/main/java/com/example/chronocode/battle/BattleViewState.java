@@ -0,0 +1,125 @@
+package com.example.chronocode.battle;
+
+/**
+ * Everything the battle screen shows about its room at one moment, computed off the main thread
+ * by {@link BattleStatePipeline}. Immutable: the main thread applies it and keeps it to compare
+ * the next one against.
+ */
+public final class BattleViewState {
+
+    /** Before the first snapshot. */
+    public static final BattleViewState INITIAL = new BattleViewState(null, null, BattleRoom.NONE, BattleRoom.NONE, 0, 0,
+            null, null, false, null);
+
+    private final BattleRoom.Seat mySeat;
+    private final String problemId;
+    private final long startTimeMs;
+    private final long deadlineMs;
+    private final long myScore;
+    private final long opponentScore;
+    private final String status;
+    private final String winnerUid;
+    private final boolean ended;
+    private final String endReason;
+
+    BattleViewState(BattleRoom.Seat mySeat, String problemId, long startTimeMs, long deadlineMs, long myScore,
+                    long opponentScore, String status, String winnerUid, boolean ended, String endReason) {
+        this.mySeat = mySeat;
+        this.problemId = problemId;
+        this.startTimeMs = startTimeMs;
+        this.deadlineMs = deadlineMs;
+        this.myScore = myScore;
+        this.opponentScore = opponentScore;
+        this.status = status;
+        this.winnerUid = winnerUid;
+        this.ended = ended;
+        this.endReason = endReason;
+    }
+
+    /** The player's seat, or null until the first snapshot placed them. */
+    public BattleRoom.Seat getMySeat() {
+        return mySeat;
+    }
+
+    public String getProblemId() {
+        return problemId;
+    }
+
+    /** When the battle started, or {@link BattleRoom#NONE} if it has not. */
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    /**
+     * When the battle ends on the server's clock (see {@link BattleRoom#getDeadlineMs}), or
+     * {@link BattleRoom#NONE} if it has not started.
+     */
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public long getMyScore() {
+        return myScore;
+    }
+
+    public long getOpponentScore() {
+        return opponentScore;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getWinnerUid() {
+        return winnerUid;
+    }
+
+    /**
+     * Whether the battle is over as far as the room is concerned: it finished, or it can no longer
+     * be followed (see {@link #getEndReason}). No state follows an ended one.
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /** Why the room could not be followed, for the log; null if it ended normally or is running. */
+    public String getEndReason() {
+        return endReason;
+    }
+
+    BattleViewState withSeat(BattleRoom.Seat seat) {
+        return new BattleViewState(seat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, ended, endReason);
+    }
+
+    BattleViewState withProblemId(String problemId) {
+        return new BattleViewState(mySeat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, ended, endReason);
+    }
+
+    BattleViewState withStartTime(long startTimeMs, long deadlineMs) {
+        return new BattleViewState(mySeat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, ended, endReason);
+    }
+
+    BattleViewState withScores(long myScore, long opponentScore) {
+        return new BattleViewState(mySeat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, ended, endReason);
+    }
+
+    BattleViewState withStatus(String status, String winnerUid) {
+        return new BattleViewState(mySeat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, ended || "finished".equals(status), endReason);
+    }
+
+    BattleViewState withEnd(String endReason) {
+        return new BattleViewState(mySeat, problemId, startTimeMs, deadlineMs, myScore, opponentScore,
+                status, winnerUid, true, endReason);
+    }
+
+    @Override
+    public String toString() {
+        return "BattleViewState{" + mySeat + ", " + problemId + ", " + myScore + "/" + opponentScore + ", " + status
+                + (ended ? ", ended" + (endReason != null ? " (" + endReason + ")" : "") : "") + "}";
+    }
+}
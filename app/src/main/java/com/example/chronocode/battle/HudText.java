@@ -0,0 +1,101 @@
+package com.example.chronocode.battle;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * One line of battle HUD text rendered into a char buffer that is reused for the life of the
+ * screen: a fixed prefix followed by a number ("My Score: 120") or a countdown ("04:59").
+ * Rendering does nothing when the shown value is unchanged and never allocates, so the buffer
+ * can go straight to {@code TextView.setText(char[], int, int)} on every change.
+ *
+ * <p>Digits are the locale's, as {@link TimerText} formats them. Not thread-safe.
+ */
+public final class HudText {
+
+    /** Receives the buffer after it changed; it stays valid until the next call. */
+    public interface View {
+        void show(char[] chars, int length);
+    }
+
+    private static final long NOTHING_SHOWN = Long.MIN_VALUE;
+    // Enough for the sign and digits of any long, or a countdown of up to a million hours
+    private static final int VALUE_CHARS = 20;
+
+    private final char[] chars;
+    private final int prefixLength;
+    private final char zeroDigit;
+    private final View view;
+    private int length;
+    private long shown = NOTHING_SHOWN;
+
+    public HudText(String prefix, Locale locale, View view) {
+        this.chars = new char[prefix.length() + VALUE_CHARS];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        this.prefixLength = prefix.length();
+        this.zeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        this.view = view;
+    }
+
+    /** Shows {@code value} after the prefix. Returns whether the text changed. */
+    public boolean showNumber(long value) {
+        if (value == shown) return false;
+        shown = value;
+        int end = prefixLength;
+        if (value < 0) {
+            chars[end++] = '-';
+        }
+        end = appendDigits(end, value, 1);
+        length = end;
+        view.show(chars, length);
+        return true;
+    }
+
+    /**
+     * Shows whole minutes and seconds left, two digits each at least, e.g. "04:59". Returns
+     * whether the text changed, which happens at most once a second.
+     */
+    public boolean showCountdown(long millisLeft) {
+        long seconds = Math.max(0, millisLeft) / 1000;
+        if (seconds == shown) return false;
+        shown = seconds;
+        int end = appendDigits(prefixLength, seconds / 60, 2);
+        chars[end++] = ':';
+        end = appendDigits(end, seconds % 60, 2);
+        length = end;
+        view.show(chars, length);
+        return true;
+    }
+
+    /** Forgets what is shown so the next call renders whatever its value. */
+    public void invalidate() {
+        shown = NOTHING_SHOWN;
+    }
+
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    // Writes |value| with at least minDigits digits at start; returns the end
+    private int appendDigits(int start, long value, int minDigits) {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) digits++;
+        digits = Math.max(digits, minDigits);
+        int end = start + digits;
+        long rest = value;
+        for (int i = end - 1; i >= start; i--) {
+            chars[i] = (char) (zeroDigit + Math.abs(rest % 10));
+            rest /= 10;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.chronocode.battle;
+
+import java.util.Locale;
+
+/**
+ * What the result screen shows for a finished room, and what it should do about ratings. Built
+ * off the main thread from the decoded room; immutable.
+ */
+public final class ResultViewState {
+
+    /** What the viewing player's client should do about the room's ratings. */
+    public enum RatingAction {
+        /** Someone already settled them. */
+        ALREADY_SETTLED,
+        /** A seat is empty, so there is nothing to settle. */
+        MISSING_PLAYERS,
+        /** This client is the designated settler. */
+        SETTLE_NOW,
+        /** The other player settles; this client only falls back after a grace period. */
+        SETTLE_LATER
+    }
+
+    private final String resultText;
+    private final String scoreDetailsText;
+    private final RatingAction ratingAction;
+
+    private ResultViewState(String resultText, String scoreDetailsText, RatingAction ratingAction) {
+        this.resultText = resultText;
+        this.scoreDetailsText = scoreDetailsText;
+        this.ratingAction = ratingAction;
+    }
+
+    /**
+     * The state for {@code room} seen by {@code myUid}. {@code resultInfo} is what the battle
+     * screen ended with: "Timeout" and "Error" change the headline.
+     */
+    public static ResultViewState of(BattleRoom room, String myUid, String resultInfo) {
+        String p1Name = room.getDisplayName(BattleRoom.Seat.PLAYER1);
+        String p2Name = room.getDisplayName(BattleRoom.Seat.PLAYER2);
+        p1Name = (p1Name == null) ? "Player 1" : p1Name;
+        p2Name = (p2Name == null) ? "Player 2" : p2Name;
+
+        String winnerUid = room.leaderUid();
+        String resultString;
+        if (winnerUid == null) {
+            resultString = "It's a Draw!";
+        } else if (winnerUid.equals(myUid)) {
+            resultString = "You Won!";
+        } else {
+            resultString = "You Lost!";
+        }
+        if ("Timeout".equals(resultInfo)) {
+            resultString += " (Timeout)";
+        } else if ("Error".equals(resultInfo)) {
+            resultString = "Battle ended due to error.";
+        }
+
+        String details = String.format(Locale.getDefault(), "%s Score: %d\n%s Score: %d",
+                p1Name, room.getScore(BattleRoom.Seat.PLAYER1), p2Name, room.getScore(BattleRoom.Seat.PLAYER2));
+        return new ResultViewState(resultString, details, ratingAction(room, myUid));
+    }
+
+    private static RatingAction ratingAction(BattleRoom room, String myUid) {
+        if (room.isRatingSettled()) return RatingAction.ALREADY_SETTLED;
+        if (room.getUid(BattleRoom.Seat.PLAYER1) == null || room.getUid(BattleRoom.Seat.PLAYER2) == null) {
+            return RatingAction.MISSING_PLAYERS;
+        }
+        // Only player 1 settles right away so the two clients don't contend for the same users
+        // documents (see RatingSettler.isDesignatedSettler)
+        return room.seatOf(myUid) == BattleRoom.Seat.PLAYER1 ? RatingAction.SETTLE_NOW : RatingAction.SETTLE_LATER;
+    }
+
+    public String getResultText() {
+        return resultText;
+    }
+
+    public String getScoreDetailsText() {
+        return scoreDetailsText;
+    }
+
+    public RatingAction getRatingAction() {
+        return ratingAction;
+    }
+}
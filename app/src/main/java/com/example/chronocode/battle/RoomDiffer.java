@@ -0,0 +1,119 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.Date;
+
+/**
+ * Turns successive snapshots of one {@code battle_rooms} document into typed change events.
+ *
+ * <p>Each snapshot is compared against the last one field by field, and only the fields the
+ * battle screen cares about that actually changed reach the {@link Handler}. The player's seat
+ * is resolved once on the first snapshot and its field names come from {@link BattleRoomCodec},
+ * so an update reads only the handful of fields still in play, builds no strings and, if it
+ * touches nothing of interest (e.g. the opponent's submitted code), does no UI work. A full
+ * {@link BattleRoomCodec#decodeInto} would read every field of the room on every update. Not
+ * thread-safe; feed it from the listener's thread.
+ */
+public class RoomDiffer {
+
+    /** Receives the fields that changed. Called on the thread that calls {@link #apply}. */
+    public interface Handler {
+
+        /** The room does not list the player in either seat. No further events follow. */
+        void onNotInRoom();
+
+        /** {@code problemId} became known. */
+        void onProblemId(String problemId);
+
+        /** {@code startTime} was set. */
+        void onStartTime(long startTimeMs);
+
+        /** Either player's score changed; missing scores count as 0. */
+        void onScores(long myScore, long opponentScore);
+
+        /** {@code status} changed. */
+        void onStatus(String status, String winnerUid);
+    }
+
+    private final String myUid;
+    private final Handler handler;
+
+    private BattleRoom.Seat mySeat;
+    private String myScoreField;
+    private String opponentScoreField;
+    private boolean detached;
+
+    private String problemId;
+    private long startTimeMs = BattleRoom.NONE;
+    private long myScore = BattleRoom.NONE;
+    private long opponentScore = BattleRoom.NONE;
+    private String status;
+
+    public RoomDiffer(String myUid, Handler handler) {
+        this.myUid = myUid;
+        this.handler = handler;
+    }
+
+    /** The player's seat once the first snapshot resolved it, else null. */
+    public BattleRoom.Seat getMySeat() {
+        return mySeat;
+    }
+
+    /** "player1" or "player2" once the first snapshot resolved the seat, else null. */
+    public String getMyPlayerKey() {
+        return mySeat != null ? mySeat.key() : null;
+    }
+
+    /** Compares {@code room} with the previous snapshot and dispatches what changed. */
+    public void apply(Doc room) {
+        if (detached || !room.exists()) return;
+        if (mySeat == null && !resolveSeat(room)) {
+            detached = true;
+            handler.onNotInRoom();
+            return;
+        }
+
+        if (problemId == null) {
+            String newProblemId = room.getString(BattleRoomCodec.PROBLEM_ID);
+            if (newProblemId != null) {
+                problemId = newProblemId;
+                handler.onProblemId(newProblemId);
+            }
+        }
+
+        if (startTimeMs == BattleRoom.NONE) {
+            Date startTime = room.getDate(BattleRoomCodec.START_TIME);
+            if (startTime != null) {
+                startTimeMs = startTime.getTime();
+                handler.onStartTime(startTimeMs);
+            }
+        }
+
+        long newMyScore = room.getLong(myScoreField, 0);
+        long newOpponentScore = room.getLong(opponentScoreField, 0);
+        if (newMyScore != myScore || newOpponentScore != opponentScore) {
+            myScore = newMyScore;
+            opponentScore = newOpponentScore;
+            handler.onScores(newMyScore, newOpponentScore);
+        }
+
+        String newStatus = room.getString(BattleRoomCodec.STATUS);
+        if (newStatus != null && !newStatus.equals(status)) {
+            status = newStatus;
+            handler.onStatus(newStatus, room.getString(BattleRoomCodec.WINNER_UID));
+        }
+    }
+
+    private boolean resolveSeat(Doc room) {
+        for (BattleRoom.Seat seat : BattleRoom.Seat.values()) {
+            if (myUid.equals(room.getString(BattleRoomCodec.uidField(seat)))) {
+                mySeat = seat;
+                myScoreField = BattleRoomCodec.scoreField(seat);
+                opponentScoreField = BattleRoomCodec.scoreField(seat.other());
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreException;
+import com.example.chronocode.store.StoreTransaction;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retires rooms nobody will come back to: "waiting" rooms older than {@code waitingTtlMs} by
+ * createdAt become "canceled", and "ongoing" rooms whose startTime is older than
+ * {@code ongoingTtlMs} become "abandoned". That keeps the waiting-room query small and free of
+ * dead rooms.
+ *
+ * <p>Each page of expired rooms is retired in one transaction that re-reads the rooms and only
+ * touches those still in the same state and still expired, so a room claimed or finished
+ * between the query and the write is left alone. {@link #sweep} blocks; call it from a
+ * background thread.
+ */
+public class RoomSweeper {
+
+    public static final long DEFAULT_WAITING_TTL_MS = TimeUnit.MINUTES.toMillis(15);
+    /** Battle length plus a grace period for the finish write. */
+    public static final long DEFAULT_ONGOING_TTL_MS = BattleRooms.BATTLE_DURATION_MS + TimeUnit.MINUTES.toMillis(10);
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final BattleStore store;
+    private final long waitingTtlMs;
+    private final long ongoingTtlMs;
+    private final int pageSize;
+
+    public RoomSweeper(BattleStore store) {
+        this(store, DEFAULT_WAITING_TTL_MS, DEFAULT_ONGOING_TTL_MS, DEFAULT_PAGE_SIZE);
+    }
+
+    public RoomSweeper(BattleStore store, long waitingTtlMs, long ongoingTtlMs, int pageSize) {
+        this.store = store;
+        this.waitingTtlMs = waitingTtlMs;
+        this.ongoingTtlMs = ongoingTtlMs;
+        this.pageSize = Math.min(pageSize, BattleStore.MAX_BATCH_WRITES);
+    }
+
+    /** Retires up to {@code maxRooms} expired rooms as of {@code nowMs}. */
+    public Report sweep(long nowMs, int maxRooms) throws StoreException {
+        long started = System.nanoTime();
+        Tally tally = new Tally();
+        sweepStatus("waiting", "createdAt", "canceled", new Date(nowMs - waitingTtlMs), nowMs, maxRooms, tally);
+        sweepStatus("ongoing", "startTime", "abandoned", new Date(nowMs - ongoingTtlMs), nowMs,
+                maxRooms - tally.retired(), tally);
+        return new Report(tally.scanned, tally.canceled, tally.abandoned, tally.skipped,
+                System.nanoTime() - started);
+    }
+
+    private void sweepStatus(String status, String timeField, String newStatus, Date cutoff, long nowMs,
+                             int budget, Tally tally) throws StoreException {
+        while (budget > 0) {
+            List<Doc> page = StoreException.await(
+                    store.findRoomsBefore(status, timeField, cutoff, Math.min(pageSize, budget)));
+            if (page.isEmpty()) return;
+            tally.scanned += page.size();
+            int retired = StoreException.await(store.runTransaction(transaction ->
+                    retire(transaction, page, status, timeField, newStatus, cutoff, nowMs)));
+            if ("canceled".equals(newStatus)) tally.canceled += retired;
+            else tally.abandoned += retired;
+            tally.skipped += page.size() - retired;
+            budget -= page.size();
+            // Skipped rooms have moved on and will not be returned again, so this terminates.
+            if (page.size() < pageSize) return;
+        }
+    }
+
+    private static int retire(StoreTransaction transaction, List<Doc> page, String status, String timeField,
+                              String newStatus, Date cutoff, long nowMs) throws StoreException {
+        Doc[] current = new Doc[page.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = transaction.get(BattleStore.BATTLE_ROOMS, page.get(i).getId());
+        }
+        int retired = 0;
+        for (Doc room : current) {
+            Date time = room.getDate(timeField);
+            if (!status.equals(room.getString("status")) || time == null || !time.before(cutoff)) continue;
+            Map<String, Object> updates = new HashMap<>();
+            updates.put("status", newStatus);
+            updates.put("endTime", new Date(nowMs));
+            transaction.update(BattleStore.BATTLE_ROOMS, room.getId(), updates);
+            retired++;
+        }
+        return retired;
+    }
+
+    private static final class Tally {
+        int scanned;
+        int canceled;
+        int abandoned;
+        int skipped;
+
+        int retired() {
+            return canceled + abandoned;
+        }
+    }
+
+    /** What a {@link #sweep} did and how fast. */
+    public static final class Report {
+        private final int scanned;
+        private final int canceled;
+        private final int abandoned;
+        private final int skipped;
+        private final long elapsedNanos;
+
+        Report(int scanned, int canceled, int abandoned, int skipped, long elapsedNanos) {
+            this.scanned = scanned;
+            this.canceled = canceled;
+            this.abandoned = abandoned;
+            this.skipped = skipped;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Expired rooms returned by the queries. */
+        public int getScanned() {
+            return scanned;
+        }
+
+        /** Waiting rooms moved to "canceled". */
+        public int getCanceled() {
+            return canceled;
+        }
+
+        /** Ongoing rooms moved to "abandoned". */
+        public int getAbandoned() {
+            return abandoned;
+        }
+
+        /** Rooms that changed state between the query and the transaction. */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double roomsPerSecond() {
+            return elapsedNanos == 0 ? 0 : (canceled + abandoned) * 1e9 / elapsedNanos;
+        }
+    }
+}
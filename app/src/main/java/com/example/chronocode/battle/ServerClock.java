@@ -0,0 +1,155 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.BattleStore;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The server's time as this device best knows it, so that both players of a battle count down to
+ * the same moment however wrong their own clocks are.
+ *
+ * <p>{@link #sync} samples the store's clock the way NTP does: each sample brackets one
+ * {@link BattleStore#stampServerTime} round trip between two readings of the monotonic
+ * {@code System.nanoTime} clock and assumes the server read its time halfway through, which is
+ * off by at most half the round trip. The sample with the shortest round trip wins and becomes
+ * the anchor; from then on server time is the anchor plus elapsed nanoTime, so changes to the
+ * device's wall clock do not move it. Until the first sync completes the device's wall clock
+ * stands in for the server's.
+ *
+ * <p>{@link #serverNow} never goes backwards, also not when a later sync moves the estimate
+ * back; it holds still until the new estimate catches up. Thread-safe.
+ */
+public final class ServerClock {
+
+    public static final int DEFAULT_SAMPLES = 5;
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final BattleStore store;
+    private final String clientId;
+    private final LongSupplier nanoTime;
+    private final LongSupplier deviceMillis;
+
+    // guarded by this
+    private long anchorNanos;
+    private long anchorServerMs;
+    private long offsetMs;
+    private long uncertaintyMs = -1;
+    private long lastServerNowMs = Long.MIN_VALUE;
+    private CompletableFuture<ServerClock> syncing;
+
+    public ServerClock(BattleStore store, String clientId) {
+        this(store, clientId, System::nanoTime, System::currentTimeMillis);
+    }
+
+    /**
+     * @param nanoTime     a monotonic clock in nanoseconds
+     * @param deviceMillis the device's wall clock, only used before the first sync
+     */
+    public ServerClock(BattleStore store, String clientId, LongSupplier nanoTime, LongSupplier deviceMillis) {
+        this.store = store;
+        this.clientId = clientId;
+        this.nanoTime = nanoTime;
+        this.deviceMillis = deviceMillis;
+        this.anchorNanos = nanoTime.getAsLong();
+        this.anchorServerMs = deviceMillis.getAsLong();
+    }
+
+    /** Server time in epoch milliseconds; never less than what an earlier call returned. */
+    public synchronized long serverNow() {
+        long estimate = anchorServerMs + (nanoTime.getAsLong() - anchorNanos) / NANOS_PER_MILLI;
+        if (estimate > lastServerNowMs) lastServerNowMs = estimate;
+        return lastServerNowMs;
+    }
+
+    /** Milliseconds from now until {@code serverMs}, negative once it has passed. */
+    public long millisUntil(long serverMs) {
+        return serverMs - serverNow();
+    }
+
+    /** The {@code System.nanoTime} reading at which the server's clock shows {@code serverMs}. */
+    public synchronized long nanoTimeAt(long serverMs) {
+        return anchorNanos + (serverMs - anchorServerMs) * NANOS_PER_MILLI;
+    }
+
+    public synchronized boolean isSynced() {
+        return uncertaintyMs >= 0;
+    }
+
+    /** How far the server's clock was ahead of the device's at the last sync, in milliseconds. */
+    public synchronized long getOffsetMs() {
+        return offsetMs;
+    }
+
+    /** Half the round trip of the sample in use: the most the estimate can be off by, or -1 before a sync. */
+    public synchronized long getUncertaintyMs() {
+        return uncertaintyMs;
+    }
+
+    /** {@link #sync(int)} with {@link #DEFAULT_SAMPLES}. */
+    public CompletableFuture<ServerClock> sync() {
+        return sync(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * Takes {@code samples} samples one after the other and re-anchors on the best. A sync that is
+     * already running is returned instead of starting another. Fails, leaving the clock as it
+     * was, if any sample fails.
+     */
+    public CompletableFuture<ServerClock> sync(int samples) {
+        CompletableFuture<ServerClock> result;
+        synchronized (this) {
+            if (syncing != null) return syncing;
+            result = new CompletableFuture<>();
+            syncing = result;
+        }
+        // Sampled without the lock: serverNow() must not wait for round trips
+        sample(samples, null).whenComplete((best, error) -> {
+            synchronized (this) {
+                syncing = null;
+                if (error == null) anchor(best);
+            }
+            if (error != null) result.completeExceptionally(error);
+            else result.complete(this);
+        });
+        return result;
+    }
+
+    private CompletableFuture<Sample> sample(int remaining, Sample best) {
+        if (remaining <= 0) return CompletableFuture.completedFuture(best);
+        long sentNanos = nanoTime.getAsLong();
+        return store.stampServerTime(clientId).thenCompose(serverMs -> {
+            Sample sample = new Sample(sentNanos, nanoTime.getAsLong(), serverMs, deviceMillis.getAsLong());
+            return sample(remaining - 1, best == null || sample.roundTripNanos() < best.roundTripNanos() ? sample : best);
+        });
+    }
+
+    // Caller holds the lock
+    private void anchor(Sample sample) {
+        long halfRoundTripNanos = sample.roundTripNanos() / 2;
+        offsetMs = sample.serverMs - (sample.deviceMs - halfRoundTripNanos / NANOS_PER_MILLI);
+        anchorNanos = sample.sentNanos + halfRoundTripNanos;
+        anchorServerMs = sample.serverMs;
+        uncertaintyMs = (halfRoundTripNanos + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+    }
+
+    private static final class Sample {
+        final long sentNanos;
+        final long receivedNanos;
+        final long serverMs;
+        final long deviceMs; // Wall clock when the answer came back
+
+        Sample(long sentNanos, long receivedNanos, long serverMs, long deviceMs) {
+            this.sentNanos = sentNanos;
+            this.receivedNanos = receivedNanos;
+            this.serverMs = serverMs;
+            this.deviceMs = deviceMs;
+        }
+
+        long roundTripNanos() {
+            return receivedNanos - sentNanos;
+        }
+    }
+}
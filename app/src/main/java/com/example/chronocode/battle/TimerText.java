@@ -0,0 +1,20 @@
+package com.example.chronocode.battle;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text of the battle countdown, e.g. "04:59".
+ */
+public final class TimerText {
+
+    private TimerText() {
+    }
+
+    /** Minutes and seconds left, two digits each, in the digits of {@code locale}. */
+    public static String format(Locale locale, long millisUntilFinished) {
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(millisUntilFinished);
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millisUntilFinished) - TimeUnit.MINUTES.toSeconds(minutes);
+        return String.format(locale, "%02d:%02d", minutes, seconds);
+    }
+}
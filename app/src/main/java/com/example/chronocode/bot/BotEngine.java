@@ -0,0 +1,159 @@
+package com.example.chronocode.bot;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.profile.PlayerStats;
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreBatch;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Plays ChronoBot in every bot battle of the process. Each {@link BotMatch} is a room kept in
+ * memory with at most two timer tasks pending, the bot's solve and the deadline, both on one
+ * shared scheduler, so thousands of battles at once cost a few hundred bytes each and no threads.
+ * The room document is written once, finished, when the battle ends, in one batch with the
+ * player's {@link StatCounters} increment if the engine has counters.
+ *
+ * <p>Times are on the server clock given to the constructor, the same one rooms are started
+ * with, and the bot always plays {@link #BOT_SEAT}.
+ */
+public final class BotEngine {
+
+    /** The seat ChronoBot plays in. */
+    public static final BattleRoom.Seat BOT_SEAT = BattleRoom.Seat.PLAYER2;
+
+    private final BattleStore store;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier serverNowMs;
+    private final double timeScale;
+    private final StatCounters stats;
+    private final Map<String, BotMatch> matches = new ConcurrentHashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    /** Plays on a shared daemon thread. */
+    public BotEngine(BattleStore store, LongSupplier serverNowMs) {
+        this(store, serverNowMs, null);
+    }
+
+    /** Plays on a shared daemon thread and counts every battle in {@code stats}, unless it is null. */
+    public BotEngine(BattleStore store, LongSupplier serverNowMs, StatCounters stats) {
+        this(store, SharedScheduler.INSTANCE, serverNowMs, 1, stats);
+    }
+
+    /**
+     * @param timeScale server milliseconds per real millisecond: 1 on a device, more to play
+     *                  battles faster than real time in simulations
+     */
+    public BotEngine(BattleStore store, ScheduledExecutorService scheduler, LongSupplier serverNowMs,
+                     double timeScale) {
+        this(store, scheduler, serverNowMs, timeScale, null);
+    }
+
+    public BotEngine(BattleStore store, ScheduledExecutorService scheduler, LongSupplier serverNowMs,
+                     double timeScale, StatCounters stats) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.serverNowMs = serverNowMs;
+        this.timeScale = timeScale;
+        this.stats = stats;
+    }
+
+    /** The server time rooms are started at. */
+    public long serverNow() {
+        return serverNowMs.getAsLong();
+    }
+
+    /**
+     * Starts playing {@code room}, an "ongoing" room from
+     * {@link com.example.chronocode.battle.BattleRoomCodec#newBotBattle}, at {@code botRating}.
+     */
+    public BotMatch start(String roomId, BattleRoom room, long botRating, Random random) {
+        return start(roomId, room, BotTimeline.generate(botRating, room.getDeadlineMs() - room.getStartTimeMs(), random));
+    }
+
+    public BotMatch start(String roomId, BattleRoom room, BotTimeline timeline) {
+        BotMatch match = new BotMatch(this, roomId, room, timeline);
+        if (matches.putIfAbsent(roomId, match) != null) {
+            throw new IllegalStateException("Bot battle " + roomId + " already running");
+        }
+        started.incrementAndGet();
+        match.begin();
+        return match;
+    }
+
+    /** The running bot battle in room {@code roomId}, or null if there is none (any more). */
+    public BotMatch get(String roomId) {
+        return matches.get(roomId);
+    }
+
+    /** Bot battles running, including any whose result is still being written. */
+    public int getActive() {
+        return matches.size();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    /** Finished rooms written; one per bot battle. */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    ScheduledFuture<?> scheduleAt(long atServerMs, Runnable task) {
+        long realMicros = (long) (Math.max(0, atServerMs - serverNow()) * 1000 / timeScale);
+        return scheduler.schedule(task, realMicros, TimeUnit.MICROSECONDS);
+    }
+
+    CompletableFuture<Void> persist(BotMatch match, Map<String, Object> finishedRoom) {
+        writes.incrementAndGet();
+        BattleRoom room = BattleRoomCodec.decode(new Doc(match.getRoomId(), finishedRoom, 0));
+        String player = room.getUid(BOT_SEAT.other());
+        CompletableFuture<Void> written;
+        if (stats == null || player == null) {
+            written = store.set(BattleStore.BATTLE_ROOMS, match.getRoomId(), finishedRoom);
+        } else {
+            PlayerStats.Outcome outcome = PlayerStats.Outcome.of(player, room.leaderUid());
+            StoreBatch batch = store.batch();
+            batch.set(BattleStore.BATTLE_ROOMS, match.getRoomId(), finishedRoom);
+            stats.record(batch, player, outcome);
+            written = batch.commit().thenRun(() -> stats.recorded(player, outcome));
+        }
+        return written.whenComplete((v, error) -> {
+            if (error != null) failedWrites.incrementAndGet();
+            matches.remove(match.getRoomId(), match);
+        });
+    }
+
+    // Created on first use, so processes that never play a bot battle get no thread
+    private static final class SharedScheduler {
+        static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ChronoBot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true); // Battles the player ended early leave no tasks behind
+        }
+    }
+}
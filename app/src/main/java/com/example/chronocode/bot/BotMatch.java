@@ -0,0 +1,175 @@
+package com.example.chronocode.bot;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.DocListener;
+import com.example.chronocode.store.Registration;
+import com.example.chronocode.store.StoreException;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * One battle against ChronoBot, held in memory instead of in a live room document. It looks like
+ * the room would: {@link #listen} delivers room snapshots, the player's submissions go through
+ * {@link #submit}, and the bot's score appears when its {@link BotTimeline} says. At the deadline,
+ * or when the player's client calls {@link #finish} first, the finished room is written to the
+ * store once, already marked settled since bot battles are unrated; nothing else is ever written.
+ *
+ * <p>Thread-safe. Snapshots are delivered in order, while holding the match's lock, so the
+ * listener should hand them off rather than do real work.
+ */
+public final class BotMatch {
+
+    private final BotEngine engine;
+    private final String roomId;
+    private final BotTimeline timeline;
+    private final long startMs;
+    private final long deadlineMs;
+
+    // guarded by this
+    private final Map<String, Object> data;
+    private long version;
+    private DocListener listener;
+    private long fullScore;
+    private boolean solved;
+    private ScheduledFuture<?> solveTask;
+    private ScheduledFuture<?> deadlineTask;
+    private CompletableFuture<Void> persisted;
+
+    BotMatch(BotEngine engine, String roomId, BattleRoom room, BotTimeline timeline) {
+        this.engine = engine;
+        this.roomId = roomId;
+        this.timeline = timeline;
+        this.startMs = room.getStartTimeMs();
+        this.deadlineMs = room.getDeadlineMs();
+        this.data = BattleRoomCodec.encode(room);
+    }
+
+    // Schedules the bot's solve, if it makes it in time, and the end of the battle
+    synchronized void begin() {
+        if (timeline.solves() && startMs + timeline.getAcceptedAtMs() < deadlineMs) {
+            solveTask = engine.scheduleAt(startMs + timeline.getAcceptedAtMs(), this::solve);
+        }
+        deadlineTask = engine.scheduleAt(deadlineMs, () -> finish(deadlineMs));
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public BotTimeline getTimeline() {
+        return timeline;
+    }
+
+    public long getStartTimeMs() {
+        return startMs;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public synchronized long getBotScore() {
+        return solved ? fullScore : 0;
+    }
+
+    public synchronized boolean isFinished() {
+        return persisted != null;
+    }
+
+    /**
+     * Full marks for the room's problem, once known. The bot's score is 0 until both this is set
+     * and its timeline has solved the problem.
+     */
+    public synchronized void setFullScore(long fullScore) {
+        this.fullScore = fullScore;
+        if (solved && persisted == null) {
+            showBotScore();
+            publish();
+        }
+    }
+
+    /**
+     * Watches the room; the listener gets the current snapshot right away. One listener at a
+     * time: a new one replaces the last.
+     */
+    public synchronized Registration listen(DocListener listener) {
+        this.listener = listener;
+        listener.onEvent(snapshot(), null);
+        return () -> {
+            synchronized (BotMatch.this) {
+                if (BotMatch.this.listener == listener) BotMatch.this.listener = null;
+            }
+        };
+    }
+
+    /**
+     * Records the player's score and submission, as an update of a live room would. Fails with
+     * ABORTED once the battle is over.
+     */
+    public synchronized CompletableFuture<Void> submit(BattleRoom.Seat seat, long score, String submissionHash) {
+        if (persisted != null) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new StoreException("Battle " + roomId + " is over",
+                    StoreException.Reason.ABORTED));
+            return failed;
+        }
+        data.put(BattleRoomCodec.scoreField(seat), score);
+        if (submissionHash != null) data.put(BattleRoomCodec.submissionHashField(seat), submissionHash);
+        publish();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Ends the battle at {@code endTimeMs} and writes the finished room. Completes with whether
+     * this call ended it; a later call completes with false once the first one's write is done.
+     */
+    public synchronized CompletableFuture<Boolean> finish(long endTimeMs) {
+        if (persisted != null) return persisted.thenApply(v -> false);
+        if (solveTask != null) solveTask.cancel(false);
+        if (deadlineTask != null) deadlineTask.cancel(false);
+        if (!solved && timeline.isSolvedAt(endTimeMs - startMs)) {
+            solved = true; // The solve task lost the race with the end
+            showBotScore();
+        }
+        data.put(BattleRoomCodec.STATUS, "finished");
+        data.put(BattleRoomCodec.END_TIME, new Date(endTimeMs));
+        data.put(BattleRoomCodec.RATING_SETTLED, true); // Bot battles are unrated
+        persisted = engine.persist(this, new HashMap<>(data));
+        publish();
+        return persisted.thenApply(v -> true);
+    }
+
+    private synchronized void solve() {
+        if (persisted != null) return;
+        solved = true;
+        showBotScore();
+        publish();
+    }
+
+    // Caller holds the lock
+    private void showBotScore() {
+        if (fullScore > 0) data.put(BattleRoomCodec.scoreField(BotEngine.BOT_SEAT), fullScore);
+    }
+
+    // Caller holds the lock
+    private void publish() {
+        if (listener != null) listener.onEvent(snapshot(), null);
+    }
+
+    // Caller holds the lock
+    private Doc snapshot() {
+        return new Doc(roomId, data, ++version);
+    }
+
+    @Override
+    public String toString() {
+        return "BotMatch{" + roomId + (timeline.solves() ? ", solves at " + timeline.getAcceptedAtMs() + " ms" : "")
+                + "}";
+    }
+}
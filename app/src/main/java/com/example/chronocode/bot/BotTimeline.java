@@ -0,0 +1,52 @@
+package com.example.chronocode.bot;
+
+import com.example.chronocode.profile.UserProfile;
+
+import java.util.Random;
+
+/**
+ * What ChronoBot does in one battle, decided before the battle starts: whether it solves the
+ * problem and when. Scores are all or nothing like the judge's, so the bot's score changes once,
+ * at {@link #getAcceptedAtMs}, from 0 to full marks.
+ *
+ * <p>The bot plays at a rating, normally its opponent's. A bot at {@link UserProfile#DEFAULT_RATING}
+ * solves half its problems, 400 points more makes that about 90%, as in an Elo game against the
+ * problem. Stronger bots also solve sooner. Immutable.
+ */
+public final class BotTimeline {
+
+    /** {@link #getAcceptedAtMs} of a timeline that never solves the problem. */
+    public static final long NEVER = -1;
+
+    // When a bot at the default rating solves, as a fraction of the battle; halves per 400 points
+    private static final double TYPICAL_SOLVE_FRACTION = 0.5;
+
+    private final long acceptedAtMs;
+
+    BotTimeline(long acceptedAtMs) {
+        this.acceptedAtMs = acceptedAtMs;
+    }
+
+    /** A timeline for a bot playing at {@code rating} in a battle of {@code durationMs}. */
+    public static BotTimeline generate(long rating, long durationMs, Random random) {
+        double strength = (rating - UserProfile.DEFAULT_RATING) / 400.0;
+        double solveChance = 1 / (1 + Math.pow(10, -strength));
+        double solveFraction = TYPICAL_SOLVE_FRACTION * Math.pow(2, -strength) * Math.exp(0.35 * random.nextGaussian());
+        boolean solves = random.nextDouble() < solveChance && solveFraction < 1;
+        return new BotTimeline(solves ? (long) (solveFraction * durationMs) : NEVER);
+    }
+
+    /** When the bot solves the problem, in milliseconds from the battle's start, or {@link #NEVER}. */
+    public long getAcceptedAtMs() {
+        return acceptedAtMs;
+    }
+
+    public boolean solves() {
+        return acceptedAtMs != NEVER;
+    }
+
+    /** Whether the bot has solved the problem {@code elapsedMs} into the battle. */
+    public boolean isSolvedAt(long elapsedMs) {
+        return acceptedAtMs != NEVER && elapsedMs >= acceptedAtMs;
+    }
+}
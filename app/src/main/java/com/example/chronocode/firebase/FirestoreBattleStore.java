@@ -0,0 +1,352 @@
+package com.example.chronocode.firebase;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.DocListener;
+import com.example.chronocode.store.Registration;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreException;
+import com.example.chronocode.store.StoreTransaction;
+import com.example.chronocode.store.TransactionFunction;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link BattleStore} backed by Cloud Firestore. Firestore's callbacks, and with them the
+ * conversion of its snapshots into {@link Doc}s, run on the executor given to the constructor;
+ * futures complete and listeners are called there. Without one that is the main thread.
+ */
+public class FirestoreBattleStore implements BattleStore {
+
+    private final FirebaseFirestore db;
+    private final Executor callbacks;
+
+    public FirestoreBattleStore(FirebaseFirestore db) {
+        this(db, new Handler(Looper.getMainLooper())::post);
+    }
+
+    public FirestoreBattleStore(FirebaseFirestore db, Executor callbacks) {
+        this.db = db;
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public CompletableFuture<Doc> get(String collection, String id) {
+        CompletableFuture<Doc> future = new CompletableFuture<>();
+        db.collection(collection).document(id).get()
+                .addOnSuccessListener(callbacks, snapshot -> future.complete(toDoc(snapshot)))
+                .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e)));
+        return future;
+    }
+
+    @Override
+    public String newId(String collection) {
+        return db.collection(collection).document().getId();
+    }
+
+    @Override
+    public CompletableFuture<String> add(String collection, Map<String, Object> data) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        db.collection(collection).add(toFirestore(data))
+                .addOnSuccessListener(callbacks, ref -> future.complete(ref.getId()))
+                .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e)));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String collection, String id, Map<String, Object> data) {
+        return toFuture(db.collection(collection).document(id).set(toFirestore(data)), callbacks);
+    }
+
+    @Override
+    public CompletableFuture<Void> update(String collection, String id, Map<String, Object> updates) {
+        return toFuture(db.collection(collection).document(id).update(toFirestore(updates)), callbacks);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runTransaction(TransactionFunction<T> function) {
+        return toFuture(db.runTransaction(transaction -> {
+            try {
+                return function.apply(new FirestoreTransaction(db, transaction));
+            } catch (StoreException e) {
+                // Throwing from the function is how Firestore transactions are aborted. The SDK
+                // runs the function again after any FirebaseFirestoreException it counts as
+                // retryable, ABORTED among them, so a deliberate abort is thrown as something else.
+                throw new GaveUp(e);
+            }
+        }), callbacks);
+    }
+
+    @Override
+    public StoreBatch batch() {
+        return new FirestoreBatch(db, db.batch(), callbacks);
+    }
+
+    @Override
+    public Registration listen(String collection, String id, DocListener listener) {
+        ListenerRegistration registration = db.collection(collection).document(id)
+                .addSnapshotListener(callbacks, (snapshot, e) -> {
+                    if (e != null) listener.onEvent(null, toStoreException(e));
+                    else listener.onEvent(toDoc(snapshot), null);
+                });
+        return registration::remove;
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findWaitingRooms(List<Integer> ratingBuckets, int limit) {
+        Query query = db.collection(BATTLE_ROOMS).whereEqualTo("status", "waiting");
+        if (ratingBuckets != null) {
+            query = query.whereIn("ratingBucket", ratingBuckets);
+        }
+        return toDocs(query.orderBy("createdAt", Query.Direction.ASCENDING).limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findFinishedRooms(Date afterEndTime, String afterId, int limit) {
+        // Needs the composite index (status, endTime, __name__).
+        Query query = db.collection(BATTLE_ROOMS).whereEqualTo("status", "finished")
+                .orderBy("endTime", Query.Direction.ASCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING);
+        if (afterEndTime != null) {
+            query = query.startAfter(afterEndTime, afterId != null ? afterId : "");
+        }
+        return toDocs(query.limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findRoomsBefore(String status, String timeField, Date before, int limit) {
+        // Needs a composite index (status, timeField) for each field used.
+        return toDocs(db.collection(BATTLE_ROOMS)
+                .whereEqualTo("status", status)
+                .whereLessThan(timeField, before)
+                .orderBy(timeField, Query.Direction.ASCENDING)
+                .limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsUpdatedAfter(Date afterUpdatedAt, String afterId, int limit) {
+        Query query = db.collection(PROBLEMS)
+                .orderBy("updatedAt", Query.Direction.ASCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING);
+        if (afterUpdatedAt != null) {
+            query = query.startAfter(afterUpdatedAt, afterId != null ? afterId : "");
+        }
+        return toDocs(query.limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsAfterId(String afterId, int limit) {
+        Query query = db.collection(PROBLEMS).orderBy(FieldPath.documentId(), Query.Direction.ASCENDING);
+        if (afterId != null) query = query.startAfter(afterId);
+        return toDocs(query.limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findTopRatedUsers(int limit) {
+        return toDocs(db.collection(USERS).orderBy("rating", Query.Direction.DESCENDING).limit(limit));
+    }
+
+    @Override
+    public CompletableFuture<Long> stampServerTime(String clientId) {
+        // Once the write is acknowledged the cache holds the timestamp the server filled in, so
+        // reading it back from the cache costs no second round trip.
+        DocumentReference ref = db.collection(CLOCK).document(clientId);
+        Map<String, Object> data = new HashMap<>();
+        data.put("at", FieldValue.serverTimestamp());
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        ref.set(data)
+                .addOnSuccessListener(callbacks, ignored -> ref.get(Source.CACHE)
+                        .addOnSuccessListener(callbacks, snapshot -> {
+                            Date at = toDoc(snapshot).getDate("at");
+                            if (at != null) {
+                                future.complete(at.getTime());
+                            } else {
+                                future.completeExceptionally(new StoreException("No server time in clock/" + clientId,
+                                        StoreException.Reason.UNAVAILABLE));
+                            }
+                        })
+                        .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e))))
+                .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e)));
+        return future;
+    }
+
+    static Doc toDoc(DocumentSnapshot snapshot) {
+        if (snapshot == null || !snapshot.exists()) {
+            return Doc.missing(snapshot != null ? snapshot.getId() : null);
+        }
+        // getData() builds a new map on every call, so it is converted in place and handed over
+        // as is rather than copied; a Date per timestamp field is all that is allocated on top.
+        Map<String, Object> data = snapshot.getData();
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            Object value = entry.getValue();
+            // Store code works with java.util.Date and byte[]; Firestore hands back Timestamps and Blobs.
+            if (value instanceof Timestamp) entry.setValue(((Timestamp) value).toDate());
+            else if (value instanceof Blob) entry.setValue(((Blob) value).toBytes());
+        }
+        return Doc.wrap(snapshot.getId(), data, 0);
+    }
+
+    // Firestore only stores binary values as Blobs.
+    static Map<String, Object> toFirestore(Map<String, Object> data) {
+        Map<String, Object> converted = null;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (entry.getValue() instanceof byte[]) {
+                if (converted == null) converted = new HashMap<>(data);
+                converted.put(entry.getKey(), Blob.fromBytes((byte[]) entry.getValue()));
+            }
+        }
+        return converted != null ? converted : data;
+    }
+
+    // Server-side increments, so concurrent writers add up instead of overwriting each other
+    static Map<String, Object> toIncrements(Map<String, Long> deltas) {
+        Map<String, Object> increments = new HashMap<>();
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            increments.put(delta.getKey(), FieldValue.increment(delta.getValue()));
+        }
+        return increments;
+    }
+
+    static StoreException toStoreException(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StoreException) return (StoreException) cause; // Also a GaveUp's, as thrown
+        }
+        if (e instanceof FirebaseFirestoreException) {
+            FirebaseFirestoreException.Code code = ((FirebaseFirestoreException) e).getCode();
+            if (code == FirebaseFirestoreException.Code.NOT_FOUND) {
+                return new StoreException(e.getMessage(), StoreException.Reason.NOT_FOUND, e);
+            }
+            if (code == FirebaseFirestoreException.Code.ABORTED) {
+                return new StoreException(e.getMessage(), StoreException.Reason.CONTENTION, e);
+            }
+        }
+        return new StoreException(e.getMessage(), StoreException.Reason.UNAVAILABLE, e);
+    }
+
+    private CompletableFuture<List<Doc>> toDocs(Query query) {
+        CompletableFuture<List<Doc>> future = new CompletableFuture<>();
+        query.get()
+                .addOnSuccessListener(callbacks, result -> {
+                    List<Doc> docs = new ArrayList<>(result.size());
+                    for (DocumentSnapshot snapshot : result.getDocuments()) docs.add(toDoc(snapshot));
+                    future.complete(docs);
+                })
+                .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e)));
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> toFuture(Task<T> task, Executor callbacks) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        task.addOnSuccessListener(callbacks, future::complete)
+                .addOnFailureListener(callbacks, e -> future.completeExceptionally(toStoreException(e)));
+        return future;
+    }
+
+    // A transaction function's StoreException, carried out of the SDK without being retried
+    private static final class GaveUp extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        GaveUp(StoreException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class FirestoreBatch implements StoreBatch {
+        private final FirebaseFirestore db;
+        private final WriteBatch batch;
+        private final Executor callbacks;
+        private int size;
+
+        FirestoreBatch(FirebaseFirestore db, WriteBatch batch, Executor callbacks) {
+            this.db = db;
+            this.batch = batch;
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            batch.set(db.collection(collection).document(id), toFirestore(data));
+            size++;
+        }
+
+        @Override
+        public void update(String collection, String id, Map<String, Object> updates) {
+            batch.update(db.collection(collection).document(id), toFirestore(updates));
+            size++;
+        }
+
+        @Override
+        public void increment(String collection, String id, Map<String, Long> deltas) {
+            batch.set(db.collection(collection).document(id), toIncrements(deltas), SetOptions.merge());
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public CompletableFuture<Void> commit() {
+            return toFuture(batch.commit(), callbacks);
+        }
+    }
+
+    private static final class FirestoreTransaction implements StoreTransaction {
+        private final FirebaseFirestore db;
+        private final Transaction transaction;
+
+        FirestoreTransaction(FirebaseFirestore db, Transaction transaction) {
+            this.db = db;
+            this.transaction = transaction;
+        }
+
+        @Override
+        public Doc get(String collection, String id) throws StoreException {
+            try {
+                return toDoc(transaction.get(db.collection(collection).document(id)));
+            } catch (FirebaseFirestoreException e) {
+                throw toStoreException(e);
+            }
+        }
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            transaction.set(db.collection(collection).document(id), toFirestore(data));
+        }
+
+        @Override
+        public void update(String collection, String id, Map<String, Object> updates) {
+            transaction.update(db.collection(collection).document(id), toFirestore(updates));
+        }
+
+        @Override
+        public void increment(String collection, String id, Map<String, Long> deltas) {
+            transaction.set(db.collection(collection).document(id), toIncrements(deltas), SetOptions.merge());
+        }
+    }
+}
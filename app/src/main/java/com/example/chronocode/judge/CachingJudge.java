@@ -0,0 +1,62 @@
+package com.example.chronocode.judge;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Front of {@link Judge} that answers repeated submissions from a {@link VerdictCache}.
+ *
+ * <p>Memory hits complete immediately on the calling thread. Disk lookups run on {@code io}.
+ * Identical submissions that arrive while the first one is still being judged share its result
+ * instead of judging again.
+ */
+public class CachingJudge {
+
+    private final Judge judge;
+    private final VerdictCache cache;
+    private final Executor io;
+    private final ConcurrentHashMap<String, CompletableFuture<Verdict>> inFlight = new ConcurrentHashMap<>();
+
+    public CachingJudge(Judge judge, VerdictCache cache, Executor io) {
+        this.judge = judge;
+        this.cache = cache;
+        this.io = io;
+    }
+
+    public VerdictCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param problemVersion the problem's {@code version}, which changes with its test cases, so
+     *                       verdicts on an earlier version are not reused
+     */
+    public CompletableFuture<Verdict> judge(String problemId, long problemVersion, String code) {
+        String key = CodeFingerprint.ofVerdict(problemId, problemVersion, judge.getLimits(), code);
+        Verdict cached = cache.getFromMemory(key);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        CompletableFuture<Verdict> result = new CompletableFuture<>();
+        CompletableFuture<Verdict> existing = inFlight.putIfAbsent(key, result);
+        if (existing != null) return existing;
+
+        result.whenComplete((verdict, error) -> inFlight.remove(key, result));
+        io.execute(() -> {
+            Verdict fromDisk = cache.get(key);
+            if (fromDisk != null) {
+                result.complete(fromDisk);
+                return;
+            }
+            judge.judge(problemId, code).whenComplete((verdict, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                cache.put(key, verdict);
+                result.complete(verdict);
+            });
+        });
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.chronocode.judge;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content address of a submission: SHA-256 of the problem id and the normalized source, so
+ * resubmitting the same code with only its line endings changed maps to the same key.
+ *
+ * <p>Normalization only turns {@code \r\n} and lone {@code \r} into {@code \n}. Every other
+ * character is kept, since even trailing spaces and blank lines can sit inside a string literal.
+ */
+public final class CodeFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CodeFingerprint() {
+    }
+
+    public static String of(String problemId, String code) {
+        MessageDigest digest = sha256();
+        digest.update(problemId.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(normalize(code).getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    /**
+     * Key of the verdict on a submission: {@link #of} plus the problem's version and the limits
+     * it was judged under, since new test cases or limits change the verdict on the same code.
+     */
+    public static String ofVerdict(String problemId, long problemVersion, Limits limits, String code) {
+        MessageDigest digest = sha256();
+        digest.update((problemId + '\0' + problemVersion + '\0' + limits.getTimeLimitMs() + ','
+                + limits.getMemoryLimitKb() + ',' + limits.getMaxOutputBytes() + '\0').getBytes(StandardCharsets.UTF_8));
+        digest.update(normalize(code).getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    /** SHA-256 of the exact bytes, for storing content that must come back unchanged. */
+    public static String exact(byte[] content) {
+        return hex(sha256().digest(content));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String normalize(String code) {
+        if (code.indexOf('\r') < 0) return code;
+        return code.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
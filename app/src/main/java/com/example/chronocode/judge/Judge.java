@@ -0,0 +1,211 @@
+package com.example.chronocode.judge;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Judges submissions by running every test case of the problem in a {@link Sandbox}.
+ *
+ * <p>Test cases of a submission run in parallel on a fixed pool of worker threads shared by all
+ * submissions. The first failing test stops the rest: queued tests are skipped and running ones
+ * are interrupted. At most {@code maxInFlight} submissions are admitted at once; further ones
+ * fail fast with {@link RejectedExecutionException} so a burst cannot grow the queue (and
+ * everyone's latency) without bound.
+ */
+public class Judge {
+
+    private final TestCaseSource testCases;
+    private final Sandbox sandbox;
+    private final Limits limits;
+    private final ThreadPoolExecutor workers;
+    private final Semaphore admission;
+
+    public Judge(TestCaseSource testCases, Sandbox sandbox, Limits limits, int workerCount, int maxInFlight) {
+        this.testCases = testCases;
+        this.sandbox = sandbox;
+        this.limits = limits;
+        this.admission = new Semaphore(maxInFlight);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+    }
+
+    /** One worker per core, which suits CPU-bound test runs. */
+    public static int defaultWorkerCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public Limits getLimits() {
+        return limits;
+    }
+
+    public CompletableFuture<Verdict> judge(String problemId, String code) {
+        if (!admission.tryAcquire()) {
+            CompletableFuture<Verdict> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new RejectedExecutionException("Judge is busy"));
+            return busy;
+        }
+        CompletableFuture<Verdict> verdict = testCases.load(problemId).thenCompose(tests -> start(tests, code));
+        verdict.whenComplete((result, error) -> admission.release());
+        return verdict;
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private CompletableFuture<Verdict> start(List<TestCase> tests, String code) {
+        if (tests.isEmpty()) {
+            return CompletableFuture.completedFuture(new Verdict(Verdict.Status.NO_TESTS, 0, 0, -1, 0));
+        }
+        Submission submission = new Submission(tests);
+        try {
+            workers.execute(() -> submission.prepareAndFanOut(code));
+        } catch (RejectedExecutionException e) {
+            submission.verdict.completeExceptionally(e);
+        }
+        return submission.verdict;
+    }
+
+    private final class Submission {
+        final List<TestCase> tests;
+        final RunResult[] results;
+        final boolean[] passed;
+        final Thread[] running;
+        final AtomicInteger pending;
+        final CompletableFuture<Verdict> verdict = new CompletableFuture<>();
+        Sandbox.Program program;
+        boolean stopped; // guarded by this
+
+        Submission(List<TestCase> tests) {
+            this.tests = tests;
+            this.results = new RunResult[tests.size()];
+            this.passed = new boolean[tests.size()];
+            this.running = new Thread[tests.size()];
+            this.pending = new AtomicInteger(tests.size());
+        }
+
+        void prepareAndFanOut(String code) {
+            try {
+                program = sandbox.prepare(code);
+            } catch (IOException | RuntimeException e) {
+                verdict.complete(new Verdict(Verdict.Status.SYSTEM_ERROR, 0, tests.size(), -1, 0));
+                return;
+            }
+            try {
+                for (int i = 0; i < tests.size(); i++) {
+                    final int index = i;
+                    workers.execute(() -> runTest(index));
+                }
+            } catch (RejectedExecutionException e) {
+                stop();
+                closeProgram();
+                verdict.completeExceptionally(e);
+            }
+        }
+
+        void runTest(int index) {
+            try {
+                synchronized (this) {
+                    if (stopped) return;
+                    running[index] = Thread.currentThread();
+                }
+                RunResult result;
+                try {
+                    result = program.run(tests.get(index).getInput(), limits);
+                } finally {
+                    synchronized (this) {
+                        running[index] = null;
+                    }
+                    Thread.interrupted(); // an interrupt meant for this test must not leak to the next task
+                }
+                results[index] = result;
+                passed[index] = result.getStatus() == RunResult.Status.COMPLETED
+                        && OutputMatcher.matches(tests.get(index).getExpectedOutput(), result.getOutput());
+                if (!passed[index] && result.getStatus() != RunResult.Status.CANCELLED) stop();
+            } catch (RuntimeException e) {
+                results[index] = null;
+                stop();
+            } finally {
+                if (pending.decrementAndGet() == 0) finish();
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            Thread self = Thread.currentThread();
+            for (Thread thread : running) {
+                if (thread != null && thread != self) thread.interrupt();
+            }
+        }
+
+        void finish() {
+            closeProgram();
+            int passedCount = 0;
+            int failedTest = -1;
+            long maxTimeMs = 0;
+            boolean complete = true;
+            for (int i = 0; i < results.length; i++) {
+                RunResult result = results[i];
+                if (result == null || result.getStatus() == RunResult.Status.CANCELLED) {
+                    complete = false;
+                    continue;
+                }
+                maxTimeMs = Math.max(maxTimeMs, result.getElapsedMs());
+                if (passed[i]) passedCount++;
+                else if (failedTest < 0) failedTest = i;
+            }
+
+            Verdict.Status status;
+            if (failedTest >= 0) {
+                status = failureStatus(results[failedTest]);
+            } else if (complete) {
+                status = Verdict.Status.ACCEPTED;
+            } else {
+                status = Verdict.Status.SYSTEM_ERROR; // stopped without a failing test: the sandbox threw
+            }
+            verdict.complete(new Verdict(status, passedCount, results.length, failedTest, maxTimeMs));
+        }
+
+        private void closeProgram() {
+            try {
+                if (program != null) program.close();
+            } catch (IOException ignored) {
+                // Scratch files are best-effort.
+            }
+        }
+    }
+
+    private static Verdict.Status failureStatus(RunResult result) {
+        switch (result.getStatus()) {
+            case COMPLETED:
+                return Verdict.Status.WRONG_ANSWER;
+            case TIME_LIMIT_EXCEEDED:
+                return Verdict.Status.TIME_LIMIT_EXCEEDED;
+            case MEMORY_LIMIT_EXCEEDED:
+                return Verdict.Status.MEMORY_LIMIT_EXCEEDED;
+            case SYSTEM_ERROR:
+                return Verdict.Status.SYSTEM_ERROR;
+            default:
+                return Verdict.Status.RUNTIME_ERROR;
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "judge-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.chronocode.judge;
+
+/**
+ * Resource limits applied to every test case run.
+ */
+public final class Limits {
+
+    public static final Limits DEFAULT = new Limits(2_000, 256 * 1024, 1 << 20);
+
+    private final long timeLimitMs;
+    private final long memoryLimitKb;
+    private final int maxOutputBytes;
+
+    public Limits(long timeLimitMs, long memoryLimitKb, int maxOutputBytes) {
+        this.timeLimitMs = timeLimitMs;
+        this.memoryLimitKb = memoryLimitKb;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /** Wall-clock limit per test case. */
+    public long getTimeLimitMs() {
+        return timeLimitMs;
+    }
+
+    /** Address-space limit per test case. */
+    public long getMemoryLimitKb() {
+        return memoryLimitKb;
+    }
+
+    /** Output beyond this many bytes is dropped and the run fails. */
+    public int getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+}
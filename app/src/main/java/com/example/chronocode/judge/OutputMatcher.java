@@ -0,0 +1,34 @@
+package com.example.chronocode.judge;
+
+/**
+ * Compares program output with the expected output, ignoring trailing whitespace on each line,
+ * carriage returns and trailing blank lines.
+ */
+public final class OutputMatcher {
+
+    private OutputMatcher() {
+    }
+
+    public static boolean matches(String expected, String actual) {
+        return normalize(expected).equals(normalize(actual));
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        StringBuilder out = new StringBuilder(text.length());
+        int lineStart = 0;
+        int length = text.length();
+        while (lineStart <= length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = length;
+            int end = lineEnd;
+            while (end > lineStart && Character.isWhitespace(text.charAt(end - 1))) end--;
+            out.append(text, lineStart, end).append('\n');
+            lineStart = lineEnd + 1;
+        }
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == '\n') end--;
+        out.setLength(end);
+        return out.toString();
+    }
+}
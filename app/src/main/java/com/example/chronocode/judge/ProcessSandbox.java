@@ -0,0 +1,176 @@
+package com.example.chronocode.judge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs each test case in a fresh child process started through {@code sh}, with {@code ulimit}
+ * capping address space, CPU seconds and file size and a watchdog killing the process at the
+ * wall-clock limit. Input and output go through files in a private scratch directory, so a chatty
+ * program cannot block on a full pipe; the file size cap, just past the output limit, stops one
+ * that never ends from filling the device before the watchdog fires.
+ */
+public class ProcessSandbox implements Sandbox {
+
+    private static final String LIMIT_SCRIPT = "ulimit -v \"$1\" 2>/dev/null; ulimit -t \"$2\" 2>/dev/null; "
+            + "ulimit -f \"$3\" 2>/dev/null; shift 3; exec \"$@\"";
+    // ulimit -f counts 512-byte blocks in POSIX shells (1024 in bash, which only doubles the cap)
+    private static final int FILE_BLOCK_BYTES = 512;
+    // The shell's exit codes when the runtime is there but not executable, and when it is missing
+    private static final int EXIT_CANNOT_EXECUTE = 126;
+    private static final int EXIT_NOT_FOUND = 127;
+
+    private final List<String> runtimeCommand;
+    private final File scratchDir;
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * @param runtimeCommand interpreter the source file is passed to, e.g. {@code ["python3"]}
+     * @param scratchDir     directory for per-submission temp files
+     * @param watchdog       scheduler used to enforce wall-clock limits
+     */
+    public ProcessSandbox(List<String> runtimeCommand, File scratchDir, ScheduledExecutorService watchdog) {
+        this.runtimeCommand = new ArrayList<>(runtimeCommand);
+        this.scratchDir = scratchDir;
+        this.watchdog = watchdog;
+    }
+
+    @Override
+    public Program prepare(String code) throws IOException {
+        File dir = File.createTempFile("submission", "", scratchDir);
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create sandbox directory " + dir);
+        }
+        File source = new File(dir, "main");
+        writeFile(source, code);
+        return new ProcessProgram(dir, source);
+    }
+
+    private final class ProcessProgram implements Program {
+        private final File dir;
+        private final File source;
+        private int runs;
+
+        ProcessProgram(File dir, File source) {
+            this.dir = dir;
+            this.source = source;
+        }
+
+        @Override
+        public RunResult run(String input, Limits limits) {
+            File in;
+            File out;
+            File err;
+            synchronized (this) {
+                int run = runs++;
+                in = new File(dir, run + ".in");
+                out = new File(dir, run + ".out");
+                err = new File(dir, run + ".err");
+            }
+            long started = System.nanoTime();
+            Process process = null;
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> kill = null;
+            try {
+                writeFile(in, input);
+                List<String> command = new ArrayList<>();
+                command.add("sh");
+                command.add("-c");
+                command.add(LIMIT_SCRIPT);
+                command.add("sandbox");
+                command.add(String.valueOf(limits.getMemoryLimitKb()));
+                command.add(String.valueOf(Math.max(1, (limits.getTimeLimitMs() + 999) / 1000)));
+                // One block more than the output limit, so a program cut off at the cap is seen to exceed it
+                command.add(String.valueOf(limits.getMaxOutputBytes() / FILE_BLOCK_BYTES + 1));
+                command.addAll(runtimeCommand);
+                command.add(source.getAbsolutePath());
+
+                process = new ProcessBuilder(command)
+                        .directory(dir)
+                        .redirectInput(in)
+                        .redirectOutput(out)
+                        .redirectError(err)
+                        .start();
+                final Process running = process;
+                kill = watchdog.schedule(() -> {
+                    timedOut.set(true);
+                    running.destroy();
+                }, limits.getTimeLimitMs(), TimeUnit.MILLISECONDS);
+
+                int exitCode = process.waitFor();
+                kill.cancel(false);
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+                if (timedOut.get()) return new RunResult(RunResult.Status.TIME_LIMIT_EXCEEDED, null, elapsedMs);
+                if (out.length() > limits.getMaxOutputBytes()) {
+                    return new RunResult(RunResult.Status.OUTPUT_LIMIT_EXCEEDED, null, elapsedMs);
+                }
+                if (exitCode == EXIT_CANNOT_EXECUTE || exitCode == EXIT_NOT_FOUND) {
+                    return new RunResult(RunResult.Status.SYSTEM_ERROR, null, elapsedMs);
+                }
+                if (exitCode != 0) {
+                    RunResult.Status status = looksLikeOutOfMemory(readFile(err, 4096))
+                            ? RunResult.Status.MEMORY_LIMIT_EXCEEDED : RunResult.Status.RUNTIME_ERROR;
+                    return new RunResult(status, null, elapsedMs);
+                }
+                return new RunResult(RunResult.Status.COMPLETED, readFile(out, limits.getMaxOutputBytes()), elapsedMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new RunResult(RunResult.Status.CANCELLED, null, 0);
+            } catch (IOException e) {
+                return new RunResult(RunResult.Status.SYSTEM_ERROR, null, 0); // The shell could not start
+            } finally {
+                if (kill != null) kill.cancel(false);
+                if (process != null) process.destroy();
+                in.delete();
+                out.delete();
+                err.delete();
+            }
+        }
+
+        @Override
+        public void close() {
+            File[] leftovers = dir.listFiles();
+            if (leftovers != null) {
+                for (File file : leftovers) file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static boolean looksLikeOutOfMemory(String stderr) {
+        return stderr.contains("MemoryError") || stderr.contains("OutOfMemoryError")
+                || stderr.contains("bad_alloc") || stderr.contains("Cannot allocate memory");
+    }
+
+    private static void writeFile(File file, String text) throws IOException {
+        try (OutputStream stream = new FileOutputStream(file)) {
+            stream.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readFile(File file, int maxBytes) throws IOException {
+        int length = (int) Math.min(file.length(), maxBytes);
+        byte[] bytes = new byte[length];
+        try (InputStream stream = new FileInputStream(file)) {
+            int read = 0;
+            while (read < length) {
+                int n = stream.read(bytes, read, length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return new String(bytes, 0, read, StandardCharsets.UTF_8);
+        }
+    }
+}
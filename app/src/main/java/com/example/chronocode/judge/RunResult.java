@@ -0,0 +1,36 @@
+package com.example.chronocode.judge;
+
+/**
+ * Outcome of running a program on one test input.
+ */
+public final class RunResult {
+
+    public enum Status {
+        COMPLETED, TIME_LIMIT_EXCEEDED, MEMORY_LIMIT_EXCEEDED, OUTPUT_LIMIT_EXCEEDED, RUNTIME_ERROR, CANCELLED,
+        /** The program could not be started; says nothing about the submitted code. */
+        SYSTEM_ERROR
+    }
+
+    private final Status status;
+    private final String output;
+    private final long elapsedMs;
+
+    public RunResult(Status status, String output, long elapsedMs) {
+        this.status = status;
+        this.output = output;
+        this.elapsedMs = elapsedMs;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** Captured standard output; only meaningful when the status is COMPLETED. */
+    public String getOutput() {
+        return output;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+}
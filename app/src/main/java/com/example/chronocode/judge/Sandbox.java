@@ -0,0 +1,22 @@
+package com.example.chronocode.judge;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Runs untrusted submissions in isolation under {@link Limits}.
+ */
+public interface Sandbox {
+
+    /** Prepares {@code code} once so it can be run against every test case of a submission. */
+    Program prepare(String code) throws IOException;
+
+    interface Program extends Closeable {
+
+        /**
+         * Runs the program on {@code input}. Interrupting the calling thread stops the run and
+         * returns {@link RunResult.Status#CANCELLED}.
+         */
+        RunResult run(String input, Limits limits);
+    }
+}
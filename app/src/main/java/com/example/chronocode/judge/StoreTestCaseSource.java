@@ -0,0 +1,42 @@
+package com.example.chronocode.judge;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads test cases from the {@code testCases} array of {@code problems/{problemId}}, where each
+ * element is a map with {@code input} and {@code output} strings.
+ */
+public class StoreTestCaseSource implements TestCaseSource {
+
+    private final BattleStore store;
+
+    public StoreTestCaseSource(BattleStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public CompletableFuture<List<TestCase>> load(String problemId) {
+        return store.get(BattleStore.PROBLEMS, problemId).thenApply(StoreTestCaseSource::parse);
+    }
+
+    static List<TestCase> parse(Doc problem) {
+        Object raw = problem.get("testCases");
+        if (!(raw instanceof List)) return Collections.emptyList();
+        List<TestCase> tests = new ArrayList<>();
+        for (Object element : (List<?>) raw) {
+            if (!(element instanceof Map)) continue;
+            Map<?, ?> test = (Map<?, ?>) element;
+            Object input = test.get("input");
+            Object output = test.get("output");
+            tests.add(new TestCase(input != null ? input.toString() : "", output != null ? output.toString() : ""));
+        }
+        return tests;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.chronocode.judge;
+
+/**
+ * One input/expected-output pair of a problem.
+ */
+public final class TestCase {
+
+    private final String input;
+    private final String expectedOutput;
+
+    public TestCase(String input, String expectedOutput) {
+        this.input = input != null ? input : "";
+        this.expectedOutput = expectedOutput != null ? expectedOutput : "";
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public String getExpectedOutput() {
+        return expectedOutput;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.chronocode.judge;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Supplies the test cases of a problem.
+ */
+public interface TestCaseSource {
+
+    /** Completes with the problem's test cases, empty if it has none. */
+    CompletableFuture<List<TestCase>> load(String problemId);
+}
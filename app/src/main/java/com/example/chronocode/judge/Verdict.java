@@ -0,0 +1,89 @@
+package com.example.chronocode.judge;
+
+/**
+ * Result of judging one submission against all test cases of a problem.
+ */
+public final class Verdict {
+
+    public enum Status {
+        ACCEPTED, WRONG_ANSWER, TIME_LIMIT_EXCEEDED, MEMORY_LIMIT_EXCEEDED, RUNTIME_ERROR,
+        /** The problem has no test cases, so nothing could be judged. */
+        NO_TESTS,
+        /** The sandbox itself failed, e.g. the runtime could not be started. */
+        SYSTEM_ERROR
+    }
+
+    /** Points awarded per test case when a submission is accepted. */
+    public static final long POINTS_PER_TEST = 100;
+
+    private final Status status;
+    private final int passed;
+    private final int total;
+    private final int failedTest;
+    private final long maxTimeMs;
+
+    public Verdict(Status status, int passed, int total, int failedTest, long maxTimeMs) {
+        this.status = status;
+        this.passed = passed;
+        this.total = total;
+        this.failedTest = failedTest;
+        this.maxTimeMs = maxTimeMs;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == Status.ACCEPTED;
+    }
+
+    /** Test cases confirmed passing. Judging stops at the first failure, so this is a lower bound. */
+    public int getPassed() {
+        return passed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /** 0-based index of the failing test case, or -1. */
+    public int getFailedTest() {
+        return failedTest;
+    }
+
+    /** Slowest test case run. */
+    public long getMaxTimeMs() {
+        return maxTimeMs;
+    }
+
+    /** Battle score: full marks for an accepted submission, nothing otherwise. */
+    public long getScore() {
+        return isAccepted() ? POINTS_PER_TEST * total : 0;
+    }
+
+    /** Short human-readable description, e.g. "Wrong answer on test 3". */
+    public String describe() {
+        switch (status) {
+            case ACCEPTED:
+                return "Accepted";
+            case WRONG_ANSWER:
+                return "Wrong answer on test " + (failedTest + 1);
+            case TIME_LIMIT_EXCEEDED:
+                return "Time limit exceeded on test " + (failedTest + 1);
+            case MEMORY_LIMIT_EXCEEDED:
+                return "Memory limit exceeded on test " + (failedTest + 1);
+            case RUNTIME_ERROR:
+                return "Runtime error on test " + (failedTest + 1);
+            case NO_TESTS:
+                return "No test cases for this problem";
+            default:
+                return "Judge error";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Verdict{" + status + ", " + passed + "/" + total + "}";
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.chronocode.judge;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier LRU cache of verdicts keyed by {@link CodeFingerprint}.
+ *
+ * <p>The memory tier holds up to {@code maxMemoryEntries} verdicts. The optional disk tier keeps
+ * one small file per verdict in {@code diskDir}, bounded by {@code maxDiskBytes}; its recency
+ * order is rebuilt from file modification times, so it survives process restarts.
+ */
+public class VerdictCache {
+
+    private static final int FORMAT_VERSION = 3; // 1 could hold time limits and failed starts, 2 stripped keys
+    private static final String SUFFIX = ".verdict";
+
+    private final int maxMemoryEntries;
+    private final File diskDir;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, Verdict> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> diskIndex = new LinkedHashMap<>(16, 0.75f, true); // guarded by itself
+    private long diskBytes; // guarded by diskIndex
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public VerdictCache(int maxMemoryEntries) {
+        this(maxMemoryEntries, null, 0);
+    }
+
+    public VerdictCache(int maxMemoryEntries, File diskDir, long maxDiskBytes) {
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDir != null) loadDiskIndex();
+    }
+
+    /**
+     * Only outcomes decided by the code itself are worth caching. A time limit depends on how
+     * loaded the device was, and a system error or missing tests on the infrastructure, so those
+     * are judged again.
+     */
+    public static boolean isCacheable(Verdict verdict) {
+        switch (verdict.getStatus()) {
+            case ACCEPTED:
+            case WRONG_ANSWER:
+            case MEMORY_LIMIT_EXCEEDED:
+            case RUNTIME_ERROR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Memory tier only; never touches the disk, so it is safe on the main thread. */
+    public Verdict getFromMemory(String key) {
+        Verdict verdict;
+        synchronized (memory) {
+            verdict = memory.get(key);
+        }
+        if (verdict != null) memoryHits.incrementAndGet();
+        return verdict;
+    }
+
+    /** Looks in memory, then on disk, promoting disk hits into memory. Null on a miss. */
+    public Verdict get(String key) {
+        Verdict verdict = getFromMemory(key);
+        if (verdict != null) return verdict;
+
+        verdict = readFromDisk(key);
+        if (verdict != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, verdict);
+        } else {
+            misses.incrementAndGet();
+        }
+        return verdict;
+    }
+
+    public void put(String key, Verdict verdict) {
+        if (!isCacheable(verdict)) return;
+        putInMemory(key, verdict);
+        writeToDisk(key, verdict);
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Entries dropped from either tier to stay within its bound. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private void putInMemory(String key, Verdict verdict) {
+        synchronized (memory) {
+            memory.put(key, verdict);
+            Iterator<Map.Entry<String, Verdict>> eldest = memory.entrySet().iterator();
+            while (memory.size() > maxMemoryEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private Verdict readFromDisk(String key) {
+        if (diskDir == null) return null;
+        File file = fileFor(key);
+        synchronized (diskIndex) {
+            if (diskIndex.get(key) == null) return null; // also refreshes LRU order
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION) return null;
+            Verdict verdict = new Verdict(Verdict.Status.valueOf(in.readUTF()), in.readInt(), in.readInt(),
+                    in.readInt(), in.readLong());
+            if (!isCacheable(verdict)) return null;
+            file.setLastModified(System.currentTimeMillis()); // persist recency across restarts
+            return verdict;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Verdict verdict) {
+        if (diskDir == null) return;
+        File file = fileFor(key);
+        File temp = new File(diskDir, key + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(verdict.getStatus().name());
+            out.writeInt(verdict.getPassed());
+            out.writeInt(verdict.getTotal());
+            out.writeInt(verdict.getFailedTest());
+            out.writeLong(verdict.getMaxTimeMs());
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        synchronized (diskIndex) {
+            Long previous = diskIndex.put(key, file.length());
+            diskBytes += file.length() - (previous != null ? previous : 0);
+            trimDisk();
+        }
+    }
+
+    // Caller holds diskIndex.
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> eldest = diskIndex.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            fileFor(entry.getKey()).delete();
+            diskBytes -= entry.getValue();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void loadDiskIndex() {
+        diskDir.mkdirs();
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        synchronized (diskIndex) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SUFFIX)) {
+                    diskIndex.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                    diskBytes += file.length();
+                } else {
+                    file.delete(); // leftover temp file from an interrupted write
+                }
+            }
+            trimDisk();
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(diskDir, key + SUFFIX);
+    }
+}
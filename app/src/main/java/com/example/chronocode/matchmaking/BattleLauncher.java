@@ -0,0 +1,198 @@
+package com.example.chronocode.matchmaking;
+
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.bot.BotEngine;
+import com.example.chronocode.bot.BotMatch;
+import com.example.chronocode.judge.Verdict;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.problem.Problem;
+import com.example.chronocode.problem.ProblemRepository;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.profile.UserProfileRepository;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.StoreBatch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gets a player from "find battle" into a room in as few sequential store round trips as
+ * possible: profile, then one waiting-room query, then at most one write.
+ *
+ * <p>The profile comes from the shared {@link UserProfileRepository}, so after sign-in it is
+ * normally already cached. A player without a profile document gets no write of their own:
+ * the new profile goes into the transaction that claims a waiting room. A bot battle writes no
+ * room at all: the {@link BotEngine} plays it in memory and stores only the finished room, so
+ * the only write before it starts is a new player's profile. Its problem is prefetched meanwhile.
+ */
+public class BattleLauncher {
+
+    public static final String BOT_UID = "bot_player";
+    public static final String BOT_DISPLAY_NAME = "ChronoBot";
+
+    private final BattleStore store;
+    private final UserProfileRepository profiles;
+    private final ProblemRepository problems;
+    private final RoomClaimer claimer;
+    private final RatingWindow window;
+    private final Metrics metrics;
+    private final BotEngine bots;
+
+    public BattleLauncher(BattleStore store, UserProfileRepository profiles, ProblemRepository problems,
+                          RoomClaimer claimer, RatingWindow window) {
+        this(store, profiles, problems, claimer, window, new Metrics());
+    }
+
+    /** {@code metrics} gets "joinBattleRoom" and "startBotBattle" spans. */
+    public BattleLauncher(BattleStore store, UserProfileRepository profiles, ProblemRepository problems,
+                          RoomClaimer claimer, RatingWindow window, Metrics metrics) {
+        this(store, profiles, problems, claimer, window, metrics, new BotEngine(store, System::currentTimeMillis));
+    }
+
+    /**
+     * {@code bots} plays the bot battles this starts. Its clock, e.g. {@code ServerClock::serverNow},
+     * stamps the rooms this creates, so a bot battle's deadline is on the server's clock like a
+     * joined battle's.
+     */
+    public BattleLauncher(BattleStore store, UserProfileRepository profiles, ProblemRepository problems,
+                          RoomClaimer claimer, RatingWindow window, Metrics metrics, BotEngine bots) {
+        this.store = store;
+        this.profiles = profiles;
+        this.problems = problems;
+        this.claimer = claimer;
+        this.window = window;
+        this.metrics = metrics;
+        this.bots = bots;
+    }
+
+    /**
+     * Joins a waiting room near the player's rating, or starts a bot battle on
+     * {@code botProblemId}. {@code defaultDisplayName} names the player if they have no profile.
+     */
+    public CompletableFuture<Launch> launch(String uid, String defaultDisplayName, String botProblemId) {
+        return player(uid, defaultDisplayName).thenCompose(player -> claim(player).thenCompose(launch ->
+                launch != null ? CompletableFuture.completedFuture(launch) : startBotBattle(player, botProblemId)));
+    }
+
+    /** Like {@link #launch}, but completes with null instead of starting a bot battle. */
+    public CompletableFuture<Launch> join(String uid, String defaultDisplayName) {
+        return player(uid, defaultDisplayName).thenCompose(this::claim);
+    }
+
+    /**
+     * Creates a "waiting" room on {@code problemId} for an opponent to join and completes with
+     * its id. The caller listens for player 2 and cancels the room with
+     * {@link com.example.chronocode.battle.BattleRooms#cancelWaiting} if nobody comes.
+     */
+    public CompletableFuture<String> createWaitingRoom(String uid, String defaultDisplayName, String problemId) {
+        return player(uid, defaultDisplayName).thenCompose(player -> {
+            String displayName = player.profile.getDisplayName() != null ? player.profile.getDisplayName() : "Player 1";
+            long rating = player.profile.getRatingOrDefault();
+
+            Map<String, Object> newRoom = BattleRoomCodec.encode(BattleRoomCodec.newWaitingRoom(uid, displayName,
+                    rating, window.bucketOf(rating), problemId, bots.serverNow()));
+
+            String roomId = store.newId(BattleStore.BATTLE_ROOMS);
+            StoreBatch batch = store.batch();
+            if (player.newProfile != null) batch.set(BattleStore.USERS, uid, player.newProfile);
+            batch.set(BattleStore.BATTLE_ROOMS, roomId, newRoom);
+            problems.prefetch(problemId); // Ready before an opponent shows up
+            return batch.commit().thenApply(v -> roomId);
+        });
+    }
+
+    private CompletableFuture<Player> player(String uid, String defaultDisplayName) {
+        return profiles.get(uid).handle((profile, error) -> {
+            if (error != null) {
+                // Unknown whether a profile exists; play with defaults and don't overwrite it.
+                return new Player(new UserProfile(uid, null, null), null);
+            }
+            if (profile == null) {
+                return new Player(new UserProfile(uid, defaultDisplayName, UserProfile.DEFAULT_RATING),
+                        UserProfile.newDocument(defaultDisplayName));
+            }
+            return new Player(profile, null);
+        });
+    }
+
+    private CompletableFuture<Launch> claim(Player player) {
+        List<Integer> buckets = window.bucketsAround(player.profile.getRatingOrDefault(), 0);
+        return metrics.time("joinBattleRoom", () -> claimer.claim(player.profile.getUid(),
+                player.profile.getDisplayName(), buckets, player.newProfile))
+                .thenApply(room -> {
+                    if (room == null) return null;
+                    String problemId = room.getString("problemId");
+                    if (problemId != null) problems.prefetch(problemId);
+                    return new Launch(room.getId(), room.getString("player1_displayName"), problemId, false);
+                });
+    }
+
+    private CompletableFuture<Launch> startBotBattle(Player player, String problemId) {
+        String uid = player.profile.getUid();
+        String displayName = player.profile.getDisplayName() != null ? player.profile.getDisplayName() : "Player 1";
+        long rating = player.profile.getRatingOrDefault();
+        String roomId = store.newId(BattleStore.BATTLE_ROOMS);
+        CompletableFuture<Problem> problem = problems.get(problemId); // Overlaps the profile write
+
+        // The room is played locally and only written once it is finished; a new player's
+        // profile is the one write before the battle.
+        return metrics.time("startBotBattle", () -> player.newProfile != null
+                ? store.set(BattleStore.USERS, uid, player.newProfile)
+                : CompletableFuture.<Void>completedFuture(null))
+                .thenApply(v -> {
+                    BotMatch match = bots.start(roomId, BattleRoomCodec.newBotBattle(uid, displayName, BOT_UID,
+                            BOT_DISPLAY_NAME, problemId, bots.serverNow()), rating, ThreadLocalRandom.current());
+                    // The bot plays at the player's rating; its score is full marks for the problem
+                    problem.thenAccept(loaded -> {
+                        if (loaded != null) match.setFullScore(Verdict.POINTS_PER_TEST * loaded.getTestCount());
+                    });
+                    return new Launch(roomId, BOT_DISPLAY_NAME, problemId, true);
+                });
+    }
+
+    private static final class Player {
+        final UserProfile profile;
+        // Written together with the room if the player has no profile document yet
+        final Map<String, Object> newProfile;
+
+        Player(UserProfile profile, Map<String, Object> newProfile) {
+            this.profile = profile;
+            this.newProfile = newProfile;
+        }
+    }
+
+    /** The room a {@link #launch} put the player in. */
+    public static final class Launch {
+        private final String roomId;
+        private final String opponentDisplayName;
+        private final String problemId;
+        private final boolean botMatch;
+
+        Launch(String roomId, String opponentDisplayName, String problemId, boolean botMatch) {
+            this.roomId = roomId;
+            this.opponentDisplayName = opponentDisplayName;
+            this.problemId = problemId;
+            this.botMatch = botMatch;
+        }
+
+        public String getRoomId() {
+            return roomId;
+        }
+
+        /** Null if the room did not name its creator. */
+        public String getOpponentDisplayName() {
+            return opponentDisplayName;
+        }
+
+        /** Null if the claimed room had no problem. */
+        public String getProblemId() {
+            return problemId;
+        }
+
+        public boolean isBotMatch() {
+            return botMatch;
+        }
+    }
+}
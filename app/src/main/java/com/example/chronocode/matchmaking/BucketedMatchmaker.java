@@ -0,0 +1,150 @@
+package com.example.chronocode.matchmaking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory {@link Matchmaker} that keeps one wait-ordered queue per rating bucket.
+ *
+ * <p>A new player looks at the oldest player of each bucket inside its {@link RatingWindow},
+ * nearest bucket first, so enqueueing costs O(window * log n). Players that stay unmatched are
+ * kept in a second queue ordered by the time their window next widens; {@link #pollMatches}
+ * only touches those, which keeps each pairing attempt at O(log n) instead of rescanning the
+ * whole queue. The window is applied at bucket granularity and must be accepted by both sides.
+ *
+ * <p>Thread-safe; every operation holds the instance lock.
+ */
+public class BucketedMatchmaker implements Matchmaker {
+
+    private static final Comparator<Ticket> WAIT_ORDER = (a, b) -> {
+        int c = Long.compare(a.player.getEnqueuedAtMs(), b.player.getEnqueuedAtMs());
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    };
+
+    private static final Comparator<Ticket> RECHECK_ORDER = (a, b) -> {
+        int c = Long.compare(a.recheckAtMs, b.recheckAtMs);
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    };
+
+    private final RatingWindow window;
+    private final Map<Integer, TreeSet<Ticket>> buckets = new HashMap<>();
+    private final Map<String, Ticket> tickets = new HashMap<>();
+    private final TreeSet<Ticket> rechecks = new TreeSet<>(RECHECK_ORDER);
+    private long nextSeq;
+
+    public BucketedMatchmaker() {
+        this(RatingWindow.DEFAULT);
+    }
+
+    public BucketedMatchmaker(RatingWindow window) {
+        this.window = window;
+    }
+
+    public RatingWindow getWindow() {
+        return window;
+    }
+
+    @Override
+    public synchronized MatchPair enqueue(QueuedPlayer player, long nowMs) {
+        cancel(player.getUid());
+        Ticket ticket = new Ticket(player, window.bucketOf(player.getRating()), nextSeq++);
+        return tryPair(ticket, nowMs);
+    }
+
+    @Override
+    public synchronized boolean cancel(String uid) {
+        Ticket ticket = tickets.get(uid);
+        if (ticket == null) return false;
+        remove(ticket);
+        return true;
+    }
+
+    @Override
+    public synchronized List<MatchPair> pollMatches(long nowMs) {
+        if (rechecks.isEmpty() || rechecks.first().recheckAtMs > nowMs) {
+            return Collections.emptyList();
+        }
+        List<MatchPair> pairs = new ArrayList<>();
+        while (!rechecks.isEmpty() && rechecks.first().recheckAtMs <= nowMs) {
+            Ticket ticket = rechecks.first();
+            remove(ticket);
+            MatchPair pair = tryPair(ticket, nowMs);
+            if (pair != null) pairs.add(pair);
+        }
+        return pairs;
+    }
+
+    @Override
+    public synchronized int size() {
+        return tickets.size();
+    }
+
+    // Pairs the ticket with the best waiting opponent, or queues it if none accepts.
+    private MatchPair tryPair(Ticket ticket, long nowMs) {
+        int radius = window.bucketsFor(nowMs - ticket.player.getEnqueuedAtMs());
+        Ticket best = null;
+        for (int d = 0; d <= radius && best == null; d++) {
+            best = olderOf(acceptingHead(ticket.bucket - d, d, nowMs),
+                    d == 0 ? null : acceptingHead(ticket.bucket + d, d, nowMs));
+        }
+
+        if (best != null) {
+            remove(best);
+            return new MatchPair(best.player, ticket.player, nowMs);
+        }
+
+        TreeSet<Ticket> bucket = buckets.get(ticket.bucket);
+        if (bucket == null) {
+            bucket = new TreeSet<>(WAIT_ORDER);
+            buckets.put(ticket.bucket, bucket);
+        }
+        bucket.add(ticket);
+        tickets.put(ticket.player.getUid(), ticket);
+        ticket.recheckAtMs = window.nextWidenAt(ticket.player.getEnqueuedAtMs(), nowMs);
+        if (ticket.recheckAtMs >= 0) rechecks.add(ticket);
+        return null;
+    }
+
+    // The oldest player of a bucket has the widest window in it, so if it rejects the distance
+    // every other player of that bucket does too.
+    private Ticket acceptingHead(int bucketIndex, int distance, long nowMs) {
+        TreeSet<Ticket> bucket = buckets.get(bucketIndex);
+        if (bucket == null || bucket.isEmpty()) return null;
+        Ticket head = bucket.first();
+        return window.bucketsFor(nowMs - head.player.getEnqueuedAtMs()) >= distance ? head : null;
+    }
+
+    private static Ticket olderOf(Ticket a, Ticket b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return WAIT_ORDER.compare(a, b) <= 0 ? a : b;
+    }
+
+    private void remove(Ticket ticket) {
+        tickets.remove(ticket.player.getUid());
+        if (ticket.recheckAtMs >= 0) rechecks.remove(ticket);
+        TreeSet<Ticket> bucket = buckets.get(ticket.bucket);
+        if (bucket != null) {
+            bucket.remove(ticket);
+            if (bucket.isEmpty()) buckets.remove(ticket.bucket);
+        }
+    }
+
+    private static final class Ticket {
+        final QueuedPlayer player;
+        final int bucket;
+        final long seq;
+        long recheckAtMs = -1;
+
+        Ticket(QueuedPlayer player, int bucket, long seq) {
+            this.player = player;
+            this.bucket = bucket;
+            this.seq = seq;
+        }
+    }
+}
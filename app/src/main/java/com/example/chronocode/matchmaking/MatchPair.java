@@ -0,0 +1,38 @@
+package com.example.chronocode.matchmaking;
+
+/**
+ * Two players paired by a {@link Matchmaker}. {@code first} is always the one who waited longer.
+ */
+public final class MatchPair {
+
+    private final QueuedPlayer first;
+    private final QueuedPlayer second;
+    private final long matchedAtMs;
+
+    public MatchPair(QueuedPlayer first, QueuedPlayer second, long matchedAtMs) {
+        this.first = first;
+        this.second = second;
+        this.matchedAtMs = matchedAtMs;
+    }
+
+    public QueuedPlayer getFirst() {
+        return first;
+    }
+
+    public QueuedPlayer getSecond() {
+        return second;
+    }
+
+    public long getMatchedAtMs() {
+        return matchedAtMs;
+    }
+
+    /** How long the longer-waiting player spent in the queue. */
+    public long getLongestWaitMs() {
+        return matchedAtMs - first.getEnqueuedAtMs();
+    }
+
+    public long getRatingGap() {
+        return Math.abs(first.getRating() - second.getRating());
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.chronocode.matchmaking;
+
+import java.util.List;
+
+/**
+ * Pairs waiting players with each other. Implementations decide which opponents are acceptable;
+ * callers only feed players in and collect pairs out.
+ */
+public interface Matchmaker {
+
+    /**
+     * Queues a player. If an acceptable opponent is already waiting the pair is returned right away
+     * and neither player stays queued; otherwise returns null. Re-enqueueing a uid replaces its
+     * previous ticket.
+     */
+    MatchPair enqueue(QueuedPlayer player, long nowMs);
+
+    /** Removes a waiting player. Returns false if the uid was not queued. */
+    boolean cancel(String uid);
+
+    /**
+     * Retries players whose acceptable rating range has widened since they were last checked and
+     * returns every pair formed. Call this periodically.
+     */
+    List<MatchPair> pollMatches(long nowMs);
+
+    /** Number of players currently waiting. */
+    int size();
+}
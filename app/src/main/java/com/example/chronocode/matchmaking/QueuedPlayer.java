@@ -0,0 +1,41 @@
+package com.example.chronocode.matchmaking;
+
+/**
+ * A player waiting in a {@link Matchmaker} queue. Immutable.
+ */
+public final class QueuedPlayer {
+
+    private final String uid;
+    private final String displayName;
+    private final long rating;
+    private final long enqueuedAtMs;
+
+    public QueuedPlayer(String uid, String displayName, long rating, long enqueuedAtMs) {
+        if (uid == null) throw new IllegalArgumentException("uid == null");
+        this.uid = uid;
+        this.displayName = displayName;
+        this.rating = rating;
+        this.enqueuedAtMs = enqueuedAtMs;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public long getRating() {
+        return rating;
+    }
+
+    public long getEnqueuedAtMs() {
+        return enqueuedAtMs;
+    }
+
+    @Override
+    public String toString() {
+        return "QueuedPlayer{" + uid + ", rating=" + rating + "}";
+    }
+}
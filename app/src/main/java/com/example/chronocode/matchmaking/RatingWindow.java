@@ -0,0 +1,71 @@
+package com.example.chronocode.matchmaking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits ratings into fixed-width buckets and decides how many buckets away a player will accept
+ * an opponent from. The window starts at {@code baseBuckets} and grows by one bucket every
+ * {@code widenEveryMs} of waiting, up to {@code maxBuckets}.
+ */
+public final class RatingWindow {
+
+    public static final RatingWindow DEFAULT = new RatingWindow(100, 1, 5_000L, 6);
+
+    private final int bucketWidth;
+    private final int baseBuckets;
+    private final long widenEveryMs;
+    private final int maxBuckets;
+
+    public RatingWindow(int bucketWidth, int baseBuckets, long widenEveryMs, int maxBuckets) {
+        if (bucketWidth <= 0 || baseBuckets < 0 || widenEveryMs <= 0 || maxBuckets < baseBuckets) {
+            throw new IllegalArgumentException("Invalid rating window");
+        }
+        this.bucketWidth = bucketWidth;
+        this.baseBuckets = baseBuckets;
+        this.widenEveryMs = widenEveryMs;
+        this.maxBuckets = maxBuckets;
+    }
+
+    public int getBucketWidth() {
+        return bucketWidth;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    public int bucketOf(long rating) {
+        return (int) Math.floorDiv(rating, (long) bucketWidth);
+    }
+
+    /** How many buckets away (in either direction) a player who waited {@code waitedMs} accepts. */
+    public int bucketsFor(long waitedMs) {
+        if (waitedMs <= 0) return baseBuckets;
+        long widened = baseBuckets + waitedMs / widenEveryMs;
+        return (int) Math.min(maxBuckets, widened);
+    }
+
+    /**
+     * When the window of a player enqueued at {@code enqueuedAtMs} next grows, or -1 if it is
+     * already at {@code maxBuckets}.
+     */
+    public long nextWidenAt(long enqueuedAtMs, long nowMs) {
+        long waited = Math.max(0, nowMs - enqueuedAtMs);
+        if (bucketsFor(waited) >= maxBuckets) return -1;
+        return enqueuedAtMs + (waited / widenEveryMs + 1) * widenEveryMs;
+    }
+
+    /** Every bucket a player with this rating and wait would accept, nearest first. */
+    public List<Integer> bucketsAround(long rating, long waitedMs) {
+        int center = bucketOf(rating);
+        int radius = bucketsFor(waitedMs);
+        List<Integer> result = new ArrayList<>(2 * radius + 1);
+        result.add(center);
+        for (int d = 1; d <= radius; d++) {
+            result.add(center - d);
+            result.add(center + d);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.chronocode.matchmaking;
+
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Claims a waiting battle room as player 2 without trampling other searchers.
+ *
+ * <p>Instead of everyone racing for the single oldest room, each searcher fetches the oldest
+ * {@code topK} waiting rooms and tries them in random order. Each claim is a transaction that
+ * only succeeds if the room is still waiting and has no player 2, so losing a race aborts
+ * cleanly and moves on to the next candidate instead of overwriting the winner.
+ */
+public class RoomClaimer {
+
+    public static final int DEFAULT_TOP_K = 8;
+    public static final int DEFAULT_MAX_ROUNDS = 2;
+
+    private final BattleStore store;
+    private final int topK;
+    private final int maxRounds;
+    private final Random random;
+    private final LongSupplier serverNowMs;
+
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong lostRaces = new AtomicLong();
+
+    public RoomClaimer(BattleStore store) {
+        this(store, DEFAULT_TOP_K, DEFAULT_MAX_ROUNDS, new Random());
+    }
+
+    public RoomClaimer(BattleStore store, int topK, int maxRounds, Random random) {
+        this(store, topK, maxRounds, random, System::currentTimeMillis);
+    }
+
+    /**
+     * @param serverNowMs the server's time, e.g. {@code ServerClock::serverNow}; a claim starts
+     *                    the battle at it and sets the deadline both players count down to
+     */
+    public RoomClaimer(BattleStore store, int topK, int maxRounds, Random random, LongSupplier serverNowMs) {
+        this.store = store;
+        this.topK = topK;
+        this.maxRounds = maxRounds;
+        this.random = random;
+        this.serverNowMs = serverNowMs;
+    }
+
+    /**
+     * Joins a waiting room in {@code ratingBuckets} (any bucket if null). Completes with the room
+     * as it was before the claim, or null if no room could be claimed and the caller should
+     * start a bot battle or create its own room.
+     */
+    public CompletableFuture<Doc> claim(String uid, String displayName, List<Integer> ratingBuckets) {
+        return claim(uid, displayName, ratingBuckets, null);
+    }
+
+    /**
+     * Like {@link #claim(String, String, List)}, but also writes {@code newProfile} as the
+     * player's {@code users/{uid}} document in the winning claim transaction, so a new player's
+     * profile costs no round trip of its own. Null writes nothing.
+     */
+    public CompletableFuture<Doc> claim(String uid, String displayName, List<Integer> ratingBuckets,
+                                        Map<String, Object> newProfile) {
+        return claimRound(uid, displayName, ratingBuckets, newProfile, 0);
+    }
+
+    /** Rooms successfully claimed. */
+    public long getClaims() {
+        return claims.get();
+    }
+
+    /** Claim transactions started, whether they won or not. */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /** Claim transactions that found their room already taken. */
+    public long getLostRaces() {
+        return lostRaces.get();
+    }
+
+    private CompletableFuture<Doc> claimRound(String uid, String displayName, List<Integer> ratingBuckets,
+                                              Map<String, Object> newProfile, int round) {
+        return store.findWaitingRooms(ratingBuckets, topK).thenCompose(rooms -> {
+            List<Doc> candidates = new ArrayList<>(rooms.size());
+            for (Doc room : rooms) {
+                if (!uid.equals(room.getString("player1_uid"))) candidates.add(room);
+            }
+            if (candidates.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            synchronized (random) {
+                Collections.shuffle(candidates, random);
+            }
+            return tryCandidates(candidates, 0, uid, displayName, newProfile).thenCompose(room -> {
+                if (room != null || round + 1 >= maxRounds) {
+                    return CompletableFuture.completedFuture(room);
+                }
+                // Every candidate was taken under us; the waiting set has moved on, look again.
+                return claimRound(uid, displayName, ratingBuckets, newProfile, round + 1);
+            });
+        });
+    }
+
+    private CompletableFuture<Doc> tryCandidates(List<Doc> candidates, int index, String uid, String displayName,
+                                                 Map<String, Object> newProfile) {
+        if (index >= candidates.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String roomId = candidates.get(index).getId();
+        attempts.incrementAndGet();
+        CompletableFuture<Doc> attempt = store.runTransaction(transaction -> {
+            Doc room = transaction.get(BattleStore.BATTLE_ROOMS, roomId);
+            if (!"waiting".equals(room.getString("status")) || room.getString("player2_uid") != null) {
+                throw new StoreException("Room " + roomId + " already claimed", StoreException.Reason.ABORTED);
+            }
+            Map<String, Object> updates = BattleRoomCodec.startFields(serverNowMs.getAsLong());
+            updates.put("player2_uid", uid);
+            updates.put("player2_displayName", displayName != null ? displayName : "Player 2");
+            updates.put("status", "ongoing"); // Room is now full and ongoing
+            transaction.update(BattleStore.BATTLE_ROOMS, roomId, updates);
+            if (newProfile != null) transaction.set(BattleStore.USERS, uid, newProfile);
+            return room;
+        });
+
+        CompletableFuture<Doc> result = new CompletableFuture<>();
+        attempt.whenComplete((room, error) -> {
+            if (error == null) {
+                claims.incrementAndGet();
+                result.complete(room);
+                return;
+            }
+            StoreException.Reason reason = StoreException.reasonOf(error);
+            if (reason == StoreException.Reason.ABORTED || reason == StoreException.Reason.CONTENTION) {
+                lostRaces.incrementAndGet();
+                tryCandidates(candidates, index + 1, uid, displayName, newProfile).whenComplete((next, nextError) -> {
+                    if (nextError != null) result.completeExceptionally(nextError);
+                    else result.complete(next);
+                });
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.chronocode.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: microsecond values up to
+ * {@link #MAX_MICROS} land in log-linear buckets, each power of two split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so any percentile it reports is within about 1.6%
+ * of the recorded value however large. Recording is lock-free and allocation-free.
+ *
+ * <p>Histograms of the same kind merge by adding bucket counts, which is how a release's
+ * numbers accumulate across sessions in a {@link MetricsFile}.
+ */
+public final class LatencyHistogram {
+
+    /** Longer latencies are recorded as this. */
+    public static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static final int SUB_BITS = 7;
+    static final int SUB_BUCKETS = 1 << (SUB_BITS - 1); // Per power of two above the linear range
+    static final int BUCKETS = bucketOf(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts.incrementAndGet(bucketOf(value));
+        totalMicros.addAndGet(value);
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalMicros.get() / count;
+    }
+
+    /**
+     * The value at quantile {@code q} (0.5 for the median), as the highest value of its bucket
+     * but no more than the largest value recorded. 0 if nothing was recorded.
+     */
+    public long percentileMicros(double q) {
+        long count = getCount();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueOf(i), maxMicros.get());
+        }
+        return maxMicros.get();
+    }
+
+    /** Adds everything recorded in {@code other} to this histogram. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) counts.addAndGet(i, count);
+        }
+        totalMicros.addAndGet(other.totalMicros.get());
+        maxMicros.accumulateAndGet(other.maxMicros.get(), Math::max);
+    }
+
+    /**
+     * Moves everything recorded so far into {@code target} and starts this histogram over.
+     * Values recorded concurrently end up in one of the two, never both or neither.
+     */
+    public void drainInto(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.getAndSet(i, 0);
+            if (count != 0) target.counts.addAndGet(i, count);
+        }
+        target.totalMicros.addAndGet(totalMicros.getAndSet(0));
+        target.maxMicros.accumulateAndGet(maxMicros.getAndSet(0), Math::max);
+    }
+
+    long countAt(int bucket) {
+        return counts.get(bucket);
+    }
+
+    // For a histogram read back from a file: its buckets, sum and max as they were written.
+    void restore(int bucket, long count) {
+        counts.addAndGet(bucket, count);
+    }
+
+    void restoreTotals(long total, long max) {
+        totalMicros.addAndGet(total);
+        maxMicros.accumulateAndGet(max, Math::max);
+    }
+
+    long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int bit = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = bit - SUB_BITS + 1;
+        // The top SUB_BITS bits of the value; the highest one is always set
+        int top = (int) (micros >>> shift);
+        return (shift + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+    }
+
+    static long lowestValueOf(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        if (group == 0) return bucket;
+        long top = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return top << (group - 1);
+    }
+
+    static long highestValueOf(int bucket) {
+        return bucket + 1 < BUCKETS ? lowestValueOf(bucket + 1) - 1 : MAX_MICROS;
+    }
+}
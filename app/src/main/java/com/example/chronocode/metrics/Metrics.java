@@ -0,0 +1,105 @@
+package com.example.chronocode.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Named {@link LatencyHistogram}s for the battle flow, and spans that feed them.
+ *
+ * <p>Spans time one step, e.g. a store call or a whole "find battle"; the user-facing latencies
+ * are recorded under the names below. Everything is in memory until it is {@linkplain #drain
+ * drained} into a {@link MetricsFile}.
+ */
+public class Metrics {
+
+    /** "Find battle" pressed until the battle screen opens, including waiting for an opponent. */
+    public static final String TIME_TO_MATCH = "time_to_match";
+    /** Battle screen opened until the problem statement is on it. */
+    public static final String TIME_TO_PROBLEM_VISIBLE = "time_to_problem_visible";
+    /** Submit pressed until the improved score shows up from the room listener. */
+    public static final String SUBMIT_TO_SCORE_VISIBLE = "submit_to_score_visible";
+    /** Result screen opened until this client knows the ratings have been updated. */
+    public static final String RESULT_TO_RATING_UPDATED = "result_to_rating_updated";
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null) return histogram;
+        LatencyHistogram created = new LatencyHistogram();
+        histogram = histograms.putIfAbsent(name, created);
+        return histogram != null ? histogram : created;
+    }
+
+    public void recordNanos(String name, long nanos) {
+        histogram(name).recordNanos(nanos);
+    }
+
+    /** Starts timing {@code name} now; {@link Span#end} records it. */
+    public Span start(String name) {
+        return new Span(histogram(name), System.nanoTime());
+    }
+
+    /**
+     * Runs {@code call} inside a span named {@code name} that ends when its future completes,
+     * successfully or not, before any of the caller's callbacks run.
+     */
+    public <T> CompletableFuture<T> time(String name, Supplier<CompletableFuture<T>> call) {
+        Span span = start(name);
+        return call.get().whenComplete((value, error) -> span.end());
+    }
+
+    /** Copies of every histogram, by name. */
+    public Map<String, LatencyHistogram> snapshot() {
+        Map<String, LatencyHistogram> copies = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram copy = new LatencyHistogram();
+            copy.add(entry.getValue());
+            copies.put(entry.getKey(), copy);
+        }
+        return copies;
+    }
+
+    /** Like {@link #snapshot}, but also starts every histogram over, so nothing is counted twice. */
+    public Map<String, LatencyHistogram> drain() {
+        Map<String, LatencyHistogram> drained = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram copy = new LatencyHistogram();
+            entry.getValue().drainInto(copy);
+            if (copy.getCount() > 0) drained.put(entry.getKey(), copy);
+        }
+        return drained;
+    }
+
+    /** One timing in progress. Ending it more than once records it once. */
+    public static final class Span {
+        private final LatencyHistogram histogram;
+        private final long startNanos;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        Span(LatencyHistogram histogram, long startNanos) {
+            this.histogram = histogram;
+            this.startNanos = startNanos;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /** Records the time since the start and returns it in nanoseconds. */
+        public long end() {
+            long elapsed = System.nanoTime() - startNanos;
+            if (ended.compareAndSet(false, true)) histogram.recordNanos(elapsed);
+            return elapsed;
+        }
+
+        /** Ends the span without recording it, for steps that turned out not to happen. */
+        public void discard() {
+            ended.set(true);
+        }
+    }
+}
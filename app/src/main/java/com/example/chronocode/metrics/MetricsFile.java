@@ -0,0 +1,125 @@
+package com.example.chronocode.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency histograms kept in a local tab-separated file, one line per histogram, so p50/p99
+ * can be compared release to release without a metrics backend. Each line carries the count,
+ * p50, p90, p99, max and mean in microseconds for reading by eye or with a spreadsheet, followed
+ * by the raw bucket counts, which {@link #append} reads back and adds to: pointing every session
+ * of a release at the same file accumulates that release's numbers.
+ */
+public final class MetricsFile {
+
+    private static final String HEADER = "# name\tcount\tp50_us\tp90_us\tp99_us\tmax_us\tmean_us\ttotal_us\tbuckets";
+
+    private MetricsFile() {
+    }
+
+    /** The histograms in {@code file}, by name; empty if it does not exist. */
+    public static Map<String, LatencyHistogram> read(File file) throws IOException {
+        Map<String, LatencyHistogram> histograms = new TreeMap<>();
+        if (!file.exists()) return histograms;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] columns = line.split("\t", -1);
+                if (columns.length != 9) throw new IOException("Malformed metrics line: " + line);
+                LatencyHistogram histogram = new LatencyHistogram();
+                try {
+                    histogram.restoreTotals(Long.parseLong(columns[7]), Long.parseLong(columns[5]));
+                    if (!columns[8].isEmpty()) {
+                        for (String bucket : columns[8].split(",")) {
+                            int colon = bucket.indexOf(':');
+                            int index = Integer.parseInt(bucket.substring(0, colon));
+                            if (index < 0 || index >= LatencyHistogram.BUCKETS) {
+                                throw new IOException("Bucket out of range: " + line);
+                            }
+                            histogram.restore(index, Long.parseLong(bucket.substring(colon + 1)));
+                        }
+                    }
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    throw new IOException("Malformed metrics line: " + line, e);
+                }
+                histograms.put(columns[0], histogram);
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Adds {@code histograms} to the ones already in {@code file} and rewrites it. The new
+     * content goes to a temporary file first, so a crash leaves the old file intact.
+     */
+    public static Map<String, LatencyHistogram> append(File file, Map<String, LatencyHistogram> histograms)
+            throws IOException {
+        Map<String, LatencyHistogram> merged = read(file);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram existing = merged.get(entry.getKey());
+            if (existing == null) {
+                existing = new LatencyHistogram();
+                merged.put(entry.getKey(), existing);
+            }
+            existing.add(entry.getValue());
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            write(merged, out);
+        }
+        if (!temp.renameTo(file)) {
+            // Some filesystems will not rename over an existing file
+            if (!file.delete() || !temp.renameTo(file)) throw new IOException("Could not replace " + file);
+        }
+        return merged;
+    }
+
+    /** Writes the histograms in this file's format. */
+    public static void write(Map<String, LatencyHistogram> histograms, Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.write(String.format(Locale.US, "%s\t%d\t%d\t%d\t%d\t%d\t%.0f\t%d\t",
+                    entry.getKey(), histogram.getCount(), histogram.percentileMicros(0.50),
+                    histogram.percentileMicros(0.90), histogram.percentileMicros(0.99),
+                    histogram.getMaxMicros(), histogram.getMeanMicros(), histogram.getTotalMicros()));
+            boolean first = true;
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                long count = histogram.countAt(i);
+                if (count == 0) continue;
+                if (!first) out.write(',');
+                out.write(i + ":" + count);
+                first = false;
+            }
+            out.write('\n');
+        }
+    }
+
+    /** One line per histogram with its count, p50, p99 and max in milliseconds, for logging. */
+    public static String describe(Map<String, LatencyHistogram> histograms) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (out.length() > 0) out.append('\n');
+            out.append(String.format(Locale.US, "%s: n=%d p50=%.1fms p99=%.1fms max=%.1fms", entry.getKey(),
+                    histogram.getCount(), histogram.percentileMicros(0.50) / 1000.0,
+                    histogram.percentileMicros(0.99) / 1000.0, histogram.getMaxMicros() / 1000.0));
+        }
+        return out.toString();
+    }
+}
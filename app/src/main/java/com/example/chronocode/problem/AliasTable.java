@@ -0,0 +1,67 @@
+package com.example.chronocode.problem;
+
+import java.util.Random;
+
+/**
+ * Samples index {@code i} with probability proportional to {@code weights[i]} in constant time,
+ * by Vose's alias method: every column holds at most two outcomes, so a draw is one uniform
+ * column and one biased coin. Building is linear in the number of weights. Immutable.
+ */
+final class AliasTable {
+
+    private final double[] keep; // Chance a draw of this column stays on it rather than its alias
+    private final int[] alias;
+    private final double total;
+
+    /** @param weights non-negative, at least one of them positive */
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        double sum = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0)) throw new IllegalArgumentException("Negative weight " + weight);
+            sum += weight;
+        }
+        if (!(sum > 0)) throw new IllegalArgumentException("No positive weight among " + n);
+        total = sum;
+        keep = new double[n];
+        alias = new int[n];
+
+        // Scaled so the average column is exactly full; under-full columns are topped up by over-full ones
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smalls = 0;
+        int larges = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) small[smalls++] = i;
+            else large[larges++] = i;
+        }
+        while (smalls > 0 && larges > 0) {
+            int under = small[--smalls];
+            int over = large[--larges];
+            keep[under] = scaled[under];
+            alias[under] = over;
+            scaled[over] -= 1 - scaled[under];
+            if (scaled[over] < 1) small[smalls++] = over;
+            else large[larges++] = over;
+        }
+        // What is left is full up to rounding error
+        while (larges > 0) keep[large[--larges]] = 1;
+        while (smalls > 0) keep[small[--smalls]] = 1;
+    }
+
+    int size() {
+        return keep.length;
+    }
+
+    /** Sum of the weights the table was built from. */
+    double total() {
+        return total;
+    }
+
+    int sample(Random random) {
+        int column = random.nextInt(keep.length);
+        return random.nextDouble() < keep[column] ? column : alias[column];
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.chronocode.problem;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.List;
+
+/**
+ * The parts of a {@code problems/{id}} document the battle screen renders. Immutable.
+ */
+public final class Problem {
+
+    private final String id;
+    private final String title;
+    private final String description;
+    private final long version;
+    private final int testCount;
+
+    public Problem(String id, String title, String description, long version) {
+        this(id, title, description, version, 0);
+    }
+
+    public Problem(String id, String title, String description, long version, int testCount) {
+        this.id = id;
+        this.title = title != null ? title : "";
+        this.description = description != null ? description : "";
+        this.version = version;
+        this.testCount = testCount;
+    }
+
+    /** Null if the document does not exist. */
+    public static Problem fromDoc(Doc doc) {
+        if (!doc.exists()) return null;
+        Object testCases = doc.get("testCases");
+        return new Problem(doc.getId(), doc.getString("title"), doc.getString("description"),
+                doc.getLong("version", 0), testCases instanceof List ? ((List<?>) testCases).size() : 0);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /** Content version from the document's {@code version} field; bumped when a problem is edited. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** Number of entries in the {@code testCases} array, which an accepted solution scores by. */
+    public int getTestCount() {
+        return testCount;
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.chronocode.problem;
+
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Every problem a battle can be played on, for picking one in constant time however many there
+ * are.
+ *
+ * <p>Problems are partitioned by difficulty into bands {@value #BAND_WIDTH} rating points wide,
+ * and again by tag. {@link #pick} draws a band near the players' mean rating, then a problem in
+ * it, each from a precomputed {@link AliasTable}, so a pick is two constant-time draws weighted
+ * by the problems' {@code weight} and by how close their band is to the players. Problems in a
+ * player's {@link RecentProblems} are drawn again, a few times at most.
+ *
+ * <p>The index is loaded from the {@code problems} collection by {@link #refresh}. The first
+ * refresh reads every problem, by id, so problems written before {@code updatedAt} existed are
+ * indexed too; later ones read only the problems whose {@code updatedAt} is past the latest it
+ * has seen and rebuild only the partitions they changed. An edit is therefore seen only if it
+ * sets {@code updatedAt}. A problem document has a numeric {@code difficulty} on the rating
+ * scale (default {@link UserProfile#DEFAULT_RATING}), optional {@code tags} and {@code weight}
+ * (default 1), and leaves the index when {@code retired} is true. Picks read an immutable
+ * snapshot and never block; thread-safe. A {@link Listener} hears the {@code version} of every
+ * problem a refresh reads, so caches of problem content can drop what the edit made stale.
+ */
+public class ProblemIndex {
+
+    /** Told of each problem document a refresh reads, on the thread that completed the read. */
+    public interface Listener {
+        void onProblemRead(String problemId, long version);
+    }
+
+    public static final int BAND_WIDTH = 200;
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    // Difficulties are clamped to [0, MAX_DIFFICULTY], which bounds the number of bands
+    public static final long MAX_DIFFICULTY = 4000;
+
+    // How fast a band's chance falls off with its distance from the players, in rating points
+    private static final double DIFFICULTY_SPREAD = 120;
+    private static final int MAX_DRAWS = 8;
+    private static final String ALL = ""; // Family of every problem, whatever its tags
+
+    private final BattleStore store;
+    private final int pageSize;
+
+    // guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Map<Integer, Map<String, Entry>>> members = new HashMap<>(); // family -> band -> id
+    private boolean loaded; // Whether the first, full read is done
+    private String scannedId; // Last id the full read got to
+    private Date cursorTime;
+    private String cursorId;
+    private CompletableFuture<Integer> refreshing;
+
+    private volatile Listener listener;
+    private volatile Snapshot snapshot = new Snapshot(Collections.<String, Family>emptyMap(), 0);
+
+    public ProblemIndex(BattleStore store) {
+        this(store, DEFAULT_PAGE_SIZE);
+    }
+
+    public ProblemIndex(BattleStore store, int pageSize) {
+        this.store = store;
+        this.pageSize = pageSize;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Problems in the index. */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Picks a problem for two players, tagged {@code tag} unless it is null, that none of
+     * {@code recent} has played lately if one can be found in a few draws. Null if the index has
+     * no such problem, e.g. before the first {@link #refresh}.
+     */
+    public String pick(long ratingA, long ratingB, String tag, Random random, RecentProblems... recent) {
+        Family family = snapshot.families.get(tag != null ? tag : ALL);
+        if (family == null) return null;
+        AliasTable bands = family.bandsNear(bandOf((ratingA + ratingB) / 2));
+        String picked = null;
+        for (int draw = 0; draw < MAX_DRAWS; draw++) {
+            Partition partition = family.partitions[bands.sample(random)];
+            picked = partition.ids[partition.problems.sample(random)];
+            if (!playedLately(picked, recent)) return picked;
+        }
+        return picked; // Everything close to these players was played lately: a repeat beats no battle
+    }
+
+    /**
+     * Reads every problem the first time, and the problems updated since the last refresh after
+     * that, page by page, and applies them. Completes with how many problem documents it read. A
+     * refresh that is already running is returned instead of starting another; one that failed
+     * part way resumes where it stopped.
+     */
+    public CompletableFuture<Integer> refresh() {
+        CompletableFuture<Integer> result;
+        synchronized (this) {
+            if (refreshing != null) return refreshing;
+            result = new CompletableFuture<>();
+            refreshing = result;
+        }
+        fetch(0).whenComplete((read, error) -> {
+            synchronized (this) {
+                refreshing = null;
+            }
+            if (error != null) result.completeExceptionally(error);
+            else result.complete(read);
+        });
+        return result;
+    }
+
+    static int bandOf(long rating) {
+        return (int) Math.floorDiv(rating, BAND_WIDTH);
+    }
+
+    private CompletableFuture<Integer> fetch(int readSoFar) {
+        CompletableFuture<List<Doc>> query;
+        synchronized (this) {
+            query = loaded ? store.findProblemsUpdatedAfter(cursorTime, cursorId, pageSize)
+                    : store.findProblemsAfterId(scannedId, pageSize);
+        }
+        return query.thenCompose(page -> {
+            boolean more = apply(page);
+            Listener told = listener;
+            if (told != null) {
+                for (Doc doc : page) told.onProblemRead(doc.getId(), doc.getLong("version", 0));
+            }
+            int read = readSoFar + page.size();
+            return more ? fetch(read) : CompletableFuture.completedFuture(read);
+        });
+    }
+
+    // Applies a page in place and publishes a snapshot with the partitions it touched rebuilt.
+    // Returns whether there is another page to read.
+    private synchronized boolean apply(List<Doc> page) {
+        Map<String, Set<Integer>> dirty = new HashMap<>();
+        for (Doc doc : page) {
+            Entry old = entries.remove(doc.getId());
+            if (old != null) move(old, false, dirty);
+            Entry entry = Entry.fromDoc(doc);
+            if (entry != null) {
+                entries.put(entry.id, entry);
+                move(entry, true, dirty);
+            }
+        }
+        if (!dirty.isEmpty()) publish(dirty);
+
+        if (!loaded) {
+            // Later refreshes start from the latest updatedAt of the whole collection
+            for (Doc doc : page) {
+                Date time = doc.getDate("updatedAt");
+                if (time != null && (cursorTime == null || time.after(cursorTime)
+                        || time.equals(cursorTime) && doc.getId().compareTo(cursorId) > 0)) {
+                    cursorTime = time;
+                    cursorId = doc.getId();
+                }
+            }
+            if (page.size() < pageSize) {
+                loaded = true;
+                return false;
+            }
+            scannedId = page.get(page.size() - 1).getId();
+            return true;
+        }
+        if (page.isEmpty()) return false;
+
+        Doc last = page.get(page.size() - 1);
+        Date lastTime = last.getDate("updatedAt");
+        boolean moved = !lastTime.equals(cursorTime) || !last.getId().equals(cursorId);
+        cursorTime = lastTime;
+        cursorId = last.getId();
+        // A full page that did not move the cursor would come back the same forever
+        return page.size() == pageSize && moved;
+    }
+
+    // Caller holds the lock
+    private void move(Entry entry, boolean in, Map<String, Set<Integer>> dirty) {
+        for (String family : entry.families()) {
+            Map<Integer, Map<String, Entry>> bands = members.get(family);
+            if (bands == null) {
+                bands = new HashMap<>();
+                members.put(family, bands);
+            }
+            Map<String, Entry> band = bands.get(entry.band);
+            if (band == null) {
+                band = new LinkedHashMap<>();
+                bands.put(entry.band, band);
+            }
+            if (in) {
+                band.put(entry.id, entry);
+            } else {
+                band.remove(entry.id);
+                if (band.isEmpty()) bands.remove(entry.band);
+                if (bands.isEmpty()) members.remove(family);
+            }
+            Set<Integer> dirtyBands = dirty.get(family);
+            if (dirtyBands == null) {
+                dirtyBands = new HashSet<>();
+                dirty.put(family, dirtyBands);
+            }
+            dirtyBands.add(entry.band);
+        }
+    }
+
+    // Caller holds the lock
+    private void publish(Map<String, Set<Integer>> dirty) {
+        Map<String, Family> families = new HashMap<>(snapshot.families);
+        for (Map.Entry<String, Set<Integer>> changed : dirty.entrySet()) {
+            String name = changed.getKey();
+            Map<Integer, Map<String, Entry>> bands = members.get(name);
+            if (bands == null) {
+                families.remove(name);
+                continue;
+            }
+            Family before = families.get(name);
+            TreeMap<Integer, Partition> partitions = new TreeMap<>();
+            for (Map.Entry<Integer, Map<String, Entry>> band : bands.entrySet()) {
+                Partition kept = before != null && !changed.getValue().contains(band.getKey())
+                        ? before.partition(band.getKey()) : null;
+                partitions.put(band.getKey(), kept != null ? kept : new Partition(band.getValue().values()));
+            }
+            families.put(name, new Family(partitions));
+        }
+        snapshot = new Snapshot(Collections.unmodifiableMap(families), entries.size());
+    }
+
+    private static boolean playedLately(String problemId, RecentProblems[] recent) {
+        for (RecentProblems player : recent) {
+            if (player != null && player.contains(problemId)) return true;
+        }
+        return false;
+    }
+
+    private static final class Snapshot {
+        final Map<String, Family> families;
+        final int size;
+
+        Snapshot(Map<String, Family> families, int size) {
+            this.families = families;
+            this.size = size;
+        }
+    }
+
+    // The problems of one tag, or all of them, by band
+    private static final class Family {
+        final int[] bands;
+        final Partition[] partitions;
+        final int lowestBand;
+        // Which partition to draw from for players in band lowestBand + i
+        final AliasTable[] bandsNear;
+
+        Family(TreeMap<Integer, Partition> byBand) {
+            bands = new int[byBand.size()];
+            partitions = new Partition[byBand.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Partition> band : byBand.entrySet()) {
+                bands[i] = band.getKey();
+                partitions[i++] = band.getValue();
+            }
+            lowestBand = bands[0];
+            bandsNear = new AliasTable[bands[bands.length - 1] - lowestBand + 1];
+            double[] weights = new double[bands.length];
+            for (int target = 0; target < bandsNear.length; target++) {
+                for (int b = 0; b < bands.length; b++) {
+                    double distance = (bands[b] - lowestBand - target) * (double) BAND_WIDTH / DIFFICULTY_SPREAD;
+                    // Never quite 0, so a lone far band can still be drawn
+                    weights[b] = partitions[b].problems.total() * Math.max(Math.exp(-0.5 * distance * distance), 1e-12);
+                }
+                bandsNear[target] = new AliasTable(weights);
+            }
+        }
+
+        // Players outside the family's range get its nearest edge
+        AliasTable bandsNear(int band) {
+            int target = Math.min(Math.max(band - lowestBand, 0), bandsNear.length - 1);
+            return bandsNear[target];
+        }
+
+        Partition partition(int band) {
+            int i = Arrays.binarySearch(bands, band);
+            return i >= 0 ? partitions[i] : null;
+        }
+    }
+
+    // The problems of one family in one band
+    private static final class Partition {
+        final String[] ids;
+        final AliasTable problems;
+
+        Partition(Collection<Entry> entries) {
+            ids = new String[entries.size()];
+            double[] weights = new double[entries.size()];
+            int i = 0;
+            for (Entry entry : entries) {
+                ids[i] = entry.id;
+                weights[i++] = entry.weight;
+            }
+            problems = new AliasTable(weights);
+        }
+    }
+
+    private static final class Entry {
+        final String id;
+        final int band;
+        final List<String> tags;
+        final double weight;
+
+        Entry(String id, int band, List<String> tags, double weight) {
+            this.id = id;
+            this.band = band;
+            this.tags = tags;
+            this.weight = weight;
+        }
+
+        // Null if the problem is not to be picked
+        static Entry fromDoc(Doc doc) {
+            if (!doc.exists() || Boolean.TRUE.equals(doc.getBoolean("retired"))) return null;
+            Object weight = doc.get("weight");
+            double w = weight instanceof Number ? ((Number) weight).doubleValue() : 1;
+            if (!(w > 0)) return null;
+            List<String> tags = new ArrayList<>();
+            Object listed = doc.get("tags");
+            if (listed instanceof List) {
+                for (Object tag : (List<?>) listed) {
+                    if (tag instanceof String && !ALL.equals(tag) && !tags.contains(tag)) tags.add((String) tag);
+                }
+            }
+            long difficulty = doc.getLong("difficulty", UserProfile.DEFAULT_RATING);
+            return new Entry(doc.getId(), bandOf(Math.min(Math.max(difficulty, 0), MAX_DIFFICULTY)), tags, w);
+        }
+
+        List<String> families() {
+            List<String> families = new ArrayList<>(tags.size() + 1);
+            families.add(ALL);
+            families.addAll(tags);
+            return families;
+        }
+    }
+}
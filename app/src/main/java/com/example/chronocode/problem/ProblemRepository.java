@@ -0,0 +1,217 @@
+package com.example.chronocode.problem;
+
+import com.example.chronocode.store.BattleStore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Problems cached in an in-memory LRU backed by a compact on-disk store.
+ *
+ * <p>Callers {@link #prefetch} a problem as soon as its id is known (room creation or join), so
+ * that by the time the battle screen opens {@link #peek} can render it without any I/O. Disk
+ * entries record a format version and the problem's content version; a format change drops
+ * them, and {@link #invalidateIfOlder} drops entries older than a version seen elsewhere, such
+ * as by a {@link ProblemIndex} refresh.
+ * Entries older than {@code maxAgeMs} are still served but refreshed in the background.
+ */
+public class ProblemRepository {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".problem";
+
+    private final BattleStore store;
+    private final File diskDir;
+    private final Executor io;
+    private final int maxMemoryEntries;
+    private final long maxAgeMs;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Problem>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong remoteReads = new AtomicLong();
+
+    public ProblemRepository(BattleStore store, File diskDir, Executor io, int maxMemoryEntries, long maxAgeMs) {
+        this.store = store;
+        this.diskDir = diskDir;
+        this.io = io;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxAgeMs = maxAgeMs;
+        diskDir.mkdirs();
+    }
+
+    /** The problem if it is in memory, else null. Never blocks. */
+    public Problem peek(String problemId) {
+        synchronized (memory) {
+            Entry entry = memory.get(problemId);
+            return entry != null ? entry.problem : null;
+        }
+    }
+
+    /** Loads the problem into memory (from disk, else from the store) without waiting for it. */
+    public void prefetch(String problemId) {
+        get(problemId);
+    }
+
+    /** Memory, then disk, then the store. Completes with null if the problem does not exist. */
+    public CompletableFuture<Problem> get(String problemId) {
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(problemId);
+        }
+        if (entry != null) {
+            if (isStale(entry)) refresh(problemId);
+            return CompletableFuture.completedFuture(entry.problem);
+        }
+
+        CompletableFuture<Problem> result = new CompletableFuture<>();
+        CompletableFuture<Problem> existing = inFlight.putIfAbsent(problemId, result);
+        if (existing != null) return existing;
+        result.whenComplete((problem, error) -> inFlight.remove(problemId, result));
+
+        io.execute(() -> {
+            Entry fromDisk = readFromDisk(problemId);
+            if (fromDisk != null) {
+                putInMemory(problemId, fromDisk);
+                if (isStale(fromDisk)) refresh(problemId);
+                result.complete(fromDisk.problem);
+            } else {
+                fetch(problemId).whenComplete((problem, error) -> {
+                    if (error != null) result.completeExceptionally(error);
+                    else result.complete(problem);
+                });
+            }
+        });
+        return result;
+    }
+
+    /** Drops the cached problem if its version is older than {@code version}. */
+    public void invalidateIfOlder(String problemId, long version) {
+        Problem cached = peek(problemId);
+        if (cached != null && cached.getVersion() >= version) return;
+        synchronized (memory) {
+            memory.remove(problemId);
+        }
+        io.execute(() -> {
+            Entry onDisk = readFromDisk(problemId);
+            if (onDisk != null && onDisk.problem.getVersion() < version) fileFor(problemId).delete();
+        });
+    }
+
+    /** Reads that had to go to the store, for verifying the cache actually saves round trips. */
+    public long getRemoteReads() {
+        return remoteReads.get();
+    }
+
+    private CompletableFuture<Problem> fetch(String problemId) {
+        remoteReads.incrementAndGet();
+        return store.get(BattleStore.PROBLEMS, problemId).thenApply(doc -> {
+            Problem problem = Problem.fromDoc(doc);
+            if (problem != null) {
+                Entry entry = new Entry(problem, System.currentTimeMillis());
+                putInMemory(problemId, entry);
+                io.execute(() -> writeToDisk(problemId, entry));
+            }
+            return problem;
+        });
+    }
+
+    private void refresh(String problemId) {
+        io.execute(() -> fetch(problemId));
+    }
+
+    private boolean isStale(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAtMs > maxAgeMs;
+    }
+
+    private void putInMemory(String problemId, Entry entry) {
+        synchronized (memory) {
+            memory.put(problemId, entry);
+            Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+            while (memory.size() > maxMemoryEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    // Format: int format, long version, long fetchedAt, int testCount, then title and description
+    // as length-prefixed UTF-8 (writeUTF caps strings at 64 KB, descriptions may be longer).
+    private Entry readFromDisk(String problemId) {
+        File file = fileFor(problemId);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                file.delete();
+                return null;
+            }
+            long version = in.readLong();
+            long fetchedAtMs = in.readLong();
+            int testCount = in.readInt();
+            String title = readString(in, file.length());
+            String description = readString(in, file.length());
+            return new Entry(new Problem(problemId, title, description, version, testCount), fetchedAtMs);
+        } catch (IOException | RuntimeException e) {
+            // Truncated or corrupt: a miss, so the caller falls through to the store
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String problemId, Entry entry) {
+        File file = fileFor(problemId);
+        File temp = new File(diskDir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(entry.problem.getVersion());
+            out.writeLong(entry.fetchedAtMs);
+            out.writeInt(entry.problem.getTestCount());
+            writeString(out, entry.problem.getTitle());
+            writeString(out, entry.problem.getDescription());
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) temp.delete();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // A length past the end of the file is corruption, not a buffer to allocate
+    private static String readString(DataInputStream in, long fileLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > fileLength) throw new IOException("Corrupt string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File fileFor(String problemId) {
+        return new File(diskDir, problemId + SUFFIX);
+    }
+
+    private static final class Entry {
+        final Problem problem;
+        final long fetchedAtMs;
+
+        Entry(Problem problem, long fetchedAtMs) {
+            this.problem = problem;
+            this.fetchedAtMs = fetchedAtMs;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.chronocode.problem;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The last few problems one player was given, so {@link ProblemIndex#pick} can avoid repeating
+ * them. A fixed-size ring: adding past capacity forgets the oldest. Thread-safe.
+ */
+public final class RecentProblems {
+
+    public static final int DEFAULT_CAPACITY = 20;
+
+    private final String[] ring;
+    private final Set<String> ids = new HashSet<>();
+    private int next;
+
+    public RecentProblems() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RecentProblems(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity " + capacity);
+        ring = new String[capacity];
+    }
+
+    /** Records that the player got {@code problemId}; a repeat moves nothing. */
+    public synchronized void add(String problemId) {
+        if (problemId == null || ids.contains(problemId)) return;
+        String oldest = ring[next];
+        if (oldest != null) ids.remove(oldest);
+        ring[next] = problemId;
+        ids.add(problemId);
+        next = (next + 1) % ring.length;
+    }
+
+    public synchronized boolean contains(String problemId) {
+        return ids.contains(problemId);
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+}
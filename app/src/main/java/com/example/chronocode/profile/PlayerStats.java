@@ -0,0 +1,76 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A player's battle counters, summed over their {@link StatCounters} shards. Immutable.
+ */
+public final class PlayerStats {
+
+    public static final String WINS = "wins";
+    public static final String LOSSES = "losses";
+    public static final String MATCHES_PLAYED = "matchesPlayed";
+
+    public static final PlayerStats NONE = new PlayerStats(0, 0, 0);
+
+    /** How one battle ended for one player; a draw counts only as a match played. */
+    public enum Outcome {
+        WIN, LOSS, DRAW;
+
+        /** For the player with {@code uid}, given the room's winner (null for a draw). */
+        public static Outcome of(String uid, String winnerUid) {
+            return winnerUid == null ? DRAW : winnerUid.equals(uid) ? WIN : LOSS;
+        }
+    }
+
+    private final long wins;
+    private final long losses;
+    private final long matchesPlayed;
+
+    public PlayerStats(long wins, long losses, long matchesPlayed) {
+        this.wins = wins;
+        this.losses = losses;
+        this.matchesPlayed = matchesPlayed;
+    }
+
+    /** The counters one battle adds. */
+    public static Map<String, Long> deltas(Outcome outcome) {
+        Map<String, Long> deltas = new HashMap<>();
+        deltas.put(MATCHES_PLAYED, 1L);
+        if (outcome == Outcome.WIN) deltas.put(WINS, 1L);
+        if (outcome == Outcome.LOSS) deltas.put(LOSSES, 1L);
+        return deltas;
+    }
+
+    /** These counters plus one shard document's; a missing shard adds nothing. */
+    public PlayerStats plus(Doc shard) {
+        if (!shard.exists()) return this;
+        return new PlayerStats(wins + shard.getLong(WINS, 0), losses + shard.getLong(LOSSES, 0),
+                matchesPlayed + shard.getLong(MATCHES_PLAYED, 0));
+    }
+
+    public PlayerStats plus(Outcome outcome) {
+        return new PlayerStats(wins + (outcome == Outcome.WIN ? 1 : 0), losses + (outcome == Outcome.LOSS ? 1 : 0),
+                matchesPlayed + 1);
+    }
+
+    public long getWins() {
+        return wins;
+    }
+
+    public long getLosses() {
+        return losses;
+    }
+
+    public long getMatchesPlayed() {
+        return matchesPlayed;
+    }
+
+    @Override
+    public String toString() {
+        return wins + "W " + losses + "L of " + matchesPlayed;
+    }
+}
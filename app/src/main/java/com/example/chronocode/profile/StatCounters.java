@@ -0,0 +1,140 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreTransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Each player's wins, losses and matches played, kept out of {@code users/{uid}} so counting a
+ * battle never touches the document the rating transactions read and write.
+ *
+ * <p>A player's counters are split over {@code shards} documents {@code user_stats/{uid}_{n}}.
+ * A battle is counted with a blind increment of one shard picked at random, so a player whose
+ * battles settle at the same time spreads the writes instead of queueing on one document, and
+ * nothing is read to count. Reading the totals sums every shard, in parallel; the sum is cached
+ * for {@code maxAgeMs}, and battles this client counts are added to the cached sum. Thread-safe.
+ */
+public class StatCounters {
+
+    public static final int DEFAULT_SHARDS = 8;
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final BattleStore store;
+    private final int shards;
+    private final long maxAgeMs;
+    private final LongSupplier clockMs;
+
+    private final Map<String, Cached> totals = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<PlayerStats>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong shardReads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    public StatCounters(BattleStore store) {
+        this(store, DEFAULT_SHARDS, DEFAULT_MAX_AGE_MS, System::currentTimeMillis);
+    }
+
+    public StatCounters(BattleStore store, int shards, long maxAgeMs, LongSupplier clockMs) {
+        this.store = store;
+        this.shards = shards;
+        this.maxAgeMs = maxAgeMs;
+        this.clockMs = clockMs;
+    }
+
+    public static String shardId(String uid, int shard) {
+        return uid + "_" + shard;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /** Counts a battle for {@code uid} as part of {@code transaction}, without reading anything. */
+    public void record(StoreTransaction transaction, String uid, PlayerStats.Outcome outcome) {
+        transaction.increment(BattleStore.USER_STATS, randomShard(uid), PlayerStats.deltas(outcome));
+    }
+
+    /** Counts a battle for {@code uid} as part of {@code batch}. */
+    public void record(StoreBatch batch, String uid, PlayerStats.Outcome outcome) {
+        batch.increment(BattleStore.USER_STATS, randomShard(uid), PlayerStats.deltas(outcome));
+    }
+
+    /**
+     * Adds a battle counted by a {@link #record} that has committed to the cached totals, if
+     * there are any, so they stay right without another read.
+     */
+    public void recorded(String uid, PlayerStats.Outcome outcome) {
+        Cached cached = totals.get(uid);
+        if (cached != null) totals.replace(uid, cached, new Cached(cached.stats.plus(outcome), cached.atMs));
+    }
+
+    /** Drops the cached totals, e.g. after a battle another client counted. */
+    public void invalidate(String uid) {
+        totals.remove(uid);
+    }
+
+    /** The player's totals: cached if fresh, else summed over every shard. */
+    public CompletableFuture<PlayerStats> get(String uid) {
+        Cached cached = totals.get(uid);
+        if (cached != null && clockMs.getAsLong() - cached.atMs < maxAgeMs) {
+            cacheHits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached.stats);
+        }
+        CompletableFuture<PlayerStats> result = new CompletableFuture<>();
+        CompletableFuture<PlayerStats> existing = inFlight.putIfAbsent(uid, result);
+        if (existing != null) return existing;
+
+        long readAtMs = clockMs.getAsLong();
+        List<CompletableFuture<Doc>> reads = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            reads.add(store.get(BattleStore.USER_STATS, shardId(uid, shard)));
+        }
+        shardReads.addAndGet(shards);
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).whenComplete((v, error) -> {
+            inFlight.remove(uid, result);
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            PlayerStats sum = PlayerStats.NONE;
+            for (CompletableFuture<Doc> read : reads) sum = sum.plus(read.join());
+            totals.put(uid, new Cached(sum, readAtMs));
+            result.complete(sum);
+        });
+        return result;
+    }
+
+    /** Shard documents read so far. */
+    public long getShardReads() {
+        return shardReads.get();
+    }
+
+    /** {@link #get} calls answered from the cache. */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    private String randomShard(String uid) {
+        return shardId(uid, ThreadLocalRandom.current().nextInt(shards));
+    }
+
+    private static final class Cached {
+        final PlayerStats stats;
+        final long atMs;
+
+        Cached(PlayerStats stats, long atMs) {
+            this.stats = stats;
+            this.atMs = atMs;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parts of a {@code users/{uid}} document the app reads. Immutable.
+ */
+public final class UserProfile {
+
+    public static final long DEFAULT_RATING = 1000;
+
+    private final String uid;
+    private final String displayName;
+    private final Long rating;
+
+    public UserProfile(String uid, String displayName, Long rating) {
+        this.uid = uid;
+        this.displayName = displayName;
+        this.rating = rating;
+    }
+
+    /** Null if the document does not exist. */
+    public static UserProfile fromDoc(Doc doc) {
+        if (!doc.exists()) return null;
+        return new UserProfile(doc.getId(), doc.getString("displayName"), doc.getLong("rating"));
+    }
+
+    /** Fields of the {@code users/{uid}} document written for a new player. */
+    public static Map<String, Object> newDocument(String displayName) {
+        Map<String, Object> newUser = new HashMap<>();
+        newUser.put("displayName", displayName);
+        newUser.put("rating", DEFAULT_RATING);
+        newUser.put("createdAt", new Date());
+        return newUser;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    /** Null if the profile has no display name. */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /** Null if the profile has no rating yet. */
+    public Long getRating() {
+        return rating;
+    }
+
+    public long getRatingOrDefault() {
+        return rating != null ? rating : DEFAULT_RATING;
+    }
+}
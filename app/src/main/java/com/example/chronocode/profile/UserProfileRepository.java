@@ -0,0 +1,149 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.Registration;
+import com.example.chronocode.store.StoreException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single source of {@code users/{uid}} profiles for every screen.
+ *
+ * <p>The first {@link #get} of a uid registers a snapshot listener on its document; the
+ * listener's first snapshot answers that call and every call made while it is in flight, and
+ * later snapshots replace the cached profile, so callers never see a profile older than the
+ * store's last change and never pay a second read for it. A listener error drops the entry so
+ * the next call starts over.
+ */
+public class UserProfileRepository {
+
+    private final BattleStore store;
+    private final Map<String, Watch> watches = new HashMap<>(); // guarded by this
+
+    private final AtomicLong remoteReads = new AtomicLong();
+    private final AtomicLong joinedReads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong listenerUpdates = new AtomicLong();
+
+    public UserProfileRepository(BattleStore store) {
+        this.store = store;
+    }
+
+    /** The cached profile, or null if it is not loaded (or does not exist). Never blocks. */
+    public synchronized UserProfile peek(String uid) {
+        Watch watch = watches.get(uid);
+        return watch != null && watch.latest.isDone() && !watch.latest.isCompletedExceptionally()
+                ? watch.latest.getNow(null) : null;
+    }
+
+    /** Completes with the profile, or null if the user has no profile document. */
+    public CompletableFuture<UserProfile> get(String uid) {
+        Watch watch;
+        synchronized (this) {
+            watch = watches.get(uid);
+            if (watch != null) {
+                if (watch.latest.isDone()) cacheHits.incrementAndGet();
+                else joinedReads.incrementAndGet();
+                return watch.latest;
+            }
+            watch = new Watch(uid);
+            watches.put(uid, watch);
+        }
+        remoteReads.incrementAndGet();
+        Watch registered = watch;
+        Registration registration = store.listen(BattleStore.USERS, uid,
+                (doc, error) -> onSnapshot(registered, doc, error));
+        synchronized (this) {
+            registered.registration = registration;
+            if (registered.closed) registration.remove();
+        }
+        return registered.latest;
+    }
+
+    /** Stops watching {@code uid}; the next {@link #get} reads it again. */
+    public void release(String uid) {
+        Watch watch;
+        synchronized (this) {
+            watch = watches.remove(uid);
+        }
+        if (watch != null) close(watch);
+    }
+
+    /** Stops watching every profile, e.g. on sign-out. */
+    public void releaseAll() {
+        List<Watch> all;
+        synchronized (this) {
+            all = new ArrayList<>(watches.values());
+            watches.clear();
+        }
+        for (Watch watch : all) close(watch);
+    }
+
+    /** Profile reads that went to the store (one per listener registration). */
+    public long getRemoteReads() {
+        return remoteReads.get();
+    }
+
+    /** Calls that joined a read already in flight instead of starting their own. */
+    public long getJoinedReads() {
+        return joinedReads.get();
+    }
+
+    /** Calls answered from the cached profile. */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /** Snapshots after the first one, i.e. cache refreshes pushed by the store. */
+    public long getListenerUpdates() {
+        return listenerUpdates.get();
+    }
+
+    private void onSnapshot(Watch watch, Doc doc, StoreException error) {
+        boolean failed = false;
+        synchronized (this) {
+            if (watch.closed) return;
+            if (error != null) {
+                failed = true;
+                if (watches.get(watch.uid) == watch) watches.remove(watch.uid);
+            } else if (watch.latest.isDone()) {
+                watch.latest = CompletableFuture.completedFuture(UserProfile.fromDoc(doc));
+                listenerUpdates.incrementAndGet();
+                return;
+            }
+        }
+        if (failed) {
+            close(watch);
+            watch.latest.completeExceptionally(error);
+        } else {
+            watch.latest.complete(UserProfile.fromDoc(doc));
+        }
+    }
+
+    private void close(Watch watch) {
+        Registration registration;
+        synchronized (this) {
+            watch.closed = true;
+            registration = watch.registration;
+        }
+        if (registration != null) registration.remove();
+    }
+
+    private static final class Watch {
+        final String uid;
+        // Pending until the first snapshot, then replaced by a completed future on every change.
+        CompletableFuture<UserProfile> latest = new CompletableFuture<>();
+        Registration registration;
+        boolean closed;
+
+        Watch(String uid) {
+            this.uid = uid;
+        }
+    }
+}
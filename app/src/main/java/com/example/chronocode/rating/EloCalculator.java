@@ -0,0 +1,33 @@
+package com.example.chronocode.rating;
+
+/**
+ * Standard Elo: each player gains {@code k * (actual - expected)}, where the expected score
+ * follows the logistic curve with a 400-point scale. Ratings are rounded to whole points and
+ * never drop below {@code floor}. Immutable and thread-safe.
+ */
+public final class EloCalculator {
+
+    public static final EloCalculator DEFAULT = new EloCalculator(32, 100);
+
+    private final double k;
+    private final long floor;
+
+    public EloCalculator(double k, long floor) {
+        this.k = k;
+        this.floor = floor;
+    }
+
+    /** Probability-like expected score of a player rated {@code rating} against {@code opponent}. */
+    public static double expectedScore(long rating, long opponent) {
+        return 1.0 / (1.0 + Math.pow(10.0, (opponent - rating) / 400.0));
+    }
+
+    /**
+     * New rating of player A after a game against B; {@code scoreA} is 1 for a win, 0.5 for a
+     * draw and 0 for a loss.
+     */
+    public long rate(long ratingA, long ratingB, double scoreA) {
+        long change = Math.round(k * (scoreA - expectedScore(ratingA, ratingB)));
+        return Math.max(floor, ratingA + change);
+    }
+}
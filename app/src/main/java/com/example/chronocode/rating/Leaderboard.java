@@ -0,0 +1,368 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreTransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The leaderboard, kept up to date by each rating settlement instead of queried from
+ * {@code users} on demand.
+ *
+ * <p>Two things are materialized in the {@code leaderboard} collection. A rating histogram,
+ * split over {@code shards} documents {@code histogram_{n}}, counts the ranked players (those
+ * with a settled rated battle, marked {@value #RANKED_FIELD} on their user document) per
+ * {@link RatingHistogram} bucket; the settlement transaction moves its players between buckets
+ * with a blind increment of a random shard, so it is exact and adds no contention. A player's
+ * percentile and rank are then one pass over the summed buckets. The {@code top} document lists
+ * the best {@code size} players, plus some slack so one dropping out leaves a replacement; each
+ * settled rating is {@linkplain #offer offered} to it, which costs a transaction only if the
+ * rating could change it. Should the slack run out, the list is rebuilt from the ranked users
+ * with the highest rating.
+ *
+ * <p>Both are cached for {@code maxAgeMs}; settlements this client commits are applied to the
+ * cached histogram. Thread-safe.
+ */
+public class Leaderboard {
+
+    /** On {@code users/{uid}}: the player is counted in the histogram at their rating. */
+    public static final String RANKED_FIELD = "ranked";
+    public static final String TOP_DOC = "top";
+    public static final int DEFAULT_SIZE = 100;
+    public static final int DEFAULT_SHARDS = 8;
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    static final String ENTRIES = "entries";
+    static final String CUTOFF = "cutoff";
+
+    private final BattleStore store;
+    private final int size;
+    private final int capacity; // size plus slack
+    private final int shards;
+    private final long maxAgeMs;
+    private final LongSupplier clockMs;
+
+    private volatile Cached<Top> top;
+    private volatile Cached<RatingHistogram> histogram; // Never changed once cached: replaced by copies
+
+    private final Map<String, LeaderboardEntry> pendingOffers = new LinkedHashMap<>();
+    private CompletableFuture<Boolean> nextFlush; // Completes when pendingOffers are placed
+    private boolean flushing;
+
+    private final AtomicLong offers = new AtomicLong();
+    private final AtomicLong topWrites = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong failedOffers = new AtomicLong();
+
+    public Leaderboard(BattleStore store) {
+        this(store, DEFAULT_SIZE, DEFAULT_SHARDS, DEFAULT_MAX_AGE_MS, System::currentTimeMillis);
+    }
+
+    public Leaderboard(BattleStore store, int size, int shards, long maxAgeMs, LongSupplier clockMs) {
+        this.store = store;
+        this.size = size;
+        this.capacity = size + Math.max(1, size / 5);
+        this.shards = shards;
+        this.maxAgeMs = maxAgeMs;
+        this.clockMs = clockMs;
+    }
+
+    public static String histogramShardId(int shard) {
+        return "histogram_" + shard;
+    }
+
+    /**
+     * Moves a player from {@code oldRating}, or null if they were not ranked yet, to
+     * {@code newRating} in the histogram, as part of {@code transaction} and without reading
+     * anything. The caller marks a newly ranked player {@link #RANKED_FIELD} in the same
+     * transaction.
+     */
+    public void record(StoreTransaction transaction, Long oldRating, long newRating) {
+        Map<String, Long> deltas = moves(oldRating, newRating);
+        if (deltas.isEmpty()) return;
+        String shard = histogramShardId(ThreadLocalRandom.current().nextInt(shards));
+        transaction.increment(BattleStore.LEADERBOARD, shard, deltas);
+    }
+
+    /** Applies a {@link #record} that has committed to the cached histogram, if there is one. */
+    public void recorded(Long oldRating, long newRating) {
+        Cached<RatingHistogram> cached = histogram;
+        if (cached == null || moves(oldRating, newRating).isEmpty()) return;
+        RatingHistogram updated = cached.value.copy();
+        if (oldRating != null) updated.add(oldRating, -1);
+        updated.add(newRating, 1);
+        histogram = new Cached<>(updated, cached.atMs);
+    }
+
+    /**
+     * Puts a player's new rating on the top list if it belongs there, or takes them off it if it
+     * no longer does. Completes with whether the top document was written.
+     *
+     * <p>One transaction on the top document runs at a time: offers made while it runs are
+     * placed together by the next one, a player's latest rating replacing earlier ones.
+     */
+    public CompletableFuture<Boolean> offer(String uid, String displayName, long rating) {
+        offers.incrementAndGet();
+        Cached<Top> cached = top;
+        if (cached != null && isFresh(cached) && !cached.value.couldChange(uid, rating)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> placed;
+        Flush flush = null;
+        synchronized (pendingOffers) {
+            pendingOffers.put(uid, new LeaderboardEntry(uid, displayName, rating));
+            if (nextFlush == null) nextFlush = new CompletableFuture<>();
+            placed = nextFlush;
+            if (!flushing) flush = takeFlush();
+        }
+        if (flush != null) run(flush);
+        return placed;
+    }
+
+    /** The best players, best first, at most {@code size} of them. */
+    public CompletableFuture<List<LeaderboardEntry>> getTop() {
+        Cached<Top> cached = top;
+        if (cached != null && isFresh(cached)) return CompletableFuture.completedFuture(head(cached.value.entries));
+        long readAtMs = clockMs.getAsLong();
+        return store.get(BattleStore.LEADERBOARD, TOP_DOC).thenApply(doc -> {
+            Top read = Top.of(doc);
+            top = new Cached<>(read, readAtMs);
+            return head(read.entries);
+        });
+    }
+
+    /** Share of ranked players rated below {@code rating}, in [0, 1]. */
+    public CompletableFuture<Double> percentile(long rating) {
+        return histogram().thenApply(counts -> counts.percentile(rating));
+    }
+
+    /** Estimated place on the leaderboard of a player rated {@code rating}. */
+    public CompletableFuture<Long> rankOf(long rating) {
+        return histogram().thenApply(counts -> counts.rankOf(rating));
+    }
+
+    /** Ranked players, from the histogram. */
+    public CompletableFuture<Long> getRankedPlayers() {
+        return histogram().thenApply(RatingHistogram::getTotal);
+    }
+
+    /** Ratings offered to the top list so far. */
+    public long getOffers() {
+        return offers.get();
+    }
+
+    /** Writes of the top document by offers; several offers made at once share one. */
+    public long getTopWrites() {
+        return topWrites.get();
+    }
+
+    /** Offers that failed, leaving the top list as it was. */
+    public long getFailedOffers() {
+        return failedOffers.get();
+    }
+
+    /** Times the top list was rebuilt from the users with the highest rating. */
+    public long getRebuilds() {
+        return rebuilds.get();
+    }
+
+    // Holding pendingOffers
+    private Flush takeFlush() {
+        Flush flush = new Flush(new ArrayList<>(pendingOffers.values()), nextFlush);
+        pendingOffers.clear();
+        nextFlush = null;
+        flushing = true;
+        return flush;
+    }
+
+    private void run(Flush flush) {
+        long readAtMs = clockMs.getAsLong();
+        boolean[] written = new boolean[1];
+        store.runTransaction(transaction -> {
+            Top current = Top.of(transaction.get(BattleStore.LEADERBOARD, TOP_DOC));
+            Top updated = current;
+            for (LeaderboardEntry offered : flush.offers) updated = updated.place(offered, capacity);
+            written[0] = updated != current;
+            if (written[0]) transaction.set(BattleStore.LEADERBOARD, TOP_DOC, updated.toFields());
+            return updated;
+        }).thenCompose(updated -> {
+            top = new Cached<>(updated, readAtMs);
+            if (!written[0]) return CompletableFuture.completedFuture(false);
+            topWrites.incrementAndGet();
+            // Players dropped off faster than others came on: whoever is next is not listed
+            if (updated.entries.size() >= size || updated.cutoff == null) return CompletableFuture.completedFuture(true);
+            return rebuildTop().thenApply(rebuilt -> true);
+        }).whenComplete((wrote, error) -> {
+            if (error != null) {
+                // The next settlement of each of these players offers their rating again
+                failedOffers.addAndGet(flush.offers.size());
+                flush.placed.completeExceptionally(error);
+            } else {
+                flush.placed.complete(wrote);
+            }
+            Flush next = null;
+            synchronized (pendingOffers) {
+                flushing = false;
+                if (!pendingOffers.isEmpty()) next = takeFlush();
+            }
+            if (next != null) run(next);
+        });
+    }
+
+    private CompletableFuture<RatingHistogram> histogram() {
+        Cached<RatingHistogram> cached = histogram;
+        if (cached != null && isFresh(cached)) return CompletableFuture.completedFuture(cached.value);
+        long readAtMs = clockMs.getAsLong();
+        List<CompletableFuture<Doc>> reads = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            reads.add(store.get(BattleStore.LEADERBOARD, histogramShardId(shard)));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            RatingHistogram sum = new RatingHistogram();
+            for (CompletableFuture<Doc> read : reads) sum.add(read.join());
+            histogram = new Cached<>(sum, readAtMs);
+            return sum;
+        });
+    }
+
+    /**
+     * Lists the ranked users with the highest rating again. Not transactional with
+     * {@link #offer}: an offer racing it is lost until that player's next settlement.
+     */
+    private CompletableFuture<Top> rebuildTop() {
+        rebuilds.incrementAndGet();
+        long readAtMs = clockMs.getAsLong();
+        return store.findTopRatedUsers(capacity).thenCompose(users -> {
+            List<LeaderboardEntry> entries = new ArrayList<>(users.size());
+            for (Doc user : users) {
+                if (!Boolean.TRUE.equals(user.getBoolean(RANKED_FIELD))) continue;
+                entries.add(new LeaderboardEntry(user.getId(), user.getString("displayName"), user.getLong("rating", 0)));
+            }
+            // Unless every rated user fit, anyone left out is rated at most the last one read
+            Long cutoff = users.size() < capacity ? null : users.get(users.size() - 1).getLong("rating");
+            Top rebuilt = new Top(entries, cutoff);
+            return store.set(BattleStore.LEADERBOARD, TOP_DOC, rebuilt.toFields()).thenApply(v -> {
+                top = new Cached<>(rebuilt, readAtMs);
+                return rebuilt;
+            });
+        });
+    }
+
+    private boolean isFresh(Cached<?> cached) {
+        return clockMs.getAsLong() - cached.atMs < maxAgeMs;
+    }
+
+    private List<LeaderboardEntry> head(List<LeaderboardEntry> entries) {
+        return entries.size() <= size ? entries : entries.subList(0, size);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Map<String, Long> moves(Long oldRating, long newRating) {
+        Map<String, Long> deltas = new HashMap<>();
+        int to = RatingHistogram.bucketOf(newRating);
+        if (oldRating != null && RatingHistogram.bucketOf(oldRating) == to) return deltas;
+        deltas.put(RatingHistogram.field(to), 1L);
+        if (oldRating != null) deltas.put(RatingHistogram.field(RatingHistogram.bucketOf(oldRating)), -1L);
+        return deltas;
+    }
+
+    /**
+     * The top document: the listed players, best first, and the cutoff, the highest rating a
+     * ranked player who is not listed can have (null while everyone offered is listed). Every
+     * listed player is rated above the cutoff, so the list is exactly the best players. Immutable.
+     */
+    static final class Top {
+        final List<LeaderboardEntry> entries;
+        final Long cutoff;
+
+        Top(List<LeaderboardEntry> entries, Long cutoff) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.cutoff = cutoff;
+        }
+
+        static Top of(Doc doc) {
+            return new Top(LeaderboardEntry.listOf(doc), doc.getLong(CUTOFF));
+        }
+
+        Map<String, Object> toFields() {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(ENTRIES, LeaderboardEntry.toMaps(entries));
+            if (cutoff != null) fields.put(CUTOFF, cutoff);
+            return fields;
+        }
+
+        boolean couldChange(String uid, long rating) {
+            return indexOf(uid) >= 0 || cutoff == null || rating > cutoff;
+        }
+
+        /**
+         * This list with {@code offered} in its place, at most {@code capacity} long; this list
+         * itself if that changes nothing. A player rated no higher than the cutoff is taken off.
+         */
+        Top place(LeaderboardEntry offered, int capacity) {
+            int at = indexOf(offered.getUid());
+            LeaderboardEntry previous = at >= 0 ? entries.get(at) : null;
+            if (previous != null && previous.getRating() == offered.getRating()
+                    && equal(previous.getDisplayName(), offered.getDisplayName())) {
+                return this;
+            }
+            boolean fits = cutoff == null || offered.getRating() > cutoff;
+            if (previous == null && !fits) return this;
+
+            List<LeaderboardEntry> updated = new ArrayList<>(entries);
+            if (previous != null) updated.remove(at);
+            Long updatedCutoff = cutoff;
+            if (fits) {
+                int i = 0;
+                while (i < updated.size() && updated.get(i).getRating() >= offered.getRating()) i++;
+                updated.add(i, offered);
+                if (updated.size() > capacity) {
+                    long dropped = updated.remove(updated.size() - 1).getRating();
+                    updatedCutoff = cutoff == null ? dropped : Math.max(cutoff, dropped);
+                }
+            }
+            return new Top(updated, updatedCutoff);
+        }
+
+        private int indexOf(String uid) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).getUid().equals(uid)) return i;
+            }
+            return -1;
+        }
+    }
+
+    private static final class Flush {
+        final List<LeaderboardEntry> offers;
+        final CompletableFuture<Boolean> placed;
+
+        Flush(List<LeaderboardEntry> offers, CompletableFuture<Boolean> placed) {
+            this.offers = offers;
+            this.placed = placed;
+        }
+    }
+
+    private static final class Cached<T> {
+        final T value;
+        final long atMs;
+
+        Cached(T value, long atMs) {
+            this.value = value;
+            this.atMs = atMs;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.Doc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One player on the materialized top of the {@link Leaderboard}. Immutable.
+ */
+public final class LeaderboardEntry {
+
+    private final String uid;
+    private final String displayName;
+    private final long rating;
+
+    public LeaderboardEntry(String uid, String displayName, long rating) {
+        this.uid = uid;
+        this.displayName = displayName;
+        this.rating = rating;
+    }
+
+    /** The {@code entries} of the top document, best first; empty if there is none. */
+    static List<LeaderboardEntry> listOf(Doc top) {
+        Object entries = top.get(Leaderboard.ENTRIES);
+        if (!(entries instanceof List)) return Collections.emptyList();
+        List<LeaderboardEntry> list = new ArrayList<>();
+        for (Object entry : (List<?>) entries) {
+            if (!(entry instanceof Map)) continue;
+            Map<?, ?> fields = (Map<?, ?>) entry;
+            Object uid = fields.get("uid");
+            Object rating = fields.get("rating");
+            if (!(uid instanceof String) || !(rating instanceof Number)) continue;
+            Object displayName = fields.get("displayName");
+            list.add(new LeaderboardEntry((String) uid, displayName instanceof String ? (String) displayName : null,
+                    ((Number) rating).longValue()));
+        }
+        return list;
+    }
+
+    static List<Map<String, Object>> toMaps(List<LeaderboardEntry> entries) {
+        List<Map<String, Object>> maps = new ArrayList<>(entries.size());
+        for (LeaderboardEntry entry : entries) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("uid", entry.uid);
+            fields.put("displayName", entry.displayName);
+            fields.put("rating", entry.rating);
+            maps.add(fields);
+        }
+        return maps;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    /** Null if the player has no display name. */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public long getRating() {
+        return rating;
+    }
+
+    @Override
+    public String toString() {
+        return uid + "=" + rating;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.Doc;
+
+/**
+ * How many ranked players there are per {@value #BUCKET_WIDTH}-point rating bucket, from which
+ * a rating's percentile and approximate rank come in one pass over the buckets, whatever the
+ * number of players. Ratings above {@link #MAX_RATING} share the last bucket. Not thread-safe.
+ */
+public final class RatingHistogram {
+
+    public static final int BUCKET_WIDTH = 25;
+    public static final long MAX_RATING = 4000;
+    public static final int BUCKETS = (int) (MAX_RATING / BUCKET_WIDTH) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+
+    public static int bucketOf(long rating) {
+        return (int) (Math.min(Math.max(rating, 0), MAX_RATING) / BUCKET_WIDTH);
+    }
+
+    /** Name of the field a histogram shard counts {@code bucket} in. */
+    public static String field(int bucket) {
+        return "b" + bucket;
+    }
+
+    /** Adds {@code count} players (or removes them, if negative) at {@code rating}. */
+    public void add(long rating, long count) {
+        counts[bucketOf(rating)] += count;
+        total += count;
+    }
+
+    /** Adds the counts of one histogram shard document; a missing shard adds nothing. */
+    public void add(Doc shard) {
+        if (!shard.exists()) return;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long count = shard.getLong(field(bucket), 0);
+            counts[bucket] += count;
+            total += count;
+        }
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    public RatingHistogram copy() {
+        RatingHistogram copy = new RatingHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+        copy.total = total;
+        return copy;
+    }
+
+    /**
+     * Share of ranked players rated below {@code rating}, in [0, 1], assuming the players of a
+     * bucket are spread evenly across it. 0 if there are none.
+     */
+    public double percentile(long rating) {
+        return total > 0 ? playersBelow(rating) / total : 0;
+    }
+
+    /** Estimated place of a player rated {@code rating}: 1 + the players rated above. */
+    public long rankOf(long rating) {
+        return 1 + Math.max(0, Math.round(total - playersBelow(rating) - 1));
+    }
+
+    private double playersBelow(long rating) {
+        int bucket = bucketOf(rating);
+        double below = 0;
+        for (int i = 0; i < bucket; i++) below += counts[i];
+        double intoBucket = rating >= MAX_RATING ? 1
+                : (Math.max(rating, 0) - (long) bucket * BUCKET_WIDTH) / (double) BUCKET_WIDTH;
+        return below + counts[bucket] * intoBucket;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rebuilds every player's rating from scratch by replaying all finished rooms in endTime order,
+ * e.g. after the rating parameters change.
+ *
+ * <p>Rooms are read a page at a time with an (endTime, id) cursor, and the next page is
+ * requested before the current one is processed. Ratings live in a primitive array indexed by
+ * {@link UidIndex}, so memory grows with the number of players, not rooms. Results are written
+ * back with batched commits, several in flight at once. Every rated player starts from
+ * {@link UserProfile#DEFAULT_RATING}; players without any rated room are left untouched, and bot
+ * matches are skipped as in {@link RatingSettler}. Rooms settled while the replay runs are not
+ * picked up, so run it with settlement paused.
+ *
+ * <p>{@link #run} blocks until the job is done; call it from a background thread.
+ */
+public class RatingReplay {
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final int DEFAULT_COMMITS_IN_FLIGHT = 4;
+
+    private final BattleStore store;
+    private final EloCalculator elo;
+    private final int pageSize;
+    private final int commitsInFlight;
+
+    public RatingReplay(BattleStore store) {
+        this(store, EloCalculator.DEFAULT, DEFAULT_PAGE_SIZE, DEFAULT_COMMITS_IN_FLIGHT);
+    }
+
+    public RatingReplay(BattleStore store, EloCalculator elo, int pageSize, int commitsInFlight) {
+        this.store = store;
+        this.elo = elo;
+        this.pageSize = pageSize;
+        this.commitsInFlight = commitsInFlight;
+    }
+
+    public Report run() throws StoreException {
+        long started = System.nanoTime();
+        UidIndex players = new UidIndex(1024);
+        long[] ratings = new long[1024];
+        long rooms = 0;
+        long ratedRooms = 0;
+
+        CompletableFuture<List<Doc>> next = store.findFinishedRooms(null, null, pageSize);
+        while (true) {
+            List<Doc> page = StoreException.await(next);
+            if (page.isEmpty()) break;
+            Doc last = page.get(page.size() - 1);
+            next = page.size() < pageSize
+                    ? CompletableFuture.completedFuture(Collections.<Doc>emptyList())
+                    : store.findFinishedRooms(last.getDate("endTime"), last.getId(), pageSize);
+
+            for (Doc room : page) {
+                rooms++;
+                String player1Uid = room.getString("player1_uid");
+                String player2Uid = room.getString("player2_uid");
+                if (player1Uid == null || player2Uid == null || Boolean.TRUE.equals(room.getBoolean("isBotMatch"))) {
+                    continue;
+                }
+                int known = players.size();
+                int id1 = players.idOf(player1Uid);
+                int id2 = players.idOf(player2Uid);
+                if (players.size() > ratings.length) ratings = Arrays.copyOf(ratings, ratings.length * 2);
+                if (id1 >= known) ratings[id1] = UserProfile.DEFAULT_RATING;
+                if (id2 >= known) ratings[id2] = UserProfile.DEFAULT_RATING;
+
+                String winnerUid = RatingSettler.winnerUid(room);
+                double score1 = winnerUid == null ? 0.5 : winnerUid.equals(player1Uid) ? 1.0 : 0.0;
+                long rating1 = ratings[id1];
+                long rating2 = ratings[id2];
+                ratings[id1] = elo.rate(rating1, rating2, score1);
+                ratings[id2] = elo.rate(rating2, rating1, 1.0 - score1);
+                ratedRooms++;
+            }
+        }
+        long replayedAt = System.nanoTime();
+
+        int batches = writeRatings(players, ratings);
+        return new Report(rooms, ratedRooms, players.size(), batches,
+                replayedAt - started, System.nanoTime() - started);
+    }
+
+    private int writeRatings(UidIndex players, long[] ratings) throws StoreException {
+        ArrayDeque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        int batches = 0;
+        StoreBatch batch = store.batch();
+        for (int id = 0; id < players.size(); id++) {
+            batch.update(BattleStore.USERS, players.uidOf(id),
+                    Collections.<String, Object>singletonMap("rating", ratings[id]));
+            if (batch.size() == BattleStore.MAX_BATCH_WRITES || id == players.size() - 1) {
+                if (inFlight.size() == commitsInFlight) StoreException.await(inFlight.poll());
+                inFlight.add(batch.commit());
+                batches++;
+                batch = store.batch();
+            }
+        }
+        while (!inFlight.isEmpty()) StoreException.await(inFlight.poll());
+        return batches;
+    }
+
+    /** What a {@link #run} did and how fast. */
+    public static final class Report {
+        private final long rooms;
+        private final long ratedRooms;
+        private final int players;
+        private final int batches;
+        private final long replayNanos;
+        private final long totalNanos;
+
+        Report(long rooms, long ratedRooms, int players, int batches, long replayNanos, long totalNanos) {
+            this.rooms = rooms;
+            this.ratedRooms = ratedRooms;
+            this.players = players;
+            this.batches = batches;
+            this.replayNanos = replayNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        /** Finished rooms read. */
+        public long getRooms() {
+            return rooms;
+        }
+
+        /** Rooms that changed ratings (bot matches and incomplete rooms are skipped). */
+        public long getRatedRooms() {
+            return ratedRooms;
+        }
+
+        /** Users whose rating was written. */
+        public int getPlayers() {
+            return players;
+        }
+
+        public int getBatches() {
+            return batches;
+        }
+
+        /** Time spent reading and replaying rooms, before the write-back. */
+        public long getReplayNanos() {
+            return replayNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** Rooms per second over the whole job, write-back included. */
+        public double roomsPerSecond() {
+            return totalNanos == 0 ? 0 : rooms * 1e9 / totalNanos;
+        }
+    }
+}
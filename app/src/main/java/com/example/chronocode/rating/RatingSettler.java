@@ -0,0 +1,213 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.profile.PlayerStats;
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreException;
+import com.example.chronocode.store.StoreTransaction;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the rating change of a finished battle exactly once.
+ *
+ * <p>The change is committed in the same transaction as a {@code ratingSettled} marker on the
+ * room, and the transaction checks the marker first, so however many clients call
+ * {@link #settle} for a room only one of them writes the users. To keep those calls from
+ * contending in the first place, only the {@linkplain #isDesignatedSettler designated} player
+ * settles right away; the other one is expected to call in later only as a fallback. Bot
+ * matches have no users document for the bot and are marked settled without a rating change.
+ *
+ * <p>The same transaction counts the battle in both players' {@link StatCounters}, with blind
+ * increments of shard documents it does not read, so the counters are exactly-once along with
+ * the rating and add no contention to it. It moves both players in the {@link Leaderboard}
+ * histogram the same way; once committed, their new ratings are offered to the leaderboard's top
+ * list.
+ */
+public class RatingSettler {
+
+    public static final String SETTLED_FIELD = "ratingSettled";
+    public static final int DEFAULT_MAX_ROUNDS = 3;
+
+    private final BattleStore store;
+    private final EloCalculator elo;
+    private final int maxRounds;
+    private final StatCounters stats;
+    private final Leaderboard leaderboard;
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong alreadySettled = new AtomicLong();
+    private final AtomicLong contentionRounds = new AtomicLong();
+
+    public RatingSettler(BattleStore store) {
+        this(store, EloCalculator.DEFAULT, DEFAULT_MAX_ROUNDS);
+    }
+
+    public RatingSettler(BattleStore store, EloCalculator elo, int maxRounds) {
+        this(store, elo, maxRounds, new StatCounters(store));
+    }
+
+    public RatingSettler(BattleStore store, EloCalculator elo, int maxRounds, StatCounters stats) {
+        this(store, elo, maxRounds, stats, new Leaderboard(store));
+    }
+
+    public RatingSettler(BattleStore store, EloCalculator elo, int maxRounds, StatCounters stats,
+                         Leaderboard leaderboard) {
+        this.store = store;
+        this.elo = elo;
+        this.maxRounds = maxRounds;
+        this.stats = stats;
+        this.leaderboard = leaderboard;
+    }
+
+    /** Player 1 settles; the other side only steps in if player 1 never does. */
+    public static boolean isDesignatedSettler(Doc room, String uid) {
+        return uid.equals(room.getString("player1_uid"));
+    }
+
+    public static boolean isSettled(Doc room) {
+        return Boolean.TRUE.equals(room.getBoolean(SETTLED_FIELD));
+    }
+
+    /** Uid of the higher score, or null for a draw. */
+    public static String winnerUid(Doc room) {
+        long player1Score = room.getLong("player1_score", 0);
+        long player2Score = room.getLong("player2_score", 0);
+        if (player1Score > player2Score) return room.getString("player1_uid");
+        if (player2Score > player1Score) return room.getString("player2_uid");
+        return null;
+    }
+
+    /**
+     * Settles the room, finishing it first if it is still marked ongoing. Safe to call any number
+     * of times from any number of clients.
+     */
+    public CompletableFuture<Settlement> settle(String roomId) {
+        return settleRound(roomId, 1);
+    }
+
+    /** Settlements this instance applied. */
+    public long getApplied() {
+        return applied.get();
+    }
+
+    /** Calls that found the room already settled. */
+    public long getAlreadySettled() {
+        return alreadySettled.get();
+    }
+
+    /** Whole transactions that ran out of attempts under contention and were started again. */
+    public long getContentionRounds() {
+        return contentionRounds.get();
+    }
+
+    private CompletableFuture<Settlement> settleRound(String roomId, int round) {
+        CompletableFuture<Settlement> result = new CompletableFuture<>();
+        List<Runnable> afterCommit = new ArrayList<>(); // Filled by the attempt that commits
+        store.runTransaction(transaction -> {
+            afterCommit.clear();
+            return apply(transaction, roomId, afterCommit);
+        }).whenComplete((settlement, error) -> {
+            if (error == null) {
+                for (Runnable action : afterCommit) action.run();
+                if (settlement.getStatus() == Settlement.Status.ALREADY_SETTLED) alreadySettled.incrementAndGet();
+                else applied.incrementAndGet();
+                result.complete(settlement);
+            } else if (StoreException.reasonOf(error) == StoreException.Reason.CONTENTION && round < maxRounds) {
+                // Both users are hot (e.g. several of their rooms settling at once); start over.
+                contentionRounds.incrementAndGet();
+                settleRound(roomId, round + 1).whenComplete((next, nextError) -> {
+                    if (nextError != null) result.completeExceptionally(nextError);
+                    else result.complete(next);
+                });
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    private Settlement apply(StoreTransaction transaction, String roomId, List<Runnable> afterCommit)
+            throws StoreException {
+        Doc room = transaction.get(BattleStore.BATTLE_ROOMS, roomId);
+        if (!room.exists()) {
+            throw new StoreException("No room " + roomId, StoreException.Reason.NOT_FOUND);
+        }
+        if (isSettled(room)) {
+            return new Settlement(Settlement.Status.ALREADY_SETTLED,
+                    room.getLong("player1_ratingDelta", 0), room.getLong("player2_ratingDelta", 0));
+        }
+        String player1Uid = room.getString("player1_uid");
+        String player2Uid = room.getString("player2_uid");
+        if (player1Uid == null || player2Uid == null) {
+            throw new StoreException("Room " + roomId + " is missing a player", StoreException.Reason.ABORTED);
+        }
+
+        Map<String, Object> roomUpdates = new HashMap<>();
+        roomUpdates.put(SETTLED_FIELD, true);
+        if (!"finished".equals(room.getString("status"))) {
+            roomUpdates.put("status", "finished");
+            roomUpdates.put("endTime", new Date());
+        }
+
+        if (Boolean.TRUE.equals(room.getBoolean("isBotMatch"))) {
+            transaction.update(BattleStore.BATTLE_ROOMS, roomId, roomUpdates);
+            return new Settlement(Settlement.Status.UNRATED, 0, 0);
+        }
+
+        Doc player1 = transaction.get(BattleStore.USERS, player1Uid);
+        Doc player2 = transaction.get(BattleStore.USERS, player2Uid);
+        if (!player1.exists() || !player2.exists()) {
+            throw new StoreException("Player profile not found", StoreException.Reason.ABORTED);
+        }
+
+        long rating1 = player1.getLong("rating", UserProfile.DEFAULT_RATING);
+        long rating2 = player2.getLong("rating", UserProfile.DEFAULT_RATING);
+        String winnerUid = winnerUid(room);
+        double score1 = winnerUid == null ? 0.5 : winnerUid.equals(player1Uid) ? 1.0 : 0.0;
+        long newRating1 = elo.rate(rating1, rating2, score1);
+        long newRating2 = elo.rate(rating2, rating1, 1.0 - score1);
+
+        roomUpdates.put("player1_ratingDelta", newRating1 - rating1);
+        roomUpdates.put("player2_ratingDelta", newRating2 - rating2);
+        transaction.update(BattleStore.BATTLE_ROOMS, roomId, roomUpdates);
+        boolean ranked1 = Boolean.TRUE.equals(player1.getBoolean(Leaderboard.RANKED_FIELD));
+        boolean ranked2 = Boolean.TRUE.equals(player2.getBoolean(Leaderboard.RANKED_FIELD));
+        transaction.update(BattleStore.USERS, player1Uid, ratingUpdate(newRating1, ranked1));
+        transaction.update(BattleStore.USERS, player2Uid, ratingUpdate(newRating2, ranked2));
+        Long ranked1Rating = ranked1 ? rating1 : null;
+        Long ranked2Rating = ranked2 ? rating2 : null;
+        leaderboard.record(transaction, ranked1Rating, newRating1);
+        leaderboard.record(transaction, ranked2Rating, newRating2);
+        String name1 = player1.getString("displayName");
+        String name2 = player2.getString("displayName");
+        PlayerStats.Outcome outcome1 = PlayerStats.Outcome.of(player1Uid, winnerUid);
+        PlayerStats.Outcome outcome2 = PlayerStats.Outcome.of(player2Uid, winnerUid);
+        stats.record(transaction, player1Uid, outcome1);
+        stats.record(transaction, player2Uid, outcome2);
+        afterCommit.add(() -> {
+            stats.recorded(player1Uid, outcome1);
+            stats.recorded(player2Uid, outcome2);
+            leaderboard.recorded(ranked1Rating, newRating1);
+            leaderboard.recorded(ranked2Rating, newRating2);
+            leaderboard.offer(player1Uid, name1, newRating1);
+            leaderboard.offer(player2Uid, name2, newRating2);
+        });
+        return new Settlement(Settlement.Status.APPLIED, newRating1 - rating1, newRating2 - rating2);
+    }
+
+    private static Map<String, Object> ratingUpdate(long rating, boolean ranked) {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("rating", rating);
+        if (!ranked) updates.put(Leaderboard.RANKED_FIELD, true);
+        return updates;
+    }
+}
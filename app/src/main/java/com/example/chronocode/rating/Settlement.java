@@ -0,0 +1,39 @@
+package com.example.chronocode.rating;
+
+/**
+ * Outcome of {@link RatingSettler#settle}. Deltas are the rating changes of the room's
+ * settlement, whichever call applied it.
+ */
+public final class Settlement {
+
+    public enum Status {
+        /** This call applied the rating changes. */
+        APPLIED,
+        /** The room had been settled before; nothing was written. */
+        ALREADY_SETTLED,
+        /** The room is marked settled but carries no rating change (e.g. a bot match). */
+        UNRATED
+    }
+
+    private final Status status;
+    private final long player1Delta;
+    private final long player2Delta;
+
+    public Settlement(Status status, long player1Delta, long player2Delta) {
+        this.status = status;
+        this.player1Delta = player1Delta;
+        this.player2Delta = player2Delta;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getPlayer1Delta() {
+        return player1Delta;
+    }
+
+    public long getPlayer2Delta() {
+        return player2Delta;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.chronocode.rating;
+
+import java.util.Arrays;
+
+/**
+ * Dense int ids for uids, so per-player state can live in primitive arrays instead of boxed
+ * map values. Open addressing with linear probing; ids are assigned 0, 1, 2... in first-seen
+ * order. Not thread-safe.
+ */
+final class UidIndex {
+
+    private String[] keys;
+    private int[] ids;
+    private String[] uids; // id -> uid
+    private int size;
+
+    UidIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new String[capacity];
+        ids = new int[capacity];
+        uids = new String[Math.max(4, expectedSize)];
+    }
+
+    /** Id of {@code uid}, assigning the next one if it is new. */
+    int idOf(String uid) {
+        int mask = keys.length - 1;
+        int slot = mix(uid.hashCode()) & mask;
+        while (keys[slot] != null) {
+            if (keys[slot].equals(uid)) return ids[slot];
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        keys[slot] = uid;
+        ids[slot] = id;
+        if (id == uids.length) uids = Arrays.copyOf(uids, id * 2);
+        uids[id] = uid;
+        if (size * 2 > keys.length) rehash();
+        return id;
+    }
+
+    String uidOf(int id) {
+        return uids[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new String[oldKeys.length * 2];
+        ids = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = mix(oldKeys[i].hashCode()) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            ids[slot] = oldIds[i];
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.chronocode.store;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage operations the game logic needs, so it can run against Firestore on a device or
+ * against {@link InMemoryBattleStore} in plain JVM tests and benchmarks.
+ *
+ * <p>Failures complete the returned future exceptionally with a {@link StoreException}.
+ */
+public interface BattleStore {
+
+    String USERS = "users";
+    String BATTLE_ROOMS = "battle_rooms";
+    String PROBLEMS = "problems";
+    String SUBMISSIONS = "submissions";
+    /** The materialized top of the leaderboard and the shards of its rating histogram. */
+    String LEADERBOARD = "leaderboard";
+    /** Shards of each user's battle counters, {@code {uid}_{shard}}; see {@code StatCounters}. */
+    String USER_STATS = "user_stats";
+    /** One scratch document per client, stamped with the server's time by {@link #stampServerTime}. */
+    String CLOCK = "clock";
+
+    /** Most writes one {@link StoreBatch} may hold (Firestore's limit). */
+    int MAX_BATCH_WRITES = 500;
+
+    CompletableFuture<Doc> get(String collection, String id);
+
+    /**
+     * Picks an id for a new document in {@code collection} without a round trip, so the document
+     * can be written in a batch or transaction together with other writes.
+     */
+    String newId(String collection);
+
+    /** Creates a document with a generated id and returns that id. */
+    CompletableFuture<String> add(String collection, Map<String, Object> data);
+
+    /** Creates or overwrites the document with exactly {@code data}. */
+    CompletableFuture<Void> set(String collection, String id, Map<String, Object> data);
+
+    /** Merges fields into an existing document; fails with NOT_FOUND if it does not exist. */
+    CompletableFuture<Void> update(String collection, String id, Map<String, Object> updates);
+
+    /**
+     * Runs {@code function} atomically. It is retried while it conflicts with concurrent writes;
+     * the future fails with the function's own {@link StoreException} if it aborts.
+     */
+    <T> CompletableFuture<T> runTransaction(TransactionFunction<T> function);
+
+    /** Starts an empty batch of writes that commit atomically. */
+    StoreBatch batch();
+
+    /** Watches one document; the listener gets the current snapshot right away. */
+    Registration listen(String collection, String id, DocListener listener);
+
+    /**
+     * Oldest rooms with status "waiting", ordered by createdAt. If {@code ratingBuckets} is not
+     * null only rooms whose ratingBucket is in it are returned.
+     */
+    CompletableFuture<List<Doc>> findWaitingRooms(List<Integer> ratingBuckets, int limit);
+
+    /**
+     * Rooms with status "finished" ordered by endTime, then id, starting strictly after the
+     * cursor {@code (afterEndTime, afterId)}; pass nulls for the first page.
+     */
+    CompletableFuture<List<Doc>> findFinishedRooms(Date afterEndTime, String afterId, int limit);
+
+    /**
+     * Oldest rooms with {@code status} whose {@code timeField} is before {@code before}, ordered
+     * by that field.
+     */
+    CompletableFuture<List<Doc>> findRoomsBefore(String status, String timeField, Date before, int limit);
+
+    /**
+     * Problems ordered by updatedAt, then id, starting strictly after the cursor
+     * {@code (afterUpdatedAt, afterId)}; pass nulls for the first page. Problems without an
+     * updatedAt are not returned.
+     */
+    CompletableFuture<List<Doc>> findProblemsUpdatedAfter(Date afterUpdatedAt, String afterId, int limit);
+
+    /**
+     * Every problem, updatedAt or not, ordered by id and starting strictly after {@code afterId};
+     * pass null for the first page.
+     */
+    CompletableFuture<List<Doc>> findProblemsAfterId(String afterId, int limit);
+
+    /** Users with the highest rating, best first; users without a rating are not returned. */
+    CompletableFuture<List<Doc>> findTopRatedUsers(int limit);
+
+    /**
+     * Has the server write its own current time into {@code clock/{clientId}} and completes with
+     * that time, in epoch milliseconds, in a single round trip. The time is taken somewhere
+     * during the round trip, which is what clock synchronization samples.
+     */
+    CompletableFuture<Long> stampServerTime(String clientId);
+}
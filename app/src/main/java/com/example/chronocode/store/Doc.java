@@ -0,0 +1,97 @@
+package com.example.chronocode.store;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of one stored document. Field access mirrors Firestore's
+ * {@code DocumentSnapshot} so code reads the same against either backend.
+ */
+public final class Doc {
+
+    private final String id;
+    private final Map<String, Object> data;
+    private final long version;
+
+    public Doc(String id, Map<String, Object> data, long version) {
+        this(id, version, data == null ? null : Collections.unmodifiableMap(new HashMap<>(data)));
+    }
+
+    private Doc(String id, long version, Map<String, Object> unmodifiable) {
+        this.id = id;
+        this.data = unmodifiable;
+        this.version = version;
+    }
+
+    /**
+     * Like the constructor, but takes {@code data} over instead of copying it, for a backend
+     * that builds a fresh map per snapshot anyway; nothing may change it afterwards.
+     */
+    public static Doc wrap(String id, Map<String, Object> data, long version) {
+        return new Doc(id, version, data == null ? null : Collections.unmodifiableMap(data));
+    }
+
+    /** A snapshot of a document that does not exist. */
+    public static Doc missing(String id) {
+        return new Doc(id, null, 0);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean exists() {
+        return data != null;
+    }
+
+    /** Field map, or null if the document does not exist. */
+    public Map<String, Object> getData() {
+        return data;
+    }
+
+    /** Store-specific revision; 0 for missing documents and for backends without revisions. */
+    public long getVersion() {
+        return version;
+    }
+
+    public Object get(String field) {
+        return data == null ? null : data.get(field);
+    }
+
+    public String getString(String field) {
+        Object value = get(field);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public Long getLong(String field) {
+        Object value = get(field);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    public long getLong(String field, long defaultValue) {
+        Long value = getLong(field);
+        return value != null ? value : defaultValue;
+    }
+
+    public Boolean getBoolean(String field) {
+        Object value = get(field);
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    public byte[] getBytes(String field) {
+        Object value = get(field);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    public Date getDate(String field) {
+        Object value = get(field);
+        return value instanceof Date ? (Date) value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Doc{" + id + (data == null ? ", missing" : ", " + data) + "}";
+    }
+}
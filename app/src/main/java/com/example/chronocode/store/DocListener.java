@@ -0,0 +1,10 @@
+package com.example.chronocode.store;
+
+/**
+ * Receives the current state of a watched document, first on registration and then after every
+ * change. Exactly one of {@code doc} and {@code error} is non-null.
+ */
+public interface DocListener {
+
+    void onEvent(Doc doc, StoreException error);
+}
@@ -0,0 +1,609 @@
+package com.example.chronocode.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe {@link BattleStore} kept entirely in memory, for JVM tests and benchmarks.
+ *
+ * <p>Reads never block. Writes are applied under a single commit lock, and transactions use
+ * optimistic concurrency: every document read is re-validated at commit and the function is
+ * re-run on conflict, up to the same 5 attempts the Firestore client makes. Waiting rooms are
+ * indexed by createdAt (globally and per ratingBucket), ongoing rooms by startTime, finished
+ * rooms by endTime, problems by updatedAt and users by rating, so the queries do not scan.
+ *
+ * <p>Listeners are notified after the commit lock is released, in commit order, by whichever
+ * writer thread gets to drain the event queue first.
+ *
+ * <p>An optional simulated round trip is slept before every read and commit, so races that
+ * depend on network latency (e.g. two clients claiming the same room) show up in benchmarks.
+ * The "server" clock that {@link #stampServerTime} reads halfway through its round trip can be
+ * replaced, to stand in for a server whose time differs from the machine's.
+ */
+public class InMemoryBattleStore implements BattleStore {
+
+    private static final int MAX_TRANSACTION_ATTEMPTS = 5;
+    private static final String ID_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final Map<String, ConcurrentHashMap<String, Doc>> collections = new ConcurrentHashMap<>();
+    private final Object commitLock = new Object();
+    private long lastVersion;
+
+    private final ConcurrentSkipListSet<RoomKey> waitingRooms = new ConcurrentSkipListSet<>();
+    private final Map<Integer, ConcurrentSkipListSet<RoomKey>> waitingRoomsByBucket = new ConcurrentHashMap<>();
+    private final Map<String, RoomKey> waitingKeys = new HashMap<>(); // guarded by commitLock
+    private final ConcurrentSkipListSet<RoomKey> ongoingRooms = new ConcurrentSkipListSet<>();
+    private final Map<String, RoomKey> ongoingKeys = new HashMap<>(); // guarded by commitLock
+    private final ConcurrentSkipListSet<RoomKey> finishedRooms = new ConcurrentSkipListSet<>();
+    private final Map<String, RoomKey> finishedKeys = new HashMap<>(); // guarded by commitLock
+    private final ConcurrentSkipListSet<RoomKey> updatedProblems = new ConcurrentSkipListSet<>();
+    private final Map<String, RoomKey> updatedProblemKeys = new HashMap<>(); // guarded by commitLock
+    private final ConcurrentSkipListSet<RoomKey> ratedUsers = new ConcurrentSkipListSet<>();
+    private final Map<String, RoomKey> ratedUserKeys = new HashMap<>(); // guarded by commitLock
+
+    private final Map<String, CopyOnWriteArrayList<DocListener>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
+    private final AtomicLong transactionAttempts = new AtomicLong();
+    private final AtomicLong transactionRetries = new AtomicLong();
+    private final long roundTripNanos;
+    private final LongSupplier serverClockMillis;
+
+    public InMemoryBattleStore() {
+        this(0);
+    }
+
+    /** @param roundTripMicros simulated latency added to every read and commit */
+    public InMemoryBattleStore(long roundTripMicros) {
+        this(roundTripMicros, System::currentTimeMillis);
+    }
+
+    /** @param serverClockMillis the server's time in epoch milliseconds */
+    public InMemoryBattleStore(long roundTripMicros, LongSupplier serverClockMillis) {
+        this.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+        this.serverClockMillis = serverClockMillis;
+    }
+
+    @Override
+    public CompletableFuture<Doc> get(String collection, String id) {
+        roundTrip();
+        return CompletableFuture.completedFuture(read(collection, id));
+    }
+
+    @Override
+    public String newId(String collection) {
+        return newId();
+    }
+
+    @Override
+    public CompletableFuture<String> add(String collection, Map<String, Object> data) {
+        String id = newId();
+        roundTrip();
+        synchronized (commitLock) {
+            write(collection, id, data, false);
+        }
+        deliverEvents();
+        return CompletableFuture.completedFuture(id);
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String collection, String id, Map<String, Object> data) {
+        roundTrip();
+        synchronized (commitLock) {
+            write(collection, id, data, false);
+        }
+        deliverEvents();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> update(String collection, String id, Map<String, Object> updates) {
+        roundTrip();
+        synchronized (commitLock) {
+            if (!read(collection, id).exists()) {
+                return failed(new StoreException("No document " + collection + "/" + id,
+                        StoreException.Reason.NOT_FOUND));
+            }
+            write(collection, id, updates, true);
+        }
+        deliverEvents();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runTransaction(TransactionFunction<T> function) {
+        for (int attempt = 1; attempt <= MAX_TRANSACTION_ATTEMPTS; attempt++) {
+            transactionAttempts.incrementAndGet();
+            Txn txn = new Txn();
+            T result;
+            try {
+                result = function.apply(txn);
+            } catch (StoreException | RuntimeException e) {
+                return failed(e);
+            }
+            roundTrip();
+            boolean committed = false;
+            synchronized (commitLock) {
+                if (txn.readsStillCurrent()) {
+                    for (PendingWrite w : txn.writes) {
+                        if (w.merge && !read(w.collection, w.id).exists()) {
+                            return failed(new StoreException("No document " + w.collection + "/" + w.id,
+                                    StoreException.Reason.NOT_FOUND));
+                        }
+                    }
+                    for (PendingWrite w : txn.writes) {
+                        apply(w);
+                    }
+                    committed = true;
+                }
+            }
+            if (committed) {
+                deliverEvents();
+                return CompletableFuture.completedFuture(result);
+            }
+            transactionRetries.incrementAndGet();
+        }
+        return failed(new StoreException("Transaction conflicted " + MAX_TRANSACTION_ATTEMPTS + " times",
+                StoreException.Reason.CONTENTION));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findWaitingRooms(List<Integer> ratingBuckets, int limit) {
+        roundTrip();
+        List<RoomKey> keys = new ArrayList<>();
+        if (ratingBuckets == null) {
+            collectFirst(waitingRooms, limit, keys);
+        } else {
+            for (Integer bucket : ratingBuckets) {
+                ConcurrentSkipListSet<RoomKey> index = waitingRoomsByBucket.get(bucket);
+                if (index != null) collectFirst(index, limit, keys);
+            }
+            Collections.sort(keys);
+        }
+
+        List<Doc> rooms = new ArrayList<>(Math.min(limit, keys.size()));
+        for (RoomKey key : keys) {
+            if (rooms.size() >= limit) break;
+            Doc room = read(BATTLE_ROOMS, key.roomId);
+            // The index can lag a concurrent commit by a moment; re-check the document itself.
+            if ("waiting".equals(room.getString("status"))) rooms.add(room);
+        }
+        return CompletableFuture.completedFuture(rooms);
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findFinishedRooms(Date afterEndTime, String afterId, int limit) {
+        roundTrip();
+        Iterator<RoomKey> it = afterEndTime == null ? finishedRooms.iterator()
+                : finishedRooms.tailSet(new RoomKey(afterEndTime.getTime(), afterId != null ? afterId : "", null), false)
+                        .iterator();
+        List<Doc> rooms = new ArrayList<>(limit);
+        while (rooms.size() < limit && it.hasNext()) {
+            Doc room = read(BATTLE_ROOMS, it.next().roomId);
+            if ("finished".equals(room.getString("status"))) rooms.add(room);
+        }
+        return CompletableFuture.completedFuture(rooms);
+    }
+
+    /** Supports createdAt for "waiting", startTime for "ongoing" and endTime for "finished". */
+    @Override
+    public CompletableFuture<List<Doc>> findRoomsBefore(String status, String timeField, Date before, int limit) {
+        ConcurrentSkipListSet<RoomKey> index;
+        if ("waiting".equals(status) && "createdAt".equals(timeField)) index = waitingRooms;
+        else if ("ongoing".equals(status) && "startTime".equals(timeField)) index = ongoingRooms;
+        else if ("finished".equals(status) && "endTime".equals(timeField)) index = finishedRooms;
+        else throw new IllegalArgumentException("No index for " + status + " by " + timeField);
+
+        roundTrip();
+        List<Doc> rooms = new ArrayList<>(limit);
+        Iterator<RoomKey> it = index.headSet(new RoomKey(before.getTime(), "", null), false).iterator();
+        while (rooms.size() < limit && it.hasNext()) {
+            Doc room = read(BATTLE_ROOMS, it.next().roomId);
+            Date time = room.getDate(timeField);
+            // Rooms missing the field are indexed at 0 but, as in Firestore, do not match.
+            if (status.equals(room.getString("status")) && time != null && time.before(before)) rooms.add(room);
+        }
+        return CompletableFuture.completedFuture(rooms);
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsUpdatedAfter(Date afterUpdatedAt, String afterId, int limit) {
+        roundTrip();
+        Iterator<RoomKey> it = afterUpdatedAt == null ? updatedProblems.iterator()
+                : updatedProblems.tailSet(new RoomKey(afterUpdatedAt.getTime(), afterId != null ? afterId : "", null),
+                        false).iterator();
+        List<Doc> problems = new ArrayList<>(limit);
+        while (problems.size() < limit && it.hasNext()) {
+            Doc problem = read(PROBLEMS, it.next().roomId);
+            if (problem.getDate("updatedAt") != null) problems.add(problem);
+        }
+        return CompletableFuture.completedFuture(problems);
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsAfterId(String afterId, int limit) {
+        roundTrip();
+        Map<String, Doc> docs = collections.get(PROBLEMS);
+        TreeMap<String, Doc> byId = docs == null ? new TreeMap<String, Doc>() : new TreeMap<>(docs);
+        List<Doc> problems = new ArrayList<>(limit);
+        for (Doc problem : (afterId == null ? byId : byId.tailMap(afterId, false)).values()) {
+            if (problems.size() == limit) break;
+            problems.add(problem);
+        }
+        return CompletableFuture.completedFuture(problems);
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findTopRatedUsers(int limit) {
+        roundTrip();
+        Iterator<RoomKey> it = ratedUsers.descendingIterator();
+        List<Doc> users = new ArrayList<>(limit);
+        while (users.size() < limit && it.hasNext()) {
+            Doc user = read(USERS, it.next().roomId);
+            if (user.getLong("rating") != null) users.add(user);
+        }
+        return CompletableFuture.completedFuture(users);
+    }
+
+    @Override
+    public StoreBatch batch() {
+        return new MemoryBatch();
+    }
+
+    @Override
+    public CompletableFuture<Long> stampServerTime(String clientId) {
+        if (roundTripNanos > 0) LockSupport.parkNanos(roundTripNanos / 2);
+        long now = serverClockMillis.getAsLong();
+        Map<String, Object> data = new HashMap<>();
+        data.put("at", new Date(now));
+        synchronized (commitLock) {
+            write(CLOCK, clientId, data, false);
+        }
+        deliverEvents();
+        if (roundTripNanos > 0) LockSupport.parkNanos(roundTripNanos - roundTripNanos / 2);
+        return CompletableFuture.completedFuture(now);
+    }
+
+    @Override
+    public Registration listen(String collection, String id, DocListener listener) {
+        String path = collection + "/" + id;
+        synchronized (commitLock) {
+            CopyOnWriteArrayList<DocListener> watchers = listeners.get(path);
+            if (watchers == null) {
+                watchers = new CopyOnWriteArrayList<>();
+                listeners.put(path, watchers);
+            }
+            watchers.add(listener);
+            // Queued under the lock so the initial snapshot is ordered before any later change.
+            events.add(new Event(path, listener, read(collection, id)));
+        }
+        deliverEvents();
+        return () -> {
+            CopyOnWriteArrayList<DocListener> watchers = listeners.get(path);
+            if (watchers != null) watchers.remove(listener);
+        };
+    }
+
+    /** Transaction bodies run so far, including retries. */
+    public long getTransactionAttempts() {
+        return transactionAttempts.get();
+    }
+
+    /** Transaction bodies that had to be re-run because another writer committed first. */
+    public long getTransactionRetries() {
+        return transactionRetries.get();
+    }
+
+    public int count(String collection) {
+        Map<String, Doc> docs = collections.get(collection);
+        return docs == null ? 0 : docs.size();
+    }
+
+    Doc read(String collection, String id) {
+        Map<String, Doc> docs = collections.get(collection);
+        Doc doc = docs == null ? null : docs.get(id);
+        return doc != null ? doc : Doc.missing(id);
+    }
+
+    // Caller holds commitLock.
+    private void apply(PendingWrite w) {
+        if (!w.increment) {
+            write(w.collection, w.id, w.data, w.merge);
+            return;
+        }
+        Doc previous = read(w.collection, w.id);
+        Map<String, Object> fields = previous.exists() ? new HashMap<>(previous.getData()) : new HashMap<String, Object>();
+        for (Map.Entry<String, Object> delta : w.data.entrySet()) {
+            Object current = fields.get(delta.getKey());
+            long base = current instanceof Number ? ((Number) current).longValue() : 0;
+            fields.put(delta.getKey(), base + (Long) delta.getValue());
+        }
+        write(w.collection, w.id, fields, false);
+    }
+
+    // Caller holds commitLock.
+    private void write(String collection, String id, Map<String, Object> data, boolean merge) {
+        ConcurrentHashMap<String, Doc> docs = collections.get(collection);
+        if (docs == null) {
+            docs = new ConcurrentHashMap<>();
+            collections.put(collection, docs);
+        }
+        Map<String, Object> fields = new HashMap<>();
+        Doc previous = docs.get(id);
+        if (merge && previous != null && previous.exists()) fields.putAll(previous.getData());
+        fields.putAll(data);
+        Doc doc = Doc.wrap(id, fields, ++lastVersion); // fields is this write's own map
+        docs.put(id, doc);
+        if (BATTLE_ROOMS.equals(collection)) {
+            reindexWaiting(doc);
+            reindexByTime(doc, "ongoing", "startTime", ongoingRooms, ongoingKeys);
+            reindexByTime(doc, "finished", "endTime", finishedRooms, finishedKeys);
+        } else if (PROBLEMS.equals(collection)) {
+            reindexByTime(doc, null, "updatedAt", updatedProblems, updatedProblemKeys);
+        } else if (USERS.equals(collection)) {
+            reindexRating(doc);
+        }
+        String path = collection + "/" + id;
+        List<DocListener> watchers = listeners.get(path);
+        if (watchers != null) {
+            for (DocListener listener : watchers) events.add(new Event(path, listener, doc));
+        }
+    }
+
+    // Delivers queued events outside the commit lock. Only one thread delivers at a time, which
+    // keeps events in commit order; a writer that finds delivery busy leaves its events for the
+    // thread already draining. That includes a write made from inside a listener: like
+    // Firestore's, callbacks are never re-entered, so chains of writes in listeners do not
+    // nest on the stack.
+    private void deliverEvents() {
+        if (deliveryLock.isHeldByCurrentThread()) return;
+        while (!events.isEmpty() && deliveryLock.tryLock()) {
+            try {
+                Event event;
+                while ((event = events.poll()) != null) {
+                    List<DocListener> watchers = listeners.get(event.path);
+                    if (watchers != null && watchers.contains(event.listener)) {
+                        event.listener.onEvent(event.doc, null);
+                    }
+                }
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+    }
+
+    // Caller holds commitLock.
+    private void reindexWaiting(Doc room) {
+        RoomKey old = waitingKeys.remove(room.getId());
+        if (old != null) {
+            waitingRooms.remove(old);
+            if (old.bucket != null) waitingRoomsByBucket.get(old.bucket).remove(old);
+        }
+        if (!"waiting".equals(room.getString("status"))) return;
+
+        Date createdAt = room.getDate("createdAt");
+        Long bucket = room.getLong("ratingBucket");
+        RoomKey key = new RoomKey(createdAt != null ? createdAt.getTime() : 0, room.getId(),
+                bucket != null ? bucket.intValue() : null);
+        waitingKeys.put(room.getId(), key);
+        waitingRooms.add(key);
+        if (key.bucket != null) {
+            ConcurrentSkipListSet<RoomKey> index = waitingRoomsByBucket.get(key.bucket);
+            if (index == null) {
+                index = new ConcurrentSkipListSet<>();
+                waitingRoomsByBucket.put(key.bucket, index);
+            }
+            index.add(key);
+        }
+    }
+
+    // Caller holds commitLock. A null status indexes every document.
+    private static void reindexByTime(Doc room, String status, String timeField,
+                                      ConcurrentSkipListSet<RoomKey> index, Map<String, RoomKey> keys) {
+        RoomKey old = keys.remove(room.getId());
+        if (old != null) index.remove(old);
+        if (status != null && !status.equals(room.getString("status"))) return;
+
+        Date time = room.getDate(timeField);
+        RoomKey key = new RoomKey(time != null ? time.getTime() : 0, room.getId(), null);
+        keys.put(room.getId(), key);
+        index.add(key);
+    }
+
+    // Caller holds commitLock.
+    private void reindexRating(Doc user) {
+        RoomKey old = ratedUserKeys.remove(user.getId());
+        if (old != null) ratedUsers.remove(old);
+        Long rating = user.getLong("rating");
+        if (rating == null) return;
+        RoomKey key = new RoomKey(rating, user.getId(), null);
+        ratedUserKeys.put(user.getId(), key);
+        ratedUsers.add(key);
+    }
+
+    private static void collectFirst(ConcurrentSkipListSet<RoomKey> index, int limit, List<RoomKey> out) {
+        Iterator<RoomKey> it = index.iterator();
+        for (int i = 0; i < limit && it.hasNext(); i++) out.add(it.next());
+    }
+
+    private void roundTrip() {
+        if (roundTripNanos > 0) LockSupport.parkNanos(roundTripNanos);
+    }
+
+    private static String newId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] id = new char[20];
+        for (int i = 0; i < id.length; i++) id[i] = ID_CHARS.charAt(random.nextInt(ID_CHARS.length()));
+        return new String(id);
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private final class Txn implements StoreTransaction {
+        final Map<String, Long> readVersions = new HashMap<>();
+        final List<PendingWrite> writes = new ArrayList<>();
+
+        @Override
+        public Doc get(String collection, String id) {
+            if (!writes.isEmpty()) {
+                throw new IllegalStateException("Transactions must read before they write");
+            }
+            roundTrip();
+            Doc doc = read(collection, id);
+            readVersions.put(collection + "/" + id, doc.getVersion());
+            return doc;
+        }
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            writes.add(new PendingWrite(collection, id, data, false));
+        }
+
+        @Override
+        public void update(String collection, String id, Map<String, Object> updates) {
+            writes.add(new PendingWrite(collection, id, updates, true));
+        }
+
+        @Override
+        public void increment(String collection, String id, Map<String, Long> deltas) {
+            writes.add(PendingWrite.increment(collection, id, deltas));
+        }
+
+        // Caller holds commitLock.
+        boolean readsStillCurrent() {
+            for (Map.Entry<String, Long> entry : readVersions.entrySet()) {
+                String path = entry.getKey();
+                int slash = path.indexOf('/');
+                Doc current = read(path.substring(0, slash), path.substring(slash + 1));
+                if (current.getVersion() != entry.getValue()) return false;
+            }
+            return true;
+        }
+    }
+
+    private final class MemoryBatch implements StoreBatch {
+        final List<PendingWrite> writes = new ArrayList<>();
+
+        @Override
+        public void set(String collection, String id, Map<String, Object> data) {
+            add(new PendingWrite(collection, id, data, false));
+        }
+
+        @Override
+        public void update(String collection, String id, Map<String, Object> updates) {
+            add(new PendingWrite(collection, id, updates, true));
+        }
+
+        @Override
+        public void increment(String collection, String id, Map<String, Long> deltas) {
+            add(PendingWrite.increment(collection, id, deltas));
+        }
+
+        private void add(PendingWrite write) {
+            if (writes.size() >= MAX_BATCH_WRITES) {
+                throw new IllegalStateException("Batch is full (" + MAX_BATCH_WRITES + " writes)");
+            }
+            writes.add(write);
+        }
+
+        @Override
+        public int size() {
+            return writes.size();
+        }
+
+        @Override
+        public CompletableFuture<Void> commit() {
+            roundTrip();
+            synchronized (commitLock) {
+                for (PendingWrite w : writes) {
+                    if (w.merge && !read(w.collection, w.id).exists()) {
+                        return failed(new StoreException("No document " + w.collection + "/" + w.id,
+                                StoreException.Reason.NOT_FOUND));
+                    }
+                }
+                for (PendingWrite w : writes) {
+                    apply(w);
+                }
+            }
+            deliverEvents();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static final class Event {
+        final String path;
+        final DocListener listener;
+        final Doc doc;
+
+        Event(String path, DocListener listener, Doc doc) {
+            this.path = path;
+            this.listener = listener;
+            this.doc = doc;
+        }
+    }
+
+    private static final class PendingWrite {
+        final String collection;
+        final String id;
+        final Map<String, Object> data; // Longs to add, for an increment
+        final boolean merge;
+        final boolean increment;
+
+        PendingWrite(String collection, String id, Map<String, Object> data, boolean merge) {
+            this(collection, id, data, merge, false);
+        }
+
+        private PendingWrite(String collection, String id, Map<String, ?> data, boolean merge, boolean increment) {
+            this.collection = collection;
+            this.id = id;
+            this.data = new HashMap<>(data);
+            this.merge = merge;
+            this.increment = increment;
+        }
+
+        static PendingWrite increment(String collection, String id, Map<String, Long> deltas) {
+            return new PendingWrite(collection, id, deltas, false, true);
+        }
+    }
+
+    private static final class RoomKey implements Comparable<RoomKey> {
+        // createdAt for waiting rooms, endTime for finished ones, updatedAt for problems, rating for users
+        final long timeMs;
+        final String roomId; // Or problem or user id
+        final Integer bucket;
+
+        RoomKey(long timeMs, String roomId, Integer bucket) {
+            this.timeMs = timeMs;
+            this.roomId = roomId;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int compareTo(RoomKey other) {
+            int c = Long.compare(timeMs, other.timeMs);
+            return c != 0 ? c : roomId.compareTo(other.roomId);
+        }
+    }
+}
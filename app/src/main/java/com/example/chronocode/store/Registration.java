@@ -0,0 +1,10 @@
+package com.example.chronocode.store;
+
+/**
+ * Handle for a listener added with {@link BattleStore#listen}.
+ */
+public interface Registration {
+
+    /** Stops delivery. Events already being delivered may still arrive. */
+    void remove();
+}
@@ -0,0 +1,123 @@
+package com.example.chronocode.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store calls recorded by a {@link TracingBattleStore} since the last {@link #reset}, e.g. from
+ * cold start to "in battle".
+ *
+ * <p>Besides the total, it reports how many round trips were sequential: the longest chain of
+ * calls where each one started only after the previous one had finished. Calls that overlap do
+ * not add to it, so the number drops when independent reads run concurrently or writes are
+ * batched. Keeps at most {@link #MAX_CALLS} calls.
+ */
+public final class RoundTripTrace {
+
+    public static final int MAX_CALLS = 256;
+
+    private final List<Call> calls = new ArrayList<>(); // guarded by this
+    private long startedNanos = System.nanoTime(); // guarded by this
+
+    /** Forgets every call and restarts the clock. */
+    public synchronized void reset() {
+        calls.clear();
+        startedNanos = System.nanoTime();
+    }
+
+    Call begin(String operation) {
+        Call call = new Call(operation, System.nanoTime());
+        synchronized (this) {
+            if (calls.size() < MAX_CALLS) calls.add(call);
+        }
+        return call;
+    }
+
+    /** Calls recorded, finished or not. */
+    public synchronized int getCalls() {
+        return calls.size();
+    }
+
+    /** Round trips of the finished calls; a transaction counts its reads and each commit. */
+    public synchronized int getRoundTrips() {
+        int total = 0;
+        for (Call call : calls) {
+            if (call.isFinished()) total += call.roundTrips;
+        }
+        return total;
+    }
+
+    /** Round trips on the longest chain of finished calls that waited for one another. */
+    public synchronized int getSequentialRoundTrips() {
+        List<Call> finished = finishedByStart();
+        int[] depth = new int[finished.size()];
+        int longest = 0;
+        for (int i = 0; i < depth.length; i++) {
+            Call call = finished.get(i);
+            int before = 0;
+            for (int j = 0; j < i; j++) {
+                if (finished.get(j).endNanos <= call.startNanos) before = Math.max(before, depth[j]);
+            }
+            depth[i] = before + call.roundTrips;
+            longest = Math.max(longest, depth[i]);
+        }
+        return longest;
+    }
+
+    /** One line per call with its start and end in ms since the reset, for logging. */
+    public synchronized String describe() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%d calls, %d round trips, %d sequential",
+                calls.size(), getRoundTrips(), getSequentialRoundTrips()));
+        for (Call call : finishedByStart()) {
+            out.append(String.format(Locale.US, "%n  %6.1f - %6.1f ms  %s (%d)",
+                    millisSinceStart(call.startNanos), millisSinceStart(call.endNanos),
+                    call.operation, call.roundTrips));
+        }
+        return out.toString();
+    }
+
+    private List<Call> finishedByStart() {
+        List<Call> finished = new ArrayList<>(calls.size());
+        for (Call call : calls) {
+            if (call.isFinished()) finished.add(call);
+        }
+        Collections.sort(finished, new Comparator<Call>() {
+            @Override
+            public int compare(Call a, Call b) {
+                return Long.compare(a.startNanos, b.startNanos);
+            }
+        });
+        return finished;
+    }
+
+    private double millisSinceStart(long nanos) {
+        return (nanos - startedNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    static final class Call {
+        final String operation;
+        final long startNanos;
+        volatile long endNanos;
+        volatile int roundTrips;
+
+        Call(String operation, long startNanos) {
+            this.operation = operation;
+            this.startNanos = startNanos;
+        }
+
+        /** Records the end before the caller's callbacks run, so calls they start come after it. */
+        void end(int roundTrips) {
+            this.roundTrips = roundTrips;
+            this.endNanos = System.nanoTime();
+        }
+
+        boolean isFinished() {
+            return endNanos != 0;
+        }
+    }
+}
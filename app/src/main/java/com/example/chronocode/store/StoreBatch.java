@@ -0,0 +1,24 @@
+package com.example.chronocode.store;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes collected by {@link BattleStore#batch} and committed together in one round trip. Either
+ * all of them apply or none does. Holds at most {@link BattleStore#MAX_BATCH_WRITES} writes.
+ */
+public interface StoreBatch {
+
+    void set(String collection, String id, Map<String, Object> data);
+
+    /** Fails the whole commit with NOT_FOUND if the document does not exist. */
+    void update(String collection, String id, Map<String, Object> updates);
+
+    /** Adds {@code deltas} to numeric fields, creating the document and the fields at 0 as needed. */
+    void increment(String collection, String id, Map<String, Long> deltas);
+
+    /** Writes added so far. */
+    int size();
+
+    CompletableFuture<Void> commit();
+}
@@ -0,0 +1,65 @@
+package com.example.chronocode.store;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Failure reported by a {@link BattleStore}. Transaction functions throw it with
+ * {@link Reason#ABORTED} to give up without writing anything.
+ */
+public class StoreException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /** The transaction function gave up on purpose, e.g. the room was already claimed. */
+        ABORTED,
+        /** A document the operation required does not exist. */
+        NOT_FOUND,
+        /** The transaction kept conflicting with other writers and ran out of attempts. */
+        CONTENTION,
+        /** The backend could not be reached or failed. */
+        UNAVAILABLE
+    }
+
+    private final Reason reason;
+
+    public StoreException(String message, Reason reason) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public StoreException(String message, Reason reason, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /** Unwraps {@code CompletionException}s and returns the reason, or null for other failures. */
+    public static Reason reasonOf(Throwable error) {
+        while (error != null && !(error instanceof StoreException)) {
+            error = error.getCause();
+        }
+        return error == null ? null : ((StoreException) error).getReason();
+    }
+
+    /**
+     * Waits for a store future, for background jobs that run step by step. Its failure is
+     * rethrown as the original StoreException, or wrapped as UNAVAILABLE.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws StoreException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoreException("Interrupted", Reason.UNAVAILABLE, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StoreException) throw (StoreException) cause;
+            throw new StoreException(String.valueOf(cause), Reason.UNAVAILABLE, cause);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.chronocode.store;
+
+import java.util.Map;
+
+/**
+ * Reads and writes made inside {@link BattleStore#runTransaction}. All reads must happen before
+ * the first write, as with Firestore transactions.
+ */
+public interface StoreTransaction {
+
+    Doc get(String collection, String id) throws StoreException;
+
+    void set(String collection, String id, Map<String, Object> data);
+
+    void update(String collection, String id, Map<String, Object> updates);
+
+    /**
+     * Adds {@code deltas} to numeric fields, creating the document and the fields at 0 as needed.
+     * The document is not read, so it never makes the transaction conflict.
+     */
+    void increment(String collection, String id, Map<String, Long> deltas);
+}
@@ -0,0 +1,183 @@
+package com.example.chronocode.store;
+
+import com.example.chronocode.metrics.Metrics;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * {@link BattleStore} that records every call it forwards in a {@link RoundTripTrace}.
+ *
+ * <p>A call ends when its future completes (for {@link #listen}, at the first snapshot) and is
+ * recorded before the caller's callbacks run. Transactions count one round trip per document
+ * read plus one per commit attempt, as on Firestore. Each call's latency also goes to a
+ * {@link Metrics} histogram named {@code "store <operation>"}.
+ */
+public class TracingBattleStore implements BattleStore {
+
+    private final BattleStore delegate;
+    private final RoundTripTrace trace;
+    private final Metrics metrics;
+
+    public TracingBattleStore(BattleStore delegate, RoundTripTrace trace) {
+        this(delegate, trace, new Metrics());
+    }
+
+    public TracingBattleStore(BattleStore delegate, RoundTripTrace trace, Metrics metrics) {
+        this.delegate = delegate;
+        this.trace = trace;
+        this.metrics = metrics;
+    }
+
+    public RoundTripTrace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public CompletableFuture<Doc> get(String collection, String id) {
+        return traced("get " + collection, () -> delegate.get(collection, id));
+    }
+
+    @Override
+    public String newId(String collection) {
+        return delegate.newId(collection);
+    }
+
+    @Override
+    public CompletableFuture<String> add(String collection, Map<String, Object> data) {
+        return traced("add " + collection, () -> delegate.add(collection, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> set(String collection, String id, Map<String, Object> data) {
+        return traced("set " + collection, () -> delegate.set(collection, id, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> update(String collection, String id, Map<String, Object> updates) {
+        return traced("update " + collection, () -> delegate.update(collection, id, updates));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runTransaction(TransactionFunction<T> function) {
+        RoundTripTrace.Call call = trace.begin("transaction");
+        AtomicInteger roundTrips = new AtomicInteger();
+        CompletableFuture<T> result = delegate.runTransaction(transaction -> {
+            roundTrips.incrementAndGet(); // This attempt's commit
+            return function.apply(new StoreTransaction() {
+                @Override
+                public Doc get(String collection, String id) throws StoreException {
+                    roundTrips.incrementAndGet();
+                    return transaction.get(collection, id);
+                }
+
+                @Override
+                public void set(String collection, String id, Map<String, Object> data) {
+                    transaction.set(collection, id, data);
+                }
+
+                @Override
+                public void update(String collection, String id, Map<String, Object> updates) {
+                    transaction.update(collection, id, updates);
+                }
+
+                @Override
+                public void increment(String collection, String id, Map<String, Long> deltas) {
+                    transaction.increment(collection, id, deltas);
+                }
+            });
+        });
+        return result.whenComplete((value, error) -> end(call, roundTrips.get()));
+    }
+
+    @Override
+    public StoreBatch batch() {
+        StoreBatch batch = delegate.batch();
+        return new StoreBatch() {
+            @Override
+            public void set(String collection, String id, Map<String, Object> data) {
+                batch.set(collection, id, data);
+            }
+
+            @Override
+            public void update(String collection, String id, Map<String, Object> updates) {
+                batch.update(collection, id, updates);
+            }
+
+            @Override
+            public void increment(String collection, String id, Map<String, Long> deltas) {
+                batch.increment(collection, id, deltas);
+            }
+
+            @Override
+            public int size() {
+                return batch.size();
+            }
+
+            @Override
+            public CompletableFuture<Void> commit() {
+                return traced("batch of " + batch.size(), batch::commit);
+            }
+        };
+    }
+
+    @Override
+    public Registration listen(String collection, String id, DocListener listener) {
+        RoundTripTrace.Call call = trace.begin("listen " + collection);
+        AtomicBoolean first = new AtomicBoolean(true);
+        return delegate.listen(collection, id, (doc, error) -> {
+            if (first.compareAndSet(true, false)) end(call, 1);
+            listener.onEvent(doc, error);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findWaitingRooms(List<Integer> ratingBuckets, int limit) {
+        return traced("query waiting rooms", () -> delegate.findWaitingRooms(ratingBuckets, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findFinishedRooms(Date afterEndTime, String afterId, int limit) {
+        return traced("query finished rooms", () -> delegate.findFinishedRooms(afterEndTime, afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findRoomsBefore(String status, String timeField, Date before, int limit) {
+        return traced("query " + status + " rooms", () -> delegate.findRoomsBefore(status, timeField, before, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsUpdatedAfter(Date afterUpdatedAt, String afterId, int limit) {
+        return traced("query updated problems", () -> delegate.findProblemsUpdatedAfter(afterUpdatedAt, afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findProblemsAfterId(String afterId, int limit) {
+        return traced("query problems", () -> delegate.findProblemsAfterId(afterId, limit));
+    }
+
+    @Override
+    public CompletableFuture<List<Doc>> findTopRatedUsers(int limit) {
+        return traced("query top rated users", () -> delegate.findTopRatedUsers(limit));
+    }
+
+    @Override
+    public CompletableFuture<Long> stampServerTime(String clientId) {
+        return traced("stamp server time", () -> delegate.stampServerTime(clientId));
+    }
+
+    private <T> CompletableFuture<T> traced(String operation, Supplier<CompletableFuture<T>> call) {
+        RoundTripTrace.Call traced = trace.begin(operation);
+        return call.get().whenComplete((value, error) -> end(traced, 1));
+    }
+
+    private void end(RoundTripTrace.Call call, int roundTrips) {
+        call.end(roundTrips);
+        metrics.recordNanos("store " + call.operation, call.endNanos - call.startNanos);
+    }
+}
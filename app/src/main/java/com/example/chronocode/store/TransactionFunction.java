@@ -0,0 +1,10 @@
+package com.example.chronocode.store;
+
+/**
+ * Body of a {@link BattleStore} transaction. May run several times if it conflicts with
+ * other writers, so it must not have side effects outside the transaction.
+ */
+public interface TransactionFunction<T> {
+
+    T apply(StoreTransaction transaction) throws StoreException;
+}
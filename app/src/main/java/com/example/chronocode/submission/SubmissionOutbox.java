@@ -0,0 +1,485 @@
+package com.example.chronocode.submission;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Submissions on their way to the battle room, kept on disk until the room has them so a
+ * dropped connection loses nothing.
+ *
+ * <p>Only the latest submission per room and seat is pending: a newer one replaces it before it
+ * is written, which is counted as a {@linkplain #getCoalesced coalesced} write. Pending
+ * submissions are flushed together in one {@link StoreBatch} (each one's code document and room
+ * update); a failed flush is retried after an exponential backoff with jitter, from
+ * {@code baseDelayMs} up to {@code maxDelayMs}, and a flush that has not completed within
+ * {@code timeoutMs} counts as failed. A submission whose room no longer exists is dropped, as is
+ * one still pending after {@code maxAgeMs}, when its battle is long over.
+ *
+ * <p>The file is append-only: a record per submission and one per submission written, each
+ * length-prefixed and checksummed, so a record torn by a crash is recognized and ignored on the
+ * next start. It is rewritten with just the pending submissions on start and whenever it grows
+ * past {@value #COMPACT_BYTES} bytes. If it cannot be written, submissions are only kept in
+ * memory.
+ *
+ * <p>All state and file access is confined to {@code executor}, which must run one task at a
+ * time; the public methods only post to it.
+ */
+public class SubmissionOutbox {
+
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(30);
+
+    static final long COMPACT_BYTES = 64 * 1024;
+
+    private static final int FORMAT_VERSION = 2; // 1 also recorded the problem id
+    private static final byte PENDING = 1;
+    private static final byte WRITTEN = 2;
+    private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_FLUSH = BattleStore.MAX_BATCH_WRITES / 2; // Two writes per submission
+
+    /** Told about failed flushes, on the outbox's executor. */
+    public interface Listener {
+        void onRetry(int pending, long retryInMs, Throwable error);
+    }
+
+    private final File file;
+    private final BattleStore store;
+    private final SubmissionStore submissions;
+    private final ScheduledExecutorService executor;
+    private final LongSupplier clockMs;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long timeoutMs;
+    private final long maxAgeMs;
+
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private DataOutputStream out; // Null until opened, or after the file failed
+    private FileOutputStream fileOut;
+    private long fileBytes;
+    private long nextSeq = 1;
+    private boolean flushing;
+    private boolean flushRequested;
+    private boolean closed;
+    private boolean isolate; // A room was missing: flush one at a time to find it
+    private int failures; // In a row
+    private ScheduledFuture<?> scheduled;
+    private volatile Listener listener;
+    private volatile int pendingCount;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public SubmissionOutbox(File file, BattleStore store, SubmissionStore submissions,
+                            ScheduledExecutorService executor) {
+        this(file, store, submissions, executor, System::currentTimeMillis, DEFAULT_BASE_DELAY_MS,
+                DEFAULT_MAX_DELAY_MS, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_AGE_MS);
+    }
+
+    public SubmissionOutbox(File file, BattleStore store, SubmissionStore submissions,
+                            ScheduledExecutorService executor, LongSupplier clockMs, long baseDelayMs,
+                            long maxDelayMs, long timeoutMs, long maxAgeMs) {
+        this.file = file;
+        this.store = store;
+        this.submissions = submissions;
+        this.executor = executor;
+        this.clockMs = clockMs;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.timeoutMs = timeoutMs;
+        this.maxAgeMs = maxAgeMs;
+        executor.execute(() -> {
+            load();
+            rewrite();
+            scheduleFlush(0); // Whatever the last run left pending
+        });
+    }
+
+    /**
+     * Queues {@code code} with its {@code score} for {@code seat} of the room, replacing what is
+     * pending there, and flushes right away unless a retry is already scheduled. Completes once
+     * the room has it or a later submission for the same seat; fails if it is dropped, or at
+     * once if the code is over {@link SubmissionStore#MAX_CODE_BYTES}.
+     */
+    public CompletableFuture<Void> submit(String roomId, BattleRoom.Seat seat, String code, long score) {
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        if (!SubmissionStore.fits(code)) {
+            delivered.completeExceptionally(new IllegalArgumentException("Code over "
+                    + SubmissionStore.MAX_CODE_BYTES + " bytes"));
+            return delivered;
+        }
+        executor.execute(() -> {
+            Entry entry = new Entry(nextSeq++, clockMs.getAsLong(), roomId, seat, code, score, delivered);
+            Entry replaced = pending.put(entry.key(), entry);
+            if (replaced != null) {
+                if (!replaced.inFlight) coalesced.incrementAndGet();
+                supersede(replaced, entry);
+            }
+            pendingCount = pending.size();
+            append(PENDING, entry);
+            // While backing off it waits for the next retry, and goes in the same batch
+            if (failures == 0) flushSoon();
+        });
+        return delivered;
+    }
+
+    /** Tries to flush now, e.g. when the battle ends, instead of at the end of the backoff. */
+    public void flush() {
+        executor.execute(this::flushSoon);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Submissions not in the room yet. */
+    public int getPending() {
+        return pendingCount;
+    }
+
+    /** Room writes saved by a newer submission replacing a pending one before it was flushed. */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Batches committed. */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /** Submissions the rooms have. */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Flushes that failed and were retried later. */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /** Submissions given up on: room gone, or pending too long. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Stops flushing and closes the file; pending submissions stay in it for the next start. */
+    public CompletableFuture<Void> close() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (scheduled != null) scheduled.cancel(false);
+            scheduled = null;
+            closed = true;
+            closeFile();
+            done.complete(null);
+        });
+        return done;
+    }
+
+    // On the executor, from here on
+
+    private void flushSoon() {
+        failures = 0;
+        if (flushing) flushRequested = true; // Again as soon as this one is done, even if it fails
+        else scheduleFlush(0);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (flushing || closed || pending.isEmpty()) return;
+        if (scheduled != null) {
+            if (scheduled.getDelay(TimeUnit.MILLISECONDS) <= delayMs) return;
+            scheduled.cancel(false);
+        }
+        scheduled = executor.schedule(this::flushNow, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushNow() {
+        scheduled = null;
+        if (flushing || closed) return;
+        dropExpired();
+        if (pending.isEmpty()) return;
+
+        List<Entry> taken = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        StoreBatch batch = store.batch();
+        for (Entry entry : pending.values()) {
+            if (taken.size() == (isolate ? 1 : MAX_FLUSH)) break;
+            String hash = submissions.put(batch, entry.code);
+            Map<String, Object> updates = new HashMap<>();
+            updates.put(BattleRoomCodec.scoreField(entry.seat), entry.score);
+            updates.put(BattleRoomCodec.submissionHashField(entry.seat), hash);
+            batch.update(BattleStore.BATTLE_ROOMS, entry.roomId, updates);
+            entry.inFlight = true;
+            taken.add(entry);
+            hashes.add(hash);
+        }
+        flushing = true;
+
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = executor.schedule(() -> committed.completeExceptionally(
+                new StoreException("Flush timed out", StoreException.Reason.UNAVAILABLE)),
+                timeoutMs, TimeUnit.MILLISECONDS);
+        batch.commit().whenComplete((v, error) -> {
+            if (error != null) committed.completeExceptionally(error);
+            else committed.complete(null);
+        });
+        committed.whenCompleteAsync((v, error) -> {
+            timeout.cancel(false);
+            flushed(taken, hashes, error);
+        }, executor);
+    }
+
+    private void flushed(List<Entry> taken, List<String> hashes, Throwable error) {
+        flushing = false;
+        boolean requested = flushRequested;
+        flushRequested = false;
+        for (Entry entry : taken) entry.inFlight = false;
+        if (error == null) {
+            flushes.incrementAndGet();
+            failures = 0;
+            for (int i = 0; i < taken.size(); i++) {
+                submissions.written(hashes.get(i));
+                remove(taken.get(i));
+            }
+            written.addAndGet(taken.size());
+            if (pending.isEmpty()) {
+                isolate = false;
+                if (fileBytes > COMPACT_BYTES) rewrite();
+            }
+            scheduleFlush(0);
+            for (Entry entry : taken) entry.delivered.complete(null);
+        } else if (StoreException.reasonOf(error) == StoreException.Reason.NOT_FOUND) {
+            // One of the rooms is gone; flushing one at a time tells which
+            if (taken.size() == 1) drop(taken.get(0), error);
+            else isolate = true;
+            scheduleFlush(0);
+        } else {
+            retries.incrementAndGet();
+            failures++;
+            long delayMs = requested ? 0 : backoff(failures);
+            scheduleFlush(delayMs);
+            Listener current = listener;
+            if (current != null) current.onRetry(pending.size(), delayMs, error);
+        }
+    }
+
+    /** Between half and all of {@code baseDelayMs * 2^(failures-1)}, capped at {@code maxDelayMs}. */
+    private long backoff(int failures) {
+        long delayMs = baseDelayMs << Math.min(failures - 1, 30);
+        if (delayMs <= 0 || delayMs > maxDelayMs) delayMs = maxDelayMs;
+        return delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs - delayMs / 2 + 1);
+    }
+
+    private void dropExpired() {
+        long now = clockMs.getAsLong();
+        for (Entry entry : new ArrayList<>(pending.values())) {
+            if (now - entry.createdAtMs >= maxAgeMs) {
+                drop(entry, new StoreException("Submission for room " + entry.roomId + " expired",
+                        StoreException.Reason.ABORTED));
+            }
+        }
+    }
+
+    private void drop(Entry entry, Throwable error) {
+        if (!remove(entry)) return;
+        dropped.incrementAndGet();
+        entry.delivered.completeExceptionally(error);
+    }
+
+    /** Takes {@code entry} out unless a newer one replaced it. */
+    private boolean remove(Entry entry) {
+        if (pending.get(entry.key()) != entry) return false;
+        pending.remove(entry.key());
+        pendingCount = pending.size();
+        append(WRITTEN, entry);
+        return true;
+    }
+
+    // The replaced submission is delivered with the one replacing it, or dropped with it
+    private static void supersede(Entry replaced, Entry entry) {
+        entry.delivered.whenComplete((v, error) -> {
+            if (error != null) replaced.delivered.completeExceptionally(error);
+            else replaced.delivered.complete(null);
+        });
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FORMAT_VERSION) return;
+            while (true) {
+                byte[] record = readRecord(in);
+                if (record == null) break; // End of file, or a record torn by a crash
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                byte type = fields.readByte();
+                long seq = fields.readLong();
+                String roomId = fields.readUTF();
+                BattleRoom.Seat seat = BattleRoom.Seat.valueOf(fields.readUTF());
+                nextSeq = Math.max(nextSeq, seq + 1);
+                String key = key(roomId, seat);
+                if (type == WRITTEN) {
+                    Entry entry = pending.get(key);
+                    if (entry != null && entry.seq <= seq) pending.remove(key);
+                } else {
+                    long createdAtMs = fields.readLong();
+                    long score = fields.readLong();
+                    byte[] code = new byte[fields.readInt()];
+                    fields.readFully(code);
+                    pending.put(key, new Entry(seq, createdAtMs, roomId, seat, new String(code, StandardCharsets.UTF_8), score, new CompletableFuture<>()));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable from here on; what was read so far is kept
+        }
+        pendingCount = pending.size();
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_BYTES) return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            int checksum = in.readInt();
+            return checksum == checksum(record) ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /** Replaces the file with one holding just the pending submissions, and appends to that. */
+    private void rewrite() {
+        closeFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+                DataOutputStream data = new DataOutputStream(tempOut);
+                data.writeInt(FORMAT_VERSION);
+                for (Entry entry : pending.values()) writeRecord(data, PENDING, entry);
+                data.flush();
+                tempOut.getFD().sync();
+            }
+            if (!temp.renameTo(file)) throw new IOException("Could not replace " + file);
+            fileBytes = file.length();
+            fileOut = new FileOutputStream(file, true);
+            out = new DataOutputStream(fileOut);
+        } catch (IOException e) {
+            temp.delete();
+            closeFile();
+        }
+    }
+
+    private void append(byte type, Entry entry) {
+        if (out == null) return;
+        try {
+            fileBytes += writeRecord(out, type, entry);
+            out.flush();
+            // A lost "written" record only means writing the same values once more
+            if (type == PENDING) fileOut.getFD().sync();
+        } catch (IOException e) {
+            closeFile();
+        }
+    }
+
+    private static int writeRecord(DataOutputStream data, byte type, Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(buffer);
+        fields.writeByte(type);
+        fields.writeLong(entry.seq);
+        fields.writeUTF(entry.roomId);
+        fields.writeUTF(entry.seat.name());
+        if (type == PENDING) {
+            fields.writeLong(entry.createdAtMs);
+            fields.writeLong(entry.score);
+            byte[] code = entry.code.getBytes(StandardCharsets.UTF_8);
+            fields.writeInt(code.length);
+            fields.write(code);
+        }
+        byte[] record = buffer.toByteArray();
+        data.writeInt(record.length);
+        data.write(record);
+        data.writeInt(checksum(record));
+        return record.length + 8;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        return (int) crc.getValue();
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+        out = null;
+        fileOut = null;
+    }
+
+    private static String key(String roomId, BattleRoom.Seat seat) {
+        return roomId + "/" + seat.name();
+    }
+
+    private static final class Entry {
+        final long seq;
+        final long createdAtMs;
+        final String roomId;
+        final BattleRoom.Seat seat;
+        final String code;
+        final long score;
+        final CompletableFuture<Void> delivered;
+        boolean inFlight;
+
+        Entry(long seq, long createdAtMs, String roomId, BattleRoom.Seat seat, String code, long score,
+              CompletableFuture<Void> delivered) {
+            this.seq = seq;
+            this.createdAtMs = createdAtMs;
+            this.roomId = roomId;
+            this.seat = seat;
+            this.code = code;
+            this.score = score;
+            this.delivered = delivered;
+        }
+
+        String key() {
+            return SubmissionOutbox.key(roomId, seat);
+        }
+    }
+}
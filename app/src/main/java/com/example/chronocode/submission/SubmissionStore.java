@@ -0,0 +1,207 @@
+package com.example.chronocode.submission;
+
+import com.example.chronocode.judge.CodeFingerprint;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Submitted source code kept out of the battle room, in {@code submissions/{hash}}.
+ *
+ * <p>Documents are addressed by the SHA-256 of the exact source and hold it deflate-compressed,
+ * so the room only carries the 64-character hash whatever the size of the code, and the same
+ * code submitted again (by anyone, for any problem) is one document. A document holds nothing
+ * but the code, so whoever writes it writes the same fields; {@link #put} still leaves an
+ * existing one alone. Hashes this instance already wrote are remembered and not written again.
+ */
+public class SubmissionStore {
+
+    /** Field names on the room: {@code <playerKey>_submissionHash}. */
+    public static final String ROOM_FIELD_SUFFIX = "_submissionHash";
+
+    /** Largest source a document may hold, checked before a read allocates for it. */
+    public static final int MAX_CODE_BYTES = 1 << 20;
+
+    private static final String ENCODING = "deflate";
+    private static final int REMEMBERED_HASHES = 64;
+
+    private final BattleStore store;
+    private final Set<String> written = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > REMEMBERED_HASHES;
+        }
+    }); // guarded by itself
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    public SubmissionStore(BattleStore store) {
+        this.store = store;
+    }
+
+    /** Content address of {@code code}. */
+    public static String hashOf(String code) {
+        return CodeFingerprint.exact(code.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Stores {@code code} unless a document for it exists and completes with its hash. */
+    public CompletableFuture<String> put(String code) {
+        byte[] raw = code.getBytes(StandardCharsets.UTF_8);
+        String hash = CodeFingerprint.exact(raw);
+        if (isWritten(hash)) return CompletableFuture.completedFuture(hash);
+        if (raw.length > MAX_CODE_BYTES) return tooLarge(raw);
+        return store.runTransaction(transaction -> {
+            if (!transaction.get(BattleStore.SUBMISSIONS, hash).exists()) {
+                transaction.set(BattleStore.SUBMISSIONS, hash, toDoc(raw));
+            }
+            return null;
+        }).thenApply(v -> {
+            written(hash);
+            return hash;
+        });
+    }
+
+    /**
+     * Adds the write of {@code code} to {@code batch} if needed and returns its hash. Once the
+     * batch has committed, pass the hash to {@link #written}. A batch cannot read, so an
+     * existing document is written again, with the same fields.
+     *
+     * @throws IllegalArgumentException if the code is over {@link #MAX_CODE_BYTES}
+     */
+    public String put(StoreBatch batch, String code) {
+        byte[] raw = code.getBytes(StandardCharsets.UTF_8);
+        if (raw.length > MAX_CODE_BYTES) throw new IllegalArgumentException(raw.length + " bytes of code");
+        String hash = CodeFingerprint.exact(raw);
+        if (!isWritten(hash)) batch.set(BattleStore.SUBMISSIONS, hash, toDoc(raw));
+        return hash;
+    }
+
+    /** Whether {@code code} is small enough to be stored. */
+    public static boolean fits(String code) {
+        return code.length() <= MAX_CODE_BYTES / 3 // At most 3 UTF-8 bytes per char
+                || code.getBytes(StandardCharsets.UTF_8).length <= MAX_CODE_BYTES;
+    }
+
+    /** Remembers that the document for {@code hash} is stored. */
+    public void written(String hash) {
+        synchronized (written) {
+            written.add(hash);
+        }
+    }
+
+    /** Completes with the source stored under {@code hash}, or null if there is none. */
+    public CompletableFuture<String> get(String hash) {
+        return store.get(BattleStore.SUBMISSIONS, hash).thenCompose(doc -> {
+            CompletableFuture<String> code = new CompletableFuture<>();
+            try {
+                code.complete(decode(doc));
+            } catch (StoreException e) {
+                code.completeExceptionally(e);
+            }
+            return code;
+        });
+    }
+
+    /** Submission document writes issued, a retried one counted again. */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /** Uncompressed bytes of the written submissions. */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /** Compressed bytes actually stored for them. */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    private boolean isWritten(String hash) {
+        synchronized (written) {
+            return written.contains(hash);
+        }
+    }
+
+    private static CompletableFuture<String> tooLarge(byte[] raw) {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalArgumentException(raw.length + " bytes of code"));
+        return failed;
+    }
+
+    private Map<String, Object> toDoc(byte[] raw) {
+        byte[] compressed = deflate(raw);
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("encoding", ENCODING);
+        doc.put("size", (long) raw.length);
+        doc.put("code", compressed);
+        writes.incrementAndGet();
+        rawBytes.addAndGet(raw.length);
+        storedBytes.addAndGet(compressed.length);
+        return doc;
+    }
+
+    static String decode(Doc doc) throws StoreException {
+        if (!doc.exists()) return null;
+        byte[] compressed = doc.getBytes("code");
+        long size = doc.getLong("size", -1);
+        if (compressed == null || size < 0 || !ENCODING.equals(doc.getString("encoding"))) {
+            throw new StoreException("Unreadable submission " + doc.getId(), StoreException.Reason.UNAVAILABLE);
+        }
+        if (size > MAX_CODE_BYTES) {
+            throw new StoreException("Oversized submission " + doc.getId() + ": " + size + " bytes",
+                    StoreException.Reason.UNAVAILABLE);
+        }
+        byte[] raw = new byte[(int) size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                read += n;
+            }
+            if (read != raw.length) {
+                throw new StoreException("Truncated submission " + doc.getId(), StoreException.Reason.UNAVAILABLE);
+            }
+        } catch (DataFormatException e) {
+            throw new StoreException("Corrupt submission " + doc.getId(), StoreException.Reason.UNAVAILABLE, e);
+        } finally {
+            inflater.end();
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
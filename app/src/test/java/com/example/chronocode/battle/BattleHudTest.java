@@ -0,0 +1,109 @@
+package com.example.chronocode.battle;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BattleHudTest {
+
+    private final List<String> shown = new ArrayList<>();
+
+    @Test
+    public void countdownRendersOncePerSecond() {
+        HudText timer = new HudText("", Locale.US, this::record);
+
+        assertTrue(timer.showCountdown(TimeUnit.MINUTES.toMillis(5)));
+        assertTrue(timer.showCountdown(299_999));
+        assertFalse(timer.showCountdown(299_001));
+        assertTrue(timer.showCountdown(61_000));
+        assertTrue(timer.showCountdown(-5));
+        assertTrue(timer.showCountdown(TimeUnit.MINUTES.toMillis(120)));
+
+        assertEquals("05:00 04:59 01:01 00:00 120:00", String.join(" ", shown));
+        assertEquals(TimerText.format(Locale.US, 299_999), shown.get(1)); // Same text as before
+    }
+
+    @Test
+    public void numbersKeepTheirPrefix() {
+        HudText score = new HudText("Them Score: ", Locale.US, this::record);
+
+        score.showNumber(0);
+        score.showNumber(0);
+        score.showNumber(1250);
+        score.showNumber(-40);
+        score.invalidate();
+        score.showNumber(-40);
+
+        assertEquals("Them Score: 0|Them Score: 1250|Them Score: -40|Them Score: -40", String.join("|", shown));
+    }
+
+    @Test
+    public void framesWaitUntilTheShownSecondChanges() {
+        int[] timeUps = new int[1];
+        BattleHud hud = new BattleHud(new HudText("", Locale.US, this::record),
+                new HudText("", Locale.US, this::record), new HudText("", Locale.US, this::record),
+                () -> timeUps[0]++);
+        long start = 1_000_000_000L;
+        hud.startCountdown(start, 2_500);
+        assertEquals("00:02", shown.get(0));
+
+        assertEquals(501, hud.onFrame(start));
+        assertEquals(1, shown.size()); // Still 00:02
+        assertEquals(1000, hud.onFrame(start + TimeUnit.MILLISECONDS.toNanos(501) - 1));
+        assertEquals("00:01", shown.get(1));
+        assertEquals(-1, hud.onFrame(start + TimeUnit.MILLISECONDS.toNanos(2_600)));
+        assertEquals(-1, hud.onFrame(start + TimeUnit.MILLISECONDS.toNanos(2_700)));
+
+        assertEquals("00:00", shown.get(2));
+        assertEquals(1, timeUps[0]);
+        assertFalse(hud.isCountingDown());
+    }
+
+    @Test
+    public void steadyStateTicksDoNotAllocate() {
+        Sink sink = new Sink();
+        BattleHud hud = new BattleHud(new HudText("", Locale.US, sink), new HudText("My Score: ", Locale.US, sink),
+                new HudText("Them Score: ", Locale.US, sink), () -> { });
+        for (int round = 0; round < 2; round++) { // The first round warms up
+            long allocatedBefore = allocatedBytes();
+            hud.startCountdown(0, TimeUnit.HOURS.toMillis(10));
+            for (long tick = 0; tick < 100_000; tick++) {
+                hud.onFrame(TimeUnit.MILLISECONDS.toNanos(tick * 250));
+                hud.showScores(tick / 4, tick / 8);
+            }
+            long allocated = allocatedBytes() - allocatedBefore;
+            if (round == 1 && allocatedBefore >= 0) assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        }
+        assertTrue(sink.calls > 0);
+    }
+
+    private void record(char[] chars, int length) {
+        shown.add(new String(chars, 0, length));
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static final class Sink implements HudText.View {
+        long calls;
+        char last;
+
+        @Override
+        public void show(char[] chars, int length) {
+            calls++;
+            last = chars[length - 1];
+        }
+    }
+}
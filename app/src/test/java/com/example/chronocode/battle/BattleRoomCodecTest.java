@@ -0,0 +1,86 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BattleRoomCodecTest {
+
+    @Test
+    public void waitingRoomRoundTrips() {
+        Map<String, Object> data = BattleRoomCodec.encode(
+                BattleRoomCodec.newWaitingRoom("me", "Me", 1234, 12, "problem_1", 5_000));
+
+        assertTrue(data.containsKey("player2_uid"));
+        assertNull(data.get("player2_uid"));
+        assertEquals(0L, data.get("player1_score"));
+        assertEquals(new Date(5_000), data.get("createdAt"));
+        assertEquals(false, data.get("isBotMatch"));
+
+        BattleRoom room = BattleRoomCodec.decode(new Doc("room_1", data, 1));
+        assertEquals("room_1", room.getId());
+        assertTrue(room.exists());
+        assertEquals("waiting", room.getStatus());
+        assertEquals("problem_1", room.getProblemId());
+        assertEquals("me", room.getUid(BattleRoom.Seat.PLAYER1));
+        assertEquals(1234, room.getRating(BattleRoom.Seat.PLAYER1));
+        assertEquals(BattleRoom.NONE, room.getRating(BattleRoom.Seat.PLAYER2));
+        assertEquals(12, room.getRatingBucket());
+        assertEquals(5_000, room.getCreatedAtMs());
+        assertEquals(BattleRoom.NONE, room.getStartTimeMs());
+        assertEquals(data, BattleRoomCodec.encode(room));
+    }
+
+    @Test
+    public void decodingIntoAReusedRoomClearsOldFields() {
+        BattleRoom room = new BattleRoom();
+        Map<String, Object> finished = BattleRoomCodec.encode(
+                BattleRoomCodec.newBotBattle("me", "Me", "bot", "Bot", "problem_1", 5_000));
+        finished.put("player1_score", 30L);
+        finished.put("player2_submissionHash", "abc123");
+        finished.put("winner_uid", "me");
+        BattleRoomCodec.decodeInto(new Doc("room_1", finished, 1), room);
+        assertEquals("me", room.leaderUid());
+        assertEquals("abc123", room.getSubmissionHash(BattleRoom.Seat.PLAYER2));
+
+        BattleRoomCodec.decodeInto(new Doc("room_2", null, 2), room);
+        assertFalse(room.exists());
+        assertEquals("room_2", room.getId());
+        assertNull(room.getWinnerUid());
+        assertNull(room.getSubmissionHash(BattleRoom.Seat.PLAYER2));
+        assertEquals(0, room.getScore(BattleRoom.Seat.PLAYER1));
+        assertEquals(BattleRoom.NONE, room.getStartTimeMs());
+        assertEquals(BattleRoom.NONE, room.getDeadlineMs());
+        assertNull(room.leaderUid());
+    }
+
+    @Test
+    public void deadlineFallsBackToStartTimePlusDuration() {
+        Map<String, Object> data = BattleRoomCodec.encode(
+                BattleRoomCodec.newBotBattle("me", "Me", "bot", "Bot", "problem_1", 5_000));
+        assertEquals(new Date(5_000 + BattleRooms.BATTLE_DURATION_MS), data.get(BattleRoomCodec.DEADLINE));
+
+        data.remove(BattleRoomCodec.DEADLINE); // A room started before deadlines were written
+        data.put(BattleRoomCodec.START_TIME, new Date(7_000));
+        assertEquals(7_000 + BattleRooms.BATTLE_DURATION_MS, BattleRoomCodec.decode(new Doc("room_1", data, 1)).getDeadlineMs());
+    }
+
+    @Test
+    public void seatsResolveToTheirFields() {
+        Map<String, Object> data = BattleRoomCodec.encode(
+                BattleRoomCodec.newBotBattle("me", "Me", "bot", "Bot", "problem_1", 5_000));
+        BattleRoom room = BattleRoomCodec.decode(new Doc("room_1", data, 1));
+
+        assertEquals(BattleRoom.Seat.PLAYER2, room.seatOf("bot"));
+        assertNull(room.seatOf("stranger"));
+        assertEquals(BattleRoom.Seat.PLAYER1, BattleRoom.Seat.PLAYER2.other());
+        assertEquals("player2_score", BattleRoomCodec.scoreField(BattleRoom.Seat.PLAYER2));
+        assertEquals("player1_submissionHash", BattleRoomCodec.submissionHashField(BattleRoom.Seat.PLAYER1));
+        assertEquals("player2_ratingDelta", BattleRoomCodec.ratingDeltaField(BattleRoom.Seat.PLAYER2));
+    }
+}
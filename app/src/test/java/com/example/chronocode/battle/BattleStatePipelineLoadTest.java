@@ -0,0 +1,182 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bursts of score updates (what a reconnect or a fast opponent delivers) against a simulated
+ * main thread, handled the old way, with every snapshot converted, diffed and shown on the main
+ * thread, and through {@link BattleStatePipeline}. Showing a state costs a fixed spin standing in
+ * for setText and layout. The pipeline must post fewer main-thread tasks, keep the main thread
+ * busy for less time, and both shorten the longest stretch it is busy without a break and drop
+ * fewer 60 fps frames. Sizes are overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class BattleStatePipelineLoadTest {
+
+    private static final int BURSTS = Integer.getInteger("chronocode.bench.bursts", 20);
+    private static final int BURST_SIZE = Integer.getInteger("chronocode.bench.burstSize", 500);
+    private static final long VIEW_UPDATE_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            Integer.getInteger("chronocode.bench.viewUpdateMicros", 100));
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    // Idle time between tasks shorter than this does not let a frame through
+    private static final long GAP_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static volatile Object sink;
+
+    @Test
+    public void thePipelineKeepsBurstsOffTheMainThread() throws Exception {
+        List<Map<String, Object>> updates = updates(BURST_SIZE);
+        Report direct = null;
+        Report pipelined = null;
+        for (int round = 0; round < 2; round++) { // The first round warms up the JIT
+            direct = run(updates, false);
+            pipelined = run(updates, true);
+        }
+        assertTrue(pipelined.tasks < direct.tasks);
+        assertTrue(pipelined.busyNanos < direct.busyNanos);
+        assertTrue(pipelined.longestStallNanos < direct.longestStallNanos);
+        assertTrue(pipelined.droppedFrames + " vs " + direct.droppedFrames + " frames dropped",
+                pipelined.droppedFrames < direct.droppedFrames);
+    }
+
+    private static Report run(List<Map<String, Object>> updates, boolean pipelined) throws Exception {
+        MainThread main = new MainThread();
+        ExecutorService decode = Executors.newSingleThreadExecutor();
+        try {
+            BattleHud hud = new BattleHud(new HudText("", Locale.US, ShowingHandler::show),
+                    new HudText("My Score: ", Locale.US, ShowingHandler::show),
+                    new HudText("Them Score: ", Locale.US, ShowingHandler::show), () -> { });
+            BattleStatePipeline pipeline = new BattleStatePipeline("me", decode, main, state -> {
+                hud.showScores(state.getMyScore(), state.getOpponentScore());
+                spin(VIEW_UPDATE_NANOS);
+            });
+            RoomDiffer differ = new RoomDiffer("me", new ShowingHandler());
+            long version = 0;
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (Map<String, Object> update : updates) {
+                    long v = ++version;
+                    if (pipelined) {
+                        // The store converts the snapshot on its callback thread
+                        decode.execute(() -> pipeline.onEvent(new Doc("room", update, v), null));
+                    } else {
+                        main.execute(() -> differ.apply(new Doc("room", update, v)));
+                    }
+                }
+                Thread.sleep(20); // Quiet between bursts
+            }
+            decode.shutdown();
+            decode.awaitTermination(1, TimeUnit.MINUTES);
+            main.service.shutdown();
+            main.service.awaitTermination(1, TimeUnit.MINUTES);
+        } finally {
+            decode.shutdownNow();
+            main.service.shutdownNow();
+        }
+        return main.report();
+    }
+
+    private static List<Map<String, Object>> updates(int count) {
+        List<Map<String, Object>> updates = new ArrayList<>(count);
+        Date start = new Date(1_000);
+        for (int i = 0; i < count; i++) {
+            updates.add(RoomDifferTest.fields(i * 10L, i / 4 * 10L, "ongoing", start));
+        }
+        return updates;
+    }
+
+    private static void spin(long nanos) {
+        long until = System.nanoTime() + nanos;
+        while (System.nanoTime() < until) {
+            // Busy, like a layout pass
+        }
+    }
+
+    // What BattleActivity did on the main thread before: diff and show every snapshot
+    private static final class ShowingHandler implements RoomDiffer.Handler {
+        @Override
+        public void onNotInRoom() {
+        }
+
+        @Override
+        public void onProblemId(String problemId) {
+        }
+
+        @Override
+        public void onStartTime(long startTimeMs) {
+        }
+
+        @Override
+        public void onScores(long myScore, long opponentScore) {
+            sink = "My Score: " + myScore;
+            sink = "Them Score: " + opponentScore;
+            spin(VIEW_UPDATE_NANOS);
+        }
+
+        @Override
+        public void onStatus(String status, String winnerUid) {
+        }
+
+        static void show(char[] chars, int length) {
+            sink = chars;
+        }
+    }
+
+    // A single-thread executor that records when each task ran
+    private static final class MainThread implements Executor {
+        final ExecutorService service = Executors.newSingleThreadExecutor();
+        final List<long[]> spans = new ArrayList<>(); // Only touched by the service's thread
+
+        @Override
+        public void execute(Runnable task) {
+            service.execute(() -> {
+                long started = System.nanoTime();
+                task.run();
+                spans.add(new long[]{started, System.nanoTime()});
+            });
+        }
+
+        Report report() {
+            Report report = new Report();
+            long stallStart = -1;
+            long stallEnd = -1;
+            for (long[] span : spans) {
+                report.tasks++;
+                report.busyNanos += span[1] - span[0];
+                if (stallStart < 0 || span[0] - stallEnd > GAP_NANOS) {
+                    report.endStall(stallStart, stallEnd);
+                    stallStart = span[0];
+                }
+                stallEnd = span[1];
+            }
+            report.endStall(stallStart, stallEnd);
+            return report;
+        }
+    }
+
+    private static final class Report {
+        long tasks;
+        long busyNanos;
+        long longestStallNanos;
+        long droppedFrames;
+
+        void endStall(long start, long end) {
+            if (start < 0) return;
+            long stall = end - start;
+            longestStallNanos = Math.max(longestStallNanos, stall);
+            droppedFrames += stall / FRAME_NANOS;
+        }
+    }
+}
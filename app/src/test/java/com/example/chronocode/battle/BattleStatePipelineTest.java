@@ -0,0 +1,101 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.StoreException;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class BattleStatePipelineTest {
+
+    private final Queue<Runnable> mainQueue = new ArrayDeque<>();
+    private final List<BattleViewState> applied = new ArrayList<>();
+    private final BattleStatePipeline pipeline = new BattleStatePipeline("me", Runnable::run,
+            mainQueue::add, applied::add);
+
+    @Test
+    public void statesPostedBeforeTheMainThreadRunsCoalesce() {
+        pipeline.onEvent(RoomDifferTest.room(0, 0, "ongoing", new Date(5_000)), null);
+        pipeline.onEvent(RoomDifferTest.room(10, 0, "ongoing", new Date(5_000)), null);
+        pipeline.onEvent(RoomDifferTest.room(10, 30, "ongoing", new Date(5_000)), null);
+        assertEquals(1, mainQueue.size());
+
+        runMain();
+
+        assertEquals(1, applied.size());
+        BattleViewState state = applied.get(0);
+        assertEquals(BattleRoom.Seat.PLAYER2, state.getMySeat());
+        assertEquals("problem_1", state.getProblemId());
+        assertEquals(5_000, state.getStartTimeMs());
+        assertEquals(30, state.getMyScore());
+        assertEquals(10, state.getOpponentScore());
+        assertFalse(state.isEnded());
+        assertEquals(3, pipeline.getPublished());
+        assertEquals(1, pipeline.getDelivered());
+    }
+
+    @Test
+    public void unchangedSnapshotsPostNothing() {
+        pipeline.onEvent(RoomDifferTest.room(0, 0, "ongoing", new Date(5_000)), null);
+        runMain();
+        pipeline.onEvent(RoomDifferTest.room(0, 0, "ongoing", new Date(5_000)), null);
+
+        assertTrue(mainQueue.isEmpty());
+        assertEquals(2, pipeline.getSnapshots());
+        assertEquals(1, pipeline.getPublished());
+    }
+
+    @Test
+    public void finishedRoomEndsTheStream() {
+        pipeline.onEvent(RoomDifferTest.room(0, 20, "ongoing", new Date(5_000)), null);
+        runMain();
+        pipeline.onEvent(RoomDifferTest.room(0, 20, "finished", new Date(5_000)), null);
+        pipeline.onEvent(RoomDifferTest.room(0, 40, "finished", new Date(5_000)), null);
+        runMain();
+
+        assertEquals(2, applied.size());
+        BattleViewState last = applied.get(1);
+        assertTrue(last.isEnded());
+        assertNull(last.getEndReason());
+        assertEquals(20, last.getMyScore());
+    }
+
+    @Test
+    public void failuresEndWithAReason() {
+        pipeline.onEvent(null, new StoreException("offline", StoreException.Reason.UNAVAILABLE));
+        runMain();
+        assertTrue(applied.get(0).isEnded());
+        assertTrue(applied.get(0).getEndReason().contains("offline"));
+
+        BattleStatePipeline stranger = new BattleStatePipeline("stranger", Runnable::run, mainQueue::add,
+                applied::add);
+        stranger.onEvent(RoomDifferTest.room(0, 0, "ongoing", null), null);
+        stranger.onEvent(Doc.missing("room"), null);
+        runMain();
+        assertEquals(2, applied.size());
+        assertTrue(applied.get(1).getEndReason().contains("not found"));
+    }
+
+    @Test
+    public void closedPipelineDropsPostedStates() {
+        pipeline.onEvent(RoomDifferTest.room(0, 0, "ongoing", null), null);
+        pipeline.close();
+        runMain();
+        pipeline.onEvent(RoomDifferTest.room(0, 10, "ongoing", null), null);
+
+        assertTrue(applied.isEmpty());
+        assertTrue(mainQueue.isEmpty());
+    }
+
+    private void runMain() {
+        Runnable task;
+        while ((task = mainQueue.poll()) != null) task.run();
+    }
+}
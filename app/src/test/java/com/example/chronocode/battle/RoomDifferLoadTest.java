@@ -0,0 +1,148 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.submission.SubmissionStore;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a battle's worth of room snapshots, most of which only touch fields the battle screen
+ * ignores (submission hashes, heartbeats), through the old reprocess-everything listener body and
+ * through {@link RoomDiffer}. The differ must hand on only the score changes and allocate less
+ * than a quarter of what the old body did. Sizes are overridable with -Dchronocode.bench.*; run
+ * with -PloadTests.
+ */
+public class RoomDifferLoadTest {
+
+    private static final int UPDATES = Integer.getInteger("chronocode.bench.updates", 200_000);
+    private static final int ROUNDS = 5;
+    private static final int SCORE_EVERY = 20; // One in 20 updates changes a score
+
+    private static volatile Object sink;
+
+    @Test
+    public void deltaDispatchAllocatesAFractionOfFullReprocess() {
+        Doc[] snapshots = snapshots(UPDATES);
+        long full = 0;
+        long delta = 0;
+        Sink handler = null;
+        // Only the last round counts; earlier ones warm up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            full = allocatedBy(() -> {
+                FullReprocess reprocess = new FullReprocess("me");
+                for (Doc snapshot : snapshots) reprocess.apply(snapshot);
+            });
+            Sink sink = new Sink();
+            delta = allocatedBy(() -> {
+                RoomDiffer differ = new RoomDiffer("me", sink);
+                for (Doc snapshot : snapshots) differ.apply(snapshot);
+            });
+            handler = sink;
+        }
+
+        assertEquals(UPDATES / SCORE_EVERY, handler.scoreChanges);
+        Assume.assumeTrue("No per-thread allocation counter", full >= 0 && delta >= 0);
+        assertTrue(delta + " vs " + full + " bytes", delta * 4 < full);
+    }
+
+    // Bytes the current thread allocated running body, or -1 if the JVM cannot tell
+    private static long allocatedBy(Runnable body) {
+        long before = allocatedBytes();
+        body.run();
+        return before < 0 ? -1 : allocatedBytes() - before;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static Doc[] snapshots(int count) {
+        Date start = new Date(1_000);
+        Doc[] snapshots = new Doc[count];
+        long myScore = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % SCORE_EVERY == 0) myScore += 10;
+            Map<String, Object> data = RoomDifferTest.fields(0, myScore, "ongoing", start);
+            data.put("player1_submissionHash", SubmissionStore.hashOf("print(" + i + ")"));
+            snapshots[i] = new Doc("room", data, i + 1);
+        }
+        return snapshots;
+    }
+
+    // What BattleActivity's listener did before: resolve keys, re-read every field and re-format
+    // both score strings on every snapshot.
+    private static final class FullReprocess {
+        final String myUid;
+        String myPlayerKey;
+        String opponentPlayerKey;
+        String problemId;
+        boolean timerStarted;
+
+        FullReprocess(String myUid) {
+            this.myUid = myUid;
+        }
+
+        void apply(Doc snapshot) {
+            if (myPlayerKey == null) {
+                if (myUid.equals(snapshot.getString("player1_uid"))) {
+                    myPlayerKey = "player1";
+                    opponentPlayerKey = "player2";
+                } else if (myUid.equals(snapshot.getString("player2_uid"))) {
+                    myPlayerKey = "player2";
+                    opponentPlayerKey = "player1";
+                } else {
+                    return;
+                }
+            }
+            if (problemId == null) problemId = snapshot.getString("problemId");
+            if (!timerStarted && snapshot.getDate("startTime") != null) timerStarted = true;
+            Long myScore = snapshot.getLong(myPlayerKey + "_score");
+            Long opponentScore = snapshot.getLong(opponentPlayerKey + "_score");
+            sink = "My Score: " + (myScore != null ? myScore : 0);
+            sink = "Opponent Score: " + (opponentScore != null ? opponentScore : 0);
+            if ("finished".equals(snapshot.getString("status"))) sink = snapshot.getString("winner_uid");
+        }
+    }
+
+    private static final class Sink implements RoomDiffer.Handler {
+        int scoreChanges;
+
+        @Override
+        public void onNotInRoom() {
+        }
+
+        @Override
+        public void onProblemId(String problemId) {
+            sink = problemId;
+        }
+
+        @Override
+        public void onStartTime(long startTimeMs) {
+        }
+
+        @Override
+        public void onScores(long myScore, long opponentScore) {
+            scoreChanges++;
+            sink = "My Score: " + myScore;
+            sink = "Opponent Score: " + opponentScore;
+        }
+
+        @Override
+        public void onStatus(String status, String winnerUid) {
+            sink = status;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.Doc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RoomDifferTest {
+
+    @Test
+    public void firstSnapshotDispatchesEverythingPresent() {
+        Recorder recorder = new Recorder();
+        RoomDiffer differ = new RoomDiffer("me", recorder);
+
+        differ.apply(room(10, 20, "ongoing", new Date(5_000)));
+
+        assertEquals("player2", differ.getMyPlayerKey());
+        assertEquals(4, recorder.events.size());
+        assertEquals("problem problem_1", recorder.events.get(0));
+        assertEquals("start 5000", recorder.events.get(1));
+        assertEquals("scores 20/10", recorder.events.get(2));
+        assertEquals("status ongoing/null", recorder.events.get(3));
+    }
+
+    @Test
+    public void unrelatedChangesDispatchNothing() {
+        Recorder recorder = new Recorder();
+        RoomDiffer differ = new RoomDiffer("me", recorder);
+        differ.apply(room(10, 20, "ongoing", new Date(5_000)));
+        recorder.events.clear();
+
+        Map<String, Object> data = fields(10, 20, "ongoing", new Date(5_000));
+        data.put("player1_submissionHash", "abc123");
+        differ.apply(new Doc("room", data, 2));
+
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void onlyChangedFieldsAreDispatched() {
+        Recorder recorder = new Recorder();
+        RoomDiffer differ = new RoomDiffer("me", recorder);
+        differ.apply(room(0, 0, "waiting", null));
+        recorder.events.clear();
+
+        differ.apply(room(0, 0, "ongoing", new Date(7_000)));
+        differ.apply(room(100, 0, "ongoing", new Date(7_000)));
+        differ.apply(room(100, 0, "finished", new Date(7_000)));
+
+        assertEquals(4, recorder.events.size());
+        assertEquals("start 7000", recorder.events.get(0));
+        assertEquals("status ongoing/null", recorder.events.get(1));
+        assertEquals("scores 0/100", recorder.events.get(2));
+        assertEquals("status finished/null", recorder.events.get(3));
+    }
+
+    @Test
+    public void strangerIsReportedOnce() {
+        Recorder recorder = new Recorder();
+        RoomDiffer differ = new RoomDiffer("someone-else", recorder);
+
+        differ.apply(room(0, 0, "ongoing", null));
+        differ.apply(room(5, 0, "ongoing", null));
+
+        assertEquals(1, recorder.events.size());
+        assertEquals("not in room", recorder.events.get(0));
+        assertNull(differ.getMyPlayerKey());
+    }
+
+    static Doc room(long p1Score, long p2Score, String status, Date startTime) {
+        return new Doc("room", fields(p1Score, p2Score, status, startTime), 1);
+    }
+
+    static Map<String, Object> fields(long p1Score, long p2Score, String status, Date startTime) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("player1_uid", "them");
+        data.put("player2_uid", "me");
+        data.put("problemId", "problem_1");
+        data.put("player1_score", p1Score);
+        data.put("player2_score", p2Score);
+        data.put("status", status);
+        if (startTime != null) data.put("startTime", startTime);
+        return data;
+    }
+
+    private static final class Recorder implements RoomDiffer.Handler {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onNotInRoom() {
+            events.add("not in room");
+        }
+
+        @Override
+        public void onProblemId(String problemId) {
+            events.add("problem " + problemId);
+        }
+
+        @Override
+        public void onStartTime(long startTimeMs) {
+            events.add("start " + startTimeMs);
+        }
+
+        @Override
+        public void onScores(long myScore, long opponentScore) {
+            events.add("scores " + myScore + "/" + opponentScore);
+        }
+
+        @Override
+        public void onStatus(String status, String winnerUid) {
+            events.add("status " + status + "/" + winnerUid);
+        }
+    }
+}
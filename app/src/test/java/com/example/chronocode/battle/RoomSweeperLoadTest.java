@@ -0,0 +1,47 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sweeps a backlog of expired rooms mixed with live ones in one go: every expired room is
+ * retired, and the waiting-room query is left with exactly the live ones. Sizes are overridable
+ * with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class RoomSweeperLoadTest {
+
+    private static final int STALE_ROOMS = Integer.getInteger("chronocode.bench.staleRooms", 100_000);
+    private static final int LIVE_ROOMS = Integer.getInteger("chronocode.bench.liveRooms", 1_000);
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+
+    @Test
+    public void aLargeBacklogIsSweptLeavingLiveRooms() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        long expired = NOW - TimeUnit.HOURS.toMillis(1);
+        for (int i = 0; i < STALE_ROOMS; i++) {
+            store.set(BattleStore.BATTLE_ROOMS, "s" + i, i % 2 == 0
+                    ? RoomSweeperTest.waitingRoom(expired - i) : RoomSweeperTest.ongoingRoom(expired - i));
+        }
+        for (int i = 0; i < LIVE_ROOMS; i++) {
+            store.set(BattleStore.BATTLE_ROOMS, "l" + i, RoomSweeperTest.waitingRoom(NOW - i));
+        }
+
+        RoomSweeper.Report report = new RoomSweeper(store).sweep(NOW, Integer.MAX_VALUE);
+
+        assertEquals((STALE_ROOMS + 1) / 2, report.getCanceled());
+        assertEquals(STALE_ROOMS / 2, report.getAbandoned());
+        assertEquals(0, report.getSkipped());
+        List<Doc> waiting = store.findWaitingRooms(null, LIVE_ROOMS + 1).get();
+        assertEquals(LIVE_ROOMS, waiting.size());
+        for (Doc room : waiting) assertTrue(room.getId().startsWith("l"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.StoreTransaction;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RoomSweeperTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+    private static final long TTL = TimeUnit.MINUTES.toMillis(15);
+
+    static Map<String, Object> waitingRoom(long createdAtMs) {
+        Map<String, Object> room = new HashMap<>();
+        room.put("status", "waiting");
+        room.put("player1_uid", "p1");
+        room.put("createdAt", new Date(createdAtMs));
+        room.put("ratingBucket", 10L);
+        return room;
+    }
+
+    static Map<String, Object> ongoingRoom(long startTimeMs) {
+        Map<String, Object> room = new HashMap<>();
+        room.put("status", "ongoing");
+        room.put("player1_uid", "p1");
+        room.put("player2_uid", "p2");
+        room.put("createdAt", new Date(startTimeMs));
+        room.put("startTime", new Date(startTimeMs));
+        return room;
+    }
+
+    @Test
+    public void retiresExpiredRoomsAndLeavesFreshOnes() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        store.set(BattleStore.BATTLE_ROOMS, "staleWaiting", waitingRoom(NOW - TTL - 1)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "freshWaiting", waitingRoom(NOW - TTL + 1)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "staleOngoing", ongoingRoom(NOW - TTL - 1)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "freshOngoing", ongoingRoom(NOW - 1)).get();
+
+        RoomSweeper.Report report = new RoomSweeper(store, TTL, TTL, 10).sweep(NOW, 100);
+
+        assertEquals(1, report.getCanceled());
+        assertEquals(1, report.getAbandoned());
+        assertEquals(0, report.getSkipped());
+        assertEquals("canceled", store.get(BattleStore.BATTLE_ROOMS, "staleWaiting").get().getString("status"));
+        assertEquals(new Date(NOW), store.get(BattleStore.BATTLE_ROOMS, "staleWaiting").get().getDate("endTime"));
+        assertEquals("abandoned", store.get(BattleStore.BATTLE_ROOMS, "staleOngoing").get().getString("status"));
+        assertEquals("waiting", store.get(BattleStore.BATTLE_ROOMS, "freshWaiting").get().getString("status"));
+        assertEquals("ongoing", store.get(BattleStore.BATTLE_ROOMS, "freshOngoing").get().getString("status"));
+        assertEquals(1, store.findWaitingRooms(null, 10).get().size());
+        assertEquals(1, store.findWaitingRooms(Collections.singletonList(10), 10).get().size());
+    }
+
+    @Test
+    public void stopsAtMaxRoomsAndResumesOnNextSweep() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        for (int i = 0; i < 25; i++) {
+            store.set(BattleStore.BATTLE_ROOMS, "w" + i, waitingRoom(NOW - TTL - 1 - i)).get();
+        }
+        RoomSweeper sweeper = new RoomSweeper(store, TTL, TTL, 10);
+
+        assertEquals(15, sweeper.sweep(NOW, 15).getCanceled());
+        assertEquals(10, sweeper.sweep(NOW, 15).getCanceled());
+        assertEquals(0, sweeper.sweep(NOW, 15).getScanned());
+        assertTrue(store.findWaitingRooms(null, 10).get().isEmpty());
+    }
+
+    @Test
+    public void roomClaimedAfterTheQueryIsSkipped() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore() {
+            @Override
+            public CompletableFuture<List<Doc>> findRoomsBefore(String status, String timeField, Date before, int limit) {
+                CompletableFuture<List<Doc>> page = super.findRoomsBefore(status, timeField, before, limit);
+                if ("waiting".equals(status)) {
+                    // An opponent claims the room between the query and the sweep's transaction.
+                    runTransaction((StoreTransaction transaction) -> {
+                        Map<String, Object> claim = new HashMap<>();
+                        claim.put("status", "ongoing");
+                        claim.put("player2_uid", "p2");
+                        claim.put("startTime", new Date(NOW));
+                        transaction.update(BattleStore.BATTLE_ROOMS, "claimed", claim);
+                        return null;
+                    }).join();
+                }
+                return page;
+            }
+        };
+        store.set(BattleStore.BATTLE_ROOMS, "claimed", waitingRoom(NOW - TTL - 1)).get();
+
+        RoomSweeper.Report report = new RoomSweeper(store, TTL, TTL, 10).sweep(NOW, 100);
+
+        assertEquals(1, report.getScanned());
+        assertEquals(0, report.getCanceled());
+        assertEquals(1, report.getSkipped());
+        assertEquals("ongoing", store.get(BattleStore.BATTLE_ROOMS, "claimed").get().getString("status"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.chronocode.battle;
+
+import com.example.chronocode.matchmaking.RoomClaimer;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.*;
+
+public class ServerClockTest {
+
+    // The server runs 7 s ahead of this machine
+    private static final LongSupplier SERVER = () -> System.currentTimeMillis() + 7_000;
+
+    @Test
+    public void syncCorrectsASkewedDeviceClock() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore(4_000, SERVER);
+        ServerClock clock = new ServerClock(store, "client", System::nanoTime, () -> System.currentTimeMillis() - 2_000);
+        assertFalse(clock.isSynced());
+        assertEquals(-9_000, clock.serverNow() - SERVER.getAsLong(), 50); // The device clock until synced
+
+        clock.sync(3).get();
+
+        assertTrue(clock.isSynced());
+        assertTrue(clock.getUncertaintyMs() >= 2);
+        long error = clock.serverNow() - SERVER.getAsLong();
+        assertTrue("off by " + error + " ms", Math.abs(error) <= clock.getUncertaintyMs() + 1);
+        assertEquals(9_000, clock.getOffsetMs(), clock.getUncertaintyMs() + 1);
+        assertTrue(store.get(BattleStore.CLOCK, "client").get().exists());
+    }
+
+    @Test
+    public void serverNowNeverGoesBackwards() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        AtomicLong serverMs = new AtomicLong(10_000);
+        ServerClock clock = new ServerClock(new InMemoryBattleStore(0, serverMs::get), "client", nanos::get, () -> 0L);
+        clock.sync(1).get();
+        assertEquals(10_000, clock.serverNow());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(11_000, clock.serverNow());
+
+        serverMs.set(10_500); // A better sample puts the server half a second behind the last estimate
+        clock.sync(1).get();
+        assertEquals(11_000, clock.serverNow()); // Held, not moved back
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(11_000, clock.serverNow());
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(11_100, clock.serverNow());
+        assertEquals(nanos.get() + TimeUnit.MILLISECONDS.toNanos(900), clock.nanoTimeAt(12_000));
+    }
+
+    @Test
+    public void samplesWithTheShortestRoundTripWin() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        long[] roundTripsMs = {40, 2, 30};
+        int[] call = new int[1];
+        // Every answer comes back at the end of its round trip; the server stamps halfway
+        BattleStore store = new InMemoryBattleStore() {
+            @Override
+            public CompletableFuture<Long> stampServerTime(String clientId) {
+                long roundTripMs = roundTripsMs[call[0]++];
+                long stamp = 50_000 + TimeUnit.NANOSECONDS.toMillis(nanos.get()) + roundTripMs / 2;
+                nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(roundTripMs));
+                return CompletableFuture.completedFuture(stamp);
+            }
+        };
+        ServerClock clock = new ServerClock(store, "client", nanos::get, () -> 0L);
+
+        clock.sync(3).get();
+
+        assertEquals(1, clock.getUncertaintyMs());
+        assertEquals(50_000 + TimeUnit.NANOSECONDS.toMillis(nanos.get()), clock.serverNow());
+    }
+
+    @Test
+    public void failedSyncKeepsTheClock() {
+        BattleStore store = new InMemoryBattleStore() {
+            @Override
+            public CompletableFuture<Long> stampServerTime(String clientId) {
+                CompletableFuture<Long> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("offline"));
+                return failed;
+            }
+        };
+        ServerClock clock = new ServerClock(store, "client", () -> 0L, () -> 123L);
+
+        assertTrue(clock.sync().isCompletedExceptionally());
+        assertFalse(clock.isSynced());
+        assertEquals(123, clock.serverNow());
+    }
+
+    /**
+     * Two players whose device clocks are 2.3 s apart join the same room over connections with
+     * different, asymmetric latency. Counting down on their own clocks from startTime they time
+     * out 2.3 s apart; counting down to the room's deadline on their synced server clocks they
+     * time out within the sync uncertainty of each other, and only one of them writes the end.
+     */
+    @Test
+    public void bothPlayersTimeOutTogetherAndOneFinishes() throws Exception {
+        InMemoryBattleStore server = new InMemoryBattleStore(0, SERVER);
+        LongSupplier fastDevice = () -> System.currentTimeMillis() + 1_500;
+        LongSupplier slowDevice = () -> System.currentTimeMillis() - 800;
+        ServerClock near = new ServerClock(new Link(server, 1_000, 0), "near", System::nanoTime, fastDevice);
+        ServerClock far = new ServerClock(new Link(server, 4_000, 3_000), "far", System::nanoTime, slowDevice);
+        near.sync().get();
+        far.sync().get();
+
+        String roomId = server.add(BattleStore.BATTLE_ROOMS, BattleRoomCodec.encode(
+                BattleRoomCodec.newWaitingRoom("p1", "P1", 1200, 12, "problem_1", SERVER.getAsLong()))).get();
+        new RoomClaimer(server, 1, 1, new Random(1), far::serverNow).claim("p2", "P2", null).get();
+        BattleRoom room = BattleRoomCodec.decode(server.get(BattleStore.BATTLE_ROOMS, roomId).get());
+        assertEquals(room.getStartTimeMs() + BattleRooms.BATTLE_DURATION_MS, room.getDeadlineMs());
+
+        // When each device counts the battle as over, on the shared nanoTime timeline
+        long localSkewNanos = Math.abs(deviceDeadlineNanos(room, fastDevice) - deviceDeadlineNanos(room, slowDevice));
+        long syncedSkewNanos = Math.abs(near.nanoTimeAt(room.getDeadlineMs()) - far.nanoTimeAt(room.getDeadlineMs()));
+        assertTrue(localSkewNanos > TimeUnit.SECONDS.toNanos(2));
+        // Each estimate is off by at most its uncertainty, plus a millisecond of rounding each
+        long boundMs = near.getUncertaintyMs() + far.getUncertaintyMs() + 2;
+        assertTrue("Deadline skew " + syncedSkewNanos / 1_000_000 + " ms, bound " + boundMs + " ms",
+                syncedSkewNanos <= TimeUnit.MILLISECONDS.toNanos(boundMs));
+
+        long attemptsBefore = server.getTransactionAttempts();
+        int written = 0;
+        for (BattleRoom.Seat seat : BattleRoom.Seat.values()) {
+            if (BattleRooms.finishesOnTimeout(seat)
+                    && BattleRooms.finish(server, roomId, room.getDeadlineMs()).get()) written++;
+        }
+        Doc finished = server.get(BattleStore.BATTLE_ROOMS, roomId).get();
+        assertEquals(1, written);
+        assertEquals(1, server.getTransactionAttempts() - attemptsBefore);
+        assertEquals("finished", finished.getString("status"));
+        assertEquals(room.getDeadlineMs(), finished.getDate("endTime").getTime());
+    }
+
+    private static long deviceDeadlineNanos(BattleRoom room, LongSupplier deviceMillis) {
+        long remainingMs = BattleRooms.BATTLE_DURATION_MS - (deviceMillis.getAsLong() - room.getStartTimeMs());
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remainingMs);
+    }
+
+    // One client's connection to the shared server: a round trip, of which extraUpMicros more
+    // are spent on the way there than on the way back
+    private static final class Link extends InMemoryBattleStore {
+        private final InMemoryBattleStore server;
+        private final long roundTripNanos;
+        private final long extraUpNanos;
+
+        Link(InMemoryBattleStore server, long roundTripMicros, long extraUpMicros) {
+            this.server = server;
+            this.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+            this.extraUpNanos = TimeUnit.MICROSECONDS.toNanos(extraUpMicros);
+        }
+
+        @Override
+        public CompletableFuture<Long> stampServerTime(String clientId) {
+            long downNanos = (roundTripNanos - extraUpNanos) / 2;
+            LockSupport.parkNanos(roundTripNanos - downNanos);
+            CompletableFuture<Long> stamped = server.stampServerTime(clientId);
+            LockSupport.parkNanos(downNanos);
+            return stamped;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.chronocode.bot;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.battle.BattleRooms;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs thousands of bot battles at once on one timer thread, played faster than real time. All
+ * must finish within a few times the ideal, at their deadline, for one store write each. Sizes
+ * are overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class BotEngineLoadTest {
+
+    private static final int MATCHES = Integer.getInteger("chronocode.bench.botMatches", 5_000);
+    private static final int TIME_SCALE = Integer.getInteger("chronocode.bench.botTimeScale", 300);
+
+    @Test
+    public void thousandsOfBotBattlesFinishOnTimeForOneWriteEach() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        long realStart = System.currentTimeMillis();
+        // Server time runs TIME_SCALE times faster than this machine's clock
+        BotEngine engine = new BotEngine(store, scheduler,
+                () -> realStart + (System.currentTimeMillis() - realStart) * TIME_SCALE, TIME_SCALE);
+        Random random = new Random(21);
+
+        long started = System.nanoTime();
+        BotMatch[] matches = new BotMatch[MATCHES];
+        for (int i = 0; i < MATCHES; i++) {
+            BattleRoom room = BattleRoomCodec.newBotBattle("p" + i, "P" + i, "bot_player", "ChronoBot",
+                    "problem_" + (i % 50), engine.serverNow());
+            long rating = UserProfile.DEFAULT_RATING + random.nextInt(801) - 400;
+            matches[i] = engine.start("bot_" + i, room, rating, random);
+            matches[i].setFullScore(500);
+            matches[i].submit(BattleRoom.Seat.PLAYER1, random.nextInt(6) * 100, "hash_" + i);
+        }
+        int peak = engine.getActive();
+
+        long idealNanos = TimeUnit.MILLISECONDS.toNanos(BattleRooms.BATTLE_DURATION_MS / TIME_SCALE);
+        long waitUntil = started + idealNanos * 3 + TimeUnit.SECONDS.toNanos(10);
+        while (engine.getActive() > 0 && System.nanoTime() < waitUntil) Thread.sleep(10);
+        scheduler.shutdownNow();
+        assertEquals(0, engine.getActive());
+
+        int botWins = 0;
+        for (BotMatch match : matches) {
+            Doc stored = store.get(BattleStore.BATTLE_ROOMS, match.getRoomId()).get();
+            assertEquals("finished", stored.getString("status"));
+            assertEquals(match.getDeadlineMs(), stored.getDate("endTime").getTime());
+            if (match.getBotScore() > ((Number) stored.get("player1_score")).longValue()) botWins++;
+        }
+        assertEquals(MATCHES, peak);
+        assertEquals(MATCHES, engine.getWrites());
+        assertEquals(0, engine.getFailedWrites());
+        assertTrue(botWins > 0 && botWins < MATCHES);
+    }
+}
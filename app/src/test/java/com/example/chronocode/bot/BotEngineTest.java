@@ -0,0 +1,168 @@
+package com.example.chronocode.bot;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.battle.BattleRooms;
+import com.example.chronocode.profile.PlayerStats;
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.rating.RatingSettler;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.StoreException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BotEngineTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final AtomicLong serverMs = new AtomicLong(1_000_000);
+    private final List<Doc> snapshots = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void strongerBotsSolveMoreAndSooner() {
+        Random random = new Random(3);
+        double[] solved = new double[3];
+        double[] solveFraction = new double[3];
+        long[] ratings = {UserProfile.DEFAULT_RATING - 400, UserProfile.DEFAULT_RATING, UserProfile.DEFAULT_RATING + 400};
+        int runs = 20_000;
+        for (int r = 0; r < ratings.length; r++) {
+            int solves = 0;
+            for (int i = 0; i < runs; i++) {
+                BotTimeline timeline = BotTimeline.generate(ratings[r], BattleRooms.BATTLE_DURATION_MS, random);
+                if (!timeline.solves()) continue;
+                solves++;
+                assertTrue(timeline.getAcceptedAtMs() < BattleRooms.BATTLE_DURATION_MS);
+                solveFraction[r] += (double) timeline.getAcceptedAtMs() / BattleRooms.BATTLE_DURATION_MS;
+            }
+            solved[r] = (double) solves / runs;
+            solveFraction[r] /= solves;
+        }
+        assertEquals(0.5, solved[1], 0.05);
+        assertTrue(solved[0] < 0.15 && solved[2] > 0.8);
+        assertTrue(solveFraction[0] > solveFraction[1] && solveFraction[1] > solveFraction[2]);
+    }
+
+    @Test
+    public void botScoreAppearsOnScheduleAndTheResultIsWrittenOnce() throws Exception {
+        BotEngine engine = new BotEngine(store, scheduler, serverMs::get, 1);
+        BotMatch match = engine.start("room_1", botRoom(), new BotTimeline(20));
+        match.listen(this::record);
+        match.setFullScore(500);
+
+        match.submit(BattleRoom.Seat.PLAYER1, 300, "hash_1").get();
+        serverMs.addAndGet(20);
+        awaitSnapshots(3);
+
+        assertEquals(3, snapshots.size());
+        assertEquals(300L, last().get("player1_score"));
+        assertEquals("hash_1", last().get("player1_submissionHash"));
+        assertEquals(500L, last().get("player2_score"));
+        assertEquals(500, match.getBotScore());
+        assertFalse(store.get(BattleStore.BATTLE_ROOMS, "room_1").get().exists()); // Nothing written yet
+
+        assertTrue(match.finish(serverMs.get()).get());
+        assertFalse(match.finish(serverMs.get()).get());
+        Doc stored = store.get(BattleStore.BATTLE_ROOMS, "room_1").get();
+        assertEquals("finished", stored.getString("status"));
+        assertEquals(500L, stored.get("player2_score"));
+        assertTrue(RatingSettler.isSettled(stored)); // Unrated, nothing left to settle
+        assertEquals("finished", last().getString("status"));
+        assertEquals(1, engine.getWrites());
+        assertNull(engine.get("room_1"));
+        assertEquals(0, scheduler.getQueue().size());
+
+        try {
+            match.submit(BattleRoom.Seat.PLAYER1, 400, "hash_2").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(StoreException.Reason.ABORTED, StoreException.reasonOf(e.getCause()));
+        }
+    }
+
+    @Test
+    public void deadlineFinishesTheBattleWithoutTheClient() throws Exception {
+        // Played at 1000x: the five minute battle is over in about 300 ms
+        BotEngine fast = new BotEngine(store, scheduler, System::currentTimeMillis, 1000);
+        BattleRoom started = BattleRoomCodec.newBotBattle("me", "Me", "bot_player", "ChronoBot", "problem_1",
+                System.currentTimeMillis());
+        BotMatch match = fast.start("room_2", started, new BotTimeline(BotTimeline.NEVER));
+
+        long waitedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!match.isFinished() && System.nanoTime() < waitedUntil) Thread.sleep(5);
+
+        Doc stored = store.get(BattleStore.BATTLE_ROOMS, "room_2").get();
+        assertEquals("finished", stored.getString("status"));
+        assertEquals(started.getDeadlineMs(), stored.getDate("endTime").getTime());
+        assertEquals(0L, stored.get("player2_score"));
+        assertEquals(1, fast.getWrites());
+    }
+
+    @Test
+    public void aSolveBeforeTheEndCountsEvenIfTheEndCameFirst() throws Exception {
+        BotEngine engine = new BotEngine(store, scheduler, serverMs::get, 1);
+        BotMatch match = engine.start("room_3", botRoom(), new BotTimeline(60_000));
+        match.setFullScore(700);
+
+        match.finish(serverMs.get() + 60_000).get(); // The solve task has not run yet
+
+        assertEquals(700L, store.get(BattleStore.BATTLE_ROOMS, "room_3").get().get("player2_score"));
+    }
+
+    @Test
+    public void thePlayersResultIsCountedWithTheRoom() throws Exception {
+        StatCounters stats = new StatCounters(store);
+        BotEngine engine = new BotEngine(store, scheduler, serverMs::get, 1, stats);
+        BotMatch match = engine.start("room_4", botRoom(), new BotTimeline(BotTimeline.NEVER));
+        match.submit(BattleRoom.Seat.PLAYER1, 200, "hash_1").get();
+
+        match.finish(serverMs.get()).get();
+
+        PlayerStats me = stats.get("me").get();
+        assertEquals(1, me.getWins());
+        assertEquals(1, me.getMatchesPlayed());
+        assertEquals(1, engine.getWrites());
+    }
+
+    private BattleRoom botRoom() {
+        return BattleRoomCodec.newBotBattle("me", "Me", "bot_player", "ChronoBot", "problem_1", serverMs.get());
+    }
+
+    private synchronized void record(Doc doc, StoreException error) {
+        snapshots.add(doc);
+        notifyAll();
+    }
+
+    private synchronized Doc last() {
+        return snapshots.get(snapshots.size() - 1);
+    }
+
+    private synchronized void awaitSnapshots(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (snapshots.size() < count && System.currentTimeMillis() < deadline) wait(50);
+    }
+}
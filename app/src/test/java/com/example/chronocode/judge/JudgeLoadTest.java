@@ -0,0 +1,89 @@
+package com.example.chronocode.judge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many battles submitting at once: each battle thread submits repeatedly to a shared judge whose
+ * sandbox burns CPU for every test case. Every submission must be accepted, and none may wait
+ * for its verdict more than {@value #MAX_LATENCY_MS} ms, however the workers are shared out.
+ * Sizes are overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class JudgeLoadTest {
+
+    private static final int BATTLES = Integer.getInteger("chronocode.bench.battles", 64);
+    private static final int SUBMISSIONS_PER_BATTLE = Integer.getInteger("chronocode.bench.submissions", 10);
+    private static final int TESTS_PER_PROBLEM = 10;
+    private static final long TEST_CPU_MICROS = 200;
+    // Over 10x what the whole run takes on one core: only a starved battle gets near it
+    private static final long MAX_LATENCY_MS = 30_000;
+
+    @Test
+    public void everyBattleIsJudgedCorrectlyAndPromptly() throws Exception {
+        int workers = Judge.defaultWorkerCount();
+        List<TestCase> tests = JudgeTest.echoTests(TESTS_PER_PROBLEM);
+        Judge judge = new Judge(JudgeTest.source(tests), new BusySandbox(), Limits.DEFAULT, workers, BATTLES);
+
+        long[] latencies = new long[BATTLES * SUBMISSIONS_PER_BATTLE];
+        ExecutorService battles = Executors.newFixedThreadPool(BATTLES);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> running = new ArrayList<>(BATTLES);
+        for (int b = 0; b < BATTLES; b++) {
+            final int battle = b;
+            running.add(battles.submit(() -> {
+                start.await();
+                for (int s = 0; s < SUBMISSIONS_PER_BATTLE; s++) {
+                    long submitted = System.nanoTime();
+                    Verdict verdict = judge.judge("p", "code").get();
+                    latencies[battle * SUBMISSIONS_PER_BATTLE + s] = System.nanoTime() - submitted;
+                    assertEquals(Verdict.Status.ACCEPTED, verdict.getStatus());
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        battles.shutdown();
+        assertTrue(battles.awaitTermination(2, TimeUnit.MINUTES));
+        judge.shutdown();
+        for (Future<?> battle : running) battle.get(); // Rethrows a battle's failed assertion here
+
+        Arrays.sort(latencies);
+        assertTrue("Submission waited " + latencies[latencies.length - 1] / 1_000_000 + " ms",
+                latencies[latencies.length - 1] < TimeUnit.MILLISECONDS.toNanos(MAX_LATENCY_MS));
+    }
+
+    /** Spins for a fixed CPU time per test and echoes the input. */
+    private static final class BusySandbox implements Sandbox {
+        @Override
+        public Program prepare(String code) {
+            return new Program() {
+                @Override
+                public RunResult run(String input, Limits limits) {
+                    long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(TEST_CPU_MICROS);
+                    while (System.nanoTime() < until) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return new RunResult(RunResult.Status.CANCELLED, null, 0);
+                        }
+                    }
+                    return new RunResult(RunResult.Status.COMPLETED, input, 0);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
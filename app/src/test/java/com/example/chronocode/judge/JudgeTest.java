@@ -0,0 +1,163 @@
+package com.example.chronocode.judge;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JudgeTest {
+
+    @Rule
+    public TemporaryFolder scratch = new TemporaryFolder();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+    private Judge judge;
+
+    @After
+    public void tearDown() {
+        if (judge != null) judge.shutdown();
+        watchdog.shutdownNow();
+    }
+
+    @Test
+    public void acceptsWhenEveryTestMatches() throws Exception {
+        judge = new Judge(source(echoTests(8)), new EchoSandbox(0), Limits.DEFAULT, 4, 16);
+
+        Verdict verdict = judge.judge("p", "echo").get(5, TimeUnit.SECONDS);
+
+        assertEquals(Verdict.Status.ACCEPTED, verdict.getStatus());
+        assertEquals(8, verdict.getPassed());
+        assertEquals(8 * Verdict.POINTS_PER_TEST, verdict.getScore());
+    }
+
+    @Test
+    public void firstFailureStopsRemainingTests() throws Exception {
+        List<TestCase> tests = echoTests(200);
+        tests.set(0, new TestCase("in0", "something else"));
+        EchoSandbox sandbox = new EchoSandbox(5);
+        judge = new Judge(source(tests), sandbox, Limits.DEFAULT, 2, 16);
+
+        Verdict verdict = judge.judge("p", "echo").get(5, TimeUnit.SECONDS);
+
+        assertEquals(Verdict.Status.WRONG_ANSWER, verdict.getStatus());
+        assertEquals(0, verdict.getFailedTest());
+        assertEquals(0, verdict.getScore());
+        assertTrue("ran " + sandbox.runs.get() + " tests", sandbox.runs.get() < 20);
+    }
+
+    @Test
+    public void noTestCases() throws Exception {
+        judge = new Judge(source(Collections.<TestCase>emptyList()), new EchoSandbox(0), Limits.DEFAULT, 1, 1);
+        assertEquals(Verdict.Status.NO_TESTS, judge.judge("p", "").get().getStatus());
+    }
+
+    @Test
+    public void processSandboxRunsAndEnforcesTimeLimit() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").exists());
+        File dir = scratch.newFolder();
+        ProcessSandbox sandbox = new ProcessSandbox(Collections.singletonList("sh"), dir, watchdog);
+        Limits limits = new Limits(500, 256 * 1024, 1024);
+
+        try (Sandbox.Program program = sandbox.prepare("tr a-z A-Z\n")) {
+            RunResult result = program.run("hello\n", limits);
+            assertEquals(RunResult.Status.COMPLETED, result.getStatus());
+            assertEquals("HELLO\n", result.getOutput());
+        }
+        try (Sandbox.Program program = sandbox.prepare("while :; do :; done\n")) {
+            assertEquals(RunResult.Status.TIME_LIMIT_EXCEEDED, program.run("", limits).getStatus());
+        }
+        try (Sandbox.Program program = sandbox.prepare("exit 3\n")) {
+            assertEquals(RunResult.Status.RUNTIME_ERROR, program.run("", limits).getStatus());
+        }
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void endlessOutputIsCutOffAtTheLimitNotTheDeadline() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").exists());
+        File dir = scratch.newFolder();
+        ProcessSandbox sandbox = new ProcessSandbox(Collections.singletonList("sh"), dir, watchdog);
+        Limits limits = new Limits(10_000, 256 * 1024, 1024);
+
+        try (Sandbox.Program program = sandbox.prepare("while :; do echo spam; done\n")) {
+            RunResult result = program.run("", limits);
+            assertEquals(RunResult.Status.OUTPUT_LIMIT_EXCEEDED, result.getStatus());
+            assertTrue(result.getElapsedMs() < limits.getTimeLimitMs());
+        }
+    }
+
+    @Test
+    public void aRuntimeThatCannotStartIsASystemErrorNotTheCodes() throws Exception {
+        Assume.assumeTrue(new File("/bin/sh").exists());
+        File dir = scratch.newFolder();
+        ProcessSandbox missing = new ProcessSandbox(
+                Collections.singletonList(new File(dir, "no-such-runtime").getPath()), dir, watchdog);
+        try (Sandbox.Program program = missing.prepare("print(1)\n")) {
+            assertEquals(RunResult.Status.SYSTEM_ERROR, program.run("", Limits.DEFAULT).getStatus());
+        }
+
+        judge = new Judge(source(echoTests(3)), missing, Limits.DEFAULT, 2, 4);
+        Verdict verdict = judge.judge("p", "print(1)\n").get(5, TimeUnit.SECONDS);
+        assertEquals(Verdict.Status.SYSTEM_ERROR, verdict.getStatus());
+        assertFalse(VerdictCache.isCacheable(verdict));
+    }
+
+    @Test
+    public void outputMatcherIgnoresTrailingWhitespace() {
+        assertTrue(OutputMatcher.matches("1 2\n3\n", "1 2  \r\n3\n\n"));
+        assertFalse(OutputMatcher.matches("1 2\n3", "1  2\n3"));
+    }
+
+    static TestCaseSource source(List<TestCase> tests) {
+        return problemId -> CompletableFuture.completedFuture(tests);
+    }
+
+    static List<TestCase> echoTests(int count) {
+        List<TestCase> tests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) tests.add(new TestCase("in" + i, "in" + i));
+        return tests;
+    }
+
+    /** Outputs its input after sleeping, standing in for a real program. */
+    static final class EchoSandbox implements Sandbox {
+        final AtomicInteger runs = new AtomicInteger();
+        private final long sleepMs;
+
+        EchoSandbox(long sleepMs) {
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public Program prepare(String code) {
+            return new Program() {
+                @Override
+                public RunResult run(String input, Limits limits) {
+                    runs.incrementAndGet();
+                    try {
+                        Thread.sleep(sleepMs);
+                    } catch (InterruptedException e) {
+                        return new RunResult(RunResult.Status.CANCELLED, null, 0);
+                    }
+                    return new RunResult(RunResult.Status.COMPLETED, input, sleepMs);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
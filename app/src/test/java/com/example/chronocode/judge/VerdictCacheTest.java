@@ -0,0 +1,127 @@
+package com.example.chronocode.judge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VerdictCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Verdict ACCEPTED = new Verdict(Verdict.Status.ACCEPTED, 3, 3, -1, 12);
+
+    @Test
+    public void lineEndingOnlyChangesShareAKey() {
+        String code = "def f(x):\n    return x\n";
+        assertEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "def f(x):\r\n    return x\r\n"));
+        assertEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "def f(x):\r    return x\r"));
+        assertNotEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "def f(x):   \n    return x\n"));
+        assertNotEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "def f(x):\n  return x\n"));
+        assertNotEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p2", code));
+
+        String verdict = CodeFingerprint.ofVerdict("p1", 1, Limits.DEFAULT, code);
+        assertEquals(verdict, CodeFingerprint.ofVerdict("p1", 1, Limits.DEFAULT, code.replace("\n", "\r\n")));
+        assertNotEquals(verdict, CodeFingerprint.ofVerdict("p1", 2, Limits.DEFAULT, code)); // New test cases
+        assertNotEquals(verdict, CodeFingerprint.ofVerdict("p1", 1, new Limits(1_000, 256 * 1024, 1 << 20), code));
+    }
+
+    @Test
+    public void whitespaceInsideAStringLiteralChangesTheKey() {
+        String code = "print(\"\"\"a\n\nb\"\"\")\n";
+        assertNotEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "print(\"\"\"a\nb\"\"\")\n"));
+        assertNotEquals(CodeFingerprint.of("p1", code), CodeFingerprint.of("p1", "print(\"\"\"a  \n\nb\"\"\")\n"));
+    }
+
+    @Test
+    public void memoryTierEvictsLeastRecentlyUsed() {
+        VerdictCache cache = new VerdictCache(2);
+        cache.put("a", ACCEPTED);
+        cache.put("b", ACCEPTED);
+        cache.get("a");
+        cache.put("c", ACCEPTED);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void diskTierSurvivesRestartAndStaysBounded() throws Exception {
+        File dir = folder.newFolder();
+        VerdictCache first = new VerdictCache(10, dir, 1024);
+        first.put("k1", ACCEPTED);
+        first.put("k2", new Verdict(Verdict.Status.WRONG_ANSWER, 1, 3, 1, 5));
+        first.put("err", new Verdict(Verdict.Status.SYSTEM_ERROR, 0, 3, -1, 0));
+
+        VerdictCache restarted = new VerdictCache(10, dir, 1024);
+        Verdict k2 = restarted.get("k2");
+        assertEquals(Verdict.Status.WRONG_ANSWER, k2.getStatus());
+        assertEquals(1, k2.getFailedTest());
+        assertNull(restarted.get("err"));
+        assertEquals(1, restarted.getDiskHits());
+
+        File k1 = new File(dir, "k1.verdict");
+        assertTrue(k1.setLastModified(System.currentTimeMillis() - 60_000));
+        VerdictCache small = new VerdictCache(10, dir, new File(dir, "k2.verdict").length());
+        assertArrayEquals(new String[]{"k2.verdict"}, dir.list());
+        assertTrue(small.getEvictions() >= 1);
+    }
+
+    @Test
+    public void resubmissionIsAnsweredWithoutRejudging() throws Exception {
+        JudgeTest.EchoSandbox sandbox = new JudgeTest.EchoSandbox(20);
+        Judge judge = new Judge(JudgeTest.source(JudgeTest.echoTests(4)), sandbox, Limits.DEFAULT, 2, 8);
+        CachingJudge caching = new CachingJudge(judge, new VerdictCache(16), Runnable::run);
+        try {
+            CompletableFuture<Verdict> first = caching.judge("p", 1, "print(1)\n");
+            CompletableFuture<Verdict> duplicate = caching.judge("p", 1, "print(1)\r\n");
+            assertSame(first, duplicate);
+            assertTrue(first.get(5, TimeUnit.SECONDS).isAccepted());
+
+            CompletableFuture<Verdict> later = caching.judge("p", 1, "print(1)\r");
+            assertTrue(later.isDone());
+            assertEquals(4, sandbox.runs.get());
+            assertEquals(1, caching.getCache().getMemoryHits());
+        } finally {
+            judge.shutdown();
+        }
+    }
+
+    @Test
+    public void aTimedOutRunIsJudgedAgain() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        Sandbox slowOnce = code -> new Sandbox.Program() {
+            @Override
+            public RunResult run(String input, Limits limits) {
+                return runs.incrementAndGet() == 1 // Only the first run, as on a loaded device
+                        ? new RunResult(RunResult.Status.TIME_LIMIT_EXCEEDED, null, limits.getTimeLimitMs())
+                        : new RunResult(RunResult.Status.COMPLETED, input, 1);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Judge judge = new Judge(JudgeTest.source(JudgeTest.echoTests(1)), slowOnce, Limits.DEFAULT, 1, 4);
+        CachingJudge caching = new CachingJudge(judge, new VerdictCache(16, folder.newFolder(), 1024), Runnable::run);
+        try {
+            assertEquals(Verdict.Status.TIME_LIMIT_EXCEEDED,
+                    caching.judge("p", 1, "print(1)").get(5, TimeUnit.SECONDS).getStatus());
+            assertTrue(caching.judge("p", 1, "print(1)").get(5, TimeUnit.SECONDS).isAccepted());
+            assertEquals(2, runs.get());
+            assertTrue(caching.judge("p", 1, "print(1)").get(5, TimeUnit.SECONDS).isAccepted()); // Now cached
+            assertEquals(2, runs.get());
+        } finally {
+            judge.shutdown();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.chronocode.matchmaking;
+
+import com.example.chronocode.bot.BotEngine;
+import com.example.chronocode.bot.BotMatch;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.problem.ProblemRepository;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.profile.UserProfileRepository;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.RoundTripTrace;
+import com.example.chronocode.store.TracingBattleStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BattleLauncherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final InMemoryBattleStore backend = new InMemoryBattleStore();
+    private final RoundTripTrace trace = new RoundTripTrace();
+    private final TracingBattleStore store = new TracingBattleStore(backend, trace);
+    private BotEngine bots;
+    private BattleLauncher launcher;
+
+    @Before
+    public void setUp() throws Exception {
+        // Problem reads are not under test; they go to the untraced backend
+        ProblemRepository problems = new ProblemRepository(backend, folder.newFolder(), Runnable::run, 8,
+                TimeUnit.DAYS.toMillis(1));
+        bots = new BotEngine(store, System::currentTimeMillis);
+        launcher = new BattleLauncher(store, new UserProfileRepository(store), problems,
+                new RoomClaimer(store, RoomClaimer.DEFAULT_TOP_K, 1, new Random(1)), RatingWindow.DEFAULT,
+                new Metrics(), bots);
+    }
+
+    @Test
+    public void newPlayerBotBattleWritesOnlyTheProfile() throws Exception {
+        BattleLauncher.Launch launch = launcher.launch("me", "User_me", "problem_1").get();
+
+        assertTrue(launch.isBotMatch());
+        assertEquals(BattleLauncher.BOT_DISPLAY_NAME, launch.getOpponentDisplayName());
+        // The room is played in memory until it is finished
+        assertFalse(backend.get(BattleStore.BATTLE_ROOMS, launch.getRoomId()).get().exists());
+        BotMatch bot = bots.get(launch.getRoomId());
+        Doc[] room = new Doc[1];
+        bot.listen((doc, error) -> room[0] = doc);
+        assertEquals("ongoing", room[0].getString("status"));
+        assertEquals("User_me", room[0].getString("player1_displayName"));
+        assertEquals("problem_1", room[0].getString("problemId"));
+        Doc user = backend.get(BattleStore.USERS, "me").get();
+        assertEquals(Long.valueOf(UserProfile.DEFAULT_RATING), user.getLong("rating"));
+        // Profile listen, waiting-room query, profile write
+        assertEquals(3, trace.getSequentialRoundTrips());
+        assertEquals(3, trace.getRoundTrips());
+
+        assertTrue(bot.finish(bots.serverNow()).get());
+        assertEquals("finished", backend.get(BattleStore.BATTLE_ROOMS, launch.getRoomId()).get().getString("status"));
+        assertEquals(1, bots.getWrites());
+    }
+
+    @Test
+    public void knownPlayerBotBattleWritesNothingUntilItEnds() throws Exception {
+        backend.set(BattleStore.USERS, "known", UserProfile.newDocument("User_known")).get();
+
+        BattleLauncher.Launch launch = launcher.launch("known", "User_known", "problem_1").get();
+
+        assertTrue(launch.isBotMatch());
+        // Profile listen, waiting-room query
+        assertEquals(2, trace.getRoundTrips());
+        assertEquals(1, bots.getActive());
+    }
+
+    @Test
+    public void fewerSequentialRoundTripsThanSeparateProfileAndRoomWrites() throws Exception {
+        // The previous flow: profile get-or-create, then the claim query, then add() for the bot room
+        UserProfileRepository profiles = new UserProfileRepository(store);
+        if (profiles.get("old").get() == null) {
+            store.set(BattleStore.USERS, "old", UserProfile.newDocument("User_old")).get();
+        }
+        new RoomClaimer(store).claim("old", "User_old", null).get();
+        store.add(BattleStore.BATTLE_ROOMS, Collections.<String, Object>singletonMap("status", "ongoing")).get();
+        int separate = trace.getSequentialRoundTrips();
+        trace.reset();
+
+        launcher.launch("new", "User_new", "problem_1").get();
+
+        assertEquals(4, separate);
+        assertEquals(3, trace.getSequentialRoundTrips());
+    }
+
+    @Test
+    public void newPlayerClaimingARoomWritesProfileInTheClaimTransaction() throws Exception {
+        Map<String, Object> waiting = new HashMap<>();
+        waiting.put("status", "waiting");
+        waiting.put("player1_uid", "host");
+        waiting.put("player1_displayName", "Host");
+        waiting.put("createdAt", new Date(0));
+        waiting.put("ratingBucket", (long) RatingWindow.DEFAULT.bucketOf(UserProfile.DEFAULT_RATING));
+        waiting.put("problemId", "problem_2");
+        backend.set(BattleStore.BATTLE_ROOMS, "room1", waiting).get();
+
+        BattleLauncher.Launch launch = launcher.launch("me", "User_me", "problem_1").get();
+
+        assertFalse(launch.isBotMatch());
+        assertEquals("room1", launch.getRoomId());
+        assertEquals("Host", launch.getOpponentDisplayName());
+        assertEquals("problem_2", launch.getProblemId());
+        assertEquals("me", backend.get(BattleStore.BATTLE_ROOMS, "room1").get().getString("player2_uid"));
+        assertEquals("User_me", backend.get(BattleStore.USERS, "me").get().getString("displayName"));
+        // Profile listen, query, transaction read + commit
+        assertEquals(4, trace.getSequentialRoundTrips());
+    }
+
+    @Test
+    public void existingProfileIsNotOverwritten() throws Exception {
+        Map<String, Object> user = new HashMap<>();
+        user.put("displayName", "Veteran");
+        user.put("rating", 1234L);
+        backend.set(BattleStore.USERS, "me", user).get();
+
+        BattleLauncher.Launch launch = launcher.launch("me", "User_me", "problem_1").get();
+
+        assertEquals(Long.valueOf(1234), backend.get(BattleStore.USERS, "me").get().getLong("rating"));
+        assertFalse(trace.describe().contains("set users"));
+        bots.get(launch.getRoomId()).finish(bots.serverNow()).get();
+        assertEquals("Veteran", backend.get(BattleStore.BATTLE_ROOMS, launch.getRoomId()).get()
+                .getString("player1_displayName"));
+    }
+}
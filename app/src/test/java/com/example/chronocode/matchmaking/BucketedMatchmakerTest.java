@@ -0,0 +1,62 @@
+package com.example.chronocode.matchmaking;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BucketedMatchmakerTest {
+
+    private final RatingWindow window = new RatingWindow(100, 1, 1_000L, 3);
+
+    @Test
+    public void pairsPlayersInNeighbouringBuckets() {
+        BucketedMatchmaker matchmaker = new BucketedMatchmaker(window);
+        assertNull(matchmaker.enqueue(new QueuedPlayer("a", "A", 1010, 0), 0));
+        MatchPair pair = matchmaker.enqueue(new QueuedPlayer("b", "B", 1150, 0), 0);
+
+        assertNotNull(pair);
+        assertEquals("a", pair.getFirst().getUid());
+        assertEquals("b", pair.getSecond().getUid());
+        assertEquals(0, matchmaker.size());
+    }
+
+    @Test
+    public void distantPlayersWaitUntilWindowWidens() {
+        BucketedMatchmaker matchmaker = new BucketedMatchmaker(window);
+        assertNull(matchmaker.enqueue(new QueuedPlayer("a", "A", 1000, 0), 0));
+        assertNull(matchmaker.enqueue(new QueuedPlayer("b", "B", 1300, 0), 0));
+
+        assertTrue(matchmaker.pollMatches(1_000).isEmpty());
+        List<MatchPair> pairs = matchmaker.pollMatches(2_000);
+
+        assertEquals(1, pairs.size());
+        assertEquals(2_000, pairs.get(0).getLongestWaitMs());
+        assertEquals(0, matchmaker.size());
+    }
+
+    @Test
+    public void prefersNearestBucketThenLongestWait() {
+        BucketedMatchmaker matchmaker = new BucketedMatchmaker(window);
+        matchmaker.enqueue(new QueuedPlayer("far", "F", 1250, 0), 0);
+        matchmaker.enqueue(new QueuedPlayer("near-new", "N2", 1020, 4_000), 4_000);
+
+        MatchPair pair = matchmaker.enqueue(new QueuedPlayer("c", "C", 1050, 5_000), 5_000);
+
+        assertEquals("near-new", pair.getFirst().getUid());
+        assertEquals(1, matchmaker.size());
+    }
+
+    @Test
+    public void cancelAndReenqueueReplaceTicket() {
+        BucketedMatchmaker matchmaker = new BucketedMatchmaker(window);
+        matchmaker.enqueue(new QueuedPlayer("a", "A", 1000, 0), 0);
+        matchmaker.enqueue(new QueuedPlayer("a", "A", 2000, 10), 10);
+        assertEquals(1, matchmaker.size());
+
+        assertTrue(matchmaker.cancel("a"));
+        assertFalse(matchmaker.cancel("a"));
+        assertNull(matchmaker.enqueue(new QueuedPlayer("b", "B", 1000, 20), 20));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.chronocode.matchmaking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues {@code chronocode.bench.players} players (10k by default) with normally distributed
+ * ratings on a simulated clock. Nearly everyone is matched within their starting window, and
+ * nobody waits past the point where their window stops widening. Run with -PloadTests.
+ */
+public class MatchmakerLoadTest {
+
+    private static final int PLAYERS = Integer.getInteger("chronocode.bench.players", 10_000);
+    private static final long TICK_MS = 250;
+
+    @Test
+    public void tenThousandQueuedPlayersAreMatchedInTime() {
+        Random random = new Random(42);
+        BucketedMatchmaker matchmaker = new BucketedMatchmaker();
+        long[] waits = new long[PLAYERS];
+        int matched = 0;
+        long now = 0;
+
+        // Players arrive over ten seconds of simulated time, then the queue drains.
+        for (int i = 0; i < PLAYERS; i++) {
+            now = i * 10_000L / PLAYERS;
+            long rating = Math.round(1000 + random.nextGaussian() * 250);
+            MatchPair pair = matchmaker.enqueue(new QueuedPlayer("u" + i, null, rating, now), now);
+            if (pair != null) matched = record(pair, waits, matched);
+            if (i % 100 == 0) matched = recordAll(matchmaker.pollMatches(now), waits, matched);
+        }
+        while (matchmaker.size() > 1 && now < 600_000) {
+            now += TICK_MS;
+            matched = recordAll(matchmaker.pollMatches(now), waits, matched);
+        }
+
+        assertTrue("queue did not drain", matchmaker.size() <= 1);
+        assertEquals(PLAYERS - matchmaker.size(), matched);
+
+        Arrays.sort(waits, 0, matched);
+        RatingWindow window = RatingWindow.DEFAULT;
+        assertTrue(percentile(waits, matched, 0.99) < window.nextWidenAt(0, 0));
+        // By then the window is at its widest, and the next poll pairs whoever is left
+        long widest = 0;
+        while (window.nextWidenAt(0, widest) >= 0) widest = window.nextWidenAt(0, widest);
+        assertTrue(waits[matched - 1] <= widest + TICK_MS);
+    }
+
+    private static int recordAll(List<MatchPair> pairs, long[] waits, int matched) {
+        for (MatchPair pair : pairs) matched = record(pair, waits, matched);
+        return matched;
+    }
+
+    private static int record(MatchPair pair, long[] waits, int matched) {
+        waits[matched++] = pair.getMatchedAtMs() - pair.getFirst().getEnqueuedAtMs();
+        waits[matched++] = pair.getMatchedAtMs() - pair.getSecond().getEnqueuedAtMs();
+        return matched;
+    }
+
+    private static long percentile(long[] sorted, int count, double p) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)];
+    }
+}
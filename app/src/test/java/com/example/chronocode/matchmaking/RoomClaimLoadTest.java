@@ -0,0 +1,84 @@
+package com.example.chronocode.matchmaking;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Join race: N searchers claim rooms from a shared waiting pool at the same time. Checks no room
+ * is ever claimed twice, and that once several searchers race, a random pick from the oldest
+ * {@link RoomClaimer#DEFAULT_TOP_K} loses fewer races than always taking the oldest room
+ * (topK = 1, the old behaviour). Every store call sleeps a simulated round trip so claims overlap
+ * the way they do over the network. Run with -PloadTests.
+ */
+public class RoomClaimLoadTest {
+
+    private static final int ROOMS = Integer.getInteger("chronocode.bench.rooms", 1_000);
+    private static final long ROUND_TRIP_MICROS = 200;
+    private static final int[] SEARCHERS = {1, 4, 16, 64};
+
+    @Test
+    public void randomTopKPicksLoseFewerRaces() throws Exception {
+        for (int searchers : SEARCHERS) {
+            double oldest = lostRaces(1, searchers);
+            double topK = lostRaces(RoomClaimer.DEFAULT_TOP_K, searchers);
+            if (searchers > 1) assertTrue(searchers + " searchers: " + topK + " vs " + oldest, topK < oldest);
+        }
+    }
+
+    // The fraction of claim attempts that lost a race
+    private double lostRaces(int topK, int searchers) throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore(ROUND_TRIP_MICROS);
+        for (int i = 0; i < ROOMS; i++) {
+            Map<String, Object> room = new HashMap<>();
+            room.put("player1_uid", "host" + i);
+            room.put("status", "waiting");
+            room.put("createdAt", new Date(i));
+            store.add(BattleStore.BATTLE_ROOMS, room);
+        }
+        RoomClaimer claimer = new RoomClaimer(store, topK, RoomClaimer.DEFAULT_MAX_ROUNDS, new Random(7));
+        Set<String> claimedRooms = ConcurrentHashMap.newKeySet();
+
+        ExecutorService pool = Executors.newFixedThreadPool(searchers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> running = new ArrayList<>(searchers);
+        for (int s = 0; s < searchers; s++) {
+            String uid = "searcher" + s;
+            running.add(pool.submit(() -> {
+                start.await();
+                while (!store.findWaitingRooms(null, 1).get().isEmpty()) {
+                    Doc room = claimer.claim(uid, uid, null).get();
+                    if (room != null) assertTrue("double claim", claimedRooms.add(room.getId()));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+        for (Future<?> searcher : running) searcher.get(); // Rethrows a searcher's failure here
+
+        assertEquals(ROOMS, claimer.getClaims());
+        assertEquals(ROOMS, claimedRooms.size());
+        return (double) claimer.getLostRaces() / claimer.getAttempts();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.chronocode.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousAndCoverEveryValue() {
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            assertEquals(LatencyHistogram.highestValueOf(bucket - 1) + 1, LatencyHistogram.lowestValueOf(bucket));
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (long) (Math.pow(random.nextDouble(), 4) * LatencyHistogram.MAX_MICROS);
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value >= LatencyHistogram.lowestValueOf(bucket));
+            assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(LatencyHistogram.MAX_MICROS));
+    }
+
+    @Test
+    public void percentilesAreWithinTwoPercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) histogram.recordMicros(micros);
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(50_000, histogram.percentileMicros(0.50), 50_000 * 0.02);
+        assertEquals(99_000, histogram.percentileMicros(0.99), 99_000 * 0.02);
+        assertEquals(100_000, histogram.percentileMicros(1.0));
+        assertEquals(100_000, histogram.getMaxMicros());
+        assertEquals(50_000.5, histogram.getMeanMicros(), 0.01);
+    }
+
+    @Test
+    public void drainMovesCountsWithoutLosingAny() {
+        LatencyHistogram live = new LatencyHistogram();
+        live.recordNanos(1_500_000);
+        live.recordMicros(LatencyHistogram.MAX_MICROS * 2); // Clamped
+        LatencyHistogram drained = new LatencyHistogram();
+        live.drainInto(drained);
+
+        assertEquals(0, live.getCount());
+        assertEquals(0, live.getMaxMicros());
+        assertEquals(2, drained.getCount());
+        assertEquals(LatencyHistogram.MAX_MICROS, drained.getMaxMicros());
+        assertEquals(1500, drained.percentileMicros(0.5), 1500 * 0.02);
+    }
+}
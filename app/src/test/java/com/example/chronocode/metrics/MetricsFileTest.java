@@ -0,0 +1,75 @@
+package com.example.chronocode.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class MetricsFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sessionsAppendedToOneFileAccumulate() throws Exception {
+        File file = new File(folder.getRoot(), "metrics/latency-1.0.tsv");
+        Metrics first = new Metrics();
+        for (int i = 1; i <= 90; i++) first.histogram(Metrics.TIME_TO_MATCH).recordMicros(i * 1000);
+        MetricsFile.append(file, first.drain());
+
+        Metrics second = new Metrics();
+        for (int i = 0; i < 10; i++) second.histogram(Metrics.TIME_TO_MATCH).recordMicros(5_000_000);
+        second.histogram("store get users").recordMicros(40_000);
+        MetricsFile.append(file, second.drain());
+
+        Map<String, LatencyHistogram> release = MetricsFile.read(file);
+        LatencyHistogram match = release.get(Metrics.TIME_TO_MATCH);
+        assertEquals(100, match.getCount());
+        assertEquals(50_000, match.percentileMicros(0.5), 50_000 * 0.02);
+        assertEquals(5_000_000, match.percentileMicros(0.99));
+        assertEquals(5_000_000, match.getMaxMicros());
+        assertEquals((90 * 91 / 2 * 1000 + 10 * 5_000_000) / 100.0, match.getMeanMicros(), 0.01);
+        assertEquals(1, release.get("store get users").getCount());
+        assertFalse(new File(file.getParentFile(), file.getName() + ".tmp").exists());
+    }
+
+    @Test
+    public void drainedHistogramsAreNotExportedTwice() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.recordNanos(Metrics.SUBMIT_TO_SCORE_VISIBLE, 2_000_000);
+        assertEquals(1, metrics.drain().size());
+        assertTrue(metrics.drain().isEmpty());
+    }
+
+    @Test
+    public void spansRecordOnceAndTimedFuturesEndOnFailure() {
+        Metrics metrics = new Metrics();
+        Metrics.Span span = metrics.start(Metrics.TIME_TO_PROBLEM_VISIBLE);
+        span.end();
+        span.end();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        metrics.time("loadProblem", () -> failed);
+        failed.completeExceptionally(new IllegalStateException());
+
+        Map<String, LatencyHistogram> snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.get(Metrics.TIME_TO_PROBLEM_VISIBLE).getCount());
+        assertEquals(1, snapshot.get("loadProblem").getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedFileIsRejected() throws Exception {
+        File file = folder.newFile();
+        try (Writer out = new FileWriter(file)) {
+            out.write("time_to_match\t1\t2\n");
+        }
+        MetricsFile.read(file);
+    }
+}
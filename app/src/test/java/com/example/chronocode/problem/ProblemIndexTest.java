@@ -0,0 +1,189 @@
+package com.example.chronocode.problem;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ProblemIndexTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+    private final Random random = new Random(22);
+    private long updatedAt = 1_000;
+
+    @Test
+    public void aliasTableDrawsInProportionToWeight() {
+        double[] weights = {1, 0, 3, 6};
+        AliasTable table = new AliasTable(weights);
+        int[] counts = new int[weights.length];
+        int draws = 200_000;
+        for (int i = 0; i < draws; i++) counts[table.sample(random)]++;
+
+        assertEquals(10, table.total(), 1e-9);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 10, (double) counts[i] / draws, 0.01);
+        }
+    }
+
+    @Test
+    public void picksNearThePlayersRatingAndByWeight() throws Exception {
+        for (int difficulty = 400; difficulty <= 2000; difficulty += 200) {
+            put("p" + difficulty, difficulty, 1);
+        }
+        put("p1000_heavy", 1000, 3);
+        ProblemIndex index = new ProblemIndex(store);
+        assertNull(index.pick(1000, 1000, null, random));
+        index.refresh().get();
+
+        Map<String, Integer> counts = new HashMap<>();
+        int draws = 50_000;
+        for (int i = 0; i < draws; i++) {
+            // A 900 and a 1100 player meet in the middle
+            String id = index.pick(900, 1100, null, random);
+            Integer count = counts.get(id);
+            counts.put(id, count == null ? 1 : count + 1);
+        }
+        int inBand = counts.get("p1000") + counts.get("p1000_heavy");
+        int nextBands = counts.get("p800") + counts.get("p1200");
+        assertTrue(inBand > draws * 0.6);
+        assertTrue(nextBands > 0 && nextBands < inBand);
+        assertNull(counts.get("p2000"));
+        assertEquals(3.0, (double) counts.get("p1000_heavy") / counts.get("p1000"), 0.25);
+        assertEquals(10, index.size());
+    }
+
+    @Test
+    public void tagsHaveTheirOwnPartitions() throws Exception {
+        put("dp_easy", 800, 1, "dp");
+        put("dp_hard", 1800, 1, "dp", "graphs");
+        put("greedy", 1000, 1, "greedy");
+        ProblemIndex index = new ProblemIndex(store);
+        index.refresh().get();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("greedy", index.pick(1800, 1800, "greedy", random));
+            assertEquals("dp_hard", index.pick(1000, 1000, "graphs", random));
+            assertTrue(index.pick(1000, 1000, "dp", random).startsWith("dp_"));
+        }
+        assertNull(index.pick(1000, 1000, "strings", random));
+    }
+
+    @Test
+    public void recentProblemsAreAvoided() throws Exception {
+        for (int i = 0; i < 10; i++) put("p" + i, 1000, 1);
+        ProblemIndex index = new ProblemIndex(store);
+        index.refresh().get();
+        RecentProblems mine = new RecentProblems(5);
+        RecentProblems theirs = new RecentProblems(3);
+        for (int i = 0; i < 5; i++) mine.add("p" + i);
+        for (int i = 5; i < 8; i++) theirs.add("p" + i);
+
+        int fresh = 0;
+        int picks = 2_000;
+        for (int i = 0; i < picks; i++) {
+            String id = index.pick(1000, 1000, null, random, mine, theirs);
+            if (!mine.contains(id) && !theirs.contains(id)) fresh++;
+        }
+        // 2 of the 10 are fresh; a pick gives up on them only after 8 recent draws in a row (17%)
+        assertEquals(1 - Math.pow(0.8, 8), (double) fresh / picks, 0.03);
+
+        RecentProblems ring = new RecentProblems(2);
+        ring.add("a");
+        ring.add("b");
+        ring.add("a");
+        ring.add("c");
+        assertFalse(ring.contains("a"));
+        assertTrue(ring.contains("b") && ring.contains("c"));
+    }
+
+    @Test
+    public void refreshReadsOnlyWhatChanged() throws Exception {
+        for (int i = 0; i < 25; i++) put("p" + i, 1000, 1, "old");
+        AtomicInteger queries = new AtomicInteger();
+        BattleStore counting = new InMemoryBattleStore() {
+            @Override
+            public CompletableFuture<List<Doc>> findProblemsUpdatedAfter(Date after, String afterId, int limit) {
+                queries.incrementAndGet();
+                return store.findProblemsUpdatedAfter(after, afterId, limit);
+            }
+
+            @Override
+            public CompletableFuture<List<Doc>> findProblemsAfterId(String afterId, int limit) {
+                queries.incrementAndGet();
+                return store.findProblemsAfterId(afterId, limit);
+            }
+        };
+        ProblemIndex index = new ProblemIndex(counting, 10);
+
+        assertEquals(25, (int) index.refresh().get());
+        assertEquals(3, queries.get());
+        assertEquals(0, (int) index.refresh().get());
+
+        put("p3", 1000, 1, "new"); // Retagged
+        put("p25", 1000, 1); // Added
+        Map<String, Object> retired = problem(1000, 1);
+        retired.put("retired", true);
+        store.set(BattleStore.PROBLEMS, "p4", retired);
+        queries.set(0);
+        assertEquals(3, (int) index.refresh().get());
+        assertEquals(1, queries.get());
+
+        assertEquals(25, index.size());
+        assertEquals("p3", index.pick(1000, 1000, "new", random));
+        for (int i = 0; i < 500; i++) {
+            String old = index.pick(1000, 1000, "old", random);
+            assertFalse(old.equals("p3") || old.equals("p4"));
+            assertNotEquals("p4", index.pick(1000, 1000, null, random));
+        }
+    }
+
+    @Test
+    public void problemsWithoutUpdatedAtAreLoadedToo() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            Map<String, Object> legacy = new HashMap<>();
+            legacy.put("title", "Problem " + i); // As written before problems had updatedAt
+            store.set(BattleStore.PROBLEMS, "problem_" + i, legacy);
+        }
+        put("p_new", 1000, 1);
+        ProblemIndex index = new ProblemIndex(store, 2);
+
+        assertEquals(6, (int) index.refresh().get());
+        assertEquals(6, index.size());
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 200; i++) picked.add(index.pick(1200, 1200, null, random));
+        assertTrue(picked.containsAll(Arrays.asList("problem_1", "problem_5")));
+
+        put("p_new", 1000, 1, "edited");
+        assertEquals(1, (int) index.refresh().get()); // Only the edit; the legacy ones are not read again
+        assertEquals("p_new", index.pick(1000, 1000, "edited", random));
+    }
+
+    private void put(String id, long difficulty, double weight, String... tags) {
+        Map<String, Object> data = problem(difficulty, weight, tags);
+        store.set(BattleStore.PROBLEMS, id, data);
+    }
+
+    private Map<String, Object> problem(long difficulty, double weight, String... tags) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("title", "Problem");
+        data.put("difficulty", difficulty);
+        data.put("weight", weight);
+        data.put("tags", Arrays.asList(tags));
+        data.put("updatedAt", new Date(updatedAt++));
+        return data;
+    }
+}
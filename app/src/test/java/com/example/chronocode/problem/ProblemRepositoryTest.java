@@ -0,0 +1,130 @@
+package com.example.chronocode.problem;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProblemRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private final Executor direct = Runnable::run;
+    private InMemoryBattleStore store;
+    private File dir;
+    private long updatedAt = 1_000;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new InMemoryBattleStore();
+        dir = folder.newFolder();
+        putProblem("problem_1", "Two Sum", 3);
+    }
+
+    @Test
+    public void prefetchMakesPeekAvailableWithoutFurtherReads() {
+        ProblemRepository repository = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        assertNull(repository.peek("problem_1"));
+
+        repository.prefetch("problem_1");
+
+        Problem problem = repository.peek("problem_1");
+        assertEquals("Two Sum", problem.getTitle());
+        assertEquals(3, problem.getVersion());
+        repository.get("problem_1");
+        assertEquals(1, repository.getRemoteReads());
+    }
+
+    @Test
+    public void diskStoreSurvivesRestart() throws Exception {
+        new ProblemRepository(store, dir, direct, 8, DAY_MS).prefetch("problem_1");
+
+        ProblemRepository restarted = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        assertEquals("Two Sum", restarted.get("problem_1").get().getTitle());
+        assertEquals(0, restarted.getRemoteReads());
+    }
+
+    @Test
+    public void olderVersionsAreInvalidated() throws Exception {
+        ProblemRepository repository = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        repository.prefetch("problem_1");
+        putProblem("problem_1", "Two Sum (revised)", 4);
+
+        repository.invalidateIfOlder("problem_1", 3);
+        assertNotNull(repository.peek("problem_1"));
+        repository.invalidateIfOlder("problem_1", 4);
+        assertNull(repository.peek("problem_1"));
+
+        assertEquals("Two Sum (revised)", repository.get("problem_1").get().getTitle());
+        assertEquals(2, repository.getRemoteReads());
+    }
+
+    @Test
+    public void anIndexRefreshDropsProblemsItReadANewerVersionOf() throws Exception {
+        putProblem("problem_2", "Three Sum", 1);
+        ProblemRepository repository = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        repository.prefetch("problem_1");
+        repository.prefetch("problem_2");
+        ProblemIndex index = new ProblemIndex(store);
+        index.setListener(repository::invalidateIfOlder);
+        index.refresh().get();
+        assertNotNull(repository.peek("problem_1")); // Same versions: nothing dropped
+
+        putProblem("problem_1", "Two Sum (revised)", 4);
+        index.refresh().get();
+        assertNull(repository.peek("problem_1"));
+        assertNotNull(repository.peek("problem_2"));
+        ProblemRepository restarted = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        assertEquals(4, restarted.get("problem_1").get().getVersion()); // Dropped from disk too
+    }
+
+    @Test
+    public void aCorruptDiskEntryIsAMiss() throws Exception {
+        for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+            File file = new File(dir, "problem_1.problem");
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(2); // Current format
+                out.writeLong(3);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(0);
+                out.writeInt(length); // Title length, as a torn write might leave it
+            }
+            ProblemRepository repository = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+
+            assertEquals("Two Sum", repository.get("problem_1").get(5, TimeUnit.SECONDS).getTitle());
+            assertEquals(1, repository.getRemoteReads());
+            file.delete();
+        }
+    }
+
+    @Test
+    public void missingProblemCompletesWithNull() throws Exception {
+        ProblemRepository repository = new ProblemRepository(store, dir, direct, 8, DAY_MS);
+        assertNull(repository.get("nope").get());
+    }
+
+    private void putProblem(String id, String title, long version) {
+        Map<String, Object> problem = new HashMap<>();
+        problem.put("title", title);
+        problem.put("description", "Find two numbers that add up to the target.");
+        problem.put("version", version);
+        problem.put("updatedAt", new Date(updatedAt++));
+        store.set(BattleStore.PROBLEMS, id, problem);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.StoreBatch;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class StatCountersTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+    private final AtomicLong nowMs = new AtomicLong();
+
+    @Test
+    public void battlesSpreadOverShardsAndAddUpOnRead() throws Exception {
+        StatCounters stats = new StatCounters(store, 4, 1_000, nowMs::get);
+        for (int i = 0; i < 60; i++) {
+            StoreBatch batch = store.batch();
+            stats.record(batch, "heavy", i % 3 == 0 ? PlayerStats.Outcome.WIN
+                    : i % 3 == 1 ? PlayerStats.Outcome.LOSS : PlayerStats.Outcome.DRAW);
+            batch.commit().get();
+        }
+
+        PlayerStats total = stats.get("heavy").get();
+        assertEquals(20, total.getWins());
+        assertEquals(20, total.getLosses());
+        assertEquals(60, total.getMatchesPlayed());
+        assertEquals(4, store.count(BattleStore.USER_STATS));
+        assertEquals(4, stats.getShardReads());
+
+        stats.get("heavy").get();
+        assertEquals(4, stats.getShardReads()); // Cached
+        stats.recorded("heavy", PlayerStats.Outcome.WIN);
+        assertEquals(21, stats.get("heavy").get().getWins());
+        nowMs.addAndGet(1_000);
+        assertEquals(20, stats.get("heavy").get().getWins()); // Expired, read back from the shards
+        assertEquals(8, stats.getShardReads());
+    }
+
+    @Test
+    public void concurrentCountsNeverConflict() throws Exception {
+        StatCounters stats = new StatCounters(store, 2, 0, nowMs::get);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        int battles = 2_000;
+        CompletableFuture<?>[] settled = new CompletableFuture<?>[battles];
+        for (int i = 0; i < battles; i++) {
+            // Each transaction also reads and writes its own document, like a rating settlement
+            String roomId = "r" + i;
+            settled[i] = CompletableFuture.supplyAsync(() -> store.runTransaction(transaction -> {
+                transaction.get(BattleStore.BATTLE_ROOMS, roomId);
+                transaction.set(BattleStore.BATTLE_ROOMS, roomId, Collections.<String, Object>singletonMap("done", true));
+                stats.record(transaction, "heavy", PlayerStats.Outcome.WIN);
+                return null;
+            }), pool).thenCompose(f -> f);
+        }
+        CompletableFuture.allOf(settled).get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertEquals(battles, stats.get("heavy").get().getWins());
+        assertEquals(0, store.getTransactionRetries());
+    }
+}
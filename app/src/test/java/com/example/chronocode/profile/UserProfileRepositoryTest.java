@@ -0,0 +1,108 @@
+package com.example.chronocode.profile;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.DocListener;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.Registration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class UserProfileRepositoryTest {
+
+    private InMemoryBattleStore store;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryBattleStore();
+        Map<String, Object> user = new HashMap<>();
+        user.put("displayName", "Ada");
+        user.put("rating", 1200L);
+        store.set(BattleStore.USERS, "u1", user);
+    }
+
+    @Test
+    public void repeatedReadsCostOneRemoteRead() throws Exception {
+        UserProfileRepository profiles = new UserProfileRepository(store);
+
+        for (int i = 0; i < 5; i++) {
+            UserProfile profile = profiles.get("u1").get();
+            assertEquals("Ada", profile.getDisplayName());
+            assertEquals(1200L, profile.getRatingOrDefault());
+        }
+        assertEquals(1, profiles.getRemoteReads());
+        assertEquals(4, profiles.getCacheHits());
+    }
+
+    @Test
+    public void concurrentReadsJoinTheInFlightRead() throws Exception {
+        DeferredStore deferred = new DeferredStore();
+        deferred.set(BattleStore.USERS, "u1", store.get(BattleStore.USERS, "u1").get().getData());
+        UserProfileRepository profiles = new UserProfileRepository(deferred);
+
+        CompletableFuture<UserProfile> first = profiles.get("u1");
+        CompletableFuture<UserProfile> second = profiles.get("u1");
+        assertFalse(first.isDone());
+        deferred.release();
+
+        assertSame(first.get(), second.get());
+        assertEquals(1, profiles.getRemoteReads());
+        assertEquals(1, profiles.getJoinedReads());
+    }
+
+    @Test
+    public void storeChangesRefreshTheCache() throws Exception {
+        UserProfileRepository profiles = new UserProfileRepository(store);
+        profiles.get("u1").get();
+
+        store.update(BattleStore.USERS, "u1", Collections.<String, Object>singletonMap("rating", 1230L));
+
+        assertEquals(Long.valueOf(1230), profiles.peek("u1").getRating());
+        assertEquals(Long.valueOf(1230), profiles.get("u1").get().getRating());
+        assertEquals(1, profiles.getRemoteReads());
+        assertEquals(1, profiles.getListenerUpdates());
+    }
+
+    @Test
+    public void releaseStopsWatching() throws Exception {
+        UserProfileRepository profiles = new UserProfileRepository(store);
+        profiles.get("u1").get();
+        profiles.release("u1");
+
+        assertNull(profiles.peek("u1"));
+        profiles.get("u1").get();
+        assertEquals(2, profiles.getRemoteReads());
+    }
+
+    // Holds back initial snapshots until released, so reads stay in flight.
+    private static final class DeferredStore extends InMemoryBattleStore {
+        private final List<Runnable> held = new ArrayList<>();
+
+        @Override
+        public Registration listen(String collection, String id, DocListener listener) {
+            boolean[] first = {true};
+            return super.listen(collection, id, (doc, error) -> {
+                if (first[0]) {
+                    first[0] = false;
+                    held.add(() -> listener.onEvent(doc, error));
+                } else {
+                    listener.onEvent(doc, error);
+                }
+            });
+        }
+
+        void release() {
+            for (Runnable r : held) r.run();
+            held.clear();
+        }
+    }
+}
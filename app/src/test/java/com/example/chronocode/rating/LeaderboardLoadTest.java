@@ -0,0 +1,151 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A million ranked players, then random rating changes, each committed the way a settlement
+ * commits them: the user's new rating, the histogram move and, once committed, an offer to the
+ * top list. Checks the estimated ranks against the exact ones, ranks read from the shards
+ * against the cached ones, the top list against the best ratings, and that most offers to the
+ * top list cost no write. Sizes are overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class LeaderboardLoadTest {
+
+    private static final int USERS = Integer.getInteger("chronocode.bench.users", 1_000_000);
+    private static final int MOVES = Integer.getInteger("chronocode.bench.moves", 200_000);
+    private static final int QUERIES = Integer.getInteger("chronocode.bench.queries", 100_000);
+    private static final int CLIENTS = Integer.getInteger("chronocode.bench.clients", 8);
+
+    @Test
+    public void ranksAndTopListStayRightAtAMillionPlayers() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        Leaderboard leaderboard = new Leaderboard(store);
+        long[] ratings = new long[USERS];
+        Random random = new Random(24);
+        for (int u = 0; u < USERS; u++) {
+            ratings[u] = Math.max(0, Math.min(3500, Math.round(1200 + 300 * random.nextGaussian())));
+        }
+
+        // Each client owns the users u with u % CLIENTS == client, so ratings[] is not shared
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        runClients(clients, client -> {
+            for (int u = client; u < USERS; u += CLIENTS) rank(store, leaderboard, "u" + u, ratings[u]);
+        });
+        runClients(clients, client -> {
+            Random moves = new Random(client);
+            for (int i = 0; i < MOVES / CLIENTS; i++) {
+                int u = client + CLIENTS * moves.nextInt((USERS - client + CLIENTS - 1) / CLIENTS);
+                ratings[u] = move(store, leaderboard, "u" + u, moves.nextInt(81) - 40);
+            }
+        });
+        clients.shutdown();
+
+        long[] sorted = ratings.clone();
+        Arrays.sort(sorted);
+        Random queries = new Random(7);
+        double worstError = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long rating = sorted[queries.nextInt(USERS)];
+            long rank = leaderboard.rankOf(rating).get();
+            worstError = Math.max(worstError, Math.abs(rank - exactRank(sorted, rating)) / (double) USERS);
+        }
+        Leaderboard uncached = new Leaderboard(store, Leaderboard.DEFAULT_SIZE, Leaderboard.DEFAULT_SHARDS, 0,
+                System::currentTimeMillis);
+        for (int i = 0; i < Math.min(QUERIES, 10_000); i++) {
+            long rating = sorted[queries.nextInt(USERS)];
+            assertEquals(leaderboard.rankOf(rating).get(), uncached.rankOf(rating).get());
+        }
+        long scanned = 0;
+        for (Doc user : store.findTopRatedUsers(USERS).get()) {
+            if (user.getLong("rating", 0) > sorted[USERS / 2]) scanned++;
+        }
+
+        List<LeaderboardEntry> top = leaderboard.getTop().get();
+        long[] topRatings = new long[top.size()];
+        for (int i = 0; i < top.size(); i++) topRatings[i] = top.get(i).getRating();
+        long[] best = new long[Leaderboard.DEFAULT_SIZE];
+        for (int i = 0; i < best.length; i++) best[i] = sorted[USERS - 1 - i];
+
+        assertEquals(USERS, (long) uncached.getRankedPlayers().get());
+        assertEquals(exactRank(sorted, sorted[USERS / 2]) - 1, scanned);
+        assertTrue("worst rank error " + worstError, worstError < 0.005);
+        assertEquals(Arrays.toString(best), Arrays.toString(topRatings));
+        assertEquals(0, leaderboard.getFailedOffers());
+        assertTrue(leaderboard.getTopWrites() * 10 < leaderboard.getOffers());
+    }
+
+    private static void rank(InMemoryBattleStore store, Leaderboard leaderboard, String uid, long rating)
+            throws Exception {
+        store.runTransaction(transaction -> {
+            Map<String, Object> user = new HashMap<>();
+            user.put("rating", rating);
+            user.put(Leaderboard.RANKED_FIELD, true);
+            transaction.set(BattleStore.USERS, uid, user);
+            leaderboard.record(transaction, null, rating);
+            return null;
+        }).get();
+        leaderboard.recorded(null, rating);
+        leaderboard.offer(uid, null, rating);
+    }
+
+    private static long move(InMemoryBattleStore store, Leaderboard leaderboard, String uid, long delta)
+            throws Exception {
+        long[] ratings = new long[2];
+        store.runTransaction(transaction -> {
+            ratings[0] = transaction.get(BattleStore.USERS, uid).getLong("rating", 0);
+            ratings[1] = Math.max(0, ratings[0] + delta);
+            transaction.update(BattleStore.USERS, uid, Collections.<String, Object>singletonMap("rating", ratings[1]));
+            leaderboard.record(transaction, ratings[0], ratings[1]);
+            return null;
+        }).get();
+        leaderboard.recorded(ratings[0], ratings[1]);
+        leaderboard.offer(uid, null, ratings[1]);
+        return ratings[1];
+    }
+
+    /** 1 + the players rated above {@code rating}. */
+    private static long exactRank(long[] sorted, long rating) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) { // First index rated above
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= rating) low = mid + 1;
+            else high = mid;
+        }
+        return 1 + sorted.length - low;
+    }
+
+    private interface Client {
+        void run(int client) throws Exception;
+    }
+
+    private static void runClients(ExecutorService pool, Client body) throws Exception {
+        List<Future<?>> running = new ArrayList<>(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            int client = c;
+            running.add(pool.submit(() -> {
+                body.run(client);
+                return null;
+            }));
+        }
+        for (Future<?> future : running) future.get();
+    }
+}
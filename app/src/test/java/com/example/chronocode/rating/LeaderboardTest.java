@@ -0,0 +1,152 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LeaderboardTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+    private final AtomicLong nowMs = new AtomicLong();
+
+    @Test
+    public void histogramPlacesARatingAmongThePlayers() {
+        RatingHistogram histogram = new RatingHistogram();
+        for (long rating = 0; rating < 2000; rating += 10) histogram.add(rating, 1); // 200 players
+
+        assertEquals(200, histogram.getTotal());
+        assertEquals(0.0, histogram.percentile(0), 1e-9);
+        assertEquals(0.5, histogram.percentile(1000), 1e-9);
+        assertEquals(0.5 + 1.2 / 200, histogram.percentile(1010), 1e-9); // Interpolated in its bucket
+        assertEquals(1.0, histogram.percentile(5000), 1e-9);
+        assertEquals(1, histogram.rankOf(5000));
+        assertEquals(100, histogram.rankOf(1000));
+        assertEquals(200, histogram.rankOf(0));
+
+        RatingHistogram copy = histogram.copy();
+        copy.add(1000, -1);
+        assertEquals(200, histogram.getTotal());
+        assertEquals(199, copy.getTotal());
+        assertEquals(RatingHistogram.BUCKETS - 1, RatingHistogram.bucketOf(RatingHistogram.MAX_RATING + 500));
+    }
+
+    @Test
+    public void recordingMovesPlayersBetweenBucketsWithoutReading() throws Exception {
+        Leaderboard leaderboard = new Leaderboard(store, 10, 4, 1_000, nowMs::get);
+        for (int i = 0; i < 40; i++) {
+            long rating = 900 + 5 * i;
+            store.runTransaction(transaction -> {
+                leaderboard.record(transaction, null, rating);
+                return null;
+            }).get();
+        }
+        assertEquals(4, store.count(BattleStore.LEADERBOARD)); // The histogram shards, nothing else
+        assertEquals(0, store.getTransactionRetries());
+        assertEquals(40, (long) leaderboard.getRankedPlayers().get());
+        assertEquals(0.5, leaderboard.percentile(1000).get(), 1e-9);
+        assertEquals(20, (long) leaderboard.rankOf(1000).get());
+
+        // A move within a bucket writes nothing; across buckets it is applied to the cache too
+        store.runTransaction(transaction -> {
+            leaderboard.record(transaction, 900L, 910L);
+            leaderboard.record(transaction, 905L, 1500L);
+            return null;
+        }).get();
+        leaderboard.recorded(900L, 910L);
+        leaderboard.recorded(905L, 1500L);
+        assertEquals(1, (long) leaderboard.rankOf(1500).get());
+        nowMs.addAndGet(1_000);
+        assertEquals(1, (long) leaderboard.rankOf(1500).get()); // Same once read back from the shards
+        assertEquals(40, (long) leaderboard.getRankedPlayers().get());
+    }
+
+    @Test
+    public void topListKeepsTheBestAndRefillsWhenPlayersDropOff() throws Exception {
+        Leaderboard leaderboard = new Leaderboard(store, 3, 1, 60_000, nowMs::get); // 3 plus 1 spare
+        for (int i = 0; i < 8; i++) rate("u" + i, 1000 + 100 * i, leaderboard);
+        assertEquals("[u7=1700, u6=1600, u5=1500]", leaderboard.getTop().get().toString());
+        long writes = leaderboard.getTopWrites();
+
+        rate("u0", 1050, leaderboard); // Below the cutoff: not even a transaction
+        assertEquals(writes, leaderboard.getTopWrites());
+        rate("u1", 1650, leaderboard);
+        assertEquals("[u7=1700, u1=1650, u6=1600]", leaderboard.getTop().get().toString());
+
+        rate("u7", 900, leaderboard); // Off the list; the spare moves up
+        assertEquals("[u1=1650, u6=1600, u5=1500]", leaderboard.getTop().get().toString());
+        assertEquals(0, leaderboard.getRebuilds());
+
+        rate("u6", 900, leaderboard); // Spare used up: listed again from the users
+        assertEquals(1, leaderboard.getRebuilds());
+        assertEquals("[u1=1650, u5=1500, u4=1400]", leaderboard.getTop().get().toString());
+        nowMs.addAndGet(60_000);
+        assertEquals("[u1=1650, u5=1500, u4=1400]", leaderboard.getTop().get().toString()); // As stored
+        assertEquals(0, leaderboard.getFailedOffers());
+    }
+
+    @Test
+    public void settlementRanksBothPlayersOnce() throws Exception {
+        putUser("a", "Ada", 1200, false);
+        putUser("b", "Bob", 1200, false);
+        store.set(BattleStore.BATTLE_ROOMS, "r1", RatingSettlerTest.room("a", "b", 100, 0, false));
+        store.set(BattleStore.BATTLE_ROOMS, "r2", RatingSettlerTest.room("a", "b", 100, 0, false));
+        Leaderboard leaderboard = new Leaderboard(store, 10, 2, 60_000, nowMs::get);
+        RatingSettler settler = new RatingSettler(store, EloCalculator.DEFAULT, RatingSettler.DEFAULT_MAX_ROUNDS,
+                new StatCounters(store), leaderboard);
+        assertEquals(0, (long) leaderboard.getRankedPlayers().get());
+
+        settler.settle("r1").get();
+        settler.settle("r1").get();
+        settler.settle("r2").get();
+
+        assertEquals(Boolean.TRUE, store.get(BattleStore.USERS, "a").get().getBoolean(Leaderboard.RANKED_FIELD));
+        assertEquals(2, (long) leaderboard.getRankedPlayers().get()); // From the cache kept by the settlements
+        nowMs.addAndGet(60_000);
+        assertEquals(2, (long) leaderboard.getRankedPlayers().get());
+        assertEquals(1, (long) leaderboard.rankOf(rating("a")).get());
+        List<LeaderboardEntry> top = leaderboard.getTop().get();
+        assertEquals("[a=" + rating("a") + ", b=" + rating("b") + "]", top.toString());
+        assertEquals("Ada", top.get(0).getDisplayName());
+    }
+
+    @Test
+    public void placingAnUnchangedPlayerWritesNothing() {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        entries.add(new LeaderboardEntry("a", null, 1500));
+        entries.add(new LeaderboardEntry("b", null, 1500));
+        Leaderboard.Top top = new Leaderboard.Top(entries, 1200L);
+
+        assertSame(top, top.place(new LeaderboardEntry("b", null, 1500), 2));
+        assertSame(top, top.place(new LeaderboardEntry("c", null, 1200), 2)); // Not above the cutoff
+        Leaderboard.Top pushed = top.place(new LeaderboardEntry("c", null, 1600), 2);
+        assertEquals("[c=1600, a=1500]", pushed.entries.toString());
+        assertEquals(1500, (long) pushed.cutoff);
+    }
+
+    private void rate(String uid, long rating, Leaderboard leaderboard) throws Exception {
+        putUser(uid, null, rating, true);
+        leaderboard.offer(uid, null, rating).get();
+    }
+
+    private long rating(String uid) throws Exception {
+        return store.get(BattleStore.USERS, uid).get().getLong("rating", -1);
+    }
+
+    private void putUser(String uid, String displayName, long rating, boolean ranked) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("rating", rating);
+        user.put("displayName", displayName);
+        user.put(Leaderboard.RANKED_FIELD, ranked);
+        store.set(BattleStore.USERS, uid, user);
+    }
+}
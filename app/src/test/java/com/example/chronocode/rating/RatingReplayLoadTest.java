@@ -0,0 +1,51 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Full rating replay over a large battle history. Every room is replayed, every player's rating is
+ * written back in full batches, and since Elo moves points between players rather than making
+ * them, the players still average {@link UserProfile#DEFAULT_RATING} give or take rounding. Sizes
+ * are overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class RatingReplayLoadTest {
+
+    private static final int ROOMS = Integer.getInteger("chronocode.bench.rooms", 300_000);
+    private static final int USERS = Integer.getInteger("chronocode.bench.users", 30_000);
+
+    @Test
+    public void everyRoomIsReplayedAndRatingsAreWrittenBack() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        Map<String, Object> user = Collections.<String, Object>singletonMap("rating", 1000L);
+        for (int u = 0; u < USERS; u++) store.set(BattleStore.USERS, "u" + u, user);
+        Random random = new Random(5);
+        for (int r = 0; r < ROOMS; r++) {
+            int a = random.nextInt(USERS);
+            int b = (a + 1 + random.nextInt(USERS - 1)) % USERS;
+            Map<String, Object> room = RatingSettlerTest.room("u" + a, "u" + b,
+                    random.nextInt(3) * 100, random.nextInt(3) * 100, false);
+            room.put("endTime", new Date(r));
+            store.set(BattleStore.BATTLE_ROOMS, "r" + r, room);
+        }
+
+        RatingReplay.Report report = new RatingReplay(store).run();
+
+        assertEquals(ROOMS, report.getRooms());
+        assertEquals(USERS, report.getPlayers());
+        assertEquals((USERS + BattleStore.MAX_BATCH_WRITES - 1) / BattleStore.MAX_BATCH_WRITES, report.getBatches());
+        long total = 0;
+        for (int u = 0; u < USERS; u++) total += store.get(BattleStore.USERS, "u" + u).get().getLong("rating", 0);
+        assertEquals(UserProfile.DEFAULT_RATING, (double) total / USERS, 1);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RatingReplayTest {
+
+    @Test
+    public void replayMatchesSettlingInEndTimeOrder() throws Exception {
+        InMemoryBattleStore settled = new InMemoryBattleStore();
+        InMemoryBattleStore replayed = new InMemoryBattleStore();
+        int users = 20;
+        for (int u = 0; u < users; u++) {
+            Map<String, Object> user = Collections.<String, Object>singletonMap("rating", 1000L);
+            settled.set(BattleStore.USERS, "u" + u, user);
+            replayed.set(BattleStore.USERS, "u" + u, Collections.<String, Object>singletonMap("rating", 1500L));
+        }
+
+        Random random = new Random(3);
+        RatingSettler settler = new RatingSettler(settled);
+        int rooms = 1_234;
+        for (int r = 0; r < rooms; r++) {
+            int a = random.nextInt(users);
+            int b = (a + 1 + random.nextInt(users - 1)) % users;
+            Map<String, Object> room = RatingSettlerTest.room("u" + a, "u" + b,
+                    random.nextInt(2) * 100, random.nextInt(2) * 100, r % 10 == 0);
+            // Ids deliberately out of endTime order, and some endTimes shared, to exercise the cursor.
+            room.put("endTime", new Date(r / 2));
+            String id = String.format("r%05d", (r * 7919) % 100_000);
+            settled.set(BattleStore.BATTLE_ROOMS, id, room);
+            replayed.set(BattleStore.BATTLE_ROOMS, id, room);
+        }
+        // Settle in the order the replay reads: endTime, then id.
+        String after = null;
+        Date afterEnd = null;
+        while (true) {
+            List<Doc> page = settled.findFinishedRooms(afterEnd, after, 50).get();
+            if (page.isEmpty()) break;
+            for (Doc room : page) settler.settle(room.getId()).get();
+            afterEnd = page.get(page.size() - 1).getDate("endTime");
+            after = page.get(page.size() - 1).getId();
+        }
+
+        RatingReplay.Report report = new RatingReplay(replayed, EloCalculator.DEFAULT, 64, 2).run();
+
+        assertEquals(rooms, report.getRooms());
+        assertEquals(rooms - (rooms + 9) / 10, report.getRatedRooms());
+        assertEquals(users, report.getPlayers());
+        for (int u = 0; u < users; u++) {
+            assertEquals("u" + u, settled.get(BattleStore.USERS, "u" + u).get().getLong("rating"),
+                    replayed.get(BattleStore.USERS, "u" + u).get().getLong("rating"));
+        }
+    }
+
+    @Test
+    public void emptyHistoryWritesNothing() throws Exception {
+        RatingReplay.Report report = new RatingReplay(new InMemoryBattleStore()).run();
+        assertEquals(0, report.getRooms());
+        assertEquals(0, report.getBatches());
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Thousands of finished rooms settled at once, each by both of its players' clients, over a
+ * shared pool of users so rooms contend on the same users documents. Checks that every user's
+ * rating equals the initial rating plus the deltas recorded on the rooms (a double apply would
+ * break that) and that fewer than half the transaction attempts had to retry. Sizes are
+ * overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class RatingSettlementLoadTest {
+
+    private static final int ROOMS = Integer.getInteger("chronocode.bench.rooms", 4_000);
+    private static final int USERS = Integer.getInteger("chronocode.bench.users", 1_000);
+    private static final int CLIENTS = Integer.getInteger("chronocode.bench.clients", 32);
+    private static final long ROUND_TRIP_MICROS = 50;
+    private static final long INITIAL_RATING = 1000;
+
+    @Test
+    public void everyRoomSettlesExactlyOnce() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore(ROUND_TRIP_MICROS);
+        for (int u = 0; u < USERS; u++) {
+            store.set(BattleStore.USERS, "u" + u, Collections.<String, Object>singletonMap("rating", INITIAL_RATING));
+        }
+        Random random = new Random(11);
+        String[][] players = new String[ROOMS][];
+        for (int r = 0; r < ROOMS; r++) {
+            int a = random.nextInt(USERS);
+            int b = (a + 1 + random.nextInt(USERS - 1)) % USERS;
+            players[r] = new String[] {"u" + a, "u" + b};
+            store.set(BattleStore.BATTLE_ROOMS, "r" + r, RatingSettlerTest.room(players[r][0], players[r][1],
+                    random.nextInt(3) * 100, random.nextInt(3) * 100, false));
+        }
+
+        RatingSettler settler = new RatingSettler(store);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<CompletableFuture<Settlement>> settlements = new ArrayList<>(2 * ROOMS);
+        for (int r = 0; r < ROOMS; r++) {
+            String roomId = "r" + r;
+            // Both players call in; the marker has to make one of them a no-op.
+            for (int side = 0; side < 2; side++) {
+                settlements.add(CompletableFuture.supplyAsync(() -> settler.settle(roomId), clients)
+                        .thenCompose(f -> f));
+            }
+        }
+        int failed = 0;
+        for (CompletableFuture<Settlement> settlement : settlements) {
+            try {
+                settlement.get();
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+        clients.shutdown();
+        assertTrue(clients.awaitTermination(1, TimeUnit.MINUTES));
+
+        Map<String, Long> expected = new HashMap<>();
+        for (int r = 0; r < ROOMS; r++) {
+            Doc room = store.get(BattleStore.BATTLE_ROOMS, "r" + r).get();
+            assertTrue(RatingSettler.isSettled(room));
+            add(expected, players[r][0], room.getLong("player1_ratingDelta", 0));
+            add(expected, players[r][1], room.getLong("player2_ratingDelta", 0));
+        }
+        int doubleApplies = 0;
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            long rating = store.get(BattleStore.USERS, entry.getKey()).get().getLong("rating", -1);
+            if (rating != INITIAL_RATING + entry.getValue()) doubleApplies++;
+        }
+
+        double retryRate = (double) store.getTransactionRetries() / store.getTransactionAttempts();
+        assertEquals(0, failed);
+        assertEquals(0, doubleApplies);
+        assertEquals(ROOMS, settler.getApplied());
+        assertEquals(ROOMS, settler.getAlreadySettled());
+        assertTrue("retry rate " + retryRate, retryRate < 0.5);
+    }
+
+    private static void add(Map<String, Long> totals, String uid, long delta) {
+        Long total = totals.get(uid);
+        totals.put(uid, (total != null ? total : 0) + delta);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.chronocode.rating;
+
+import com.example.chronocode.profile.PlayerStats;
+import com.example.chronocode.profile.StatCounters;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RatingSettlerTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+
+    @Test
+    public void eloMovesRatingsByExpectedScore() {
+        EloCalculator elo = new EloCalculator(32, 100);
+        assertEquals(0.5, EloCalculator.expectedScore(1200, 1200), 1e-9);
+        assertEquals(1216, elo.rate(1200, 1200, 1.0));
+        assertEquals(1184, elo.rate(1200, 1200, 0.0));
+        // Beating a much stronger player is worth more than beating a weaker one.
+        assertTrue(elo.rate(1000, 1400, 1.0) - 1000 > elo.rate(1400, 1000, 1.0) - 1400);
+        assertEquals(100, elo.rate(105, 105, 0.0));
+    }
+
+    @Test
+    public void settlesOnceNoMatterHowOftenCalled() throws Exception {
+        putUser("a", 1200);
+        putUser("b", 1200);
+        putRoom("r1", "a", "b", 100, 0, false);
+        RatingSettler settler = new RatingSettler(store);
+
+        Settlement first = settler.settle("r1").get();
+        Settlement second = settler.settle("r1").get();
+
+        assertEquals(Settlement.Status.APPLIED, first.getStatus());
+        assertEquals(16, first.getPlayer1Delta());
+        assertEquals(-16, first.getPlayer2Delta());
+        assertEquals(Settlement.Status.ALREADY_SETTLED, second.getStatus());
+        assertEquals(16, second.getPlayer1Delta());
+        assertEquals(1216, rating("a"));
+        assertEquals(1184, rating("b"));
+        Doc room = store.get(BattleStore.BATTLE_ROOMS, "r1").get();
+        assertTrue(RatingSettler.isSettled(room));
+        assertEquals("finished", room.getString("status"));
+    }
+
+    @Test
+    public void settlementCountsTheBattleOnceOffTheUsersDocuments() throws Exception {
+        putUser("a", 1200);
+        putUser("b", 1200);
+        putRoom("r1", "a", "b", 0, 300, false);
+        putRoom("r2", "a", "b", 200, 200, false);
+        StatCounters stats = new StatCounters(store);
+        RatingSettler settler = new RatingSettler(store, EloCalculator.DEFAULT, RatingSettler.DEFAULT_MAX_ROUNDS, stats);
+        assertEquals(0, stats.get("a").get().getMatchesPlayed());
+
+        settler.settle("r1").get();
+        settler.settle("r1").get();
+        settler.settle("r2").get();
+
+        PlayerStats a = stats.get("a").get(); // Kept current in the cache by the settlements
+        assertEquals(1, stats.getCacheHits());
+        assertEquals(0, a.getWins());
+        assertEquals(1, a.getLosses());
+        assertEquals(2, a.getMatchesPlayed());
+        stats.invalidate("b");
+        PlayerStats b = stats.get("b").get();
+        assertEquals(1, b.getWins());
+        assertEquals(0, b.getLosses());
+        assertEquals(2, b.getMatchesPlayed());
+        assertFalse(store.get(BattleStore.USERS, "a").get().getData().containsKey(PlayerStats.WINS));
+    }
+
+    @Test
+    public void botMatchesAreMarkedButUnrated() throws Exception {
+        putUser("a", 1200);
+        putRoom("r1", "a", "bot_player", 100, 0, true);
+
+        Settlement settlement = new RatingSettler(store).settle("r1").get();
+
+        assertEquals(Settlement.Status.UNRATED, settlement.getStatus());
+        assertEquals(1200, rating("a"));
+        assertTrue(RatingSettler.isSettled(store.get(BattleStore.BATTLE_ROOMS, "r1").get()));
+    }
+
+    @Test
+    public void designatedSettlerIsPlayerOne() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("player1_uid", "a");
+        data.put("player2_uid", "b");
+        Doc room = new Doc("r", data, 1);
+        assertTrue(RatingSettler.isDesignatedSettler(room, "a"));
+        assertFalse(RatingSettler.isDesignatedSettler(room, "b"));
+    }
+
+    private long rating(String uid) throws Exception {
+        return store.get(BattleStore.USERS, uid).get().getLong("rating", -1);
+    }
+
+    private void putUser(String uid, long rating) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("rating", rating);
+        store.set(BattleStore.USERS, uid, user);
+    }
+
+    static Map<String, Object> room(String player1, String player2, long score1, long score2, boolean bot) {
+        Map<String, Object> room = new HashMap<>();
+        room.put("player1_uid", player1);
+        room.put("player2_uid", player2);
+        room.put("player1_score", score1);
+        room.put("player2_score", score2);
+        room.put("status", "finished");
+        room.put("isBotMatch", bot);
+        return room;
+    }
+
+    private void putRoom(String id, String player1, String player2, long score1, long score2, boolean bot) {
+        store.set(BattleStore.BATTLE_ROOMS, id, room(player1, player2, score1, score2, bot));
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.chronocode.simulation;
+
+import com.example.chronocode.rating.RatingSettler;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ten thousand players through matchmaking, battle and settlement at once (see
+ * {@link BattleSimulator}). Checks that every room ended up closed, every human battle was
+ * settled exactly once with the other client's settle a no-op, and that ratings moved points
+ * from the least to the most skilled players without creating any. Sizes are overridable with
+ * -Dchronocode.bench.*; timeScale is simulated milliseconds per real one. Run with -PloadTests.
+ */
+public class BattleSimulationLoadTest {
+
+    private static final int PLAYERS = Integer.getInteger("chronocode.bench.players", 10_000);
+    private static final int CLIENTS = Integer.getInteger("chronocode.bench.clients", 64);
+    private static final int TIME_SCALE = Integer.getInteger("chronocode.bench.timeScale", 100);
+    private static final long ARRIVAL_WINDOW_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long ROUND_TRIP_MICROS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyBattleClosesAndSettlesOnce() throws Exception {
+        BattleSimulator simulator = new BattleSimulator(PLAYERS, ARRIVAL_WINDOW_MS, TIME_SCALE, CLIENTS,
+                ROUND_TRIP_MICROS, folder.newFolder(), 5);
+        BattleSimulator.Report report = simulator.run(TimeUnit.MINUTES.toMillis(2));
+
+        assertEquals(0, report.failures);
+        assertEquals(PLAYERS, 2 * report.humanMatches + report.botMatches);
+        assertEquals(report.humanMatches, report.alreadySettled);
+        assertEquals(0, report.netRatingChange);
+        assertTrue(report.topSkillQuartileChange > 0 && report.bottomSkillQuartileChange < 0);
+
+        InMemoryBattleStore store = simulator.getStore();
+        Map<String, Long> deltas = new HashMap<>();
+        int open = 0;
+        for (String roomId : simulator.getRooms()) {
+            Doc room = store.get(BattleStore.BATTLE_ROOMS, roomId).get();
+            String status = room.getString("status");
+            if ("canceled".equals(status)) continue;
+            if (!"finished".equals(status) || !RatingSettler.isSettled(room)) {
+                open++;
+                continue;
+            }
+            add(deltas, room.getString("player1_uid"), room.getLong("player1_ratingDelta", 0));
+            if (!Boolean.TRUE.equals(room.getBoolean("isBotMatch"))) {
+                add(deltas, room.getString("player2_uid"), room.getLong("player2_ratingDelta", 0));
+            }
+        }
+        int mismatched = 0;
+        for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+            long rating = store.get(BattleStore.USERS, entry.getKey()).get().getLong("rating", -1);
+            if (rating != BattleSimulator.INITIAL_RATING + entry.getValue()) mismatched++;
+        }
+        assertEquals("rooms not finished and settled", 0, open);
+        assertEquals("ratings that do not match their rooms", 0, mismatched);
+        assertEquals(PLAYERS, deltas.size());
+        assertTrue(report.humanMatches > 0);
+    }
+
+    private static void add(Map<String, Long> totals, String uid, long delta) {
+        Long total = totals.get(uid);
+        totals.put(uid, (total != null ? total : 0) + delta);
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.chronocode.simulation;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRooms;
+import com.example.chronocode.bot.BotEngine;
+import com.example.chronocode.bot.BotMatch;
+import com.example.chronocode.matchmaking.BattleLauncher;
+import com.example.chronocode.matchmaking.RatingWindow;
+import com.example.chronocode.matchmaking.RoomClaimer;
+import com.example.chronocode.metrics.Metrics;
+import com.example.chronocode.problem.ProblemRepository;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.profile.UserProfileRepository;
+import com.example.chronocode.rating.RatingSettler;
+import com.example.chronocode.rating.Settlement;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.DocListener;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.Registration;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Plays the whole find battle, join or create, submit, finish and settle flow for thousands of
+ * virtual players at once against an {@link InMemoryBattleStore}, through the same
+ * {@link BattleLauncher}, {@link BattleRooms} and {@link RatingSettler} the app uses.
+ *
+ * <p>Players are continuations on a {@link ForkJoinPool}; nothing blocks but the store's
+ * simulated round trips. Time is compressed: one real millisecond is {@code timeScale} simulated
+ * milliseconds, so a five minute battle takes {@code 300_000 / timeScale} ms of wall time. Each
+ * player arrives at a random point of the arrival window, tries to join a waiting room, else
+ * creates one and waits for an opponent, and if nobody comes cancels it and launches again
+ * (claim or bot). Once matched they submit a few times at random points of the battle, finish
+ * the room after {@link BattleRooms#BATTLE_DURATION_MS} and settle ratings: player 1 right away,
+ * player 2 only as the late fallback. Bot battles are played by a {@link BotEngine} on simulated
+ * time and write nothing but their finished, already settled room.
+ */
+class BattleSimulator {
+
+    static final long INITIAL_RATING = UserProfile.DEFAULT_RATING;
+    static final long WAIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    static final long SETTLE_FALLBACK_MS = TimeUnit.SECONDS.toMillis(10);
+    static final int MAX_SUBMISSIONS = 4;
+    private static final String[] PROBLEM_IDS = {"problem_1", "problem_2", "problem_3", "problem_4", "problem_5"};
+
+    private final int players;
+    private final long arrivalWindowMs;
+    private final double timeScale;
+    private final long seed;
+
+    private final InMemoryBattleStore store;
+    private final BattleLauncher launcher;
+    private final RoomClaimer claimer;
+    private final RatingSettler settler;
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService timer;
+    private final ScheduledThreadPoolExecutor botTimer;
+    private final BotEngine bots;
+
+    private final double[] skills;
+    private final long[] timeToMatch;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private final AtomicLong humanMatches = new AtomicLong();
+    private final AtomicLong botMatches = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final AtomicLong lateCancels = new AtomicLong();
+    private final AtomicLong finishNoOps = new AtomicLong();
+    private final AtomicLong submissions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long startedNanos;
+
+    /**
+     * @param arrivalWindowMs simulated span over which players arrive
+     * @param timeScale simulated milliseconds per real millisecond
+     */
+    BattleSimulator(int players, long arrivalWindowMs, double timeScale, int clients, long roundTripMicros,
+                    File problemDir, long seed) {
+        this.players = players;
+        this.arrivalWindowMs = arrivalWindowMs;
+        this.timeScale = timeScale;
+        this.seed = seed;
+        this.pool = new ForkJoinPool(clients);
+        this.store = new PooledListenerStore(roundTripMicros, pool);
+        this.timer = new ScheduledThreadPoolExecutor(1);
+        this.claimer = new RoomClaimer(store, RoomClaimer.DEFAULT_TOP_K, RoomClaimer.DEFAULT_MAX_ROUNDS,
+                new Random(seed));
+        this.settler = new RatingSettler(store);
+        ProblemRepository problems = new ProblemRepository(store, problemDir, pool, 16, TimeUnit.DAYS.toMillis(1));
+        // One profile cache for everyone; each player only ever reads their own document
+        // Bots play on simulated time; their results are written from their own timer thread
+        this.botTimer = new ScheduledThreadPoolExecutor(1);
+        this.bots = new BotEngine(store, botTimer, this::simNow, timeScale);
+        this.launcher = new BattleLauncher(store, new UserProfileRepository(store), problems, claimer,
+                RatingWindow.DEFAULT, new Metrics(), bots);
+        this.skills = new double[players];
+        this.timeToMatch = new long[players];
+    }
+
+    InMemoryBattleStore getStore() {
+        return store;
+    }
+
+    static String uid(int player) {
+        return "sim" + player;
+    }
+
+    /** Room ids every player ended up in or created, including canceled ones. */
+    Set<String> getRooms() {
+        return rooms;
+    }
+
+    /** Plays every player to the end of their battle and waits for all of them. */
+    Report run(long timeoutMs) throws Exception {
+        Random random = new Random(seed);
+        for (int p = 0; p < players; p++) {
+            skills[p] = random.nextGaussian();
+            store.set(BattleStore.USERS, uid(p), UserProfile.newDocument("Sim " + p)).get();
+        }
+        long[] arrivals = new long[players];
+        for (int p = 0; p < players; p++) arrivals[p] = (long) (random.nextDouble() * arrivalWindowMs);
+
+        List<CompletableFuture<Void>> done = new ArrayList<>(players);
+        startedNanos = System.nanoTime();
+        for (int p = 0; p < players; p++) {
+            int player = p;
+            done.add(after(arrivals[p], () -> play(player, simNow())));
+        }
+        try {
+            CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            timer.shutdownNow();
+            botTimer.shutdownNow();
+            pool.shutdown();
+        }
+        long elapsedNanos = System.nanoTime() - startedNanos;
+        return report(elapsedNanos);
+    }
+
+    private CompletableFuture<Void> play(int player, long arrivedAt) {
+        String uid = uid(player);
+        String name = "Sim " + player;
+        CompletableFuture<Void> result = launcher.join(uid, name).thenComposeAsync(launch -> {
+            if (launch != null) return battle(player, launch.getRoomId(), false, false, arrivedAt);
+            String problemId = PROBLEM_IDS[ThreadLocalRandom.current().nextInt(PROBLEM_IDS.length)];
+            return launcher.createWaitingRoom(uid, name, problemId)
+                    .thenComposeAsync(roomId -> waitForOpponent(player, roomId, arrivedAt), pool);
+        }, pool);
+        return result.whenComplete((v, error) -> {
+            if (error != null) failures.incrementAndGet();
+        });
+    }
+
+    private CompletableFuture<Void> waitForOpponent(int player, String roomId, long arrivedAt) {
+        rooms.add(roomId);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicBoolean decided = new AtomicBoolean();
+        Registration[] registration = new Registration[1];
+        // Listener callbacks run on the committing thread, so the battle moves to the pool
+        Registration listening = store.listen(BattleStore.BATTLE_ROOMS, roomId, (room, error) -> {
+            if (error == null && "ongoing".equals(room.getString("status")) && room.getString("player2_uid") != null
+                    && decided.compareAndSet(false, true)) {
+                pool.execute(() -> {
+                    stopListening(registration);
+                    relay(battle(player, roomId, true, false, arrivedAt), result);
+                });
+            }
+        });
+        synchronized (registration) {
+            registration[0] = listening;
+        }
+        if (decided.get()) stopListening(registration);
+
+        after(WAIT_TIMEOUT_MS, () -> {
+            if (decided.get()) return CompletableFuture.completedFuture(null);
+            return BattleRooms.cancelWaiting(store, roomId).thenComposeAsync(canceled -> {
+                if (!canceled) {
+                    // An opponent got in just before the cancel; the listener takes it from here
+                    lateCancels.incrementAndGet();
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                if (!decided.compareAndSet(false, true)) return CompletableFuture.<Void>completedFuture(null);
+                waitTimeouts.incrementAndGet();
+                stopListening(registration);
+                String problemId = PROBLEM_IDS[ThreadLocalRandom.current().nextInt(PROBLEM_IDS.length)];
+                CompletableFuture<Void> battle = launcher.launch(uid(player), "Sim " + player, problemId)
+                        // A bot room is this player's own; a claimed one makes them player 2
+                        .thenComposeAsync(launch -> battle(player, launch.getRoomId(),
+                                launch.isBotMatch(), launch.isBotMatch(), arrivedAt), pool);
+                relay(battle, result);
+                return CompletableFuture.<Void>completedFuture(null);
+            }, pool);
+        }).whenComplete((v, error) -> {
+            if (error != null) result.completeExceptionally(error);
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> battle(int player, String roomId, boolean player1, boolean botMatch,
+                                           long arrivedAt) {
+        rooms.add(roomId);
+        long matchedAt = simNow();
+        timeToMatch[player] = matchedAt - arrivedAt;
+        if (botMatch) botMatches.incrementAndGet();
+        else if (player1) humanMatches.incrementAndGet(); // Counted once per room, by its creator
+
+        String scoreField = player1 ? "player1_score" : "player2_score";
+        BotMatch bot = botMatch ? bots.get(roomId) : null; // Played in memory, never updated in the store
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int count = 1 + random.nextInt(MAX_SUBMISSIONS);
+        long[] at = new long[count];
+        for (int i = 0; i < count; i++) at[i] = (long) (random.nextDouble() * BattleRooms.BATTLE_DURATION_MS);
+        Arrays.sort(at);
+        AtomicLong best = new AtomicLong();
+        List<CompletableFuture<Void>> submitted = new ArrayList<>(count);
+        for (long delay : at) {
+            submitted.add(after(delay, () -> {
+                submissions.incrementAndGet();
+                long score = best.accumulateAndGet(score(skills[player]), Math::max);
+                if (bot != null) return bot.submit(BattleRoom.Seat.PLAYER1, score, null);
+                return store.update(BattleStore.BATTLE_ROOMS, roomId,
+                        Collections.<String, Object>singletonMap(scoreField, score));
+            }));
+        }
+
+        return CompletableFuture.allOf(submitted.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v -> after(BattleRooms.BATTLE_DURATION_MS - (simNow() - matchedAt),
+                        () -> bot != null ? bot.finish(bot.getDeadlineMs()) : BattleRooms.finish(store, roomId)))
+                .thenComposeAsync(finished -> {
+                    if (!finished) finishNoOps.incrementAndGet(); // The other side got there first
+                    if (bot != null) return CompletableFuture.<Settlement>completedFuture(null); // Stored settled
+                    if (player1) return settler.settle(roomId);
+                    return after(SETTLE_FALLBACK_MS, () -> settler.settle(roomId));
+                }, pool)
+                .thenApply(settlement -> (Void) null);
+    }
+
+    /** Percent of tests passed by one submission of a player with this hidden skill. */
+    private static long score(double skill) {
+        double passed = 0.5 + 0.25 * (skill + ThreadLocalRandom.current().nextGaussian());
+        return Math.round(100 * Math.max(0, Math.min(1, passed)));
+    }
+
+    private void stopListening(Registration[] registration) {
+        Registration listening;
+        synchronized (registration) {
+            listening = registration[0];
+            registration[0] = null;
+        }
+        if (listening != null) listening.remove();
+    }
+
+    private long simNow() {
+        return (long) ((System.nanoTime() - startedNanos) / 1e6 * timeScale);
+    }
+
+    /** Runs {@code step} on the pool after {@code simDelayMs} of simulated time. */
+    private <T> CompletableFuture<T> after(long simDelayMs, Supplier<CompletableFuture<T>> step) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long realMicros = (long) (Math.max(0, simDelayMs) * 1000 / timeScale);
+        timer.schedule(() -> pool.execute(() -> {
+            try {
+                relay(step.get(), result);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }), realMicros, TimeUnit.MICROSECONDS);
+        return result;
+    }
+
+    /**
+     * Hands every listener callback to the pool, one at a time and in order per listener, the way
+     * Firestore hands them to the main thread. Otherwise whatever a callback completes, a profile
+     * future say, runs its continuation on the writer that happened to be delivering.
+     */
+    private static final class PooledListenerStore extends InMemoryBattleStore {
+        private final Executor pool;
+
+        PooledListenerStore(long roundTripMicros, Executor pool) {
+            super(roundTripMicros);
+            this.pool = pool;
+        }
+
+        @Override
+        public Registration listen(String collection, String id, DocListener listener) {
+            Queue<Runnable> pending = new ArrayDeque<>();
+            AtomicBoolean draining = new AtomicBoolean();
+            return super.listen(collection, id, (doc, error) -> {
+                synchronized (pending) {
+                    pending.add(() -> listener.onEvent(doc, error));
+                }
+                drain(pending, draining);
+            });
+        }
+
+        private void drain(Queue<Runnable> pending, AtomicBoolean draining) {
+            if (!draining.compareAndSet(false, true)) return;
+            pool.execute(() -> {
+                Runnable next;
+                while (true) {
+                    synchronized (pending) {
+                        next = pending.poll();
+                        if (next == null) {
+                            draining.set(false);
+                            break;
+                        }
+                    }
+                    next.run();
+                }
+                // An event queued between the empty poll and the reset would otherwise wait
+                synchronized (pending) {
+                    if (pending.isEmpty()) return;
+                }
+                drain(pending, draining);
+            });
+        }
+    }
+
+    private static <T> void relay(CompletableFuture<T> from, CompletableFuture<T> to) {
+        from.whenComplete((value, error) -> {
+            if (error != null) to.completeExceptionally(error);
+            else to.complete(value);
+        });
+    }
+
+    private Report report(long elapsedNanos) throws Exception {
+        long[] sorted = timeToMatch.clone();
+        Arrays.sort(sorted);
+        double ratingSum = 0;
+        double topQuartile = 0;
+        double bottomQuartile = 0;
+        Integer[] bySkill = new Integer[players];
+        for (int p = 0; p < players; p++) bySkill[p] = p;
+        Arrays.sort(bySkill, (a, b) -> Double.compare(skills[a], skills[b]));
+        int quartile = Math.max(1, players / 4);
+        for (int i = 0; i < players; i++) {
+            int p = bySkill[i];
+            Doc user = store.get(BattleStore.USERS, uid(p)).get();
+            long change = user.getLong("rating", INITIAL_RATING) - INITIAL_RATING;
+            ratingSum += change;
+            if (i < quartile) bottomQuartile += change;
+            if (i >= players - quartile) topQuartile += change;
+        }
+        return new Report(players, humanMatches.get(), botMatches.get(), elapsedNanos, timeScale,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                waitTimeouts.get(), lateCancels.get(), finishNoOps.get(), store.getTransactionRetries(),
+                claimer.getLostRaces(), settler.getContentionRounds(), settler.getAlreadySettled(),
+                submissions.get(), failures.get(), (long) ratingSum, ratingSum / players,
+                topQuartile / quartile, bottomQuartile / quartile);
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+    }
+
+    /** What a {@link #run} did. Times are simulated milliseconds. */
+    static final class Report {
+        final int players;
+        final long humanMatches;
+        final long botMatches;
+        final long elapsedNanos;
+        final double timeScale;
+        final long timeToMatchP50;
+        final long timeToMatchP90;
+        final long timeToMatchP99;
+        final long waitTimeouts;
+        final long lateCancels;
+        final long finishNoOps;
+        final long transactionRetries;
+        final long claimLostRaces;
+        final long settleContentionRounds;
+        final long alreadySettled;
+        final long submissions;
+        final long failures;
+        final long netRatingChange;
+        final double meanRatingChange;
+        final double topSkillQuartileChange;
+        final double bottomSkillQuartileChange;
+
+        Report(int players, long humanMatches, long botMatches, long elapsedNanos, double timeScale,
+               long timeToMatchP50, long timeToMatchP90, long timeToMatchP99, long waitTimeouts, long lateCancels,
+               long finishNoOps, long transactionRetries, long claimLostRaces, long settleContentionRounds,
+               long alreadySettled, long submissions, long failures, long netRatingChange, double meanRatingChange,
+               double topSkillQuartileChange, double bottomSkillQuartileChange) {
+            this.players = players;
+            this.humanMatches = humanMatches;
+            this.botMatches = botMatches;
+            this.elapsedNanos = elapsedNanos;
+            this.timeScale = timeScale;
+            this.timeToMatchP50 = timeToMatchP50;
+            this.timeToMatchP90 = timeToMatchP90;
+            this.timeToMatchP99 = timeToMatchP99;
+            this.waitTimeouts = waitTimeouts;
+            this.lateCancels = lateCancels;
+            this.finishNoOps = finishNoOps;
+            this.transactionRetries = transactionRetries;
+            this.claimLostRaces = claimLostRaces;
+            this.settleContentionRounds = settleContentionRounds;
+            this.alreadySettled = alreadySettled;
+            this.submissions = submissions;
+            this.failures = failures;
+            this.netRatingChange = netRatingChange;
+            this.meanRatingChange = meanRatingChange;
+            this.topSkillQuartileChange = topSkillQuartileChange;
+            this.bottomSkillQuartileChange = bottomSkillQuartileChange;
+        }
+
+        /** Matches started per simulated second. */
+        double matchesPerSimSecond() {
+            double simSeconds = elapsedNanos / 1e9 * timeScale;
+            return simSeconds == 0 ? 0 : (humanMatches + botMatches) / simSeconds;
+        }
+
+        /** Matches started per wall-clock second. */
+        double matchesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (humanMatches + botMatches) * 1e9 / elapsedNanos;
+        }
+
+        /** Transaction retries, lost claims, settle restarts and no-op finishes together. */
+        long conflictingWrites() {
+            return transactionRetries + claimLostRaces + settleContentionRounds + finishNoOps;
+        }
+    }
+}
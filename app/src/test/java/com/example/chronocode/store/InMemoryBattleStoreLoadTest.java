@@ -0,0 +1,95 @@
+package com.example.chronocode.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Mixed battle-room traffic against the in-memory store from several threads: room creation,
+ * waiting-room queries, claim transactions and score updates, with a listener on every room.
+ * Every room must end up claimed once or not at all, with the claimer's score on it. Sizes are
+ * overridable with -Dchronocode.bench.*; run with -PloadTests.
+ */
+public class InMemoryBattleStoreLoadTest {
+
+    private static final int THREADS = Integer.getInteger("chronocode.bench.threads", 8);
+    private static final int ROUNDS = Integer.getInteger("chronocode.bench.rounds", 10_000);
+
+    @Test
+    public void mixedTrafficKeepsRoomsConsistent() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        Queue<String> roomIds = new ConcurrentLinkedQueue<>();
+        AtomicLong claims = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String uid = "u" + t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < ROUNDS; i++) {
+                    Map<String, Object> room = new HashMap<>();
+                    room.put("status", "waiting");
+                    room.put("player1_uid", uid);
+                    room.put("createdAt", new Date(System.nanoTime()));
+                    room.put("ratingBucket", (long) ThreadLocalRandom.current().nextInt(4));
+                    String roomId = store.add(BattleStore.BATTLE_ROOMS, room).join();
+                    roomIds.add(roomId);
+                    Registration registration = store.listen(BattleStore.BATTLE_ROOMS, roomId, (doc, error) -> { });
+
+                    List<Doc> waiting = store.findWaitingRooms(
+                            Collections.singletonList(ThreadLocalRandom.current().nextInt(4)), 4).join();
+                    for (Doc candidate : waiting) {
+                        if (uid.equals(candidate.getString("player1_uid"))) continue;
+                        Boolean claimed = store.runTransaction(transaction -> {
+                            Doc current = transaction.get(BattleStore.BATTLE_ROOMS, candidate.getId());
+                            if (!"waiting".equals(current.getString("status"))) return false;
+                            Map<String, Object> updates = new HashMap<>();
+                            updates.put("status", "ongoing");
+                            updates.put("player2_uid", uid);
+                            transaction.update(BattleStore.BATTLE_ROOMS, candidate.getId(), updates);
+                            return true;
+                        }).handle((ok, e) -> ok != null && ok).join();
+                        if (claimed) {
+                            claims.incrementAndGet();
+                            store.update(BattleStore.BATTLE_ROOMS, candidate.getId(),
+                                    Collections.<String, Object>singletonMap("player2_score", 100L)).join();
+                            break;
+                        }
+                    }
+                    registration.remove();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        pool.shutdown();
+
+        assertEquals(THREADS * ROUNDS, store.count(BattleStore.BATTLE_ROOMS));
+        int ongoing = 0;
+        for (String roomId : roomIds) {
+            Doc room = store.get(BattleStore.BATTLE_ROOMS, roomId).get();
+            if (!"ongoing".equals(room.getString("status"))) continue;
+            ongoing++;
+            assertNotEquals(room.getString("player1_uid"), room.getString("player2_uid"));
+            assertEquals(100L, (long) room.getLong("player2_score"));
+        }
+        assertTrue(claims.get() > 0);
+        assertEquals(claims.get(), ongoing); // A room claimed twice would be counted once
+    }
+}
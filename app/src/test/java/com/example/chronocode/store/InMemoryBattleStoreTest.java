@@ -0,0 +1,158 @@
+package com.example.chronocode.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InMemoryBattleStoreTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+
+    private static Map<String, Object> fields(Object... keysAndValues) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) fields.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        return fields;
+    }
+
+    @Test
+    public void listenerGetsCurrentSnapshotThenEveryChangeInOrder() throws Exception {
+        store.set(BattleStore.BATTLE_ROOMS, "r1", fields("player1_score", 0L)).get();
+        List<Long> seen = new ArrayList<>();
+        Registration registration = store.listen(BattleStore.BATTLE_ROOMS, "r1",
+                (doc, error) -> seen.add(doc.getLong("player1_score")));
+
+        store.update(BattleStore.BATTLE_ROOMS, "r1", fields("player1_score", 50L)).get();
+        store.update(BattleStore.BATTLE_ROOMS, "r1", fields("player1_score", 100L)).get();
+        registration.remove();
+        store.update(BattleStore.BATTLE_ROOMS, "r1", fields("player1_score", 150L)).get();
+
+        assertEquals(Arrays.asList(0L, 50L, 100L), seen);
+    }
+
+    @Test
+    public void listenerOnMissingDocumentSeesItCreated() throws Exception {
+        List<Boolean> exists = new ArrayList<>();
+        store.listen(BattleStore.USERS, "u1", (doc, error) -> exists.add(doc.exists()));
+
+        store.set(BattleStore.USERS, "u1", fields("rating", 1000L)).get();
+
+        assertEquals(Arrays.asList(false, true), exists);
+    }
+
+    @Test
+    public void updateOfMissingDocumentFailsWithNotFound() {
+        try {
+            store.update(BattleStore.BATTLE_ROOMS, "nope", fields("status", "finished")).join();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(StoreException.Reason.NOT_FOUND, StoreException.reasonOf(e));
+        }
+        assertFalse(store.get(BattleStore.BATTLE_ROOMS, "nope").join().exists());
+    }
+
+    @Test
+    public void abortedTransactionWritesNothing() {
+        store.set(BattleStore.BATTLE_ROOMS, "r1", fields("status", "waiting")).join();
+        try {
+            store.runTransaction(transaction -> {
+                transaction.get(BattleStore.BATTLE_ROOMS, "r1");
+                transaction.update(BattleStore.BATTLE_ROOMS, "r1", fields("status", "ongoing"));
+                throw new StoreException("taken", StoreException.Reason.ABORTED);
+            }).join();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(StoreException.Reason.ABORTED, StoreException.reasonOf(e));
+        }
+        assertEquals("waiting", store.get(BattleStore.BATTLE_ROOMS, "r1").join().getString("status"));
+    }
+
+    @Test
+    public void transactionReRunsWhenItsReadChangesBeforeCommit() throws Exception {
+        store.set(BattleStore.USERS, "u1", fields("rating", 1000L)).get();
+        int[] runs = {0};
+
+        long rating = store.runTransaction(transaction -> {
+            long current = transaction.get(BattleStore.USERS, "u1").getLong("rating", 0);
+            if (runs[0]++ == 0) store.set(BattleStore.USERS, "u1", fields("rating", 1200L)).join(); // Concurrent writer
+            transaction.update(BattleStore.USERS, "u1", fields("rating", current + 10));
+            return current + 10;
+        }).get();
+
+        assertEquals(2, runs[0]);
+        assertEquals(1210, rating);
+        assertEquals(Long.valueOf(1210), store.get(BattleStore.USERS, "u1").get().getLong("rating"));
+        assertEquals(1, store.getTransactionRetries());
+    }
+
+    @Test
+    public void waitingQueryIsOldestFirstAndFollowsStatusChanges() throws Exception {
+        store.set(BattleStore.BATTLE_ROOMS, "new", fields("status", "waiting", "createdAt", new Date(30), "ratingBucket", 10L)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "old", fields("status", "waiting", "createdAt", new Date(10), "ratingBucket", 11L)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "mid", fields("status", "waiting", "createdAt", new Date(20), "ratingBucket", 10L)).get();
+        store.set(BattleStore.BATTLE_ROOMS, "busy", fields("status", "ongoing", "createdAt", new Date(0), "ratingBucket", 10L)).get();
+
+        assertEquals(Arrays.asList("old", "mid", "new"), ids(store.findWaitingRooms(null, 10).get()));
+        assertEquals(Arrays.asList("mid", "new"), ids(store.findWaitingRooms(Collections.singletonList(10), 10).get()));
+        store.update(BattleStore.BATTLE_ROOMS, "mid", fields("status", "ongoing")).get();
+        assertEquals(Arrays.asList("old", "new"), ids(store.findWaitingRooms(null, 10).get()));
+        assertEquals(Collections.singletonList("old"), ids(store.findWaitingRooms(null, 1).get()));
+    }
+
+    @Test
+    public void concurrentTransactionsLoseNoUpdatesAndListenersSeeThemInOrder() throws Exception {
+        store.set(BattleStore.USERS, "counter", fields("value", 0L)).get();
+        List<Long> seen = Collections.synchronizedList(new ArrayList<Long>());
+        store.listen(BattleStore.USERS, "counter", (doc, error) -> seen.add(doc.getLong("value")));
+        int threads = 8;
+        int incrementsPerThread = 200;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < incrementsPerThread; i++) {
+                    // The store gives up after 5 conflicting attempts; keep going until this one commits
+                    while (true) {
+                        try {
+                            StoreException.await(store.runTransaction(transaction -> {
+                                long value = transaction.get(BattleStore.USERS, "counter").getLong("value", 0);
+                                transaction.update(BattleStore.USERS, "counter", fields("value", value + 1));
+                                return null;
+                            }));
+                            break;
+                        } catch (StoreException e) {
+                            assertEquals(StoreException.Reason.CONTENTION, e.getReason());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        long total = threads * incrementsPerThread;
+        assertEquals(Long.valueOf(total), store.get(BattleStore.USERS, "counter").get().getLong("value"));
+        assertEquals(total + 1, seen.size());
+        for (int i = 0; i < seen.size(); i++) assertEquals(Long.valueOf(i), seen.get(i));
+    }
+
+    private static List<String> ids(List<Doc> docs) {
+        List<String> ids = new ArrayList<>();
+        for (Doc doc : docs) ids.add(doc.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.chronocode.submission;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Players in many rooms submitting every few milliseconds over a link that keeps dropping for a
+ * while. Checks that every seat ends with its last submission, that no submission was written
+ * twice, that writes shared batches, and that the outbox retried through the outages a direct
+ * write would have failed in. Sizes are overridable with -Dchronocode.bench.*; run with
+ * -PloadTests.
+ */
+public class SubmissionOutboxLoadTest {
+
+    private static final int ROOMS = Integer.getInteger("chronocode.bench.rooms", 50);
+    private static final int SUBMISSIONS = Integer.getInteger("chronocode.bench.submissions", 4_000);
+    private static final int CLIENTS = Integer.getInteger("chronocode.bench.clients", 4);
+    private static final long ROUND_TRIP_MICROS = 1_000;
+    private static final long ONLINE_MS = 150;
+    private static final long OFFLINE_MS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void burstsOverAFlakyLinkCoalesceAndAllLand() throws Exception {
+        SubmissionOutboxTest.FlakyStore store = new SubmissionOutboxTest.FlakyStore(ROUND_TRIP_MICROS);
+        for (int r = 0; r < ROOMS; r++) {
+            store.set(BattleStore.BATTLE_ROOMS, "r" + r, Collections.<String, Object>singletonMap("status", "ongoing"));
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        SubmissionOutbox outbox = new SubmissionOutbox(folder.newFile(), store, new SubmissionStore(store), executor,
+                System::currentTimeMillis, 20, 200, 1_000, 60_000);
+
+        // Each client owns the seats s with s % CLIENTS == client, so scores per seat increase
+        int seats = 2 * ROOMS;
+        long[] lastScore = new long[seats];
+        AtomicLong failedDirectly = new AtomicLong();
+        Thread link = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(ONLINE_MS);
+                    store.offline = true;
+                    Thread.sleep(OFFLINE_MS);
+                    store.offline = false;
+                }
+            } catch (InterruptedException e) {
+                store.offline = false;
+            }
+        });
+        link.start();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<?>> running = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            int client = c;
+            running.add(clients.submit(() -> {
+                Random random = new Random(client);
+                for (int i = 0; i < SUBMISSIONS / CLIENTS; i++) {
+                    int seat = client + CLIENTS * random.nextInt((seats - client + CLIENTS - 1) / CLIENTS);
+                    long score = ++lastScore[seat];
+                    if (store.offline) failedDirectly.incrementAndGet();
+                    outbox.submit("r" + seat / 2, BattleRoom.Seat.values()[seat % 2], "print(" + score + ")\n", score);
+                    Thread.sleep(2);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> client : running) client.get();
+        link.interrupt();
+        link.join();
+        outbox.flush();
+        SubmissionOutboxTest.await(() -> outbox.getPending() == 0);
+        outbox.close().get();
+        clients.shutdown();
+        executor.shutdown();
+
+        int wrong = 0;
+        for (int seat = 0; seat < seats; seat++) {
+            Doc room = store.get(BattleStore.BATTLE_ROOMS, "r" + seat / 2).get();
+            BattleRoom.Seat side = BattleRoom.Seat.values()[seat % 2];
+            if (lastScore[seat] > 0 && (room.getLong(BattleRoomCodec.scoreField(side), 0) != lastScore[seat]
+                    || !SubmissionStore.hashOf("print(" + lastScore[seat] + ")\n")
+                    .equals(room.getString(BattleRoomCodec.submissionHashField(side))))) {
+                wrong++;
+            }
+        }
+        int submitted = SUBMISSIONS / CLIENTS * CLIENTS;
+        assertEquals(0, wrong);
+        assertEquals(0, outbox.getDropped());
+        assertTrue(outbox.getWritten() + outbox.getCoalesced() <= submitted);
+        assertTrue(failedDirectly.get() == 0 || outbox.getRetries() > 0);
+        assertTrue(outbox.getFlushes() < outbox.getWritten());
+        assertTrue(outbox.getCoalesced() > 0);
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.chronocode.submission;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.StoreBatch;
+import com.example.chronocode.store.StoreException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class SubmissionOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FlakyStore store = new FlakyStore();
+    private final SubmissionStore submissions = new SubmissionStore(store);
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keepsTheLatestPerSeatAndFlushesThemInOneBatch() throws Exception {
+        putRoom("r1");
+        putRoom("r2");
+        SubmissionOutbox outbox = outbox(folder.newFile(), 60_000);
+        store.offline = true;
+        CompletableFuture<Void> first = outbox.submit("r1", BattleRoom.Seat.PLAYER1, "print(1)\n", 10);
+        await(() -> outbox.getRetries() == 1); // Backing off for a minute
+
+        CompletableFuture<Void> second = outbox.submit("r1", BattleRoom.Seat.PLAYER1, "print(2)\n", 20);
+        outbox.submit("r1", BattleRoom.Seat.PLAYER1, "print(3)\n", 30);
+        outbox.submit("r1", BattleRoom.Seat.PLAYER2, "print(4)\n", 40);
+        outbox.submit("r2", BattleRoom.Seat.PLAYER1, "print(5)\n", 50);
+        await(() -> outbox.getPending() == 3);
+        assertFalse(first.isDone());
+        assertEquals(1, outbox.getRetries()); // The later ones wait for the scheduled retry
+
+        store.offline = false;
+        outbox.flush();
+        first.get(5, TimeUnit.SECONDS); // Superseded, so delivered with the latest
+        second.get(5, TimeUnit.SECONDS);
+
+        Doc room = store.get(BattleStore.BATTLE_ROOMS, "r1").get();
+        assertEquals(30, room.getLong("player1_score", 0));
+        assertEquals(SubmissionStore.hashOf("print(3)\n"), room.getString("player1_submissionHash"));
+        assertEquals(40, room.getLong("player2_score", 0));
+        assertEquals(50, store.get(BattleStore.BATTLE_ROOMS, "r2").get().getLong("player1_score", 0));
+        assertEquals(1, store.commits.get());
+        assertEquals(1, outbox.getFlushes());
+        assertEquals(3, outbox.getWritten());
+        assertEquals(2, outbox.getCoalesced());
+        assertEquals(0, outbox.getPending());
+        assertEquals("print(3)\n", submissions.get(room.getString("player1_submissionHash")).get());
+    }
+
+    @Test
+    public void pendingSubmissionsSurviveARestartAndATornRecord() throws Exception {
+        putRoom("r1");
+        File file = new File(folder.getRoot(), "outbox");
+        store.offline = true;
+        SubmissionOutbox before = outbox(file, 60_000);
+        before.submit("r1", BattleRoom.Seat.PLAYER1, "print(1)\n", 10);
+        before.submit("r1", BattleRoom.Seat.PLAYER2, "print(2)\n", 20);
+        await(() -> before.getPending() == 2);
+        before.close().get();
+        try (FileOutputStream torn = new FileOutputStream(file, true)) {
+            torn.write(new byte[] {0, 0, 0, 40, 1, 2, 3}); // A record cut short by a crash
+        }
+
+        store.offline = false;
+        SubmissionOutbox after = outbox(file, 60_000);
+        await(() -> after.getWritten() == 2);
+        Doc room = store.get(BattleStore.BATTLE_ROOMS, "r1").get();
+        assertEquals(10, room.getLong("player1_score", 0));
+        assertEquals(20, room.getLong("player2_score", 0));
+        after.close().get();
+
+        SubmissionOutbox again = outbox(file, 60_000);
+        again.close().get();
+        assertEquals(0, again.getPending()); // Written once, not again on the next start
+        assertEquals(0, again.getFlushes());
+    }
+
+    @Test
+    public void aMissingRoomIsDroppedWithoutHoldingBackTheOthers() throws Exception {
+        putRoom("r1");
+        putRoom("r3");
+        SubmissionOutbox outbox = outbox(folder.newFile(), 60_000);
+        store.offline = true;
+        CompletableFuture<Void> kept = outbox.submit("r1", BattleRoom.Seat.PLAYER1, "a", 10);
+        CompletableFuture<Void> gone = outbox.submit("r2", BattleRoom.Seat.PLAYER1, "b", 20);
+        CompletableFuture<Void> alsoKept = outbox.submit("r3", BattleRoom.Seat.PLAYER2, "c", 30);
+        await(() -> outbox.getPending() == 3 && outbox.getRetries() > 0);
+
+        store.offline = false;
+        outbox.flush();
+        kept.get(5, TimeUnit.SECONDS);
+        alsoKept.get(5, TimeUnit.SECONDS);
+        try {
+            gone.get(5, TimeUnit.SECONDS);
+            fail("Room r2 does not exist");
+        } catch (ExecutionException e) {
+            assertEquals(StoreException.Reason.NOT_FOUND, StoreException.reasonOf(e));
+        }
+        assertEquals(1, outbox.getDropped());
+        assertEquals(30, store.get(BattleStore.BATTLE_ROOMS, "r3").get().getLong("player2_score", 0));
+    }
+
+    @Test
+    public void retriesBackOffExponentiallyUpToTheCap() throws Exception {
+        putRoom("r1");
+        SubmissionOutbox outbox = new SubmissionOutbox(folder.newFile(), store, submissions, executor,
+                System::currentTimeMillis, 8, 32, 1_000, 60_000);
+        List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+        outbox.setListener((pending, retryInMs, error) -> delays.add(retryInMs));
+        store.offline = true;
+        outbox.submit("r1", BattleRoom.Seat.PLAYER1, "a", 10);
+        await(() -> delays.size() >= 5);
+        store.offline = false;
+        await(() -> outbox.getWritten() == 1);
+
+        long[] caps = {8, 16, 32, 32, 32};
+        for (int i = 0; i < caps.length; i++) {
+            long delay = delays.get(i);
+            assertTrue(i + ": " + delay, delay >= caps[i] / 2 && delay <= caps[i]);
+        }
+    }
+
+    private SubmissionOutbox outbox(File file, long baseDelayMs) {
+        return new SubmissionOutbox(file, store, submissions, executor, System::currentTimeMillis, baseDelayMs,
+                4 * baseDelayMs, 1_000, 60_000);
+    }
+
+    private void putRoom(String id) {
+        store.set(BattleStore.BATTLE_ROOMS, id, Collections.<String, Object>singletonMap("status", "ongoing"));
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /** Fails every batch commit with UNAVAILABLE while {@link #offline}; counts the others. */
+    static final class FlakyStore extends InMemoryBattleStore {
+        volatile boolean offline;
+        final AtomicInteger commits = new AtomicInteger();
+
+        FlakyStore() {
+        }
+
+        FlakyStore(long roundTripMicros) {
+            super(roundTripMicros);
+        }
+
+        @Override
+        public StoreBatch batch() {
+            StoreBatch batch = super.batch();
+            return new StoreBatch() {
+                @Override
+                public void set(String collection, String id, Map<String, Object> data) {
+                    batch.set(collection, id, data);
+                }
+
+                @Override
+                public void update(String collection, String id, Map<String, Object> updates) {
+                    batch.update(collection, id, updates);
+                }
+
+                @Override
+                public void increment(String collection, String id, Map<String, Long> deltas) {
+                    batch.increment(collection, id, deltas);
+                }
+
+                @Override
+                public int size() {
+                    return batch.size();
+                }
+
+                @Override
+                public CompletableFuture<Void> commit() {
+                    if (!offline) return batch.commit().thenRun(commits::incrementAndGet);
+                    CompletableFuture<Void> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new StoreException("Offline", StoreException.Reason.UNAVAILABLE));
+                    return failed;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.chronocode.submission;
+
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+import com.example.chronocode.store.StoreException;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class SubmissionStoreTest {
+
+    private final InMemoryBattleStore store = new InMemoryBattleStore();
+
+    @Test
+    public void roundTripsExactSource() throws Exception {
+        SubmissionStore submissions = new SubmissionStore(store);
+        String code = "def solve(a, b):   \r\n    return a + b  # \u00fcn\u00efcode\n";
+
+        String hash = submissions.put(code).get();
+
+        assertEquals(SubmissionStore.hashOf(code), hash);
+        assertEquals(code, submissions.get(hash).get());
+        assertNull(submissions.get("0000").get());
+    }
+
+    @Test
+    public void sameCodeIsStoredOnce() throws Exception {
+        SubmissionStore submissions = new SubmissionStore(store);
+        String first = submissions.put("print(1)\n").get();
+        String again = submissions.put("print(1)\n").get();
+        String other = submissions.put("print(2)\n").get();
+
+        assertEquals(first, again);
+        assertNotEquals(first, other);
+        assertEquals(2, submissions.getWrites());
+        assertEquals(2, store.count(BattleStore.SUBMISSIONS));
+    }
+
+    @Test
+    public void largeSourceIsCompressedAndRoomFieldStaysConstant() throws Exception {
+        SubmissionStore submissions = new SubmissionStore(store);
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < 2_000; i++) code.append("    total += values[").append(i).append("] * weight\n");
+
+        String hash = submissions.put(code.toString()).get();
+
+        Doc doc = store.get(BattleStore.SUBMISSIONS, hash).get();
+        assertTrue(doc.getBytes("code").length * 4 < code.length());
+        assertEquals(64, hash.length());
+        assertEquals(64, SubmissionStore.hashOf("x").length());
+    }
+
+    @Test
+    public void anExistingDocumentIsLeftAlone() throws Exception {
+        String hash = new SubmissionStore(store).put("print(1)\n").get();
+        Doc before = store.get(BattleStore.SUBMISSIONS, hash).get();
+
+        SubmissionStore other = new SubmissionStore(store); // Another player, same code
+        assertEquals(hash, other.put("print(1)\n").get());
+
+        assertEquals(0, other.getWrites());
+        assertSame(before.get("code"), store.get(BattleStore.SUBMISSIONS, hash).get().get("code"));
+    }
+
+    @Test
+    public void oversizedSourceIsNeitherWrittenNorAllocatedOnRead() throws Exception {
+        char[] huge = new char[SubmissionStore.MAX_CODE_BYTES + 1];
+        Arrays.fill(huge, 'x');
+        String code = new String(huge);
+        assertFalse(SubmissionStore.fits(code));
+        try {
+            new SubmissionStore(store).put(code).get();
+            fail("Stored " + huge.length + " bytes");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        Map<String, Object> claimed = new HashMap<>();
+        claimed.put("encoding", "deflate");
+        claimed.put("size", (long) Integer.MAX_VALUE); // Would be a 2 GB buffer
+        claimed.put("code", SubmissionStore.deflate(new byte[] {1}));
+        store.set(BattleStore.SUBMISSIONS, "huge", claimed);
+        try {
+            new SubmissionStore(store).get("huge").get();
+            fail("Read an oversized submission");
+        } catch (ExecutionException e) {
+            assertEquals(StoreException.Reason.UNAVAILABLE, StoreException.reasonOf(e));
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void corruptDocumentFails() throws Exception {
+        Map<String, Object> bad = new HashMap<>();
+        bad.put("encoding", "deflate");
+        bad.put("size", 10L);
+        bad.put("code", new byte[] {1, 2, 3});
+        store.set(BattleStore.SUBMISSIONS, "bad", bad);
+
+        new SubmissionStore(store).get("bad").get();
+    }
+}
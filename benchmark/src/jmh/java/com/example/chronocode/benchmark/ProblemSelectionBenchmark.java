@@ -0,0 +1,77 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.problem.ProblemIndex;
+import com.example.chronocode.problem.RecentProblems;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking a battle's problem from the problem index, for players of varied ratings who each
+ * have a full recent-problem history, against indexes of very different sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ProblemSelectionBenchmark {
+
+    private static final String[] TAGS = {"dp", "graphs", "greedy", "math", "strings", "trees"};
+
+    @Param({"1000", "50000"})
+    public int problems;
+
+    private ProblemIndex index;
+    private final Random random = new Random(1);
+    private long[] ratings;
+    private RecentProblems recent;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        InMemoryBattleStore store = new InMemoryBattleStore();
+        for (int i = 0; i < problems; i++) {
+            Map<String, Object> problem = new HashMap<>();
+            problem.put("difficulty", 400L + random.nextInt(2400));
+            problem.put("weight", 0.5 + random.nextDouble());
+            problem.put("tags", Arrays.asList(TAGS[i % TAGS.length], TAGS[(i / TAGS.length) % TAGS.length]));
+            problem.put("updatedAt", new Date(i));
+            store.set(BattleStore.PROBLEMS, "problem_" + i, problem);
+        }
+        index = new ProblemIndex(store);
+        index.refresh().get();
+
+        ratings = new long[1024];
+        for (int i = 0; i < ratings.length; i++) ratings[i] = 600 + random.nextInt(1200);
+        recent = new RecentProblems();
+        for (int i = 0; i < RecentProblems.DEFAULT_CAPACITY; i++) {
+            recent.add(index.pick(1200, 1200, null, random));
+        }
+    }
+
+    @Benchmark
+    public String pick() {
+        int i = next++ & (ratings.length - 1);
+        return index.pick(ratings[i], ratings[(i + 1) & (ratings.length - 1)], null, random, recent);
+    }
+
+    @Benchmark
+    public String pickTagged() {
+        int i = next++ & (ratings.length - 1);
+        return index.pick(ratings[i], ratings[i], TAGS[i % TAGS.length], random, recent);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.rating.EloCalculator;
+import com.example.chronocode.rating.RatingHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elo math for one settled match: the expected score and both players' new ratings. Then the
+ * leaderboard side of it over a million ranked players: a player's rank from the histogram, and
+ * applying a committed move to a cached copy of it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RatingBenchmark {
+
+    private final EloCalculator elo = EloCalculator.DEFAULT;
+    private long[] ratings;
+    private double[] results;
+    private RatingHistogram histogram;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ratings = new long[1024];
+        results = new double[ratings.length];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = 600 + random.nextInt(1600);
+            results[i] = random.nextInt(3) / 2.0;
+        }
+        histogram = new RatingHistogram();
+        for (int i = 0; i < 1_000_000; i++) {
+            histogram.add(Math.max(0, Math.round(1200 + 300 * random.nextGaussian())), 1);
+        }
+    }
+
+    @Benchmark
+    public double expectedScore() {
+        int i = next++ & (ratings.length - 1);
+        return EloCalculator.expectedScore(ratings[i], ratings[(i + 1) & (ratings.length - 1)]);
+    }
+
+    @Benchmark
+    public RatingHistogram histogramMove() {
+        int i = next++ & (ratings.length - 1);
+        RatingHistogram moved = histogram.copy();
+        moved.add(ratings[i], -1);
+        moved.add(ratings[(i + 1) & (ratings.length - 1)], 1);
+        return moved;
+    }
+
+    @Benchmark
+    public long histogramRank() {
+        return histogram.rankOf(ratings[next++ & (ratings.length - 1)]);
+    }
+
+    @Benchmark
+    public long rateMatch() {
+        int i = next++ & (ratings.length - 1);
+        long a = ratings[i];
+        long b = ratings[(i + 1) & (ratings.length - 1)];
+        return elo.rate(a, b, results[i]) + elo.rate(b, a, 1 - results[i]);
+    }
+}
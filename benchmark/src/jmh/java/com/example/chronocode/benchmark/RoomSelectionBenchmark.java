@@ -0,0 +1,90 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.matchmaking.BucketedMatchmaker;
+import com.example.chronocode.matchmaking.MatchPair;
+import com.example.chronocode.matchmaking.QueuedPlayer;
+import com.example.chronocode.matchmaking.RatingWindow;
+import com.example.chronocode.store.BattleStore;
+import com.example.chronocode.store.Doc;
+import com.example.chronocode.store.InMemoryBattleStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking an opponent: the in-process matchmaker's enqueue (which matches when it can) and the
+ * store's waiting-room query over a rating window, against a pool of waiting rooms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RoomSelectionBenchmark {
+
+    @Param({"1000", "100000"})
+    public int waiting;
+
+    private final RatingWindow window = RatingWindow.DEFAULT;
+    private BucketedMatchmaker matchmaker;
+    private InMemoryBattleStore store;
+    private long[] ratings;
+    private List<Integer>[] windows;
+    private int next;
+    private final long nowMs = 0;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Random random = new Random(1);
+        ratings = new long[1024];
+        windows = new List[ratings.length];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = 600 + random.nextInt(1200);
+            windows[i] = window.bucketsAround(ratings[i], 0);
+        }
+
+        matchmaker = new BucketedMatchmaker(window);
+        store = new InMemoryBattleStore();
+        for (int i = 0; i < waiting; i++) {
+            long rating = 600 + random.nextInt(1200);
+            matchmaker.enqueue(new QueuedPlayer("w" + i, "W", rating, 0), 0);
+            Map<String, Object> room = new HashMap<>();
+            room.put("status", "waiting");
+            room.put("player1_uid", "w" + i);
+            room.put("createdAt", new Date(i));
+            room.put("ratingBucket", (long) window.bucketOf(rating));
+            store.set(BattleStore.BATTLE_ROOMS, "room" + i, room);
+        }
+    }
+
+    @Benchmark
+    public MatchPair matchmakerEnqueue() {
+        int i = next++ & (ratings.length - 1);
+        MatchPair pair = matchmaker.enqueue(new QueuedPlayer("s" + i, "S", ratings[i], nowMs), nowMs);
+        // Restore the pool, so every call sees the same number of waiting players
+        if (pair == null) {
+            matchmaker.cancel("s" + i);
+        } else {
+            QueuedPlayer other = pair.getFirst().getUid().startsWith("w") ? pair.getFirst() : pair.getSecond();
+            matchmaker.enqueue(other, nowMs);
+        }
+        return pair;
+    }
+
+    @Benchmark
+    public List<Doc> waitingRoomQuery() {
+        return store.findWaitingRooms(windows[next++ & (windows.length - 1)], 8).join();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.judge.OutputMatcher;
+import com.example.chronocode.judge.Verdict;
+import com.example.chronocode.rating.RatingSettler;
+import com.example.chronocode.store.Doc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring a submission: matching one test's output against the expected output, turning the
+ * verdict into battle points, and deciding the winner from the final room.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ScoringBenchmark {
+
+    private String expected;
+    private String actual;
+    private Verdict verdict;
+    private Doc finishedRoom;
+
+    @Setup
+    public void setUp() {
+        StringBuilder expectedOut = new StringBuilder();
+        StringBuilder actualOut = new StringBuilder();
+        for (int line = 0; line < 200; line++) {
+            expectedOut.append(line * 7919 % 100_003).append(' ').append(line).append('\n');
+            // Same output with the whitespace differences the matcher forgives
+            actualOut.append(line * 7919 % 100_003).append(' ').append(line).append(" \r\n");
+        }
+        expected = expectedOut.toString();
+        actual = actualOut.append("\n\n").toString();
+        verdict = new Verdict(Verdict.Status.ACCEPTED, 10, 10, -1, 42);
+
+        Map<String, Object> room = new HashMap<>();
+        room.put("player1_uid", "a");
+        room.put("player2_uid", "b");
+        room.put("player1_score", 700L);
+        room.put("player2_score", 1000L);
+        room.put("status", "finished");
+        finishedRoom = new Doc("room", room, 1);
+    }
+
+    @Benchmark
+    public boolean matchOutput() {
+        return OutputMatcher.matches(expected, actual);
+    }
+
+    @Benchmark
+    public long verdictScore() {
+        return verdict.getScore();
+    }
+
+    @Benchmark
+    public String winner() {
+        return RatingSettler.winnerUid(finishedRoom);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.battle.BattleRoom;
+import com.example.chronocode.battle.BattleRoomCodec;
+import com.example.chronocode.battle.RoomDiffer;
+import com.example.chronocode.profile.UserProfile;
+import com.example.chronocode.store.Doc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning store snapshots into what the screens use: a battle room update through
+ * {@link RoomDiffer} (one in 20 changes a score, the rest touch ignored fields), a whole room
+ * decoded by {@link BattleRoomCodec} into a reused {@link BattleRoom}, just its scores and start
+ * time read the old way (building "player1_score"-style keys and boxing each number), and a user
+ * document into a {@link UserProfile}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SnapshotDecodingBenchmark {
+
+    private Doc[] rooms;
+    private Doc user;
+    private RoomDiffer differ;
+    private final BattleRoom room = new BattleRoom();
+    private String myPlayerKey = "player1";
+    private String opponentPlayerKey = "player2";
+    private int next;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        rooms = new Doc[1024];
+        Date start = new Date(1_000);
+        for (int i = 0; i < rooms.length; i++) {
+            Map<String, Object> room = new HashMap<>();
+            room.put("player1_uid", "me");
+            room.put("player2_uid", "them");
+            room.put("player1_displayName", "Me");
+            room.put("player2_displayName", "Them");
+            room.put("problemId", "problem_1");
+            room.put("startTime", start);
+            room.put("status", "ongoing");
+            room.put("player1_score", (long) (i / 20) * 10);
+            room.put("player2_score", 0L);
+            room.put("player1_submissionHash", Integer.toHexString(i * 31));
+            rooms[i] = new Doc("room", room, i + 1);
+        }
+        differ = new RoomDiffer("me", new RoomDiffer.Handler() {
+            @Override
+            public void onNotInRoom() {
+                blackhole.consume(0);
+            }
+
+            @Override
+            public void onProblemId(String problemId) {
+                blackhole.consume(problemId);
+            }
+
+            @Override
+            public void onStartTime(long startTimeMs) {
+                blackhole.consume(startTimeMs);
+            }
+
+            @Override
+            public void onScores(long myScore, long opponentScore) {
+                blackhole.consume(myScore);
+                blackhole.consume(opponentScore);
+            }
+
+            @Override
+            public void onStatus(String status, String winnerUid) {
+                blackhole.consume(status);
+            }
+        });
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("displayName", "Me");
+        fields.put("rating", 1234L);
+        fields.put("createdAt", start);
+        user = new Doc("me", fields, 1);
+    }
+
+    @Benchmark
+    public void roomUpdate() {
+        differ.apply(rooms[next++ & (rooms.length - 1)]);
+    }
+
+    @Benchmark
+    public long roomDecode() {
+        BattleRoomCodec.decodeInto(rooms[next++ & (rooms.length - 1)], room);
+        return room.getScore(BattleRoom.Seat.PLAYER1) + room.getScore(BattleRoom.Seat.PLAYER2) + room.getStartTimeMs();
+    }
+
+    @Benchmark
+    public long roomKeyedRead() {
+        Doc doc = rooms[next++ & (rooms.length - 1)];
+        Long myScore = doc.getLong(myPlayerKey + "_score");
+        Long opponentScore = doc.getLong(opponentPlayerKey + "_score");
+        Date startTime = doc.getDate("startTime");
+        return (myScore != null ? myScore : 0) + (opponentScore != null ? opponentScore : 0)
+                + (startTime != null ? startTime.getTime() : 0);
+    }
+
+    @Benchmark
+    public UserProfile userProfile() {
+        return UserProfile.fromDoc(user);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.chronocode.benchmark;
+
+import com.example.chronocode.battle.BattleHud;
+import com.example.chronocode.battle.HudText;
+import com.example.chronocode.battle.TimerText;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The battle countdown text, formatted once per timer tick with {@link TimerText}, and the
+ * {@link BattleHud} rendering it and both scores into reused buffers on every frame of a 60 fps
+ * ticker, most of which change nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TimerFormatBenchmark {
+
+    private static final long FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private long millisLeft = TimeUnit.MINUTES.toMillis(5);
+    private BattleHud hud;
+    private long frameNanos;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        HudText.View view = (chars, length) -> blackhole.consume(chars);
+        hud = new BattleHud(new HudText("", Locale.US, view), new HudText("My Score: ", Locale.US, view),
+                new HudText("Them Score: ", Locale.US, view), () -> blackhole.consume(0));
+        hud.startCountdown(0, Long.MAX_VALUE / 2_000_000);
+    }
+
+    @Benchmark
+    public String countdown() {
+        millisLeft = millisLeft > 1000 ? millisLeft - 1000 : TimeUnit.MINUTES.toMillis(5);
+        return TimerText.format(Locale.US, millisLeft);
+    }
+
+    @Benchmark
+    public long hudFrame() {
+        frameNanos += FRAME_NANOS;
+        long frame = frameNanos / FRAME_NANOS;
+        hud.showScores(frame / 120 * 10, frame / 300 * 10);
+        return hud.onFrame(frameNanos);
+    }
+}